@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Collect calls to a single-item method into calls to a bulk method of the same interface, e.g. turn many calls to
+ * {@code GET /widgets/{id}} into a few calls to {@code POST /widgets/batchGet}.
+ * <p>
+ * The annotated method must take exactly one parameter, the key of the item. The bulk method must take a collection of
+ * keys, and return a {@code CompletableFuture} of either a {@code Map} from key to item, or a {@code List} of items
+ * in the same order as the keys. Keys missing from a map complete with null.
+ * <p>
+ * A batch is sent once it has {@link #maxSize()} distinct keys, {@link #maxDelayMillis()} after its first call, or
+ * when the client is flushed (if the interface extends {@link java.io.Flushable}), whichever comes first.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Batched {
+
+    /**
+     * @return The name of the bulk method
+     */
+    String value();
+
+    /**
+     * @return The maximum number of distinct keys in a batch
+     */
+    int maxSize() default 100;
+
+    /**
+     * @return The longest a call waits for its batch to fill up before it's sent
+     */
+    long maxDelayMillis() default 5;
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limit the rate of calls to a method, or to all methods of an interface (which then share the limit).
+ * <p>
+ * Calls over the limit are delayed by up to {@link #maxDelayMillis()} without blocking a thread, and rejected if they
+ * would have to wait longer.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimit {
+
+    /**
+     * @return The sustained rate of calls allowed
+     */
+    double permitsPerSecond();
+
+    /**
+     * @return The number of calls which can be made at once after a quiet period
+     */
+    int burst() default 1;
+
+    /**
+     * @return The longest calls are delayed for before being rejected, zero to reject calls over the limit
+     * immediately
+     */
+    long maxDelayMillis() default 0;
+}
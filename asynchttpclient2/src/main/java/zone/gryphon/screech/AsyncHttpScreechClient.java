@@ -15,33 +15,241 @@
 
 package zone.gryphon.screech;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
 import io.netty.handler.codec.http.HttpHeaders;
 import org.asynchttpclient.AsyncHandler;
 import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.AsyncHttpClientConfig;
 import org.asynchttpclient.BoundRequestBuilder;
 import org.asynchttpclient.DefaultAsyncHttpClientConfig;
 import org.asynchttpclient.HttpResponseBodyPart;
 import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.ListenableFuture;
+import org.asynchttpclient.netty.LazyResponseBodyPart;
 import zone.gryphon.screech.model.HttpParam;
 import zone.gryphon.screech.model.ResponseHeaders;
 import zone.gryphon.screech.model.SerializedRequest;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public class AsyncHttpScreechClient implements Client {
 
+    /**
+     * Passes body parts to the content callback one at a time, as it signals demand, and stops reading from the
+     * connection while it's busy.
+     * <p>
+     * Netty may still decode parts which were already read from the socket after reads are paused, so those are
+     * queued until there's demand for them. Completion is held back until the queue is empty, so that it's never
+     * reported ahead of content.
+     * <p>
+     * Parts are passed on as retained content, so consumers can hold on to netty's buffers rather than copying them.
+     */
+    private static final class ContentFlow {
+
+        private static final class Part {
+
+            private final ByteBuffer content;
+
+            private final Runnable release;
+
+            private Part(ByteBuffer content, Runnable release) {
+                this.content = content;
+                this.release = release;
+            }
+        }
+
+        private final ClientCallback callback;
+
+        // demand() runs on the response executor, whose threads may be virtual, so this is a lock rather than a monitor
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // guarded by lock
+        private final Queue<Part> queue = new ArrayDeque<>();
+
+        // guarded by lock
+        private boolean ready = true;
+
+        // guarded by lock
+        private boolean draining;
+
+        // guarded by lock
+        private boolean paused;
+
+        // guarded by lock
+        private boolean completed;
+
+        private volatile Channel channel;
+
+        private volatile ContentCallback contentCallback;
+
+        private ContentFlow(ClientCallback callback) {
+            this.callback = callback;
+        }
+
+        // runs on the event loop
+        private void content(ByteBuffer content, Runnable release, boolean last) {
+            lock.lock();
+
+            try {
+                queue.add(new Part(content, release));
+            } finally {
+                lock.unlock();
+            }
+
+            drain();
+
+            Channel channel = this.channel;
+
+            // the connection is returned to the pool after the last part, so it has to be left reading
+            if (last || channel == null) {
+                return;
+            }
+
+            lock.lock();
+
+            try {
+                if (paused || (ready && queue.isEmpty())) {
+                    return;
+                }
+
+                paused = true;
+            } finally {
+                lock.unlock();
+            }
+
+            channel.config().setAutoRead(false);
+        }
+
+        private void demand() {
+            lock.lock();
+
+            try {
+                ready = true;
+            } finally {
+                lock.unlock();
+            }
+
+            drain();
+        }
+
+        private void complete() {
+            lock.lock();
+
+            try {
+                completed = true;
+            } finally {
+                lock.unlock();
+            }
+
+            drain();
+        }
+
+        private void abort(Throwable t) {
+            List<Part> discarded;
+
+            lock.lock();
+
+            try {
+                discarded = new ArrayList<>(queue);
+                queue.clear();
+                completed = false;
+                resume();
+            } finally {
+                lock.unlock();
+            }
+
+            discarded.forEach(part -> part.release.run());
+
+            callback.abort(t);
+        }
+
+        private void drain() {
+            lock.lock();
+
+            try {
+                if (draining) {
+                    return;
+                }
+
+                draining = true;
+            } finally {
+                lock.unlock();
+            }
+
+            while (true) {
+                Part next;
+                boolean complete = false;
+
+                lock.lock();
+
+                try {
+                    next = ready ? queue.poll() : null;
+
+                    if (next == null) {
+                        draining = false;
+
+                        if (ready) {
+                            resume();
+                            complete = completed;
+                            completed = false;
+                        }
+                    } else {
+                        ready = false;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (next == null) {
+
+                    if (complete) {
+                        callback.complete();
+                    }
+
+                    return;
+                }
+
+                contentCallback.retainedContent(next.content, next.release, this::demand);
+            }
+        }
+
+        // called with lock held
+        private void resume() {
+
+            if (!paused) {
+                return;
+            }
+
+            paused = false;
+
+            Channel channel = this.channel;
+
+            // on the event loop, so that it's ordered after the read which paused the channel
+            channel.eventLoop().execute(() -> channel.config().setAutoRead(true));
+        }
+    }
+
     private static AsyncHttpClient buildAndConfigureClient() {
         DefaultAsyncHttpClientConfig.Builder builder = new DefaultAsyncHttpClientConfig.Builder()
                 .setConnectTimeout((int) Duration.ofSeconds(15).toMillis())
-                .setFollowRedirect(true);
+                .setFollowRedirect(true)
+                // pass netty's buffers through instead of copying each body part into a byte array
+                .setResponseBodyPartFactory(AsyncHttpClientConfig.ResponseBodyPartFactory.LAZY);
 
         return org.asynchttpclient.Dsl.asyncHttpClient(builder);
     }
@@ -58,11 +266,21 @@ public class AsyncHttpScreechClient implements Client {
 
     @Override
     public void request(SerializedRequest request, ClientCallback callback) {
-        convert(request).execute(new AsyncHandler<Object>() {
+        ContentFlow flow = new ContentFlow(callback);
+
+        ListenableFuture<Object> future = convert(request).execute(new AsyncHandler<Object>() {
 
             private volatile int status = -1;
 
-            private volatile ContentCallback contentCallback;
+            @Override
+            public void onTcpConnectSuccess(InetSocketAddress remoteAddress, Channel connection) {
+                flow.channel = connection;
+            }
+
+            @Override
+            public void onConnectionPooled(Channel connection) {
+                flow.channel = connection;
+            }
 
             @Override
             public State onStatusReceived(HttpResponseStatus responseStatus) {
@@ -81,24 +299,33 @@ public class AsyncHttpScreechClient implements Client {
                         .headers(h)
                         .build();
 
-                contentCallback = callback.headers(responseHeaders);
+                flow.contentCallback = callback.headers(responseHeaders);
                 return State.CONTINUE;
             }
 
             @Override
             public State onBodyPartReceived(HttpResponseBodyPart bodyPart) {
-                contentCallback.content(bodyPart.getBodyByteBuffer());
+                if (bodyPart instanceof LazyResponseBodyPart) {
+                    // netty releases the buffer once this returns, so it's retained until the consumer is done with it
+                    ByteBuf buffer = ((LazyResponseBodyPart) bodyPart).getBuf().retain();
+                    flow.content(buffer.nioBuffer(), buffer::release, bodyPart.isLast());
+                } else {
+                    // a client configured with eager body parts has already copied the content
+                    flow.content(bodyPart.getBodyByteBuffer(), () -> {
+                    }, bodyPart.isLast());
+                }
+
                 return State.CONTINUE;
             }
 
             @Override
             public void onThrowable(Throwable t) {
-                callback.abort(t);
+                flow.abort(t);
             }
 
             @Override
             public Object onCompleted() {
-                callback.complete();
+                flow.complete();
                 return null;
             }
 
@@ -110,6 +337,9 @@ public class AsyncHttpScreechClient implements Client {
                 return StreamSupport.stream(((Iterable<T>) (() -> iterator)).spliterator(), false);
             }
         });
+
+        // closes the connection, and reports a CancellationException to onThrowable
+        callback.onCancel(() -> future.cancel(true));
     }
 
     private BoundRequestBuilder convert(SerializedRequest request) {
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.benchmark.tests;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of invoking client methods through {@link java.lang.reflect.Proxy} against a generated
+ * implementation.
+ */
+@Measurement(iterations = 10, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 5, time = 1)
+@Threads(1)
+public class ProxyFactoryBenchmark {
+
+    @Benchmark
+    public Object GET_no_params(ProxyFactoryBenchmarkState state) throws Exception {
+        return state.screechTestInterface.getMethodWithNoParams().get();
+    }
+
+    @Benchmark
+    public Object GET_multiple_params(ProxyFactoryBenchmarkState state) throws Exception {
+        return state.screechTestInterface.getMethodWithMultipleParams("foo", "bar", "baz").get();
+    }
+
+    @Benchmark
+    public Object POST_multiple_headers_multiple_params(ProxyFactoryBenchmarkState state) throws Exception {
+        return state.screechTestInterface.postMethodWithMultipleHeadersAndMultipleParams("foo", "bar", "baz", "body").get();
+    }
+
+    @Benchmark
+    public Object mixed_methods(ProxyFactoryBenchmarkState state) throws Exception {
+        // alternate between methods, so that the dispatch call site sees more than one target
+        state.screechTestInterface.getMethodWithNoParams().get();
+        state.screechTestInterface.getMethodWithParam("foo").get();
+        state.screechTestInterface.getMethodWithSingleHeader("foo").get();
+        return state.screechTestInterface.postMethodWithNoParams("body").get();
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.benchmark.tests;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import zone.gryphon.screech.ProxyFactory;
+import zone.gryphon.screech.ScreechBuilder;
+import zone.gryphon.screech.benchmark.testing.NoOpClient;
+import zone.gryphon.screech.benchmark.testing.ScreechTestInterface;
+import zone.gryphon.screech.bytebuddy.ByteBuddyProxyFactory;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.util.concurrent.Executor;
+
+@State(Scope.Thread)
+public class ProxyFactoryBenchmarkState {
+
+    // run everything on the calling thread, so that the benchmark measures the invocation path rather than thread hops
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    @Param({"jdk", "bytebuddy"})
+    public String proxyFactory;
+
+    public ScreechTestInterface screechTestInterface;
+
+    @Setup
+    public void setup() {
+        screechTestInterface = new ScreechBuilder(new NoOpClient())
+                .requestExecutor(DIRECT_EXECUTOR)
+                .responseExecutor(DIRECT_EXECUTOR)
+                .proxyFactory(createProxyFactory())
+                .build(ScreechTestInterface.class, new HardCodedTarget("http://localhost:8080"));
+    }
+
+    private ProxyFactory createProxyFactory() {
+        switch (proxyFactory) {
+            case "jdk":
+                return new ProxyFactory.JdkProxyFactory();
+            case "bytebuddy":
+                return new ByteBuddyProxyFactory();
+            default:
+                throw new IllegalArgumentException("Unknown proxy factory " + proxyFactory);
+        }
+    }
+
+}
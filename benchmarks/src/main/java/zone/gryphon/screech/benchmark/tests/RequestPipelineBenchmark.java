@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.benchmark.tests;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-request overhead of the invocation pipeline (interceptors, encoding, client callbacks and
+ * decoding), with all stages running on the calling thread.
+ * <p>
+ * Most of the cost of the pipeline is allocation, so this is most useful when run with the GC profiler
+ * ({@code -prof gc}) and compared on {@code gc.alloc.rate.norm}, the bytes allocated per request.
+ */
+@Measurement(iterations = 10, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1)
+@Warmup(iterations = 5, time = 1)
+@Threads(1)
+public class RequestPipelineBenchmark {
+
+    @Benchmark
+    public Object GET_no_params(RequestPipelineBenchmarkState state) throws Exception {
+        return state.screechTestInterface.getMethodWithNoParams().get();
+    }
+
+    @Benchmark
+    public Object GET_multiple_params(RequestPipelineBenchmarkState state) throws Exception {
+        return state.screechTestInterface.getMethodWithMultipleParams("foo", "bar", "baz").get();
+    }
+
+    @Benchmark
+    public Object POST_multiple_headers_multiple_params(RequestPipelineBenchmarkState state) throws Exception {
+        return state.screechTestInterface.postMethodWithMultipleHeadersAndMultipleParams("foo", "bar", "baz", "body").get();
+    }
+
+}
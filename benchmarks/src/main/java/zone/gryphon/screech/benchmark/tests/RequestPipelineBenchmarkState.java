@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.benchmark.tests;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import zone.gryphon.screech.Callback;
+import zone.gryphon.screech.RequestInterceptor;
+import zone.gryphon.screech.ScreechBuilder;
+import zone.gryphon.screech.benchmark.testing.NoOpClient;
+import zone.gryphon.screech.benchmark.testing.ScreechTestInterface;
+import zone.gryphon.screech.model.Request;
+import zone.gryphon.screech.model.Response;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+@State(Scope.Thread)
+public class RequestPipelineBenchmarkState {
+
+    // run everything on the calling thread, so that the benchmark measures the pipeline rather than thread hops
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    private static class PassThroughInterceptor implements RequestInterceptor {
+
+        @Override
+        public <X, Y> void intercept(Request<X> request, BiConsumer<Request<?>, Callback<Response<Y>>> callback, Callback<Response<?>> responseCallback) {
+            callback.accept(request, new Callback<Response<Y>>() {
+
+                @Override
+                public void onSuccess(Response<Y> result) {
+                    responseCallback.onSuccess(result);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    responseCallback.onFailure(e);
+                }
+            });
+        }
+    }
+
+    @Param({"0", "3"})
+    public int interceptors;
+
+    public ScreechTestInterface screechTestInterface;
+
+    @Setup
+    public void setup() {
+        ScreechBuilder builder = new ScreechBuilder(new NoOpClient())
+                .requestExecutor(DIRECT_EXECUTOR)
+                .responseExecutor(DIRECT_EXECUTOR);
+
+        for (int i = 0; i < interceptors; i++) {
+            builder.addRequestInterceptor(new PassThroughInterceptor());
+        }
+
+        screechTestInterface = builder.build(ScreechTestInterface.class, new HardCodedTarget("http://localhost:8080"));
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.bytebuddy;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.InvocationHandlerAdapter;
+import net.bytebuddy.matcher.ElementMatchers;
+import zone.gryphon.screech.ProxyFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ProxyFactory} which generates a concrete class per interface using
+ * <a href="https://bytebuddy.net">Byte Buddy</a>.
+ * <p>
+ * Each method of the generated class holds its own handler in a dedicated field and calls it directly, so unlike
+ * {@link java.lang.reflect.Proxy} there's no shared dispatch method and no lookup of the handler on each invocation.
+ * Generated classes are cached per interface, so building additional clients for the same interface only costs an
+ * instantiation.
+ */
+public class ByteBuddyProxyFactory implements ProxyFactory {
+
+    private static final String FIELD_PREFIX = "screech$handler$";
+
+    private static class GeneratedType {
+
+        private final Class<?> type;
+
+        // index of each method matches the index in the name of the field holding its handler
+        private final List<Method> methods;
+
+        private GeneratedType(Class<?> type, List<Method> methods) {
+            this.type = type;
+            this.methods = methods;
+        }
+    }
+
+    private static final ClassValue<GeneratedType> GENERATED_TYPES = new ClassValue<GeneratedType>() {
+
+        @Override
+        protected GeneratedType computeValue(Class<?> clazz) {
+            return generate(clazz);
+        }
+    };
+
+    private static GeneratedType generate(Class<?> clazz) {
+
+        if (!clazz.isInterface()) {
+            throw new IllegalArgumentException(String.format("Unable to generate implementation of %s, it is not an interface", clazz.getName()));
+        }
+
+        List<Method> methods = new ArrayList<>(Arrays.asList(clazz.getMethods()));
+
+        try {
+            methods.add(Object.class.getDeclaredMethod("equals", Object.class));
+            methods.add(Object.class.getDeclaredMethod("hashCode"));
+            methods.add(Object.class.getDeclaredMethod("toString"));
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to retrieve method from java.lang.Object, unable to generate implementation", e);
+        }
+
+        DynamicType.Builder<Object> builder = new ByteBuddy()
+                .subclass(Object.class)
+                .implement(clazz)
+                .name(clazz.getName() + "$ScreechByteBuddy");
+
+        for (int i = 0; i < methods.size(); i++) {
+            String field = FIELD_PREFIX + i;
+
+            builder = builder.defineField(field, InvocationHandler.class, Visibility.PRIVATE)
+                    .method(ElementMatchers.is(methods.get(i)))
+                    .intercept(InvocationHandlerAdapter.toField(field));
+        }
+
+        // non-public interfaces are only visible from their own package and class loader, so the generated class
+        // has to be injected into it; otherwise, prefer a child class loader which doesn't require any privileges
+        ClassLoadingStrategy<ClassLoader> strategy = Modifier.isPublic(clazz.getModifiers())
+                ? ClassLoadingStrategy.Default.WRAPPER
+                : ClassLoadingStrategy.Default.INJECTION;
+
+        Class<?> type = builder.make()
+                .load(clazz.getClassLoader(), strategy)
+                .getLoaded();
+
+        return new GeneratedType(type, Collections.unmodifiableList(methods));
+    }
+
+    @Override
+    public <T> T create(Class<T> clazz, InvocationHandler handler, Map<Method, InvocationHandler> methodHandlers) {
+        GeneratedType generated = GENERATED_TYPES.get(clazz);
+
+        try {
+            Object instance = generated.type.getDeclaredConstructor().newInstance();
+
+            for (int i = 0; i < generated.methods.size(); i++) {
+                InvocationHandler methodHandler = methodHandlers.get(generated.methods.get(i));
+
+                if (methodHandler == null) {
+                    throw new NullPointerException("Unable to find handler for method " + generated.methods.get(i));
+                }
+
+                Field field = generated.type.getDeclaredField(FIELD_PREFIX + i);
+                field.setAccessible(true);
+                field.set(instance, methodHandler);
+            }
+
+            return clazz.cast(instance);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(String.format("Failed to instantiate generated implementation of %s", clazz.getName()), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ByteBuddyProxyFactory";
+    }
+}
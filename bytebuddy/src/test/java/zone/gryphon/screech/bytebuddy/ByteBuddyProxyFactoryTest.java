@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.bytebuddy;
+
+import org.junit.Test;
+import zone.gryphon.screech.Client;
+import zone.gryphon.screech.Param;
+import zone.gryphon.screech.RequestLine;
+import zone.gryphon.screech.ScreechBuilder;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ByteBuddyProxyFactoryTest {
+
+    public interface TestInterface {
+
+        @RequestLine("GET /target/{id}")
+        CompletableFuture<String> asyncGET(@Param("id") long id);
+
+        @RequestLine("GET /target/{id}")
+        String syncGET(@Param("id") int id);
+
+        @RequestLine("POST /target")
+        String syncPOST(String body);
+
+    }
+
+    private static class MockClient implements Client {
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            String response = request.getRequestBody() != null
+                    ? new String(request.getRequestBody().getBody().array(), UTF_8)
+                    : request.getUri().getPath();
+
+            callback.headers(ResponseHeaders.builder().status(200).build()).content(ByteBuffer.wrap(response.getBytes(UTF_8)));
+            callback.complete();
+        }
+    }
+
+    private TestInterface build(String target) {
+        return new ScreechBuilder(new MockClient())
+                .proxyFactory(new ByteBuddyProxyFactory())
+                .build(TestInterface.class, new HardCodedTarget(target));
+    }
+
+    @Test(timeout = 5000)
+    public void testInvocation() throws Exception {
+        TestInterface test = build("http://localhost");
+
+        assertThat(Proxy.isProxyClass(test.getClass())).isFalse();
+
+        assertThat(test.asyncGET(1L).get()).isEqualTo("/target/1");
+        assertThat(test.syncGET(2)).isEqualTo("/target/2");
+        assertThat(test.syncPOST("foo")).isEqualTo("foo");
+    }
+
+    @Test
+    @SuppressWarnings({"ConstantConditions", "EqualsWithItself"})
+    public void testStandardObjectMethods() {
+        TestInterface test = build("http://localhost");
+        TestInterface test2 = build("http://localhost:8080");
+
+        // generated class should be re-used between instances
+        assertThat(test2.getClass()).isSameAs(test.getClass());
+
+        assertThat(test.toString()).isNotNull();
+        assertThat(test.hashCode()).isNotEqualTo(0);
+
+        assertThat(test.equals(null)).isFalse();
+        assertThat(test.equals(new Object())).isFalse();
+        assertThat(test.equals(test)).isTrue();
+        assertThat(test.equals(test2)).isFalse();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of the buffers used to hold encoded request bodies and buffered response bodies, so that they can be reused
+ * between calls instead of being left to the garbage collector.
+ * <p>
+ * Buffers are released back to the pool explicitly: response buffers once the response has been decoded (or the
+ * call ended without decoding it), and request buffers once the call has ended and the transport is done with every
+ * request sent with them. A buffer mustn't be used after it has been released.
+ *
+ * @see zone.gryphon.screech.util.SizeClassedBufferPool
+ */
+public interface BufferPool {
+
+    /**
+     * Pool which allocates a new heap buffer each time, and leaves released buffers to the garbage collector
+     */
+    BufferPool UNPOOLED = new BufferPool() {
+
+        @Override
+        public ByteBuffer acquire(int size) {
+            return ByteBuffer.allocate(size);
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            // do nothing
+        }
+
+        @Override
+        public String toString() {
+            return "BufferPool.UNPOOLED";
+        }
+    };
+
+    /**
+     * @param size The minimum capacity of the buffer
+     * @return A buffer with a capacity of at least {@code size}, cleared (position zero, limit at capacity)
+     */
+    ByteBuffer acquire(int size);
+
+    /**
+     * Return a buffer to the pool. Buffers which weren't acquired from the pool are ignored.
+     *
+     * @param buffer The buffer, which the caller mustn't use again
+     */
+    void release(ByteBuffer buffer);
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import lombok.Builder;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+
+/**
+ * Circuit breaker, which stops calls to a failing server for a while rather than spending time and resources on calls
+ * which are likely to fail.
+ * <p>
+ * While closed, the outcome of the most recent calls is tracked in a sliding window. Once enough calls have been made,
+ * and the rate of failed or slow calls reaches its threshold, the breaker opens and calls fail immediately with a
+ * {@link zone.gryphon.screech.exception.RejectedRequestException}, without encoding or sending the request. After
+ * {@code openDuration} the breaker becomes half-open and lets a limited number of probe calls through: if they all
+ * succeed the breaker closes, otherwise it opens again.
+ * <p>
+ * Calls fail if the request fails without a response, or the response status matches {@code failureStatus}. Calls
+ * which fail before the request is sent (e.g. because the request couldn't be encoded) aren't counted.
+ * <p>
+ * A breaker can be shared by all methods of a client, which call the same target, or by methods which call the same
+ * endpoint, see {@link ScreechBuilder#circuitBreaker(java.util.function.Function)}.
+ */
+@ToString(of = {"failureRateThreshold", "slowCallRateThreshold", "slowCallDuration", "minimumCalls", "openDuration", "halfOpenProbes"})
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final int CALL = 1;
+
+    private static final int FAILURE = 2;
+
+    private static final int SLOW = 4;
+
+    private final double failureRateThreshold;
+
+    private final double slowCallRateThreshold;
+
+    private final long slowCallDuration;
+
+    private final int minimumCalls;
+
+    private final long openDuration;
+
+    private final int halfOpenProbes;
+
+    private final IntPredicate failureStatus;
+
+    private final AtomicInteger state = new AtomicInteger(State.CLOSED.ordinal());
+
+    // written before the state changes to OPEN, so it's visible to any thread which sees that state
+    private volatile long openedAt;
+
+    private final AtomicInteger probesStarted = new AtomicInteger();
+
+    private final AtomicInteger probesSucceeded = new AtomicInteger();
+
+    // outcome of each call in the window, as a combination of CALL, FAILURE and SLOW
+    private final AtomicIntegerArray window;
+
+    private final AtomicLong index = new AtomicLong();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final AtomicInteger slowCalls = new AtomicInteger();
+
+    /**
+     * @param failureRateThreshold  Rate of failed calls at which the breaker opens, defaults to 0.5
+     * @param slowCallRateThreshold Rate of slow calls at which the breaker opens, defaults to 1.0 (i.e. only if every
+     *                              call is slow)
+     * @param slowCallDuration      Calls which take at least this long are slow, defaults to 60 seconds
+     * @param windowSize            The number of most recent calls tracked, defaults to 100
+     * @param minimumCalls          The number of calls which need to be tracked before the breaker can open, defaults
+     *                              to 20
+     * @param openDuration          How long the breaker stays open before probing, defaults to 30 seconds
+     * @param halfOpenProbes        The number of probe calls allowed while half-open, defaults to 5
+     * @param failureStatus         Response statuses which count as failures, defaults to 5xx statuses
+     */
+    @Builder
+    private CircuitBreaker(
+            Double failureRateThreshold,
+            Double slowCallRateThreshold,
+            Duration slowCallDuration,
+            Integer windowSize,
+            Integer minimumCalls,
+            Duration openDuration,
+            Integer halfOpenProbes,
+            IntPredicate failureStatus) {
+        this.failureRateThreshold = failureRateThreshold == null ? 0.5 : failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold == null ? 1.0 : slowCallRateThreshold;
+        this.slowCallDuration = (slowCallDuration == null ? Duration.ofSeconds(60) : slowCallDuration).toNanos();
+        this.window = new AtomicIntegerArray(windowSize == null ? 100 : windowSize);
+        this.minimumCalls = minimumCalls == null ? Math.min(20, window.length()) : minimumCalls;
+        this.openDuration = (openDuration == null ? Duration.ofSeconds(30) : openDuration).toNanos();
+        this.halfOpenProbes = halfOpenProbes == null ? 5 : halfOpenProbes;
+        this.failureStatus = failureStatus == null ? status -> status >= 500 : failureStatus;
+
+        if (this.failureRateThreshold <= 0 || this.failureRateThreshold > 1 || this.slowCallRateThreshold <= 0 || this.slowCallRateThreshold > 1) {
+            throw new IllegalArgumentException("Rate thresholds must be greater than 0 and at most 1");
+        }
+
+        if (this.minimumCalls < 1 || this.minimumCalls > window.length()) {
+            throw new IllegalArgumentException(String.format("minimumCalls must be between 1 and the window size (%d)", window.length()));
+        }
+
+        if (this.halfOpenProbes < 1) {
+            throw new IllegalArgumentException("halfOpenProbes must be at least 1");
+        }
+    }
+
+    /**
+     * @return The current state of the breaker
+     */
+    public State getState() {
+        return State.values()[state.get()];
+    }
+
+    /**
+     * Acquire permission to make a call. Every call which is permitted must be followed by a call to
+     * {@link #onResult(long, boolean)} or {@link #onIgnored()}.
+     *
+     * @return true if the call is permitted
+     */
+    public boolean tryAcquire() {
+        int current = state.get();
+
+        if (current == State.CLOSED.ordinal()) {
+            return true;
+        }
+
+        if (current == State.OPEN.ordinal()) {
+
+            if (System.nanoTime() - openedAt < openDuration) {
+                return false;
+            }
+
+            if (state.get() == State.OPEN.ordinal()) {
+                // probes can't be in use while open, so resetting before moving to half-open is safe
+                probesStarted.set(0);
+                probesSucceeded.set(0);
+                state.compareAndSet(State.OPEN.ordinal(), State.HALF_OPEN.ordinal());
+            }
+
+            // the probes may have already closed the breaker, or failed and opened it again
+            current = state.get();
+
+            if (current != State.HALF_OPEN.ordinal()) {
+                return current == State.CLOSED.ordinal();
+            }
+        }
+
+        int probes;
+
+        do {
+            probes = probesStarted.get();
+
+            if (probes >= halfOpenProbes) {
+                return false;
+            }
+        } while (!probesStarted.compareAndSet(probes, probes + 1));
+
+        return true;
+    }
+
+    /**
+     * @param status A response status
+     * @return true if the status counts as a failure
+     */
+    public boolean isFailure(int status) {
+        return failureStatus.test(status);
+    }
+
+    /**
+     * Record the outcome of a permitted call.
+     *
+     * @param nanos   How long the call took, in nanoseconds
+     * @param failure true if the call failed
+     */
+    public void onResult(long nanos, boolean failure) {
+        boolean slow = nanos >= slowCallDuration;
+
+        int current = state.get();
+
+        if (current == State.HALF_OPEN.ordinal()) {
+
+            if (failure || slow) {
+                open(State.HALF_OPEN);
+            } else if (probesSucceeded.incrementAndGet() >= halfOpenProbes) {
+                clearWindow();
+                state.compareAndSet(State.HALF_OPEN.ordinal(), State.CLOSED.ordinal());
+            }
+
+            return;
+        }
+
+        if (current == State.OPEN.ordinal()) {
+            // call started before the breaker opened
+            return;
+        }
+
+        int outcome = CALL | (failure ? FAILURE : 0) | (slow ? SLOW : 0);
+
+        int previous = window.getAndSet((int) (index.getAndIncrement() % window.length()), outcome);
+
+        update(previous, -1);
+        update(outcome, 1);
+
+        int total = calls.get();
+
+        if (total >= minimumCalls
+                && (failures.get() >= failureRateThreshold * total || slowCalls.get() >= slowCallRateThreshold * total)) {
+            open(State.CLOSED);
+        }
+    }
+
+    /**
+     * Release a permitted call which shouldn't count towards the outcome, e.g. because it failed before being sent.
+     */
+    public void onIgnored() {
+        if (state.get() == State.HALF_OPEN.ordinal()) {
+            probesStarted.decrementAndGet();
+        }
+    }
+
+    private void open(State from) {
+        openedAt = System.nanoTime();
+        state.compareAndSet(from.ordinal(), State.OPEN.ordinal());
+    }
+
+    private void clearWindow() {
+        for (int i = 0; i < window.length(); i++) {
+            update(window.getAndSet(i, 0), -1);
+        }
+    }
+
+    private void update(int outcome, int delta) {
+        if ((outcome & CALL) != 0) {
+            calls.addAndGet(delta);
+        }
+
+        if ((outcome & FAILURE) != 0) {
+            failures.addAndGet(delta);
+        }
+
+        if ((outcome & SLOW) != 0) {
+            slowCalls.addAndGet(delta);
+        }
+    }
+}
@@ -75,6 +75,22 @@ public interface Client extends Closeable {
          */
         void complete();
 
+        /**
+         * Register a hook which aborts the request at the transport. It's run if the caller gives up on the response
+         * (e.g. it cancelled the returned future, or the deadline passed), so that the request doesn't keep holding a
+         * connection.
+         * <p>
+         * Clients should register the hook as soon as the request has been started, and still invoke
+         * {@link #abort(Throwable)} or {@link #complete()} once the request ends, as usual. If the caller has already
+         * given up, the hook is run immediately. Clients which wrap another client's callback must pass the hook
+         * through.
+         *
+         * @param abort Hook which aborts the request, and must be safe to call from any thread, at any time
+         */
+        default void onCancel(Runnable abort) {
+            // do nothing, the request can't be cancelled
+        }
+
     }
 
     /**
@@ -92,5 +108,51 @@ public interface Client extends Closeable {
          */
         void content(ByteBuffer content);
 
+        /**
+         * Callback for when clients have data from the response body available, and can hold off reading more of it
+         * until the consumer asks for it.
+         * <p>
+         * Clients which support backpressure call this instead of {@link #content(ByteBuffer)}, and don't deliver any
+         * more content until {@code demand} has been run, pausing reads from the connection in the meantime. The
+         * content is only guaranteed to be valid until then. {@link ClientCallback#complete()} may still be invoked
+         * before demand for the last content is signalled.
+         * <p>
+         * By default, this passes the content to {@link #content(ByteBuffer)} and signals demand straight away, so
+         * that consumers which don't care about backpressure keep receiving content as fast as the client reads it.
+         * Callbacks which wrap another callback's content callback must pass the demand through.
+         *
+         * @param content The currently available content
+         * @param demand  Signals that the consumer is ready for more content, and must be safe to call from any
+         *                thread, at most once
+         */
+        default void content(ByteBuffer content, Runnable demand) {
+            content(content);
+            demand.run();
+        }
+
+        /**
+         * Callback for when clients have data from the response body available in a buffer owned by the transport
+         * (e.g. a pooled network buffer), which the consumer can hold on to instead of copying.
+         * <p>
+         * The content stays valid until {@code release} is run, independently of demand, so a consumer can keep the
+         * buffers of the whole response and decode them in place. Every buffer must be released exactly once, even if
+         * the request fails; until then, the transport can't reuse the memory. As with
+         * {@link #content(ByteBuffer, Runnable)}, no more content is delivered until {@code demand} is run.
+         * <p>
+         * By default, this passes the content to {@link #content(ByteBuffer, Runnable)}, and releases it once demand is
+         * signalled.
+         *
+         * @param content The currently available content
+         * @param release Releases the content back to the transport, and must be safe to call from any thread
+         * @param demand  Signals that the consumer is ready for more content, and must be safe to call from any
+         *                thread, at most once
+         */
+        default void retainedContent(ByteBuffer content, Runnable release, Runnable demand) {
+            content(content, () -> {
+                release.run();
+                demand.run();
+            });
+        }
+
     }
 }
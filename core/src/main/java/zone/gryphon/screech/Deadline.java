@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import lombok.NonNull;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Deadline for the calls made by a block of code, in addition to any per-method timeouts.
+ * <p>
+ * The deadline applies to calls started on the current thread while the block runs, and each call gets the time left
+ * when it starts; asynchronous calls keep their deadline after the block returns. Nested blocks can only shorten the
+ * deadline.
+ * <pre>{@code
+ * Deadline.within(Duration.ofMillis(200), () -> {
+ *     User user = client.getUser(id);
+ *     return client.getOrders(user);
+ * });
+ * }</pre>
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long nanos;
+
+    private Deadline(long nanos) {
+        this.nanos = nanos;
+    }
+
+    /**
+     * Run a block of code, failing any call it makes which doesn't complete within the timeout.
+     *
+     * @param timeout The time allowed for the block
+     * @param block   The block
+     * @param <T>     The type returned by the block
+     * @return The value returned by the block
+     */
+    public static <T> T within(@NonNull Duration timeout, @NonNull Supplier<T> block) {
+        Deadline previous = CURRENT.get();
+
+        long nanos = System.nanoTime() + timeout.toNanos();
+
+        if (previous != null && previous.nanos - nanos < 0) {
+            nanos = previous.nanos;
+        }
+
+        CURRENT.set(new Deadline(nanos));
+
+        try {
+            return block.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @return The deadline of the current thread, or null if it doesn't have one
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return The time left before the deadline, in nanoseconds, which is negative once it has passed
+     */
+    public long remainingNanos() {
+        return nanos - System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Deadline(remaining=%dms)", remainingNanos() / 1_000_000);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Controls which threads each stage of a request runs on.
+ * <p>
+ * Every hop to an executor costs a queue insertion and a context switch, so policies other than {@link #DEFAULT}
+ * trade isolation of the calling and I/O threads for lower latency.
+ * <p>
+ * Whatever the policy, work started by a timer (rate limited calls, retries, hedged requests and batches sent after
+ * their delay) is handed to the request executor, or to the default request executor if the policy doesn't use one,
+ * so that it never runs on the timer's thread. Likewise calls which time out are completed on the response executor, or
+ * the default response executor if the policy doesn't use one.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public enum ExecutionPolicy {
+
+    /**
+     * Async calls are submitted to the request executor, and whenever a stage (encoding, interceptors, decoding)
+     * completes on a different thread than it started on, the pipeline hops back to the request or response executor.
+     */
+    DEFAULT(true, true, false),
+
+    /**
+     * Requests are built, encoded and handed to the client on the calling thread, and the response is processed on the
+     * thread which produces it. If that's a different thread (e.g. the client's I/O thread), async calls then hop to
+     * the response executor once to complete the returned future; if the client responds on the calling thread, the
+     * future is completed there, before the call returns.
+     */
+    CALLER_RUNS(false, false, true),
+
+    /**
+     * Async calls are submitted to the request executor, with no hops between intermediate stages. If the response is
+     * produced on a different thread than the one which sent the request, the returned future is completed on the
+     * response executor; if the client responds on the sending thread, the future is completed there. Either way each
+     * executor is used at most once per call.
+     */
+    EXECUTOR_ONCE(true, false, true),
+
+    /**
+     * No executors are used: requests are sent from the calling thread, and responses are decoded and returned
+     * futures completed on the client's I/O thread. Only suitable when decoders and callers' continuations are cheap
+     * and never block.
+     */
+    IO_THREAD(false, false, false);
+
+    /**
+     * Whether async calls are submitted to the request executor rather than run on the calling thread
+     */
+    private final boolean dispatchRequests;
+
+    /**
+     * Whether each stage of the pipeline hops back to an executor if it completes on a different thread
+     */
+    private final boolean hopBetweenStages;
+
+    /**
+     * Whether futures returned by async calls are completed on the response executor, when the response arrives on a
+     * different thread than the one which sent the request
+     */
+    private final boolean completeOnResponseExecutor;
+
+    public boolean usesRequestExecutor() {
+        return dispatchRequests || hopBetweenStages;
+    }
+
+    public boolean usesResponseExecutor() {
+        return hopBetweenStages || completeOnResponseExecutor;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+/**
+ * Controls when the handler for each method of a client interface is created.
+ * <p>
+ * Creating a handler validates the method's annotations and compiles its request templates, so the choice is between
+ * paying that cost in {@link ScreechBuilder#build(Class, Target)} or on the first call of each method.
+ */
+public enum HandlerInitialization {
+
+    /**
+     * Create every handler while building the client, on the calling thread.
+     * Invalid annotations cause {@link ScreechBuilder#build(Class, Target)} to fail.
+     */
+    EAGER,
+
+    /**
+     * Create every handler while building the client, in parallel on the common fork/join pool.
+     * Useful for warming up large interfaces before taking traffic.
+     */
+    PARALLEL,
+
+    /**
+     * Create each handler the first time its method is invoked, so methods which are never called cost nothing.
+     * Invalid annotations are only reported when the method is invoked.
+     */
+    LAZY
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import java.lang.reflect.Method;
+import java.util.function.Function;
+
+/**
+ * Policy for hedging requests: if a request hasn't received a response within a delay, a second, identical request is
+ * sent, and whichever responds first is used.
+ * <p>
+ * Hedging trades a small amount of extra load for lower tail latency, so it should only be used for idempotent
+ * requests.
+ */
+public interface HedgingPolicy {
+
+    /**
+     * Policy which never hedges
+     */
+    HedgingPolicy NEVER = httpMethod -> -1;
+
+    /**
+     * Called before each attempt at a request, including retries but not hedges.
+     *
+     * @param httpMethod The HTTP method of the request
+     * @return The delay in milliseconds before sending a hedge, or a negative value to not hedge the request
+     */
+    long hedgeDelay(String httpMethod);
+
+    /**
+     * Called when the hedge delay has elapsed, to check whether a hedge can be sent (e.g. against a budget).
+     *
+     * @return true if the hedge should be sent
+     */
+    default boolean tryHedge() {
+        return true;
+    }
+
+    /**
+     * Called with the time each request took to receive response headers, including hedged requests.
+     *
+     * @param nanos The time to receive headers, in nanoseconds
+     */
+    default void onResponse(long nanos) {
+        // do nothing
+    }
+
+    /**
+     * Get the policy to use for a specific method of a client interface. Called once per method, when the client is
+     * built.
+     *
+     * @param method The method
+     * @return The policy for the method, by default this policy
+     */
+    default HedgingPolicy forMethod(Method method) {
+        return this;
+    }
+
+    /**
+     * Create a policy which differs per method.
+     *
+     * @param policies Function returning the policy for a method, or null to not hedge it
+     * @return The policy
+     */
+    static HedgingPolicy perMethod(Function<Method, HedgingPolicy> policies) {
+        return new HedgingPolicy() {
+
+            @Override
+            public long hedgeDelay(String httpMethod) {
+                return -1;
+            }
+
+            @Override
+            public HedgingPolicy forMethod(Method method) {
+                HedgingPolicy policy = policies.apply(method);
+                return policy == null ? NEVER : policy.forMethod(method);
+            }
+        };
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Strategy for creating the instance returned by {@link ScreechBuilder#build(Class, Target)}.
+ */
+public interface ProxyFactory {
+
+    /**
+     * Create an implementation of the given interface.
+     *
+     * @param clazz          The interface to implement
+     * @param handler        Handler which can be invoked for any method on the interface, looking up the handler
+     *                       for the specific method on each invocation
+     * @param methodHandlers Handler for each individual method on the interface, including
+     *                       {@link Object#equals(Object)}, {@link Object#hashCode()} and {@link Object#toString()}.
+     *                       Implementations which can bind methods ahead of time should prefer these over
+     *                       {@code handler}.
+     * @param <T>            The type of the interface
+     * @return The implementation
+     */
+    <T> T create(Class<T> clazz, InvocationHandler handler, Map<Method, InvocationHandler> methodHandlers);
+
+    /**
+     * Default implementation, backed by {@link Proxy}
+     */
+    class JdkProxyFactory implements ProxyFactory {
+
+        @Override
+        public <T> T create(Class<T> clazz, InvocationHandler handler, Map<Method, InvocationHandler> methodHandlers) {
+            //noinspection unchecked
+            return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, handler);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket rate limiter, which allows a sustained rate of calls with bursts of up to {@code burst} calls.
+ * <p>
+ * Implemented as the generic cell rate algorithm: rather than counting tokens, the limiter tracks the time at which
+ * the bucket would be full again, in a single {@link AtomicLong}, so reserving a call is one compare-and-set and no
+ * call ever holds a lock. Calls over the limit are told how long to wait (up to {@code maxDelay}) rather than being
+ * parked, and rejected if they would have to wait longer.
+ * <p>
+ * A limiter can be shared between the methods of a client, or between clients which call the same target, to limit
+ * the combined rate of their calls.
+ */
+@ToString(of = {"permitsPerSecond", "burst", "maxDelay"})
+public class RateLimiter {
+
+    private final double permitsPerSecond;
+
+    private final int burst;
+
+    private final long maxDelay;
+
+    // nanoseconds per call
+    private final long interval;
+
+    // how far ahead of now the bucket can be scheduled, i.e. the burst
+    private final long tolerance;
+
+    // time at which the bucket would be full (with nanoTime's origin), relative to the origin below
+    private final AtomicLong full = new AtomicLong();
+
+    private final long origin = System.nanoTime();
+
+    /**
+     * @param permitsPerSecond The sustained rate of calls allowed
+     * @param burst            The number of calls which can be made at once after a quiet period, defaults to 1
+     * @param maxDelay         The longest calls are delayed for before being rejected, defaults to zero (i.e. reject
+     *                         calls over the limit immediately)
+     */
+    @Builder
+    private RateLimiter(double permitsPerSecond, Integer burst, Duration maxDelay) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst == null ? 1 : burst;
+        this.maxDelay = maxDelay == null ? 0 : maxDelay.toNanos();
+
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+
+        if (this.burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+
+        if (this.maxDelay < 0) {
+            throw new IllegalArgumentException("maxDelay cannot be negative");
+        }
+
+        this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.tolerance = interval * (this.burst - 1);
+    }
+
+    /**
+     * Create a limiter from its annotation.
+     *
+     * @param annotation The annotation
+     * @return The limiter
+     */
+    public static RateLimiter from(@NonNull RateLimit annotation) {
+        return RateLimiter.builder()
+                .permitsPerSecond(annotation.permitsPerSecond())
+                .burst(annotation.burst())
+                .maxDelay(Duration.ofMillis(annotation.maxDelayMillis()))
+                .build();
+    }
+
+    /**
+     * Reserve a call.
+     *
+     * @return The time to wait before making the call, in nanoseconds, or a negative value if the call is rejected (in
+     * which case nothing is reserved)
+     */
+    public long reserve() {
+        long now = System.nanoTime() - origin;
+
+        long current;
+        long next;
+        long delay;
+
+        do {
+            current = full.get();
+
+            // an empty bucket can't save up more than the burst
+            next = Math.max(current, now) + interval;
+
+            delay = next - tolerance - interval - now;
+
+            if (delay > maxDelay) {
+                return -1;
+            }
+        } while (!full.compareAndSet(current, next));
+
+        return Math.max(0, delay);
+    }
+}
@@ -22,6 +22,22 @@ public interface RequestEncoder {
 
     <T> void encode(T entity, Callback<ByteBuffer> callback);
 
+    /**
+     * Encode an entity into a buffer taken from the given pool. Buffers acquired from the pool during the call belong
+     * to the client from then on, and are released once the transport is done with the request, so the encoder
+     * mustn't keep any reference to them.
+     * <p>
+     * By default, the pool is ignored.
+     *
+     * @param entity   The entity to encode
+     * @param pool     The pool configured on the client
+     * @param callback The callback for the encoded entity
+     * @param <T>      The type of the entity
+     */
+    default <T> void encode(T entity, BufferPool pool, Callback<ByteBuffer> callback) {
+        encode(entity, callback);
+    }
+
     class StringRequestEncoder implements RequestEncoder {
 
         @Override
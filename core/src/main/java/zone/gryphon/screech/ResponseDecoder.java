@@ -26,6 +26,45 @@ public interface ResponseDecoder {
      */
     void content(ByteBuffer content);
 
+    /**
+     * Called when content is available from a client which supports backpressure. The client won't read any more
+     * content until {@code demand} is run, so a decoder which streams the response to a slow consumer can hold off
+     * the transport instead of buffering the whole response.
+     * <p>
+     * The content is only guaranteed to be valid until demand is signalled, and {@link #complete()} may be called
+     * before demand for the last content is signalled. Decoders which override this still have to implement
+     * {@link #content(ByteBuffer)} for clients without backpressure.
+     * <p>
+     * By default, this passes the content to {@link #content(ByteBuffer)} and signals demand straight away.
+     *
+     * @param content The new content
+     * @param demand  Signals that the decoder is ready for more content
+     */
+    default void content(ByteBuffer content, Runnable demand) {
+        content(content);
+        demand.run();
+    }
+
+    /**
+     * Called when content is available in a buffer owned by the transport, which the decoder can keep without copying
+     * until it runs {@code release}. Every buffer must be released exactly once, including when the request is
+     * aborted.
+     * <p>
+     * By default, this passes the content to {@link #content(ByteBuffer, Runnable)}, and releases it once demand is
+     * signalled.
+     *
+     * @param content The new content
+     * @param release Releases the content back to the transport
+     * @param demand  Signals that the decoder is ready for more content
+     * @see zone.gryphon.screech.Client.ContentCallback#retainedContent(ByteBuffer, Runnable, Runnable)
+     */
+    default void retainedContent(ByteBuffer content, Runnable release, Runnable demand) {
+        content(content, () -> {
+            release.run();
+            demand.run();
+        });
+    }
+
     /**
      * Called when the client has finished reading response content.
      * <p>
@@ -34,9 +73,12 @@ public interface ResponseDecoder {
     void complete();
 
     /**
-     * Called when the request failed while streaming content.
+     * Called when the call ends without the response being decoded, e.g. because the request failed while streaming
+     * content, the call timed out or was cancelled, or the decoder itself failed.
      * <p>
-     * The decoder should discard any resources it had open before returning.
+     * The decoder should discard any resources it had open before returning, including releasing any retained content.
+     * This may be called more than once, and concurrently with content still being delivered by the transport, which
+     * the decoder then has to release as it arrives.
      *
      * <h3>Important:</h3>
      * The decoder should <i>not</i> call any methods on the response callback in this case, and should return after
@@ -26,6 +26,22 @@ public interface ResponseDecoderFactory {
 
     ResponseDecoder create(ResponseHeaders response, Type type, Callback<Object> callback);
 
+    /**
+     * Create a decoder which buffers the response in buffers from the given pool, and returns them to it once the
+     * response has been decoded or aborted.
+     * <p>
+     * By default, the pool is ignored.
+     *
+     * @param response The response headers
+     * @param type     The type to decode the response into
+     * @param callback The callback for the decoded response
+     * @param pool     The pool configured on the client
+     * @return The decoder
+     */
+    default ResponseDecoder create(ResponseHeaders response, Type type, Callback<Object> callback, BufferPool pool) {
+        return create(response, type, callback);
+    }
+
     class ErrorResponseDecoderFactory implements ResponseDecoderFactory {
 
         @Override
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import lombok.Builder;
+import lombok.ToString;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries to a fraction of requests, so that retries can't multiply the load on a server which is failing.
+ * <p>
+ * Each request deposits {@code ratio} of a retry into the budget, and each retry withdraws a whole one; on top of that,
+ * {@code minRetriesPerSecond} retries are always allowed, so that clients with little traffic can still retry. Share
+ * a single budget between all clients which call the same server.
+ */
+@ToString(of = {"ratio", "minRetriesPerSecond", "balance"})
+public class RetryBudget {
+
+    // balance is tracked in thousandths of a retry
+    private static final long SCALE = 1000;
+
+    private final long deposit;
+
+    private final long maxBalance;
+
+    private final double ratio;
+
+    private final int minRetriesPerSecond;
+
+    private final AtomicLong balance = new AtomicLong();
+
+    // second in the upper bits, retries made in that second in the lower 20 bits
+    private final AtomicLong reserve = new AtomicLong();
+
+    /**
+     * @param ratio               Retries allowed per request, defaults to 0.1 (i.e. 10% extra load)
+     * @param minRetriesPerSecond Retries allowed each second regardless of the ratio, defaults to 10
+     * @param maxBalance          The maximum number of retries which can be saved up, defaults to 100
+     */
+    @Builder
+    private RetryBudget(Double ratio, Integer minRetriesPerSecond, Integer maxBalance) {
+        this.ratio = ratio == null ? 0.1 : ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond == null ? 10 : minRetriesPerSecond;
+        this.deposit = (long) (this.ratio * SCALE);
+        this.maxBalance = (maxBalance == null ? 100 : maxBalance) * SCALE;
+
+        if (this.ratio < 0) {
+            throw new IllegalArgumentException("ratio cannot be negative");
+        }
+
+        if (this.minRetriesPerSecond < 0 || this.minRetriesPerSecond >= (1 << 20)) {
+            throw new IllegalArgumentException("minRetriesPerSecond must be between 0 and " + ((1 << 20) - 1));
+        }
+    }
+
+    /**
+     * Record a request (not including retries).
+     */
+    public void onRequest() {
+        long current;
+
+        do {
+            current = balance.get();
+
+            if (current >= maxBalance) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(maxBalance, current + deposit)));
+    }
+
+    /**
+     * Attempt to withdraw a retry from the budget.
+     *
+     * @return true if the retry is allowed
+     */
+    public boolean tryRetry() {
+        long current;
+
+        do {
+            current = balance.get();
+
+            if (current < SCALE) {
+                return tryReserve();
+            }
+        } while (!balance.compareAndSet(current, current - SCALE));
+
+        return true;
+    }
+
+    private boolean tryReserve() {
+        long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+
+        long current;
+        long next;
+
+        do {
+            current = reserve.get();
+
+            long count = (current >>> 44) == (second & 0xFFFFF) ? current & 0xFFFFF : 0;
+
+            if (count >= minRetriesPerSecond) {
+                return false;
+            }
+
+            next = ((second & 0xFFFFF) << 44) | (count + 1);
+        } while (!reserve.compareAndSet(current, next));
+
+        return true;
+    }
+}
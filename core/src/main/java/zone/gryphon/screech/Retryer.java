@@ -15,5 +15,67 @@
 
 package zone.gryphon.screech;
 
+import zone.gryphon.screech.model.ResponseHeaders;
+
+import java.lang.reflect.Method;
+import java.util.function.Function;
+
+/**
+ * Policy deciding whether, and when, failed requests are retried.
+ * <p>
+ * Retries are scheduled on a timer rather than blocking a thread, and resend the already encoded request, so the
+ * request encoder and interceptors only run once per call.
+ */
 public interface Retryer {
+
+    /**
+     * Retryer which never retries
+     */
+    Retryer NEVER = (attempt, httpMethod, response, failure) -> -1;
+
+    /**
+     * Decide whether to retry a request.
+     * <p>
+     * Exactly one of {@code response} and {@code failure} is non-null.
+     *
+     * @param attempt    The attempt which failed, starting from 1
+     * @param httpMethod The HTTP method of the request
+     * @param response   The response headers, if the server responded
+     * @param failure    The exception which caused the request to fail, if the server didn't respond
+     * @return The delay in milliseconds before the next attempt, or a negative value to not retry
+     */
+    long nextAttemptDelay(int attempt, String httpMethod, ResponseHeaders response, Throwable failure);
+
+    /**
+     * Get the retryer to use for a specific method of a client interface. Called once per method, when the client is
+     * built.
+     *
+     * @param method The method
+     * @return The retryer for the method, by default this retryer
+     */
+    default Retryer forMethod(Method method) {
+        return this;
+    }
+
+    /**
+     * Create a retryer which uses a different policy per method.
+     *
+     * @param policies Function returning the retryer for a method, e.g. based on its name or annotations
+     * @return The retryer
+     */
+    static Retryer perMethod(Function<Method, Retryer> policies) {
+        return new Retryer() {
+
+            @Override
+            public long nextAttemptDelay(int attempt, String httpMethod, ResponseHeaders response, Throwable failure) {
+                return -1;
+            }
+
+            @Override
+            public Retryer forMethod(Method method) {
+                Retryer retryer = policies.apply(method);
+                return retryer == null ? NEVER : retryer.forMethod(method);
+            }
+        };
+    }
 }
@@ -18,31 +18,56 @@ package zone.gryphon.screech;
 import lombok.NonNull;
 import lombok.ToString;
 import zone.gryphon.screech.internal.AsyncInvocationHandler;
+import zone.gryphon.screech.internal.BatchingInvocationHandler;
+import zone.gryphon.screech.internal.GeneratedScreech;
 import zone.gryphon.screech.internal.ReflectiveScreech;
 import zone.gryphon.screech.internal.ScreechThreadFactory;
+import zone.gryphon.screech.internal.SharedScheduler;
+import zone.gryphon.screech.internal.VirtualThreads;
+import zone.gryphon.screech.model.MethodDefinition;
+import zone.gryphon.screech.util.Util;
 
+import java.io.Flushable;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Supplier;
+import java.util.function.Function;
 
 @ToString
 public class ScreechBuilder {
 
-    private final int numCores = Runtime.getRuntime().availableProcessors();
+    /**
+     * Executors shared by every client which doesn't configure its own, so that building many clients doesn't create
+     * many thread pools. They're never shut down, so they use daemon threads.
+     */
+    private static final class DefaultExecutors {
 
-    @SuppressWarnings("UnnecessaryLambda")
-    private final Supplier<Executor> executorSupplier = () -> new ThreadPoolExecutor(numCores, numCores,
-            Long.MAX_VALUE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new ScreechThreadFactory("ScreechClient"));
+        private static final Executor REQUEST = create("ScreechClient-request");
+
+        private static final Executor RESPONSE = create("ScreechClient-response");
+
+        private static Executor create(String name) {
+            int numCores = Runtime.getRuntime().availableProcessors();
+
+            return new ThreadPoolExecutor(numCores, numCores, Long.MAX_VALUE, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), new ScreechThreadFactory(name, true));
+        }
+    }
+
+    private static final Executor DIRECT = Runnable::run;
 
     private RequestEncoder requestEncoder = new RequestEncoder.StringRequestEncoder();
 
@@ -56,12 +81,51 @@ public class ScreechBuilder {
 
     private Executor responseExecutor = null;
 
+    private ProxyFactory proxyFactory = new ProxyFactory.JdkProxyFactory();
+
+    private HandlerInitialization handlerInitialization = HandlerInitialization.EAGER;
+
+    private ExecutionPolicy executionPolicy = ExecutionPolicy.DEFAULT;
+
+    private boolean virtualThreads = false;
+
+    private Retryer retryer = Retryer.NEVER;
+
+    private RetryBudget retryBudget = null;
+
+    private HedgingPolicy hedgingPolicy = HedgingPolicy.NEVER;
+
+    private Function<Method, CircuitBreaker> circuitBreakers = method -> null;
+
+    private Function<Method, RateLimiter> rateLimiters = method -> null;
+
+    private Duration timeout = null;
+
+    private String deadlineHeader = null;
+
+    private ScheduledExecutorService scheduler = null;
+
+    private BufferPool bufferPool = BufferPool.UNPOOLED;
+
     private Client client;
 
     public ScreechBuilder(@NonNull Client client) {
         this.client = client;
     }
 
+    /**
+     * Create a builder which uses the client and executors of the given resources.
+     * <p>
+     * <i>Note: clients built this way stop working once the resources are closed</i>
+     *
+     * @param resources The shared resources
+     */
+    public ScreechBuilder(@NonNull ScreechResources resources) {
+        this.client = resources.getClient();
+        this.requestExecutor = resources.getRequestExecutor();
+        this.responseExecutor = resources.getResponseExecutor();
+    }
+
     public ScreechBuilder requestEncoder(@NonNull RequestEncoder requestEncoder) {
         this.requestEncoder = requestEncoder;
         return this;
@@ -97,12 +161,220 @@ public class ScreechBuilder {
         return this;
     }
 
+    /**
+     * Set the factory used to implement client interfaces.
+     * <p>
+     * <i>Note: interfaces processed by {@code screech-processor} at compile time always use their generated
+     * implementation, and ignore this setting</i>
+     *
+     * @param proxyFactory The factory
+     * @return this builder
+     */
+    public ScreechBuilder proxyFactory(@NonNull ProxyFactory proxyFactory) {
+        this.proxyFactory = proxyFactory;
+        return this;
+    }
+
+    public ScreechBuilder handlerInitialization(@NonNull HandlerInitialization handlerInitialization) {
+        this.handlerInitialization = handlerInitialization;
+        return this;
+    }
+
+    public ScreechBuilder executionPolicy(@NonNull ExecutionPolicy executionPolicy) {
+        this.executionPolicy = executionPolicy;
+        return this;
+    }
+
+    /**
+     * Set the policy for retrying failed requests. Use {@link Retryer#perMethod(Function)} for per-method policies.
+     *
+     * @param retryer The retryer
+     * @return this builder
+     */
+    public ScreechBuilder retryer(@NonNull Retryer retryer) {
+        this.retryer = retryer;
+        return this;
+    }
+
+    /**
+     * Limit retries to a fraction of requests. Share the same budget between clients which call the same server.
+     *
+     * @param retryBudget The budget
+     * @return this builder
+     */
+    public ScreechBuilder retryBudget(@NonNull RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+        return this;
+    }
+
+    /**
+     * Hedge requests which are slow to respond, by sending them a second time. Use
+     * {@link HedgingPolicy#perMethod(Function)} for per-method policies.
+     *
+     * @param hedgingPolicy The policy
+     * @return this builder
+     */
+    public ScreechBuilder hedging(@NonNull HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+        return this;
+    }
+
+    /**
+     * Guard every method of the client with the same circuit breaker.
+     *
+     * @param circuitBreaker The circuit breaker
+     * @return this builder
+     */
+    public ScreechBuilder circuitBreaker(@NonNull CircuitBreaker circuitBreaker) {
+        return circuitBreaker(method -> circuitBreaker);
+    }
+
+    /**
+     * Guard each method of the client with its own circuit breaker. Methods which call the same endpoint can share a
+     * breaker.
+     *
+     * @param circuitBreakers Function returning the circuit breaker for a method, or null to not use one
+     * @return this builder
+     */
+    public ScreechBuilder circuitBreaker(@NonNull Function<Method, CircuitBreaker> circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+        return this;
+    }
+
+    /**
+     * Limit the combined rate of calls to every method of the client. Share the same limiter between clients to limit
+     * the rate of calls to a target.
+     *
+     * @param rateLimiter The rate limiter
+     * @return this builder
+     */
+    public ScreechBuilder rateLimiter(@NonNull RateLimiter rateLimiter) {
+        return rateLimiter(method -> rateLimiter);
+    }
+
+    /**
+     * Limit the rate of calls to each method of the client. Takes precedence over {@link RateLimit} annotations, for
+     * methods which the function returns a limiter for.
+     *
+     * @param rateLimiters Function returning the rate limiter for a method, or null to use its annotation (if any)
+     * @return this builder
+     */
+    public ScreechBuilder rateLimiter(@NonNull Function<Method, RateLimiter> rateLimiters) {
+        this.rateLimiters = rateLimiters;
+        return this;
+    }
+
+    /**
+     * Fail calls which haven't completed within the timeout, including any retries. Applies to every method of the
+     * client which doesn't have a {@link Timeout} annotation. Use {@link Deadline#within(Duration, java.util.function.Supplier)}
+     * for the deadline of a single call.
+     *
+     * @param timeout The default timeout
+     * @return this builder
+     */
+    public ScreechBuilder timeout(@NonNull Duration timeout) {
+
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException(String.format("Timeout must be positive, got %s", timeout));
+        }
+
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Send the time left before the deadline of each call downstream, in milliseconds, so that the server can give
+     * up on requests whose caller has already given up. Only calls which have a deadline send the header.
+     *
+     * @param deadlineHeader The name of the header, e.g. {@code X-Request-Timeout}
+     * @return this builder
+     */
+    public ScreechBuilder deadlineHeader(@NonNull String deadlineHeader) {
+        this.deadlineHeader = deadlineHeader;
+        return this;
+    }
+
+    /**
+     * Set the timer used to delay retries, hedges and rate limited calls, defaults to a timer shared by all clients.
+     *
+     * @param scheduler The timer. Scheduled tasks only hand off to the request executor.
+     * @return this builder
+     */
+    public ScreechBuilder scheduler(@NonNull ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * Set the pool which response decoders buffer the response body in, and which encoders supporting it write the
+     * request body to, defaults to {@link BufferPool#UNPOOLED}.
+     * <p>
+     * Response buffers are returned to the pool once the response has been decoded or aborted, and request buffers
+     * once the response to the request has been received.
+     *
+     * @param bufferPool The pool, e.g. a {@link zone.gryphon.screech.util.SizeClassedBufferPool}
+     * @return this builder
+     */
+    public ScreechBuilder bufferPool(@NonNull BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        return this;
+    }
+
+    /**
+     * Run requests on virtual threads instead of the default thread pools, for request and response executors which
+     * haven't been explicitly set.
+     * <p>
+     * Each request preparation, interceptor and decoding step gets its own virtual thread, so there are no pools to
+     * size, and synchronous methods can be called from virtual threads without tying up a platform thread while they
+     * wait for the response.
+     * <p>
+     * <i>Note: requires Java 21 or later</i>
+     *
+     * @param virtualThreads Whether to use virtual threads
+     * @return this builder
+     * @throws UnsupportedOperationException If enabled on a JVM which doesn't support virtual threads
+     */
+    public ScreechBuilder virtualThreads(boolean virtualThreads) {
+
+        if (virtualThreads && !VirtualThreads.isSupported()) {
+            throw new UnsupportedOperationException(String.format("Virtual threads are not supported by this JVM (java.version=%s), Java 21 or later is required",
+                    System.getProperty("java.version")));
+        }
+
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
     private Executor getOrDefaultRequestExecutor() {
-        return requestExecutor == null ? executorSupplier.get() : requestExecutor;
+        if (requestExecutor != null) {
+            return requestExecutor;
+        }
+
+        if (!executionPolicy.usesRequestExecutor()) {
+            return DIRECT;
+        }
+
+        return defaultRequestExecutor();
+    }
+
+    private Executor defaultRequestExecutor() {
+        return virtualThreads ? VirtualThreads.newExecutor("ScreechClient-request") : DefaultExecutors.REQUEST;
     }
 
     private Executor getOrDefaultResponseExecutor() {
-        return responseExecutor == null ? executorSupplier.get() : responseExecutor;
+        if (responseExecutor != null) {
+            return responseExecutor;
+        }
+
+        if (!executionPolicy.usesResponseExecutor()) {
+            return DIRECT;
+        }
+
+        return defaultResponseExecutor();
+    }
+
+    private Executor defaultResponseExecutor() {
+        return virtualThreads ? VirtualThreads.newExecutor("ScreechClient-response") : DefaultExecutors.RESPONSE;
     }
 
     public <T> T build(Class<T> clazz, Target target) {
@@ -110,10 +382,209 @@ public class ScreechBuilder {
 
         Executor responseExecutor = getOrDefaultResponseExecutor();
 
-        ReflectiveScreech<T> reflectiveScreech = new ReflectiveScreech<>(requestEncoder, requestInterceptors, responseDecoder, errorDecoder, requestExecutor, responseExecutor, client, clazz, target);
+        // work handed off by the shared scheduler has to move to another thread, even if the policy runs requests in place
+        Executor delayedExecutor = requestExecutor == DIRECT ? defaultRequestExecutor() : requestExecutor;
+
+        // likewise for calls completed by the shared deadline timer
+        Executor timeoutExecutor = responseExecutor == DIRECT ? defaultResponseExecutor() : responseExecutor;
+
+        Optional<GeneratedScreech<T>> generated = GeneratedScreech.find(clazz);
+
+        Map<Method, MethodDefinition> definitions = generated.map(GeneratedScreech::getMethodDefinitions).orElseGet(Collections::emptyMap);
+
+        // handlers may be created lazily, so capture the current configuration rather than reading it from the builder
+        AsyncInvocationHandlerFactory factory = new AsyncInvocationHandlerFactory(this, definitions, target, requestExecutor, responseExecutor, delayedExecutor, timeoutExecutor);
+
+        ReflectiveScreech<T> reflectiveScreech = new ReflectiveScreech<>(clazz, factory, handlerInitialization);
 
-        //noinspection unchecked
-        return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, reflectiveScreech);
+        if (generated.isPresent()) {
+            return generated.get().create(reflectiveScreech.getHandlers());
+        }
+
+        return proxyFactory.create(clazz, reflectiveScreech, reflectiveScreech.getHandlers());
     }
 
+    private static class AsyncInvocationHandlerFactory implements Function<Method, InvocationHandler> {
+
+        private static final Method FLUSH = flushMethod();
+
+        private static Method flushMethod() {
+            try {
+                return Flushable.class.getMethod("flush");
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException("Unable to find Flushable.flush()", e);
+            }
+        }
+
+        private final Map<Method, MethodDefinition> definitions;
+
+        private final RequestEncoder requestEncoder;
+
+        private final List<RequestInterceptor> requestInterceptors;
+
+        private final ResponseDecoderFactory responseDecoder;
+
+        private final ResponseDecoderFactory errorDecoder;
+
+        private final Client client;
+
+        private final Target target;
+
+        private final Executor requestExecutor;
+
+        private final Executor responseExecutor;
+
+        private final Executor delayedExecutor;
+
+        private final Executor timeoutExecutor;
+
+        private final ExecutionPolicy executionPolicy;
+
+        private final Retryer retryer;
+
+        private final RetryBudget retryBudget;
+
+        private final HedgingPolicy hedgingPolicy;
+
+        private final Function<Method, CircuitBreaker> circuitBreakers;
+
+        private final Function<Method, RateLimiter> rateLimiters;
+
+        // limiters from RateLimit annotations on interfaces, shared by the methods of the interface
+        private final Map<Class<?>, RateLimiter> interfaceRateLimiters = new ConcurrentHashMap<>();
+
+        private final Duration timeout;
+
+        private final String deadlineHeader;
+
+        private final ScheduledExecutorService scheduler;
+
+        private final BufferPool bufferPool;
+
+        // batching handlers of the client, flushed together by Flushable.flush()
+        private final List<BatchingInvocationHandler> batchers = new CopyOnWriteArrayList<>();
+
+        private AsyncInvocationHandlerFactory(ScreechBuilder builder, Map<Method, MethodDefinition> definitions, Target target, Executor requestExecutor, Executor responseExecutor, Executor delayedExecutor, Executor timeoutExecutor) {
+            this.definitions = definitions;
+            this.requestEncoder = builder.requestEncoder;
+            this.requestInterceptors = new ArrayList<>(builder.requestInterceptors);
+            this.responseDecoder = builder.responseDecoder;
+            this.errorDecoder = builder.errorDecoder;
+            Client wrapped = target.wrap(builder.client);
+            this.client = wrapped == null ? builder.client : wrapped;
+            this.target = target;
+            this.requestExecutor = requestExecutor;
+            this.responseExecutor = responseExecutor;
+            this.delayedExecutor = delayedExecutor;
+            this.timeoutExecutor = timeoutExecutor;
+            this.executionPolicy = builder.executionPolicy;
+            this.retryer = builder.retryer;
+            this.retryBudget = builder.retryBudget;
+            this.hedgingPolicy = builder.hedgingPolicy;
+            this.circuitBreakers = builder.circuitBreakers;
+            this.rateLimiters = builder.rateLimiters;
+            this.timeout = builder.timeout;
+            this.deadlineHeader = builder.deadlineHeader;
+            this.scheduler = builder.scheduler;
+            this.bufferPool = builder.bufferPool;
+        }
+
+        @Override
+        public InvocationHandler apply(Method method) {
+
+            if (FLUSH.equals(method)) {
+                return (proxy, ignored, args) -> {
+                    batchers.forEach(BatchingInvocationHandler::flush);
+                    return null;
+                };
+            }
+
+            Batched batched = method.getAnnotation(Batched.class);
+
+            if (batched != null) {
+                return batching(method, batched);
+            }
+
+            return AsyncInvocationHandler.builder()
+                    .method(method)
+                    .definition(definitions.get(method))
+                    .encoder(requestEncoder)
+                    .requestInterceptors(requestInterceptors)
+                    .responseDecoder(responseDecoder)
+                    .errorDecoder(errorDecoder)
+                    .client(client)
+                    .target(target)
+                    .requestExecutor(requestExecutor)
+                    .responseExecutor(responseExecutor)
+                    .delayedExecutor(delayedExecutor)
+                    .timeoutExecutor(timeoutExecutor)
+                    .executionPolicy(executionPolicy)
+                    .retryer(retryer)
+                    .retryBudget(retryBudget)
+                    .hedgingPolicy(hedgingPolicy)
+                    .circuitBreaker(circuitBreakers.apply(method))
+                    .rateLimiter(rateLimiter(method))
+                    .timeout(timeout(method))
+                    .deadlineHeader(deadlineHeader)
+                    .scheduler(scheduler)
+                    .bufferPool(bufferPool)
+                    .build();
+        }
+
+        private InvocationHandler batching(Method method, Batched batched) {
+            Method[] bulkMethods = Arrays.stream(method.getDeclaringClass().getMethods())
+                    // batched methods may share the name of their bulk method, e.g. lookup(String) and lookup(List)
+                    .filter(candidate -> candidate.getName().equals(batched.value()) && !candidate.isAnnotationPresent(Batched.class))
+                    .toArray(Method[]::new);
+
+            if (bulkMethods.length != 1) {
+                throw new IllegalArgumentException(String.format("Error building client for %s, expected exactly one bulk method named \"%s\" but found %d",
+                        Util.toString(method), batched.value(), bulkMethods.length));
+            }
+
+            BatchingInvocationHandler handler = BatchingInvocationHandler.builder()
+                    .method(method)
+                    .bulkMethod(bulkMethods[0])
+                    .maxSize(batched.maxSize())
+                    .maxDelay(Duration.ofMillis(batched.maxDelayMillis()))
+                    .scheduler(scheduler == null ? SharedScheduler.get() : scheduler)
+                    .requestExecutor(delayedExecutor)
+                    .build();
+
+            batchers.add(handler);
+            return handler;
+        }
+
+        private RateLimiter rateLimiter(Method method) {
+            RateLimiter configured = rateLimiters.apply(method);
+
+            if (configured != null) {
+                return configured;
+            }
+
+            RateLimit annotation = method.getAnnotation(RateLimit.class);
+
+            if (annotation != null) {
+                return RateLimiter.from(annotation);
+            }
+
+            RateLimit interfaceAnnotation = method.getDeclaringClass().getAnnotation(RateLimit.class);
+
+            if (interfaceAnnotation != null) {
+                return interfaceRateLimiters.computeIfAbsent(method.getDeclaringClass(), ignored -> RateLimiter.from(interfaceAnnotation));
+            }
+
+            return null;
+        }
+
+        private Duration timeout(Method method) {
+            Timeout annotation = method.getAnnotation(Timeout.class);
+
+            if (annotation == null) {
+                annotation = method.getDeclaringClass().getAnnotation(Timeout.class);
+            }
+
+            return annotation == null ? timeout : Duration.ofMillis(annotation.value());
+        }
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import zone.gryphon.screech.model.MethodDefinition;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Compile time definition of a client interface, generated by the {@code screech-processor} annotation processor.
+ * <p>
+ * When a definition exists for an interface, {@link ScreechBuilder#build(Class, Target)} uses the pre-parsed
+ * {@link #getMethods() methods} instead of parsing annotations at runtime, and the generated implementation instead
+ * of the configured {@link ProxyFactory}.
+ * <p>
+ * Definitions are located by name, see {@link #nameFor(Class)}, and must have a public no-arg constructor.
+ *
+ * @param <T> The client interface
+ */
+public interface ScreechDefinition<T> {
+
+    String SUFFIX = "_ScreechDefinition";
+
+    /**
+     * Get the name of the definition class for an interface.
+     * <p>
+     * The definition is in the same package as the interface, with any enclosing class names joined with
+     * underscores, e.g. {@code com.example.Outer$Inner} has a definition named
+     * {@code com.example.Outer_Inner_ScreechDefinition}.
+     *
+     * @param clazz The interface
+     * @return The fully qualified name of the definition class
+     */
+    static String nameFor(Class<?> clazz) {
+        return nameFor(clazz.getName());
+    }
+
+    /**
+     * @param binaryName The binary name of the interface, see {@link Class#getName()}
+     * @return The fully qualified name of the definition class
+     * @see #nameFor(Class)
+     */
+    static String nameFor(String binaryName) {
+        int index = binaryName.lastIndexOf('.');
+        return binaryName.substring(0, index + 1) + binaryName.substring(index + 1).replace('$', '_') + SUFFIX;
+    }
+
+    /**
+     * @return Every method of the interface, in the order used by {@link #create(Method[], InvocationHandler[])}
+     */
+    List<MethodDefinition> getMethods();
+
+    /**
+     * Create an implementation of the interface.
+     * <p>
+     * Both arrays contain one entry per element of {@link #getMethods()}, in the same order, followed by entries for
+     * {@link Object#equals(Object)}, {@link Object#hashCode()} and {@link Object#toString()}.
+     *
+     * @param methods  The method each handler is for
+     * @param handlers The handlers to invoke
+     * @return The implementation
+     */
+    T create(Method[] methods, InvocationHandler[] handlers);
+
+}
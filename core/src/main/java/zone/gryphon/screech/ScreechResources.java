@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+import zone.gryphon.screech.internal.ScreechThreadFactory;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A {@link Client} and the executors used alongside it, shared between any number of clients built with
+ * {@link ScreechBuilder#ScreechBuilder(ScreechResources)}.
+ * <p>
+ * The resources are reference counted: they start with a single reference, held by whoever created them, and each
+ * additional owner should call {@link #retain()} and later {@link #close()}. When the last reference is closed, new
+ * requests are rejected, in-flight requests are given until {@code closeTimeout} to finish, and then the executors and
+ * client are shut down.
+ * <p>
+ * <i>Note: the resources take ownership of the client and executors passed to them</i>
+ */
+@ToString(of = {"client", "references", "inFlight"})
+public class ScreechResources implements Closeable {
+
+    private static final AtomicIntegerFieldUpdater<ScreechResources> REFERENCES =
+            AtomicIntegerFieldUpdater.newUpdater(ScreechResources.class, "references");
+
+    private final Client delegate;
+
+    /**
+     * The client, which tracks in-flight requests
+     */
+    @Getter
+    private final Client client = new TrackingClient();
+
+    @Getter
+    private final ExecutorService requestExecutor;
+
+    @Getter
+    private final ExecutorService responseExecutor;
+
+    private final Duration closeTimeout;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final CompletableFuture<Void> drained = new CompletableFuture<>();
+
+    private volatile boolean closing = false;
+
+    // package-private for REFERENCES
+    volatile int references = 1;
+
+    /**
+     * @param client           The client
+     * @param requestExecutor  Executor for request processing, defaults to a thread pool sized to the number of cores
+     * @param responseExecutor Executor for response processing, defaults to a thread pool sized to the number of cores
+     * @param closeTimeout     How long to wait for in-flight requests when closing, defaults to 30 seconds
+     */
+    @Builder
+    private ScreechResources(
+            @NonNull Client client,
+            ExecutorService requestExecutor,
+            ExecutorService responseExecutor,
+            Duration closeTimeout) {
+        this.delegate = client;
+        this.requestExecutor = requestExecutor == null ? createExecutor("ScreechRequest") : requestExecutor;
+        this.responseExecutor = responseExecutor == null ? createExecutor("ScreechResponse") : responseExecutor;
+        this.closeTimeout = closeTimeout == null ? Duration.ofSeconds(30) : closeTimeout;
+    }
+
+    private static ExecutorService createExecutor(String name) {
+        int numCores = Runtime.getRuntime().availableProcessors();
+
+        return new ThreadPoolExecutor(numCores, numCores, Long.MAX_VALUE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new ScreechThreadFactory(name));
+    }
+
+    /**
+     * Add a reference to these resources, which must later be released with {@link #close()}.
+     *
+     * @return this
+     * @throws IllegalStateException If the resources have already been closed
+     */
+    public ScreechResources retain() {
+        int current;
+
+        do {
+            current = references;
+
+            if (current <= 0) {
+                throw new IllegalStateException("Unable to retain resources, they have already been closed");
+            }
+        } while (!REFERENCES.compareAndSet(this, current, current + 1));
+
+        return this;
+    }
+
+    /**
+     * @return The number of requests which have been sent, but not yet completed by the client
+     */
+    public int getInFlightRequests() {
+        return inFlight.get();
+    }
+
+    /**
+     * Release a reference to these resources. Releasing the last reference blocks until in-flight requests complete
+     * (or the close timeout elapses), then shuts down the executors and client.
+     *
+     * @throws IOException If closing the client fails
+     */
+    @Override
+    public void close() throws IOException {
+        int current;
+
+        do {
+            current = references;
+
+            if (current <= 0) {
+                // already closed
+                return;
+            }
+        } while (!REFERENCES.compareAndSet(this, current, current - 1));
+
+        if (current == 1) {
+            shutdown();
+        }
+    }
+
+    private void shutdown() throws IOException {
+        long deadline = System.nanoTime() + closeTimeout.toNanos();
+
+        closing = true;
+
+        if (inFlight.get() == 0) {
+            drained.complete(null);
+        }
+
+        try {
+            drained.get(remaining(deadline), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException ignore) {
+            // out of time, shut down regardless
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // responses which have been received may still be being processed
+        requestExecutor.shutdown();
+        responseExecutor.shutdown();
+
+        try {
+            if (!requestExecutor.awaitTermination(remaining(deadline), TimeUnit.NANOSECONDS)
+                    || !responseExecutor.awaitTermination(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                requestExecutor.shutdownNow();
+                responseExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            requestExecutor.shutdownNow();
+            responseExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        delegate.close();
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
+    private void requestFinished() {
+        if (inFlight.decrementAndGet() == 0 && closing) {
+            drained.complete(null);
+        }
+    }
+
+    private class TrackingClient implements Client {
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            inFlight.incrementAndGet();
+
+            if (closing) {
+                requestFinished();
+                callback.abort(new IllegalStateException("Unable to send request, client resources have been closed"));
+                return;
+            }
+
+            TrackingCallback trackingCallback = new TrackingCallback(callback);
+
+            try {
+                delegate.request(request, trackingCallback);
+            } catch (Throwable e) {
+                trackingCallback.finish();
+                throw e;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+    private class TrackingCallback implements Client.ClientCallback {
+
+        private final Client.ClientCallback callback;
+
+        private final AtomicInteger finished = new AtomicInteger();
+
+        private TrackingCallback(Client.ClientCallback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public Client.ContentCallback headers(ResponseHeaders responseHeaders) {
+            return callback.headers(responseHeaders);
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            try {
+                callback.abort(t);
+            } finally {
+                finish();
+            }
+        }
+
+        @Override
+        public void complete() {
+            try {
+                callback.complete();
+            } finally {
+                finish();
+            }
+        }
+
+        @Override
+        public void onCancel(Runnable abort) {
+            callback.onCancel(abort);
+        }
+
+        private void finish() {
+            if (finished.compareAndSet(0, 1)) {
+                requestFinished();
+            }
+        }
+    }
+}
@@ -18,4 +18,15 @@ package zone.gryphon.screech;
 public interface Target {
 
     String getTarget();
+
+    /**
+     * Wrap the client used to send requests to this target. Lets a target choose where each attempt at a request is
+     * sent (including retries and hedges), rather than once per call through {@link #getTarget()}.
+     *
+     * @param client The client configured for the Screech instance
+     * @return The client to use, by default the given client. Null is treated as the given client.
+     */
+    default Client wrap(Client client) {
+        return client;
+    }
 }
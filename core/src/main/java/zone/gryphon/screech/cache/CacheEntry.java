@@ -0,0 +1,328 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.cache;
+
+import lombok.Getter;
+import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A stored response, along with the freshness information parsed from its headers.
+ * <p>
+ * Freshness is calculated as described in <a href="https://tools.ietf.org/html/rfc7234#section-4.2">RFC 7234</a>,
+ * and the stale extensions as described in <a href="https://tools.ietf.org/html/rfc5861">RFC 5861</a>.
+ */
+final class CacheEntry {
+
+    @Getter
+    private final int status;
+
+    @Getter
+    private final List<HttpParam> headers;
+
+    @Getter
+    private final byte[] body;
+
+    // values of the request headers named by the Vary response header, keyed by lower case header name
+    private final Map<String, String> varyValues;
+
+    private final long responseTime;
+
+    private final long initialAge;
+
+    private final long freshnessLifetime;
+
+    private final long staleWhileRevalidate;
+
+    private final long staleIfError;
+
+    private final boolean mustRevalidate;
+
+    @Getter
+    private final String etag;
+
+    @Getter
+    private final String lastModified;
+
+    private final AtomicBoolean revalidating = new AtomicBoolean();
+
+    private CacheEntry(SerializedRequest request, int status, List<HttpParam> headers, byte[] body, long requestTime, long responseTime) {
+        ResponseHeaders responseHeaders = ResponseHeaders.builder().status(status).headers(headers).build();
+
+        Map<String, String> directives = parseCacheControl(responseHeaders.getValue("cache-control").orElse(null));
+
+        this.status = status;
+        this.headers = Collections.unmodifiableList(new ArrayList<>(headers));
+        this.body = body;
+        this.responseTime = responseTime;
+        this.etag = responseHeaders.getValue("etag").orElse(null);
+        this.lastModified = responseHeaders.getValue("last-modified").orElse(null);
+        this.varyValues = varyValues(responseHeaders, request);
+
+        long date = parseDate(responseHeaders.getValue("date").orElse(null)).orElse(responseTime);
+
+        long apparentAge = Math.max(0, responseTime - date);
+        long ageHeader = seconds(responseHeaders.getValue("age").orElse(null)) * 1000;
+
+        this.initialAge = Math.max(apparentAge, ageHeader) + (responseTime - requestTime);
+
+        this.freshnessLifetime = freshnessLifetime(directives, responseHeaders, date);
+        this.staleWhileRevalidate = seconds(directives.get("stale-while-revalidate")) * 1000;
+        this.staleIfError = seconds(directives.get("stale-if-error")) * 1000;
+        this.mustRevalidate = directives.containsKey("must-revalidate") || directives.containsKey("proxy-revalidate");
+    }
+
+    static CacheEntry create(SerializedRequest request, ResponseHeaders responseHeaders, byte[] body, long requestTime, long responseTime) {
+        List<HttpParam> headers = responseHeaders.getHeaders() == null ? Collections.emptyList() : responseHeaders.getHeaders();
+
+        return new CacheEntry(request, responseHeaders.getStatus(), headers, body, requestTime, responseTime);
+    }
+
+    /**
+     * @return Whether a response can be stored at all
+     */
+    static boolean isStorable(SerializedRequest request, ResponseHeaders response) {
+        Map<String, String> requestDirectives = parseCacheControl(header(request.getHeaders(), "cache-control"));
+
+        if (requestDirectives.containsKey("no-store")) {
+            return false;
+        }
+
+        switch (response.getStatus()) {
+            case 200:
+            case 203:
+            case 204:
+            case 300:
+            case 301:
+            case 404:
+            case 410:
+                break;
+            default:
+                return false;
+        }
+
+        Map<String, String> directives = parseCacheControl(response.getValue("cache-control").orElse(null));
+
+        if (directives.containsKey("no-store")) {
+            return false;
+        }
+
+        if ("*".equals(response.getValue("vary").map(String::trim).orElse(null))) {
+            return false;
+        }
+
+        // without either freshness information or a validator, the entry could never be used
+        return directives.containsKey("max-age")
+                || directives.containsKey("no-cache")
+                || response.getValue("expires").isPresent()
+                || response.getValue("etag").isPresent()
+                || response.getValue("last-modified").isPresent();
+    }
+
+    /**
+     * Create the entry resulting from a {@code 304 Not Modified} response
+     */
+    CacheEntry revalidated(SerializedRequest request, ResponseHeaders notModified, long requestTime, long responseTime) {
+        List<HttpParam> updates = notModified.getHeaders() == null ? Collections.emptyList() : notModified.getHeaders();
+
+        Set<String> updated = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        updates.forEach(header -> updated.add(header.getKey()));
+
+        List<HttpParam> merged = new ArrayList<>();
+
+        for (HttpParam header : headers) {
+            if (!updated.contains(header.getKey())) {
+                merged.add(header);
+            }
+        }
+
+        merged.addAll(updates);
+
+        return new CacheEntry(request, status, merged, body, requestTime, responseTime);
+    }
+
+    long size() {
+        long size = body.length;
+
+        for (HttpParam header : headers) {
+            size += header.getKey().length() + (header.getValue() == null ? 0 : header.getValue().length());
+        }
+
+        return size;
+    }
+
+    long currentAge(long now) {
+        return initialAge + Math.max(0, now - responseTime);
+    }
+
+    boolean isFresh(long now) {
+        return currentAge(now) < freshnessLifetime;
+    }
+
+    boolean isUsableWhileRevalidating(long now) {
+        return !mustRevalidate && currentAge(now) < freshnessLifetime + staleWhileRevalidate;
+    }
+
+    boolean isUsableOnError(long now, long defaultStaleIfError) {
+        return !mustRevalidate && currentAge(now) < freshnessLifetime + Math.max(staleIfError, defaultStaleIfError);
+    }
+
+    /**
+     * @return true if the caller should start a background revalidation, false if one is already in progress
+     */
+    boolean startRevalidation() {
+        return revalidating.compareAndSet(false, true);
+    }
+
+    void revalidationFailed() {
+        revalidating.set(false);
+    }
+
+    boolean matches(SerializedRequest request) {
+        for (Map.Entry<String, String> entry : varyValues.entrySet()) {
+            if (!Objects.equals(entry.getValue(), header(request.getHeaders(), entry.getKey()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static Map<String, String> varyValues(ResponseHeaders response, SerializedRequest request) {
+        Optional<String> vary = response.getValue("vary");
+
+        if (!vary.isPresent()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> values = new HashMap<>();
+
+        for (String name : vary.get().split(",")) {
+            String key = name.trim().toLowerCase();
+
+            if (!key.isEmpty()) {
+                values.put(key, header(request.getHeaders(), key));
+            }
+        }
+
+        return values;
+    }
+
+    private static long freshnessLifetime(Map<String, String> directives, ResponseHeaders response, long date) {
+
+        if (directives.containsKey("no-cache")) {
+            return 0;
+        }
+
+        if (directives.containsKey("max-age")) {
+            return seconds(directives.get("max-age")) * 1000;
+        }
+
+        Optional<String> expires = response.getValue("expires");
+
+        if (expires.isPresent()) {
+            // invalid dates (e.g. "0") mean already expired
+            return parseDate(expires.get()).map(time -> Math.max(0, time - date)).orElse(0L);
+        }
+
+        // heuristic freshness, 10% of the time since the resource was last modified
+        return parseDate(response.getValue("last-modified").orElse(null))
+                .map(time -> Math.max(0, (date - time) / 10))
+                .orElse(0L);
+    }
+
+    static String header(List<HttpParam> headers, String name) {
+
+        if (headers == null) {
+            return null;
+        }
+
+        for (HttpParam header : headers) {
+            if (header != null && name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    static Map<String, String> parseCacheControl(String value) {
+
+        if (value == null || value.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, String> directives = new HashMap<>();
+
+        for (String directive : value.split(",")) {
+            int index = directive.indexOf('=');
+
+            if (index == -1) {
+                directives.put(directive.trim().toLowerCase(), null);
+            } else {
+                String argument = directive.substring(index + 1).trim();
+
+                if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+                    argument = argument.substring(1, argument.length() - 1);
+                }
+
+                directives.put(directive.substring(0, index).trim().toLowerCase(), argument);
+            }
+        }
+
+        return directives;
+    }
+
+    private static long seconds(String value) {
+
+        if (value == null) {
+            return 0;
+        }
+
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Optional<Long> parseDate(String value) {
+
+        if (value == null) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli());
+        } catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+}
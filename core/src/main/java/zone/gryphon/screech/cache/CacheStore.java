@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Least recently used store of cache entries, bounded by both the number of entries and their total size.
+ */
+final class CacheStore {
+
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // a lock rather than synchronized, so that virtual threads aren't pinned while waiting for it
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final int maxEntries;
+
+    private final long maxBytes;
+
+    private long bytes = 0;
+
+    CacheStore(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    CacheEntry get(String key) {
+        lock.lock();
+
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void put(String key, CacheEntry entry) {
+        long size = entry.size();
+
+        if (size > maxBytes) {
+            remove(key);
+            return;
+        }
+
+        lock.lock();
+
+        try {
+            CacheEntry previous = entries.put(key, entry);
+
+            if (previous != null) {
+                bytes -= previous.size();
+            }
+
+            bytes += size;
+
+            Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+
+            while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+                Map.Entry<String, CacheEntry> eldest = iterator.next();
+                bytes -= eldest.getValue().size();
+                iterator.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(String key) {
+        lock.lock();
+
+        try {
+            CacheEntry previous = entries.remove(key);
+
+            if (previous != null) {
+                bytes -= previous.size();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long bytes() {
+        lock.lock();
+
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.cache;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.ToString;
+import zone.gryphon.screech.Client;
+import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link Client} which caches responses according to standard HTTP caching semantics, as a private (single user)
+ * cache.
+ * <p>
+ * Supports the following:
+ * <ul>
+ * <li>Freshness from {@code Cache-Control: max-age}, {@code Expires}, or heuristically from {@code Last-Modified}</li>
+ * <li>Revalidation of stale responses with {@code If-None-Match} and {@code If-Modified-Since}</li>
+ * <li>{@code stale-while-revalidate}, serving a stale response while it's revalidated in the background</li>
+ * <li>{@code stale-if-error}, serving a stale response if the server fails with a 5xx status, or the request fails</li>
+ * <li>{@code Vary}, {@code no-store}, {@code no-cache} and {@code must-revalidate}</li>
+ * <li>Invalidation of cached responses for a URI after a successful unsafe request (e.g. {@code POST}) to it</li>
+ * </ul>
+ * Cached responses are replayed through the response decoder, with an {@code Age} header.
+ * <p>
+ * The cache is bounded by both the number of entries and their total size, and evicts the least recently used entries
+ * first.
+ */
+@ToString(of = "client")
+public class CachingClient implements Client {
+
+    private final Client client;
+
+    private final CacheStore store;
+
+    private final long defaultStaleIfError;
+
+    private final Clock clock;
+
+    /**
+     * @param client              The client to send requests which can't be served from the cache with
+     * @param maxEntries          The maximum number of responses to cache, defaults to 1000
+     * @param maxBytes            The maximum total size of the cached responses, defaults to 16 MiB
+     * @param defaultStaleIfError How long stale responses can be used if the server fails, for responses which don't
+     *                            specify {@code stale-if-error}. Defaults to zero.
+     * @param clock               The clock, defaults to the system clock
+     */
+    @Builder
+    private CachingClient(@NonNull Client client, Integer maxEntries, Long maxBytes, Duration defaultStaleIfError, Clock clock) {
+        this.client = client;
+        this.store = new CacheStore(maxEntries == null ? 1000 : maxEntries, maxBytes == null ? 16 * 1024 * 1024 : maxBytes);
+        this.defaultStaleIfError = defaultStaleIfError == null ? 0 : defaultStaleIfError.toMillis();
+        this.clock = clock == null ? Clock.systemUTC() : clock;
+    }
+
+    /**
+     * @return The number of cached responses
+     */
+    public int getCachedResponses() {
+        return store.size();
+    }
+
+    /**
+     * @return The total size of the cached responses, in bytes
+     */
+    public long getCachedBytes() {
+        return store.bytes();
+    }
+
+    @Override
+    public void request(SerializedRequest request, ClientCallback callback) {
+        String method = request.getMethod().toUpperCase();
+
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            client.request(request, new InvalidatingCallback(request, callback));
+            return;
+        }
+
+        String key = key(method, request);
+
+        CacheEntry entry = store.get(key);
+
+        if (entry != null && !entry.matches(request)) {
+            entry = null;
+        }
+
+        long now = clock.millis();
+
+        boolean noCache = CacheEntry.parseCacheControl(CacheEntry.header(request.getHeaders(), "cache-control")).containsKey("no-cache");
+
+        if (entry != null && !noCache) {
+
+            if (entry.isFresh(now)) {
+                replay(entry, callback, now);
+                return;
+            }
+
+            if (entry.isUsableWhileRevalidating(now)) {
+                replay(entry, callback, now);
+
+                if (entry.startRevalidation()) {
+                    client.request(conditional(request, entry), new StoringCallback(key, request, entry, null, now));
+                }
+
+                return;
+            }
+        }
+
+        SerializedRequest toSend = entry == null ? request : conditional(request, entry);
+
+        client.request(toSend, new StoringCallback(key, request, entry, callback, now));
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    private static String key(String method, SerializedRequest request) {
+        StringBuilder key = new StringBuilder(method).append(' ').append(request.getUri());
+
+        if (request.getQueryParams() != null) {
+            char separator = request.getUri().getRawQuery() == null ? '?' : '&';
+
+            for (HttpParam param : request.getQueryParams()) {
+                key.append(separator).append(param.getKey()).append('=').append(param.getValue());
+                separator = '&';
+            }
+        }
+
+        return key.toString();
+    }
+
+    private static SerializedRequest conditional(SerializedRequest request, CacheEntry entry) {
+        List<HttpParam> headers = request.getHeaders() == null ? new ArrayList<>() : new ArrayList<>(request.getHeaders());
+
+        if (entry.getEtag() != null) {
+            headers.add(HttpParam.builder().key("If-None-Match").value(entry.getEtag()).build());
+        }
+
+        if (entry.getLastModified() != null) {
+            headers.add(HttpParam.builder().key("If-Modified-Since").value(entry.getLastModified()).build());
+        }
+
+        return request.toBuilder().headers(headers).build();
+    }
+
+    private static void replay(CacheEntry entry, ClientCallback callback, long now) {
+        List<HttpParam> headers = new ArrayList<>();
+
+        for (HttpParam header : entry.getHeaders()) {
+            if (!"age".equalsIgnoreCase(header.getKey())) {
+                headers.add(header);
+            }
+        }
+
+        headers.add(HttpParam.builder().key("Age").value(String.valueOf(entry.currentAge(now) / 1000)).build());
+
+        ContentCallback content = callback.headers(ResponseHeaders.builder()
+                .status(entry.getStatus())
+                .headers(headers)
+                .build());
+
+        if (entry.getBody().length > 0) {
+            content.content(ByteBuffer.wrap(entry.getBody()).asReadOnlyBuffer());
+        }
+
+        callback.complete();
+    }
+
+    /**
+     * Callback for unsafe requests, which invalidates any cached responses for the URI if the request succeeds
+     */
+    private class InvalidatingCallback implements ClientCallback {
+
+        private final SerializedRequest request;
+
+        private final ClientCallback callback;
+
+        private InvalidatingCallback(SerializedRequest request, ClientCallback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+        @Override
+        public ContentCallback headers(ResponseHeaders responseHeaders) {
+
+            if (responseHeaders != null && responseHeaders.getStatus() < 400) {
+                store.remove(key("GET", request));
+                store.remove(key("HEAD", request));
+            }
+
+            return callback.headers(responseHeaders);
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            callback.abort(t);
+        }
+
+        @Override
+        public void complete() {
+            callback.complete();
+        }
+
+        @Override
+        public void onCancel(Runnable abort) {
+            callback.onCancel(abort);
+        }
+    }
+
+    /**
+     * Callback for requests which may be cached, or which revalidate a cached response
+     */
+    private class StoringCallback implements ClientCallback, ContentCallback {
+
+        private final String key;
+
+        private final SerializedRequest request;
+
+        // cached response being revalidated, if any
+        private final CacheEntry stale;
+
+        // null for background revalidation
+        private final ClientCallback callback;
+
+        private final long requestTime;
+
+        private ResponseHeaders responseHeaders;
+
+        private ContentCallback content;
+
+        // response served from the cache instead of the one from the server, if any
+        private CacheEntry replacement;
+
+        private byte[] body;
+
+        private int length;
+
+        private StoringCallback(String key, SerializedRequest request, CacheEntry stale, ClientCallback callback, long requestTime) {
+            this.key = key;
+            this.request = request;
+            this.stale = stale;
+            this.callback = callback;
+            this.requestTime = requestTime;
+        }
+
+        @Override
+        public ContentCallback headers(ResponseHeaders responseHeaders) {
+            long now = clock.millis();
+
+            this.responseHeaders = responseHeaders;
+
+            if (stale != null && responseHeaders != null && responseHeaders.getStatus() == 304) {
+                replacement = stale.revalidated(request, responseHeaders, requestTime, now);
+                store.put(key, replacement);
+                return this;
+            }
+
+            if (stale != null && responseHeaders != null && responseHeaders.getStatus() >= 500 && stale.isUsableOnError(now, defaultStaleIfError)) {
+                replacement = stale;
+                return this;
+            }
+
+            if (responseHeaders != null && CacheEntry.isStorable(request, responseHeaders)) {
+                body = new byte[(int) Math.min(responseHeaders.getContentLength().orElse(1024L), store.getMaxBytes())];
+            }
+
+            if (callback != null) {
+                content = callback.headers(responseHeaders);
+            }
+
+            return this;
+        }
+
+        @Override
+        public void content(ByteBuffer buffer) {
+
+            if (replacement != null) {
+                return;
+            }
+
+            if (body != null) {
+                append(buffer.duplicate());
+            }
+
+            if (content != null) {
+                content.content(buffer);
+            }
+        }
+
+        @Override
+        public void content(ByteBuffer buffer, Runnable demand) {
+
+            if (replacement != null) {
+                demand.run();
+                return;
+            }
+
+            if (body != null) {
+                append(buffer.duplicate());
+            }
+
+            if (content != null) {
+                content.content(buffer, demand);
+            } else {
+                demand.run();
+            }
+        }
+
+        @Override
+        public void retainedContent(ByteBuffer buffer, Runnable release, Runnable demand) {
+
+            if (replacement != null) {
+                release.run();
+                demand.run();
+                return;
+            }
+
+            if (body != null) {
+                append(buffer.duplicate());
+            }
+
+            if (content != null) {
+                content.retainedContent(buffer, release, demand);
+            } else {
+                release.run();
+                demand.run();
+            }
+        }
+
+        private void append(ByteBuffer buffer) {
+            int remaining = buffer.remaining();
+
+            if ((long) length + remaining > store.getMaxBytes()) {
+                // too large to ever be cached
+                body = null;
+                return;
+            }
+
+            if (length + remaining > body.length) {
+                body = Arrays.copyOf(body, Math.max(body.length * 2, length + remaining));
+            }
+
+            buffer.get(body, length, remaining);
+            length += remaining;
+        }
+
+        @Override
+        public void complete() {
+
+            if (replacement != null) {
+
+                if (replacement == stale) {
+                    stale.revalidationFailed();
+                }
+
+                if (callback != null) {
+                    replay(replacement, callback, clock.millis());
+                }
+
+                return;
+            }
+
+            if (body != null) {
+                store.put(key, CacheEntry.create(request, responseHeaders, Arrays.copyOf(body, length), requestTime, clock.millis()));
+            } else if (stale != null) {
+                store.remove(key);
+            }
+
+            if (callback != null) {
+                callback.complete();
+            }
+        }
+
+        @Override
+        public void abort(Throwable t) {
+
+            if (stale != null) {
+                stale.revalidationFailed();
+            }
+
+            if (callback == null) {
+                return;
+            }
+
+            if (replacement != null) {
+                replay(replacement, callback, clock.millis());
+                return;
+            }
+
+            // the response can only be replaced if it hasn't started being passed on
+            if (responseHeaders == null && stale != null && stale.isUsableOnError(clock.millis(), defaultStaleIfError)) {
+                replay(stale, callback, clock.millis());
+                return;
+            }
+
+            callback.abort(t);
+        }
+
+        @Override
+        public void onCancel(Runnable abort) {
+
+            // background revalidations have no caller to cancel them
+            if (callback != null) {
+                callback.onCancel(abort);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.exception;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thrown by {@link zone.gryphon.screech.util.FanOut} in collect-all mode when at least one call failed, with the
+ * results of the calls which succeeded.
+ */
+public class FanOutException extends ScreechException {
+
+    private final List<?> results;
+
+    private final Map<Integer, Throwable> failures;
+
+    public FanOutException(List<?> results, Map<Integer, Throwable> failures) {
+        super(String.format("%d of %d calls failed", failures.size(), results.size()), failures.values().iterator().next());
+        this.results = Collections.unmodifiableList(results);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * @return The result of each call, in input order, with null for the calls which failed
+     */
+    public List<?> getResults() {
+        return results;
+    }
+
+    /**
+     * @return The failure of each call which failed, by the index of its input, in input order
+     */
+    public Map<Integer, Throwable> getFailures() {
+        return failures;
+    }
+}
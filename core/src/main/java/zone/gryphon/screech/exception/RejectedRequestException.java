@@ -13,29 +13,23 @@
  * limitations under the License.
  */
 
-package zone.gryphon.screech.internal.callback;
+package zone.gryphon.screech.exception;
 
-import zone.gryphon.screech.Callback;
-
-import java.util.Objects;
-
-public abstract class TransformingCallback<T, R> implements Callback<T> {
-
-    private final Callback<R> proxy;
-
-    public TransformingCallback(Callback<R> proxy) {
-        this.proxy = Objects.requireNonNull(proxy, "proxy callback may not be null");
-    }
+/**
+ * Thrown when a request is rejected without being sent, to shed load (e.g. because a concurrency limit was exceeded).
+ */
+public class RejectedRequestException extends ScreechException {
 
-    @Override
-    public void onSuccess(T result) {
-        proxy.onSuccess(convert(result));
+    public RejectedRequestException(String message) {
+        super(message, -1);
     }
 
+    /**
+     * Rejections are expected under load and are thrown before anything interesting happens, so skip the cost of
+     * capturing a stack trace
+     */
     @Override
-    public void onFailure(Throwable e) {
-        proxy.onFailure(e);
+    public Throwable fillInStackTrace() {
+        return this;
     }
-
-    protected abstract R convert(T entity);
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * Base class for implementations generated by the {@code screech-processor} annotation processor.
+ * <p>
+ * Each generated method calls {@link #invoke(int, Object[])} with its own index, so the handler is found with an
+ * array access rather than a lookup by {@link Method}.
+ *
+ * @see zone.gryphon.screech.ScreechDefinition
+ */
+public abstract class AbstractGeneratedScreech {
+
+    private final Method[] methods;
+
+    private final InvocationHandler[] handlers;
+
+    private final int equalsIndex;
+
+    protected AbstractGeneratedScreech(Method[] methods, InvocationHandler[] handlers) {
+
+        if (methods.length != handlers.length || handlers.length < 3) {
+            throw new IllegalArgumentException(String.format("Expected one handler per method, got %d methods and %d handlers", methods.length, handlers.length));
+        }
+
+        this.methods = methods.clone();
+        this.handlers = handlers.clone();
+        this.equalsIndex = handlers.length - 3;
+    }
+
+    protected final Object invoke(int index, Object[] args) {
+        try {
+            return handlers[index].invoke(this, methods[index], args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    @Override
+    public final boolean equals(Object obj) {
+        return (Boolean) invoke(equalsIndex, new Object[]{obj});
+    }
+
+    @Override
+    public final int hashCode() {
+        return (Integer) invoke(equalsIndex + 1, null);
+    }
+
+    @Override
+    public final String toString() {
+        return (String) invoke(equalsIndex + 2, null);
+    }
+}
@@ -20,21 +20,28 @@ import lombok.Builder;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NonNull;
+import zone.gryphon.screech.BufferPool;
 import zone.gryphon.screech.Callback;
+import zone.gryphon.screech.CircuitBreaker;
 import zone.gryphon.screech.Client;
+import zone.gryphon.screech.Deadline;
+import zone.gryphon.screech.ExecutionPolicy;
 import zone.gryphon.screech.Header;
-import zone.gryphon.screech.Param;
+import zone.gryphon.screech.HedgingPolicy;
+import zone.gryphon.screech.RateLimiter;
 import zone.gryphon.screech.RequestEncoder;
 import zone.gryphon.screech.RequestInterceptor;
 import zone.gryphon.screech.RequestLine;
 import zone.gryphon.screech.ResponseDecoder;
 import zone.gryphon.screech.ResponseDecoderFactory;
+import zone.gryphon.screech.RetryBudget;
+import zone.gryphon.screech.Retryer;
 import zone.gryphon.screech.Target;
+import zone.gryphon.screech.exception.RejectedRequestException;
+import zone.gryphon.screech.exception.RequestTimeoutException;
 import zone.gryphon.screech.exception.ScreechException;
-import zone.gryphon.screech.internal.callback.ConditionallyProxyingCallabck;
-import zone.gryphon.screech.internal.callback.ThreadingCallback;
-import zone.gryphon.screech.internal.callback.TransformingCallback;
 import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.model.MethodDefinition;
 import zone.gryphon.screech.model.Request;
 import zone.gryphon.screech.model.RequestBody;
 import zone.gryphon.screech.model.Response;
@@ -44,32 +51,37 @@ import zone.gryphon.screech.util.MultiStringInterpolator;
 import zone.gryphon.screech.util.SimpleStringInterpolator;
 import zone.gryphon.screech.util.Util;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.lang.reflect.Parameter;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
-import java.util.function.Consumer;
-import java.util.function.Function;
-import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
-@EqualsAndHashCode
+@EqualsAndHashCode(exclude = "interpolator")
 public class AsyncInvocationHandler implements InvocationHandler {
 
     private static final Set<Type> WRAPPER_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
@@ -77,6 +89,58 @@ public class AsyncInvocationHandler implements InvocationHandler {
             Optional.class
     )));
 
+    // states of a RequestContext, in the order they're normally reached
+
+    private static final int STARTED = 0;
+
+    private static final int ENCODING = 1;
+
+    private static final int SENT = 2;
+
+    // the response is being discarded, and the request will be retried once the client is done with it
+    private static final int RETRY_PENDING = 3;
+
+    private static final int RETRY_SCHEDULED = 4;
+
+    private static final int RECEIVING = 5;
+
+    private static final int RECEIVED = 6;
+
+    private static final int DONE = 7;
+
+    // outcomes of a call
+
+    private static final int SUCCEEDED = 0;
+
+    private static final int FAILED = 1;
+
+    private static final int TIMED_OUT = 2;
+
+    // the caller gave up on the call
+    private static final int CANCELLED = 3;
+
+    // replaces the cancel hook once the transport request has been cancelled, so that hooks registered later run immediately
+    private static final Runnable TRANSPORT_CANCELLED = () -> {
+    };
+
+    private static final AtomicIntegerFieldUpdater<RequestContext> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(RequestContext.class, "state");
+
+    private static final AtomicReferenceFieldUpdater<RequestContext, Runnable> CANCEL_HOOK =
+            AtomicReferenceFieldUpdater.newUpdater(RequestContext.class, Runnable.class, "cancelHook");
+
+    private static final AtomicIntegerFieldUpdater<RequestContext> IN_TRANSPORT =
+            AtomicIntegerFieldUpdater.newUpdater(RequestContext.class, "inTransport");
+
+    private static final AtomicReferenceFieldUpdater<RequestContext, RequestContext> LATEST =
+            AtomicReferenceFieldUpdater.newUpdater(RequestContext.class, RequestContext.class, "latest");
+
+    private static final AtomicReferenceFieldUpdater<RequestContext.HedgedCall.Send, Runnable> SEND_CANCEL_HOOK =
+            AtomicReferenceFieldUpdater.newUpdater(RequestContext.HedgedCall.Send.class, Runnable.class, "cancelHook");
+
+    private static final AtomicIntegerFieldUpdater<InterceptorLevel> COMPLETED =
+            AtomicIntegerFieldUpdater.newUpdater(InterceptorLevel.class, "completed");
+
     @Getter(AccessLevel.PROTECTED)
     private final Type effectiveReturnType;
 
@@ -92,11 +156,10 @@ public class AsyncInvocationHandler implements InvocationHandler {
     @Getter(AccessLevel.PROTECTED)
     private final List<HttpParam> headerParams;
 
-    private final Function<Object[], Map<String, String>> parameterFunction;
-
-    private final Function<Object[], Object> bodyFunction;
+    private final RequestPlan plan;
 
-    private final MultiStringInterpolator interpolator;
+    // only needed once an interceptor replaces a request, so it's built on first use
+    private volatile MultiStringInterpolator interpolator;
 
     private final String methodKey;
 
@@ -122,9 +185,45 @@ public class AsyncInvocationHandler implements InvocationHandler {
 
     private final Executor responseExecutor;
 
+    // runs work handed off by the scheduler (delayed calls, retries and hedges), so that it never runs on the
+    // scheduler's thread even when the execution policy runs the request executor's work in place
+    private final Executor delayedExecutor;
+
+    // completes timed out calls, so that they're never completed on the timer's thread even when the execution policy
+    // runs the response executor's work in place
+    private final Executor timeoutExecutor;
+
+    private final ExecutionPolicy executionPolicy;
+
+    // null if requests aren't retried
+    private final Retryer retryer;
+
+    private final RetryBudget retryBudget;
+
+    // null if requests aren't hedged
+    private final HedgingPolicy hedgingPolicy;
+
+    // null if calls aren't guarded by a circuit breaker
+    private final CircuitBreaker circuitBreaker;
+
+    // null if calls aren't rate limited
+    private final RateLimiter rateLimiter;
+
+    // negative if the method has no timeout
+    private final long timeoutNanos;
+
+    // null if the remaining time isn't sent downstream
+    private final String deadlineHeader;
+
+    private final ScheduledExecutorService scheduler;
+
+    // null if buffers aren't pooled
+    private final BufferPool bufferPool;
+
     @Builder
     private AsyncInvocationHandler(
             @NonNull Method method,
+            MethodDefinition definition,
             @NonNull RequestEncoder encoder,
             @NonNull List<RequestInterceptor> requestInterceptors,
             @NonNull ResponseDecoderFactory responseDecoder,
@@ -132,7 +231,19 @@ public class AsyncInvocationHandler implements InvocationHandler {
             @NonNull Client client,
             @NonNull Target target,
             @NonNull Executor requestExecutor,
-            @NonNull Executor responseExecutor) {
+            @NonNull Executor responseExecutor,
+            Executor delayedExecutor,
+            Executor timeoutExecutor,
+            ExecutionPolicy executionPolicy,
+            Retryer retryer,
+            RetryBudget retryBudget,
+            HedgingPolicy hedgingPolicy,
+            CircuitBreaker circuitBreaker,
+            RateLimiter rateLimiter,
+            Duration timeout,
+            String deadlineHeader,
+            ScheduledExecutorService scheduler,
+            BufferPool bufferPool) {
 
         this.target = target;
 
@@ -150,6 +261,32 @@ public class AsyncInvocationHandler implements InvocationHandler {
 
         this.responseExecutor = responseExecutor;
 
+        this.delayedExecutor = delayedExecutor == null ? requestExecutor : delayedExecutor;
+
+        this.timeoutExecutor = timeoutExecutor == null ? responseExecutor : timeoutExecutor;
+
+        this.executionPolicy = executionPolicy == null ? ExecutionPolicy.DEFAULT : executionPolicy;
+
+        Retryer methodRetryer = retryer == null ? Retryer.NEVER : retryer.forMethod(method);
+
+        this.retryer = methodRetryer == Retryer.NEVER ? null : methodRetryer;
+
+        this.retryBudget = retryBudget;
+
+        HedgingPolicy methodHedgingPolicy = hedgingPolicy == null ? HedgingPolicy.NEVER : hedgingPolicy.forMethod(method);
+
+        this.hedgingPolicy = methodHedgingPolicy == HedgingPolicy.NEVER ? null : methodHedgingPolicy;
+
+        this.circuitBreaker = circuitBreaker;
+
+        this.rateLimiter = rateLimiter;
+
+        this.deadlineHeader = deadlineHeader;
+
+        this.bufferPool = bufferPool == null || bufferPool == BufferPool.UNPOOLED ? null : bufferPool;
+
+        this.scheduler = scheduler == null && (this.retryer != null || this.hedgingPolicy != null || rateLimiter != null) ? SharedScheduler.get() : scheduler;
+
         this.effectiveReturnType = parseReturnType(method.getGenericReturnType());
 
         this.isAsyncResponseType = method.getReturnType().isAssignableFrom(CompletableFuture.class);
@@ -158,28 +295,72 @@ public class AsyncInvocationHandler implements InvocationHandler {
 
         this.methodKey = Util.toString(method);
 
-        RequestLine requestLine = method.getAnnotation(RequestLine.class);
-
-        if (requestLine == null) {
-            throw new IllegalArgumentException(String.format("Error building client for %s, method is not annotated with %s",
-                    methodKey, RequestLine.class.getSimpleName()));
+        if (timeout != null && (timeout.isNegative() || timeout.isZero())) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, timeout must be positive but was %s", methodKey, timeout));
         }
 
-        String[] parts = requestLine.value().split(" ", 2);
+        this.timeoutNanos = timeout == null ? -1 : timeout.toNanos();
 
-        this.httpMethod = parseHttpMethod(parts);
+        if (definition != null) {
+            this.httpMethod = definition.getHttpMethod();
 
-        this.path = parsePath(parts);
+            this.path = definition.getPath();
 
-        this.queryParams = Collections.unmodifiableList(parseQueryParams(parts));
+            this.queryParams = Collections.unmodifiableList(definition.getQueryParams());
 
-        this.headerParams = Collections.unmodifiableList(parseHeaderParams(method));
+            this.headerParams = Collections.unmodifiableList(definition.getHeaderParams());
+        } else {
+            RequestLine requestLine = method.getAnnotation(RequestLine.class);
+
+            if (requestLine == null) {
+                throw new IllegalArgumentException(String.format("Error building client for %s, method is not annotated with %s",
+                        methodKey, RequestLine.class.getSimpleName()));
+            }
+
+            String[] parts = RequestLineParser.split(requestLine.value());
+
+            this.httpMethod = RequestLineParser.parseHttpMethod(parts, methodKey);
+
+            this.path = RequestLineParser.parsePath(parts, methodKey);
+
+            this.queryParams = Collections.unmodifiableList(RequestLineParser.parseQueryParams(parts));
+
+            this.headerParams = Collections.unmodifiableList(RequestLineParser.parseHeaderParams(
+                    headerValues(method.getAnnotationsByType(Header.class)),
+                    headerValues(method.getDeclaringClass().getAnnotationsByType(Header.class)),
+                    methodKey));
+        }
+
+        if (definition != null && definition.getCompiled() != null) {
+            this.plan = RequestPlan.of(methodKey, definition);
+        } else {
+            this.plan = RequestPlan.builder()
+                    .method(method)
+                    .methodKey(methodKey)
+                    .httpMethod(httpMethod)
+                    .path(path)
+                    .queryParams(queryParams)
+                    .headerParams(headerParams)
+                    .build();
+        }
+    }
+
+    private static List<String> headerValues(Header[] headers) {
+        return Arrays.stream(headers)
+                .map(Header::value)
+                .collect(Collectors.toList());
+    }
 
-        this.parameterFunction = setupParameterExtractor(method);
+    private MultiStringInterpolator interpolator() {
+        MultiStringInterpolator interpolator = this.interpolator;
 
-        this.bodyFunction = setupBodyFunction(method);
+        if (interpolator == null) {
+            // racing threads build equivalent caches, so it doesn't matter which one is kept
+            interpolator = buildInterpolatorCache();
+            this.interpolator = interpolator;
+        }
 
-        this.interpolator = buildInterpolatorCache();
+        return interpolator;
     }
 
     private MultiStringInterpolator buildInterpolatorCache() {
@@ -219,260 +400,158 @@ public class AsyncInvocationHandler implements InvocationHandler {
 
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) {
-        CompletableFuture<Object> response = new CompletableFuture<>();
-
-        // if the response type is async, then run the request in a separate thread.
-        // otherwise, since the client is going to block anyway, run it in the current thread
-        if (isAsyncResponseType) {
-
-            try {
-                requestExecutor.execute(() -> invoke(response, args));
-            } catch (Throwable t) {
-                response.completeExceptionally(ScreechException.handle(t));
-            }
-
-            return response;
-        } else {
-            try {
-
-                invoke(response, args);
-
-                return response.get();
-            } catch (Throwable e) {
-                throw ScreechException.handle(e);
-            }
-        }
-    }
 
-    private void invoke(CompletableFuture<Object> future, Object[] args) {
-        try {
-            setUpInterceptors(0, buildRequest(args), ensureInvokedOnlyOnce(new Callback<Response<?>>() {
-                @Override
-                public void onSuccess(Response<?> result) {
-                    future.complete(result == null ? null : result.getEntity());
-                }
-
-                @Override
-                public void onFailure(Throwable e) {
-                    future.completeExceptionally(e);
-                }
-            }), future::completeExceptionally);
-        } catch (Throwable e) {
-            future.completeExceptionally(e);
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            return reject("Circuit breaker for %s is open");
         }
-    }
 
-    private Type parseReturnType(Type type) {
-
-        if (type instanceof ParameterizedType) {
-            ParameterizedType parameterizedType = (ParameterizedType) type;
+        long delay = rateLimiter == null ? 0 : rateLimiter.reserve();
 
-            if (WRAPPER_TYPES.contains(parameterizedType.getRawType())) {
-                return parseReturnType(parameterizedType.getActualTypeArguments()[0]);
+        if (delay < 0) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onIgnored();
             }
-        }
-
-        return type;
-    }
-
-    private Function<Object[], Object> setupBodyFunction(Method method) {
-
-        int parametersWithoutAnnotations = (int) Arrays.stream(method.getParameterAnnotations())
-                .mapToInt(a -> a.length)
-                .filter(a -> a == 0)
-                .count();
 
-        if (parametersWithoutAnnotations > 1) {
-            throw new IllegalArgumentException(String.format("Error building client for %s, cannot have more than one body param", methodKey));
-        }
-
-        Parameter[] parameters = method.getParameters();
-
-        for (int i = 0; i < parameters.length; i++) {
-            final int index = i;
-            if (parameters[i].getAnnotations().length == 0) {
-                return objects -> objects[index];
-            }
+            return reject("Rate limit exceeded for %s");
         }
 
-        // no body param
-        return ignored -> null;
-    }
-
-    private List<HttpParam> parseHeaderParams(Method method) {
-        Set<String> headersDefinedAtMethodLevel = new HashSet<>();
-
-        List<HttpParam> headers = new ArrayList<>();
-
-        for (Header methodHeader : method.getAnnotationsByType(Header.class)) {
-            List<String> parts = Arrays.stream(methodHeader.value().split(":", 2))
-                    .map(String::trim)
-                    .collect(Collectors.toList());
+        long remaining = remainingTime();
 
-            if (parts.size() != 2) {
-                throw new IllegalArgumentException(String.format("Failed to parse valid header from value \"%s\" on method %s", methodHeader.value(), methodKey));
+        if (remaining <= delay) {
+            if (circuitBreaker != null) {
+                circuitBreaker.onIgnored();
             }
 
-            headersDefinedAtMethodLevel.add(parts.get(0).toLowerCase());
-
-            headers.add(new HttpParam(parts.get(0), parts.get(1)));
+            return failed(new RequestTimeoutException(String.format("Deadline for %s expired before the call started", methodKey)));
         }
 
-        List<HttpParam> classHeaders = new ArrayList<>();
-
-        for (Header methodHeader : method.getDeclaringClass().getAnnotationsByType(Header.class)) {
-            List<String> parts = Arrays.stream(methodHeader.value().split(":", 2))
-                    .map(String::trim)
-                    .collect(Collectors.toList());
-
-            if (parts.size() != 2) {
-                throw new IllegalArgumentException(String.format("Failed to parse valid header from value \"%s\" on method %s", methodHeader.value(), methodKey));
-            }
-
-            // ignore headers defined at method level
-            if (headersDefinedAtMethodLevel.contains(parts.get(0).toLowerCase())) {
-                continue;
-            }
+        RequestContext context = new RequestContext(args);
 
-            classHeaders.add(new HttpParam(parts.get(0), parts.get(1)));
+        if (remaining != Long.MAX_VALUE) {
+            context.expireAfter(remaining);
         }
 
-        headers.addAll(0, classHeaders);
-
-
-        return headers;
-    }
-
-    private String parseHttpMethod(String[] parts) {
-
-        if (parts.length == 0 || parts[0].isEmpty()) {
-            throw new IllegalArgumentException(String.format("Error building client for %s, no HTTP method defined", methodKey));
+        // if the response type is async, then run the request in a separate thread, unless the execution policy says
+        // to run it on the caller. otherwise, since the client is going to block anyway, run it in the current thread.
+        // rate limited calls always wait on the timer, rather than parking a thread
+        if (delay > 0) {
+            schedule(context, delay);
+        } else if (isAsyncResponseType && executionPolicy.isDispatchRequests()) {
+            dispatch(requestExecutor, context);
+        } else {
+            context.start();
         }
 
-        if (parts[0].contains("/") || parts[0].contains("?") || parts[0].contains("=") || parts[0].contains("&")) {
-            throw new IllegalArgumentException(String.format("Error building client for %s, no HTTP method defined", methodKey));
+        if (isAsyncResponseType) {
+            return context.future;
         }
 
-        return parts[0].trim();
+        try {
+            return context.future.get();
+        } catch (Throwable e) {
+            throw ScreechException.handle(e);
+        }
     }
 
-    private String parsePath(String[] parts) {
-
-        if (parts.length < 2) {
-            throw new IllegalArgumentException(String.format("Error building client for %s, no URL path defined", methodKey));
+    private void dispatch(Executor executor, RequestContext context) {
+        try {
+            executor.execute(context::start);
+        } catch (Throwable t) {
+            abandon(context, t);
         }
+    }
 
-        String pathAndQueryParams = parts[1].trim();
-
-        int index = pathAndQueryParams.indexOf('?');
-
-        if (index >= 0) {
-            return pathAndQueryParams.substring(0, index);
+    private void schedule(RequestContext context, long delay) {
+        try {
+            scheduler.schedule(() -> dispatch(delayedExecutor, context), delay, TimeUnit.NANOSECONDS);
+        } catch (Throwable t) {
+            abandon(context, t);
         }
-
-        return pathAndQueryParams;
     }
 
-    private List<HttpParam> parseQueryParams(String[] parts) {
+    // the call couldn't be started
+    private void abandon(RequestContext context, Throwable t) {
+        context.fail(ScreechException.handle(t));
+    }
 
-        String pathAndQueryParams = parts[1].trim();
+    /**
+     * @return true if the transport request had already been cancelled, so the hook was run straight away
+     */
+    private static <T> boolean registerCancelHook(AtomicReferenceFieldUpdater<T, Runnable> updater, T owner, Runnable abort) {
+        Runnable current;
 
-        int index = pathAndQueryParams.indexOf('?');
+        do {
+            current = updater.get(owner);
 
-        if (index == -1) {
-            return Collections.emptyList();
-        }
+            if (current == TRANSPORT_CANCELLED) {
+                runCancelHook(abort);
+                return true;
+            }
+        } while (!updater.compareAndSet(owner, current, abort));
 
-        List<HttpParam> output = new ArrayList<>();
+        return false;
+    }
 
-        String queryString = pathAndQueryParams.substring(index + 1);
+    /**
+     * @return true if this ran the hook registered by the transport
+     */
+    private static <T> boolean cancelTransport(AtomicReferenceFieldUpdater<T, Runnable> updater, T owner) {
+        Runnable hook = updater.getAndSet(owner, TRANSPORT_CANCELLED);
 
-        while ((index = queryString.indexOf('&')) != -1) {
-            parseSingleParam(queryString.substring(0, index)).ifPresent(output::add);
-            queryString = queryString.substring(index + 1);
+        if (hook != null && hook != TRANSPORT_CANCELLED) {
+            runCancelHook(hook);
+            return true;
         }
 
-        parseSingleParam(queryString).ifPresent(output::add);
-
-        return output;
+        return false;
     }
 
-    private Optional<HttpParam> parseSingleParam(String string) {
-        int idx;
-
-        if ((idx = string.indexOf('=')) != -1) {
-            String key = string.substring(0, idx);
-
-            if (!key.isEmpty()) {
-                return Optional.of(new HttpParam(key, string.substring(idx + 1)));
-            }
-
-            return Optional.empty();
-        }
-
-        if (!string.isEmpty()) {
-            return Optional.of(new HttpParam(string, null));
+    private static void runCancelHook(Runnable hook) {
+        try {
+            hook.run();
+        } catch (Throwable e) {
+            // ignore, the call is already over
         }
-
-        return Optional.empty();
     }
 
-    private Function<Object[], Map<String, String>> setupParameterExtractor(Method method) {
+    /**
+     * @return The time left for a call starting now, or {@link Long#MAX_VALUE} if it has no deadline
+     */
+    private long remainingTime() {
+        Deadline deadline = Deadline.current();
 
-        Supplier[] nameSuppliers = new Supplier[method.getParameterCount()];
-        Param.Expander[] expanders = new Param.Expander[method.getParameterCount()];
+        long remaining = deadline == null ? Long.MAX_VALUE : deadline.remainingNanos();
 
-        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
-
-        for (int i = 0; i < parameterAnnotations.length; i++) {
-
-            // `Param` isn't repeatable, so there should only ever be exactly 1
-            Optional<Param> params = Arrays.stream(parameterAnnotations[i])
-                    .filter(annotation -> annotation instanceof Param)
-                    .map(annotation -> (Param) annotation)
-                    .findAny();
-
-            if (!params.isPresent()) {
-                continue;
-            }
+        return timeoutNanos < 0 ? remaining : Math.min(remaining, timeoutNanos);
+    }
 
-            Param param = params.get();
+    private Object reject(String message) {
+        return failed(new RejectedRequestException(String.format(message, methodKey)));
+    }
 
-            nameSuppliers[i] = param::value;
+    // fail a call which was never started
+    private Object failed(ScreechException e) {
 
-            try {
-                expanders[i] = param.expander().newInstance();
-            } catch (Exception e) {
-                throw new IllegalArgumentException("Failed to create expander", e);
-            }
+        if (!isAsyncResponseType) {
+            throw e;
         }
 
-        return objects -> {
-            Map<String, String> output = new HashMap<>();
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
 
-            for (int i = 0; i < nameSuppliers.length; i++) {
+    private Type parseReturnType(Type type) {
 
-                if (nameSuppliers[i] == null) {
-                    continue;
-                }
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
 
-                output.put((String) nameSuppliers[i].get(), expanders[i].expand(objects[i]));
+            if (WRAPPER_TYPES.contains(parameterizedType.getRawType())) {
+                return parseReturnType(parameterizedType.getActualTypeArguments()[0]);
             }
+        }
 
-            return output;
-        };
-    }
-
-    private <X> Request<X> buildRequest(Object[] args) {
-        //noinspection unchecked
-        return Request.<X>builder()
-                .method(httpMethod)
-                .uri(target.getTarget() + this.path)
-                .templateParameters(parameterFunction.apply(args))
-                .queryParams(this.queryParams)
-                .headers(headerParams)
-                .entity((X) bodyFunction.apply(args))
-                .build();
+        return type;
     }
 
     private SerializedRequest convertRequestIntoSerializedRequest(ByteBuffer buffer, Request<?> request) {
@@ -493,11 +572,12 @@ public class AsyncInvocationHandler implements InvocationHandler {
                 .headers(interpolateHttpParams(request.getHeaders(), request.getTemplateParameters()))
                 .queryParams(interpolateHttpParams(request.getQueryParams(), request.getTemplateParameters()))
                 .requestBody(body)
+                .routingKey(request.getRoutingKey())
                 .build();
     }
 
     private URI interpolateUri(String uri, Map<String, String> templateParameters) {
-        return URI.create(interpolator.interpolate(uri, templateParameters));
+        return URI.create(interpolator().interpolate(uri, templateParameters));
     }
 
     private List<HttpParam> interpolateHttpParams(List<HttpParam> params, Map<String, String> templateParams) {
@@ -510,8 +590,8 @@ public class AsyncInvocationHandler implements InvocationHandler {
 
         if (SimpleStringInterpolator.requiresInterpolation(param.getKey()) || SimpleStringInterpolator.requiresInterpolation(param.getValue())) {
             return HttpParam.builder()
-                    .key(interpolator.interpolate(param.getKey(), templateParams))
-                    .value(interpolator.interpolate(param.getValue(), templateParams))
+                    .key(interpolator().interpolate(param.getKey(), templateParams))
+                    .value(interpolator().interpolate(param.getValue(), templateParams))
                     .build();
         }
 
@@ -529,137 +609,1187 @@ public class AsyncInvocationHandler implements InvocationHandler {
                 .orElse("application/octet-stream");
     }
 
-    private void setUpInterceptors(int index, Request<?> request, Callback<Response<?>> callback, Consumer<Throwable> errorHandler) {
+    private Object wrapEntity(Object entity) {
+        return isOptionalResponseType ? Optional.ofNullable(entity) : entity;
+    }
 
-        Callback<Response<?>> errorHandlingCallback = new ThreadingCallback<>(responseExecutor, new Callback<Response<?>>() {
-            @Override
-            public void onSuccess(Response<?> result) {
-                try {
-                    callback.onSuccess(result);
-                } catch (Throwable e) {
-                    errorHandler.accept(e);
-                }
-            }
+    /**
+     * Whether a callback which was set up on {@code thread} should hop to an executor before running
+     */
+    private boolean shouldHop(Thread thread, boolean completesFuture) {
+        boolean hop = executionPolicy.isHopBetweenStages()
 
-            @Override
-            public void onFailure(Throwable t) {
-                try {
-                    callback.onFailure(t);
-                } catch (Throwable e) {
-                    e.addSuppressed(t);
-                    errorHandler.accept(e);
-                }
-            }
-        });
+                // synchronous callers are blocked waiting on the future, so there's no benefit in completing it elsewhere
+                || (completesFuture && isAsyncResponseType && executionPolicy.isCompleteOnResponseExecutor());
 
-        if (index >= requestInterceptors.size()) {
-            performClientCall(request, errorHandlingCallback);
-        } else {
-            RequestInterceptor requestInterceptor = requestInterceptors.get(index);
+        return hop && Thread.currentThread() != thread;
+    }
 
-            Thread currentThread = Thread.currentThread();
+    /**
+     * State of a single call.
+     * <p>
+     * Acts as the callback for the client, the response content and the response decoder, so that a call without
+     * interceptors allocates one object for the whole pipeline. Progress is tracked in {@link #state}, and every
+     * outcome goes through {@link #finish(int)}, so the call completes exactly once no matter how many times (or from how
+     * many threads) the encoder, client or decoder report a result.
+     * <p>
+     * An interceptor may continue the chain more than once, e.g. to retry with a refreshed token. Each continuation after
+     * the first sends its own request, through a context which shares the call's future and deadline, and delivers its
+     * response to the callback that continuation was given.
+     */
+    private final class RequestContext implements Client.ClientCallback, Client.ContentCallback, Callback<Object> {
 
-            //noinspection CodeBlock2Expr
-            BiConsumer<Request<?>, Callback<Response<Object>>> interceptorCallback = (modifiedRequest, responseCallback) -> {
-                Runnable r = () -> setUpInterceptors(index + 1, modifiedRequest, wrapResponseCallback(responseCallback), errorHandlingCallback::onFailure);
+        private final CompletableFuture<Object> future;
 
-                if (!Thread.currentThread().equals(currentThread)) {
-                    requestExecutor.execute(r);
-                } else {
-                    r.run();
-                }
+        // the context of the call's first request, which every interceptor level continues through
+        private final RequestContext root;
+
+        // the request sent before this one for the same call, null for the first request
+        private RequestContext previous;
+
+        // the most recent request sent for the call if there's more than one, only set on the root. package-private for LATEST
+        volatile RequestContext latest;
+
+        private final Object[] args;
+
+        private RequestPlan.Invocation invocation;
+
+        private Request<?> request;
+
+        // the innermost interceptor, or null if there are no interceptors
+        private InterceptorLevel level;
+
+        private Thread thread;
+
+        private volatile ResponseDecoder decoder;
 
-            };
+        // the request as sent, kept for retries and hedges
+        private SerializedRequest serializedRequest;
 
-            Util.runDangerousCode(errorHandlingCallback, () -> requestInterceptor.intercept(request, interceptorCallback, errorHandlingCallback));
+        // the encoded body as it was before the first attempt, which retries and hedges resend from
+        private ByteBuffer body;
+
+        private int attempt = 1;
+
+        // start of the call and status of the last response, for the circuit breaker
+        private long startNanos;
+
+        private boolean sent;
+
+        private int status = -1;
+
+        // delay before retrying, once the client is done with the discarded response
+        private long pendingRetryDelay;
+
+        // null if the call has no deadline
+        private HashedWheelTimer.Handle timeout;
+
+        // null if buffers aren't pooled, or the request has no body
+        private EncoderBuffers encoderBuffers;
+
+        // 1 while the client may still be reading the body of a request sent through this context, package-private for IN_TRANSPORT
+        volatile int inTransport;
+
+        private boolean hedged;
+
+        private long deadlineNanos;
+
+        // package-private for STATE
+        volatile int state = STARTED;
+
+        // aborts the current request at the transport, package-private for CANCEL_HOOK
+        volatile Runnable cancelHook;
+
+        private RequestContext(Object[] args) {
+            this.args = args;
+            this.root = this;
+            this.future = new CallFuture();
         }
 
-    }
+        private RequestContext(RequestContext root, InterceptorLevel level) {
+            this.args = root.args;
+            this.root = root;
+            this.future = root.future;
+            this.invocation = root.invocation;
+            this.level = level;
+        }
+
+        /**
+         * Must be called before the call starts
+         */
+        private void expireAfter(long nanos) {
+            deadlineNanos = System.nanoTime() + nanos;
+            timeout = HashedWheelTimer.shared().schedule(this::onDeadline, nanos, TimeUnit.NANOSECONDS);
+        }
 
-    private void performClientCall(Request request, Callback<Response<?>> callback) {
-        if (request.getEntity() != null) {
+        // runs on the timer thread
+        private void onDeadline() {
+            try {
+                timeoutExecutor.execute(this::expire);
+            } catch (Throwable e) {
+                expire();
+            }
+        }
 
-            final Callback<ByteBuffer> byteBufferCallback = new ThreadingCallback<>(requestExecutor, new Callback<ByteBuffer>() {
+        private void expire() {
+            // the client isn't told, so whatever it sends from now on is ignored
+            fail(new RequestTimeoutException(String.format("Call to %s timed out", methodKey)), TIMED_OUT);
+        }
 
-                @Override
-                public void onSuccess(ByteBuffer result) {
-                    doRequest(result, request, callback);
-                }
+        // the caller completed the future itself
+        private void abandoned(Throwable e) {
+            fail(e, CANCELLED);
+        }
 
-                @Override
-                public void onFailure(Throwable e) {
-                    callback.onFailure(e);
-                }
+        private void start() {
+            thread = Thread.currentThread();
+
+            if (circuitBreaker != null) {
+                startNanos = System.nanoTime();
+            }
 
-            });
+            try {
+                invocation = plan.bind(target.getTarget(), args);
 
-            Util.runDangerousCode(callback, () -> encoder.encode(request.getEntity(), byteBufferCallback));
-        } else {
-            doRequest(null, request, callback);
+                if (requestInterceptors.isEmpty()) {
+                    send(null, null);
+                } else {
+                    new InterceptorLevel(this, 0, null, null, invocation.toRequest()).proceed();
+                }
+            } catch (Throwable e) {
+                fail(e);
+            }
         }
-    }
 
-    private void doRequest(ByteBuffer buffer, Request request, Callback<Response<?>> callback) {
-        SerializedRequest serializedRequest = convertRequestIntoSerializedRequest(buffer, request);
+        private void send(InterceptorLevel level, Request<?> request) {
+            Object entity = request == null ? invocation.getEntity() : request.getEntity();
 
-        Client.ClientCallback clientCallback = new ClientCallbackImpl(callback::onFailure, headers -> createDecoder(headers, callback));
+            if (!STATE.compareAndSet(this, STARTED, entity == null ? SENT : ENCODING)) {
 
-        Util.runDangerousCode(callback, () -> client.request(serializedRequest, clientCallback));
-    }
+                // an interceptor continued the chain more than once, or the call failed before it was sent
+                if (this == root && level != null) {
+                    resend(level, request);
+                }
 
-    private ResponseDecoder createDecoder(ResponseHeaders clientResponse, Callback<Response<?>> callback) {
-        if (clientResponse == null) {
-            callback.onFailure(new NullPointerException(String.format("Client '%s' returned null ResponseHeaders", client.getClass().getSimpleName())));
-            return null;
-        } else if (clientResponse.getStatus() >= 300) {
-            return createFailureDecoder(clientResponse, callback);
-        } else {
-            return createSuccessDecoder(clientResponse, callback);
+                return;
+            }
+
+            this.level = level;
+            this.request = request;
+
+            if (entity == null) {
+                doRequest(null);
+                return;
+            }
+
+            EncoderCallback callback = new EncoderCallback();
+
+            try {
+                if (bufferPool == null) {
+                    encoder.encode(entity, callback);
+                } else {
+                    encoderBuffers = new EncoderBuffers();
+                    encoder.encode(entity, encoderBuffers, callback);
+                }
+            } catch (Throwable e) {
+                callback.onFailure(e);
+            }
         }
-    }
 
-    private ResponseDecoder createFailureDecoder(ResponseHeaders clientResponse, Callback<Response<?>> callback) {
-        final Callback<Object> responseDecoderCallback = new TransformingCallback<Object, Response<?>>(callback) {
+        /**
+         * Send the request again for an interceptor which continued the chain more than once, through a new context
+         */
+        private void resend(InterceptorLevel level, Request<?> request) {
 
-            @Override
-            protected Response<?> convert(Object entity) {
-                return Response.builder()
-                        .entity(isOptionalResponseType ? Optional.ofNullable(entity) : entity)
-                        .build();
+            if (future.isDone()) {
+                level.onFailure(new CancellationException(String.format("Call to %s is already complete", methodKey)));
+                return;
             }
-        };
 
-        return Util.runDangerousCode(callback, () -> errorDecoder.create(clientResponse, effectiveReturnType, ensureInvokedOnlyOnce(responseDecoderCallback)));
-    }
+            if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+                level.onFailure(new RejectedRequestException(String.format("Circuit breaker for %s is open", methodKey)));
+                return;
+            }
 
-    private ResponseDecoder createSuccessDecoder(ResponseHeaders clientResponse, Callback<Response<?>> callback) {
-        final Callback<Object> responseDecoderCallback = new TransformingCallback<Object, Response<?>>(callback) {
+            RequestContext context = new RequestContext(this, level);
+            RequestContext latest;
 
-            @Override
-            protected Response<?> convert(Object entity) {
-                return Response.builder()
-                        .entity(isOptionalResponseType ? Optional.ofNullable(entity) : entity)
-                        .build();
+            do {
+                latest = this.latest;
+                context.previous = latest == null ? this : latest;
+            } while (!LATEST.compareAndSet(this, latest, context));
+
+            // the caller may have given up on the call before it could see the new context
+            if (future.isDone()) {
+                context.abandoned(new CancellationException(String.format("Call to %s is already complete", methodKey)));
+                return;
             }
-        };
 
-        return Util.runDangerousCode(callback, () -> responseDecoder.create(clientResponse, effectiveReturnType, ensureInvokedOnlyOnce(responseDecoderCallback)));
-    }
+            context.thread = Thread.currentThread();
 
+            if (circuitBreaker != null) {
+                context.startNanos = System.nanoTime();
+            }
 
-    private <T> Callback<T> ensureInvokedOnlyOnce(Callback<T> callback) {
-        return new ConditionallyProxyingCallabck<>(callback, true);
-    }
+            if (timeout != null) {
+                long remaining = deadlineNanos - System.nanoTime();
 
-    private Callback<Response<?>> wrapResponseCallback(Callback<Response<Object>> responseCallback) {
-        return new ThreadingCallback<>(responseExecutor, ensureInvokedOnlyOnce(new TransformingCallback<Response<?>, Response<Object>>(responseCallback) {
+                if (remaining <= 0) {
+                    context.expire();
+                    return;
+                }
 
-            @Override
-            protected Response<Object> convert(Response<?> entity) {
-                // noinspection unchecked
-                return (Response<Object>) entity;
+                context.expireAfter(remaining);
             }
-        }));
+
+            context.send(level, request);
+        }
+
+        private void doRequest(ByteBuffer buffer) {
+            SerializedRequest serializedRequest;
+
+            try {
+                // interceptors may have replaced the request, in which case the plan no longer applies
+                serializedRequest = invocation.isUnmodified(request)
+                        ? plan.serialize(invocation, buffer)
+                        : convertRequestIntoSerializedRequest(buffer, request);
+            } catch (Throwable e) {
+                fail(e);
+                return;
+            }
+
+            if (retryer != null || hedgingPolicy != null) {
+                this.serializedRequest = serializedRequest;
+                this.body = buffer == null ? null : buffer.duplicate();
+            }
+
+            if (retryer != null && retryBudget != null) {
+                retryBudget.onRequest();
+            }
+
+            sent = true;
+
+            sendAttempt(serializedRequest);
+        }
+
+        private void sendAttempt(SerializedRequest serializedRequest) {
+
+            // the call may have ended while a retry was being scheduled, in which case the body has been released
+            if (encoderBuffers != null && !encoderBuffers.retain()) {
+                return;
+            }
+
+            serializedRequest = withDeadlineHeader(serializedRequest);
+
+            long hedgeDelay;
+
+            try {
+                hedgeDelay = hedgingPolicy == null ? -1 : hedgingPolicy.hedgeDelay(serializedRequest.getMethod());
+            } catch (Throwable e) {
+                hedgeDelay = -1;
+            }
+
+            if (hedgeDelay >= 0) {
+                hedged = true;
+                new HedgedCall().start(serializedRequest, hedgeDelay);
+                return;
+            }
+
+            inTransport = 1;
+
+            try {
+                client.request(serializedRequest, this);
+            } catch (Throwable e) {
+                abort(e);
+            }
+        }
+
+        /**
+         * @return A copy of the request which can be sent again, since the client may have consumed the body buffer of
+         * the previous send
+         */
+        private SerializedRequest resendable() {
+
+            if (body == null) {
+                return serializedRequest;
+            }
+
+            return serializedRequest.toBuilder()
+                    .requestBody(serializedRequest.getRequestBody().toBuilder().body(body.duplicate()).build())
+                    .build();
+        }
+
+        /**
+         * @return The request, with the time left before the deadline added as a header if configured
+         */
+        private SerializedRequest withDeadlineHeader(SerializedRequest request) {
+
+            if (deadlineHeader == null || timeout == null) {
+                return request;
+            }
+
+            long remaining = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+
+            List<HttpParam> headers = new ArrayList<>();
+
+            if (request.getHeaders() != null) {
+                headers.addAll(request.getHeaders());
+            }
+
+            headers.add(new HttpParam(deadlineHeader, Long.toString(remaining)));
+
+            return request.toBuilder().headers(headers).build();
+        }
+
+        private void retry() {
+
+            if (!STATE.compareAndSet(this, RETRY_SCHEDULED, SENT)) {
+                return;
+            }
+
+            attempt++;
+            status = -1;
+
+            sendAttempt(resendable());
+        }
+
+        /**
+         * @return The delay before the next attempt, or a negative value if the request shouldn't be retried
+         */
+        private long retryDelay(ResponseHeaders responseHeaders, Throwable failure) {
+
+            // the caller may have cancelled the request
+            if (future.isDone()) {
+                return -1;
+            }
+
+            long delay;
+
+            try {
+                delay = retryer.nextAttemptDelay(attempt, serializedRequest.getMethod(), responseHeaders, failure);
+            } catch (Throwable e) {
+                return -1;
+            }
+
+            // no point in retrying if the deadline will have passed by then
+            if (delay < 0 || (timeout != null && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) - deadlineNanos >= 0)) {
+                return -1;
+            }
+
+            if (retryBudget != null && !retryBudget.tryRetry()) {
+                return -1;
+            }
+
+            return delay;
+        }
+
+        private void scheduleRetry(long delay) {
+            try {
+                scheduler.schedule(() -> {
+                    try {
+                        delayedExecutor.execute(this::retry);
+                    } catch (Throwable e) {
+                        fail(e);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public Client.ContentCallback headers(ResponseHeaders responseHeaders) {
+
+            if (!STATE.compareAndSet(this, SENT, RECEIVING)) {
+                return this;
+            }
+
+            if (responseHeaders == null) {
+                fail(new NullPointerException(String.format("Client '%s' returned null ResponseHeaders", client.getClass().getSimpleName())));
+                return this;
+            }
+
+            status = responseHeaders.getStatus();
+
+            if (retryer != null && responseHeaders.getStatus() >= 300) {
+                long delay = retryDelay(responseHeaders, null);
+
+                if (delay >= 0) {
+                    // written before the state changes, so it's visible to whichever thread schedules the retry
+                    pendingRetryDelay = delay;
+
+                    if (STATE.compareAndSet(this, RECEIVING, RETRY_PENDING)) {
+                        return this;
+                    }
+                }
+            }
+
+            ResponseDecoderFactory factory = responseHeaders.getStatus() >= 300 ? errorDecoder : responseDecoder;
+
+            try {
+                decoder = bufferPool == null
+                        ? factory.create(responseHeaders, effectiveReturnType, this)
+                        : factory.create(responseHeaders, effectiveReturnType, this, bufferPool);
+            } catch (Throwable e) {
+                fail(e);
+            }
+
+            // the call may have timed out or been cancelled before the decoder was visible to finish()
+            if (state == DONE) {
+                abortDecoder();
+            }
+
+            return this;
+        }
+
+        @Override
+        public void content(ByteBuffer content) {
+            ResponseDecoder decoder = this.decoder;
+
+            if (state != RECEIVING || decoder == null) {
+                return;
+            }
+
+            try {
+                decoder.content(content);
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void content(ByteBuffer content, Runnable demand) {
+            ResponseDecoder decoder = this.decoder;
+
+            if (state != RECEIVING || decoder == null) {
+                // discard the content, but keep reading so the response ends as usual
+                demand.run();
+                return;
+            }
+
+            try {
+                decoder.content(content, demand);
+            } catch (Throwable e) {
+                // aborts the transport, so there's no need to signal demand
+                fail(e);
+            }
+        }
+
+        @Override
+        public void retainedContent(ByteBuffer content, Runnable release, Runnable demand) {
+            ResponseDecoder decoder = this.decoder;
+
+            if (state != RECEIVING || decoder == null) {
+                release.run();
+                demand.run();
+                return;
+            }
+
+            try {
+                decoder.retainedContent(content, release, demand);
+            } catch (Throwable e) {
+                // aborts the decoder, which releases the buffer if it kept it
+                fail(e);
+            }
+        }
+
+        @Override
+        public void complete() {
+            transportFinished();
+
+            if (!STATE.compareAndSet(this, RECEIVING, RECEIVED)) {
+
+                if (STATE.compareAndSet(this, RETRY_PENDING, RETRY_SCHEDULED)) {
+                    scheduleRetry(pendingRetryDelay);
+                } else if (state == SENT) {
+                    fail(new IllegalStateException(String.format("Client '%s' completed the request without providing ResponseHeaders", client.getClass().getSimpleName())));
+                }
+
+                return;
+            }
+
+            ResponseDecoder decoder = this.decoder;
+
+            if (decoder == null) {
+                return;
+            }
+
+            try {
+                decoder.complete();
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onCancel(Runnable abort) {
+            if (registerCancelHook(CANCEL_HOOK, this, abort)) {
+                transportFinished();
+            }
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            transportFinished();
+
+            if (STATE.compareAndSet(this, RETRY_PENDING, RETRY_SCHEDULED)) {
+                scheduleRetry(pendingRetryDelay);
+                return;
+            }
+
+            int current = state;
+
+            if (current != SENT && current != RECEIVING) {
+                return;
+            }
+
+            // once the response has started being decoded, it's too late to retry
+            if (current == SENT && retryer != null) {
+                long delay = retryDelay(null, t);
+
+                if (delay >= 0 && STATE.compareAndSet(this, SENT, RETRY_SCHEDULED)) {
+                    scheduleRetry(delay);
+                    return;
+                }
+            }
+
+            fail(t);
+        }
+
+        /**
+         * Decoded response entity
+         */
+        @Override
+        public void onSuccess(Object entity) {
+
+            if (!finish(SUCCEEDED)) {
+                return;
+            }
+
+            if (level == null) {
+                completeFuture(wrapEntity(entity), null);
+            } else {
+                level.onSuccess(Response.builder().entity(wrapEntity(entity)).build());
+            }
+        }
+
+        /**
+         * Failure from any stage of the call
+         */
+        @Override
+        public void onFailure(Throwable e) {
+            fail(e);
+        }
+
+        private void fail(Throwable e) {
+            fail(e, FAILED);
+        }
+
+        private void fail(Throwable e, int outcome) {
+
+            if (!finish(outcome)) {
+                return;
+            }
+
+            if (level == null) {
+                completeFuture(null, e);
+            } else {
+                level.onFailure(e);
+            }
+        }
+
+        /**
+         * @param outcome The outcome of the call
+         * @return true if this call moved the request into its terminal state
+         */
+        private boolean finish(int outcome) {
+            int current;
+
+            do {
+                current = state;
+
+                if (current == DONE) {
+                    return false;
+                }
+            } while (!STATE.compareAndSet(this, current, DONE));
+
+            if (timeout != null) {
+                timeout.cancel();
+            }
+
+            // nobody is going to read the response, so stop the transport from receiving it
+            if (outcome != SUCCEEDED && (current == SENT || current == RECEIVING || current == RETRY_PENDING)) {
+                if (cancelTransport(CANCEL_HOOK, this)) {
+                    transportFinished();
+                }
+            }
+
+            // the response won't be decoded, so the decoder can let go of whatever it's holding on to, e.g. retained
+            // transport buffers. The transport may still be delivering content, which the decoder has to release.
+            if (outcome != SUCCEEDED && (current == RECEIVING || current == RECEIVED)) {
+                abortDecoder();
+            }
+
+            if (circuitBreaker != null) {
+                recordOutcome(outcome);
+            }
+
+            // no more attempts will be sent, but the encoder and the client may still be using the body
+            if (encoderBuffers != null) {
+                encoderBuffers.releaseReference();
+            }
+
+            return true;
+        }
+
+        /**
+         * The client is done with the body of the request sent through this context, once it's completed or aborted
+         * the request, or it's been cancelled. Sends of a hedged call keep track of their own requests.
+         */
+        private void transportFinished() {
+            if (encoderBuffers != null && IN_TRANSPORT.compareAndSet(this, 1, 0)) {
+                encoderBuffers.releaseReference();
+            }
+        }
+
+        private void abortDecoder() {
+            ResponseDecoder decoder = this.decoder;
+
+            if (decoder != null) {
+                try {
+                    decoder.abort();
+                } catch (Throwable ignore) {
+                    // ignore
+                }
+            }
+        }
+
+        private void recordOutcome(int outcome) {
+            try {
+                if (!sent || outcome == CANCELLED) {
+                    circuitBreaker.onIgnored();
+                } else if (outcome == TIMED_OUT) {
+                    circuitBreaker.onResult(System.nanoTime() - startNanos, true);
+                } else if (status >= 0) {
+                    // the server responded, so only the status matters, not whether it could be decoded
+                    circuitBreaker.onResult(System.nanoTime() - startNanos, circuitBreaker.isFailure(status));
+                } else {
+                    circuitBreaker.onResult(System.nanoTime() - startNanos, outcome != SUCCEEDED);
+                }
+            } catch (Throwable e) {
+                // ignore, a broken breaker shouldn't fail the request
+            }
+        }
+
+        private void completeFuture(Object entity, Throwable e) {
+            if (shouldHop(thread, true)) {
+                responseExecutor.execute(() -> completeFutureNow(entity, e));
+            } else {
+                completeFutureNow(entity, e);
+            }
+        }
+
+        private void completeFutureNow(Object entity, Throwable e) {
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(entity);
+            }
+        }
+
+        /**
+         * The future returned to the caller. If the caller completes it first (e.g. cancels it, or times it out with
+         * {@code orTimeout}), the call is abandoned: interceptors are notified and the transport requests still in
+         * progress are aborted.
+         */
+        private final class CallFuture extends CompletableFuture<Object> {
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+                if (cancelled) {
+                    abandon(null, "Call to %s was cancelled");
+                }
+
+                return cancelled;
+            }
+
+            @Override
+            public boolean complete(Object value) {
+                boolean completed = super.complete(value);
+
+                if (completed) {
+                    abandon(null, "Call to %s was completed by the caller");
+                }
+
+                return completed;
+            }
+
+            @Override
+            public boolean completeExceptionally(Throwable e) {
+                boolean completed = super.completeExceptionally(e);
+
+                if (completed) {
+                    abandon(e, null);
+                }
+
+                return completed;
+            }
+
+            // abandons every request of the call which isn't done, normally there's none since the call completed the future
+            private void abandon(Throwable e, String message) {
+                RequestContext latest = RequestContext.this.latest;
+
+                for (RequestContext context = latest == null ? RequestContext.this : latest; context != null; context = context.previous) {
+
+                    if (context.state == DONE) {
+                        continue;
+                    }
+
+                    if (e == null) {
+                        e = new CancellationException(String.format(message, methodKey));
+                    }
+
+                    context.abandoned(e);
+                }
+            }
+        }
+
+        /**
+         * One attempt at the request which may be hedged: sends the request, and again if there's no response within
+         * the hedge delay. The first send to receive headers wins and is passed through to the context; responses to
+         * the other send are ignored. Failures are only passed through once no send is left outstanding, so a hedge can
+         * still succeed after the original fails. Once a send wins, the other is cancelled.
+         */
+        private final class HedgedCall implements Runnable {
+
+            private final long startNanos = System.nanoTime();
+
+            private final AtomicReference<Send> winner = new AtomicReference<>();
+
+            private final AtomicInteger outstanding = new AtomicInteger(1);
+
+            private volatile ScheduledFuture<?> timer;
+
+            private volatile Send original;
+
+            private volatile Send hedge;
+
+            private void start(SerializedRequest request, long delay) {
+                RequestContext.this.onCancel(this::cancel);
+
+                try {
+                    timer = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+                } catch (Throwable e) {
+                    // unable to hedge, but the request can still be sent
+                }
+
+                Send send = new Send();
+                original = send;
+                send.send(request);
+            }
+
+            // runs on the scheduler when the hedge delay has elapsed
+            @Override
+            public void run() {
+
+                if (winner.get() != null || future.isDone() || !hedgingPolicy.tryHedge()) {
+                    return;
+                }
+
+                if (encoderBuffers != null && !encoderBuffers.retain()) {
+                    return;
+                }
+
+                outstanding.incrementAndGet();
+
+                Send send = new Send();
+                hedge = send;
+
+                // the call may have been cancelled or the original may have won since the check above, without seeing
+                // the hedge to cancel it
+                if (winner.get() != null || future.isDone()) {
+                    outstanding.decrementAndGet();
+                    send.transportFinished();
+                    return;
+                }
+
+                try {
+                    delayedExecutor.execute(() -> send.send(withDeadlineHeader(resendable())));
+                } catch (Throwable e) {
+                    send.abort(e);
+                }
+            }
+
+            private void cancel() {
+                cancelTimer();
+
+                Send original = this.original;
+                Send hedge = this.hedge;
+
+                if (original != null) {
+                    original.cancel();
+                }
+
+                if (hedge != null) {
+                    hedge.cancel();
+                }
+            }
+
+            private void cancelTimer() {
+                ScheduledFuture<?> timer = this.timer;
+
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+            }
+
+            /**
+             * A single request to the client. Holds a reference to the encoder buffers, if any, from when it's created
+             * until the client is done with the request.
+             */
+            private final class Send implements Client.ClientCallback {
+
+                private final AtomicBoolean finished = new AtomicBoolean();
+
+                // package-private for SEND_CANCEL_HOOK
+                volatile Runnable cancelHook;
+
+                private void send(SerializedRequest request) {
+                    try {
+                        client.request(request, this);
+                    } catch (Throwable e) {
+                        abort(e);
+                    }
+                }
+
+                @Override
+                public Client.ContentCallback headers(ResponseHeaders responseHeaders) {
+
+                    if (!winner.compareAndSet(null, this)) {
+                        // the other send already won, discard the response
+                        return content -> {
+                        };
+                    }
+
+                    cancelTimer();
+
+                    Send loser = this == original ? hedge : original;
+
+                    if (loser != null) {
+                        loser.cancel();
+                    }
+
+                    try {
+                        hedgingPolicy.onResponse(System.nanoTime() - startNanos);
+                    } catch (Throwable e) {
+                        // ignore, a broken policy shouldn't fail the request
+                    }
+
+                    return RequestContext.this.headers(responseHeaders);
+                }
+
+                @Override
+                public void complete() {
+                    transportFinished();
+
+                    if (winner.get() == this) {
+                        RequestContext.this.complete();
+                    }
+                }
+
+                @Override
+                public void abort(Throwable t) {
+                    transportFinished();
+
+                    if (winner.get() == this) {
+                        RequestContext.this.abort(t);
+                        return;
+                    }
+
+                    // only the last outstanding send reports a failure
+                    if (outstanding.decrementAndGet() == 0 && winner.compareAndSet(null, this)) {
+                        cancelTimer();
+                        RequestContext.this.abort(t);
+                    }
+                }
+
+                @Override
+                public void onCancel(Runnable abort) {
+                    if (registerCancelHook(SEND_CANCEL_HOOK, this, abort)) {
+                        transportFinished();
+                    }
+
+                    Send winner = HedgedCall.this.winner.get();
+
+                    // the other send may have won before the hook was registered
+                    if (winner != null && winner != this) {
+                        cancel();
+                    }
+                }
+
+                private void cancel() {
+                    if (cancelTransport(SEND_CANCEL_HOOK, this)) {
+                        transportFinished();
+                    }
+                }
+
+                private void transportFinished() {
+                    if (encoderBuffers != null && finished.compareAndSet(false, true)) {
+                        encoderBuffers.releaseReference();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Separate from the context, since unlike the other callbacks a misbehaving encoder could call it concurrently
+         * with the decoder
+         */
+        private final class EncoderCallback implements Callback<ByteBuffer> {
+
+            private final Thread thread = Thread.currentThread();
+
+            private final AtomicBoolean finished = new AtomicBoolean();
+
+            @Override
+            public void onSuccess(ByteBuffer result) {
+                encoderFinished();
+
+                // the call failed while encoding, so the body never reaches the client
+                if (!STATE.compareAndSet(RequestContext.this, ENCODING, SENT)) {
+                    return;
+                }
+
+                if (executionPolicy.isHopBetweenStages() && Thread.currentThread() != thread) {
+                    requestExecutor.execute(() -> doRequest(result));
+                } else {
+                    doRequest(result);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                encoderFinished();
+                fail(e);
+            }
+
+            private void encoderFinished() {
+                if (encoderBuffers != null && finished.compareAndSet(false, true)) {
+                    encoderBuffers.releaseReference();
+                }
+            }
+        }
+
+        /**
+         * The buffer pool as seen by the encoder, which keeps track of the buffers it hands out so they can be released
+         * once nobody is using the request body any more.
+         * <p>
+         * The call, the encoder and every request the client is sending with the body each hold a reference, and the
+         * buffers go back to the pool once all of them are done: when the call has ended, the encoder has reported its
+         * result, and the client has completed, aborted or been cancelled for each request. A client which never does
+         * leaves the buffers to the garbage collector.
+         */
+        private final class EncoderBuffers implements BufferPool {
+
+            // the encoder and whichever thread ends the call may both be virtual, so not a monitor
+            private final ReentrantLock lock = new ReentrantLock();
+
+            // guarded by lock
+            private final List<ByteBuffer> acquired = new ArrayList<>(1);
+
+            // the call and the encoder
+            private final AtomicInteger references = new AtomicInteger(2);
+
+            @Override
+            public ByteBuffer acquire(int size) {
+                ByteBuffer buffer = bufferPool.acquire(size);
+
+                lock.lock();
+
+                try {
+                    acquired.add(buffer);
+                } finally {
+                    lock.unlock();
+                }
+
+                return buffer;
+            }
+
+            @Override
+            public void release(ByteBuffer buffer) {
+                lock.lock();
+
+                try {
+                    for (int i = 0; i < acquired.size(); i++) {
+                        if (acquired.get(i) == buffer) {
+                            acquired.remove(i);
+                            bufferPool.release(buffer);
+                            return;
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+
+            /**
+             * @return false if the buffers have already been released, in which case the body can't be sent
+             */
+            private boolean retain() {
+                int current;
+
+                do {
+                    current = references.get();
+
+                    if (current == 0) {
+                        return false;
+                    }
+                } while (!references.compareAndSet(current, current + 1));
+
+                return true;
+            }
+
+            private void releaseReference() {
+                if (references.decrementAndGet() == 0) {
+                    releaseAll();
+                }
+            }
+
+            private void releaseAll() {
+                lock.lock();
+
+                try {
+                    for (ByteBuffer buffer : acquired) {
+                        bufferPool.release(buffer);
+                    }
+
+                    acquired.clear();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * A single level of the interceptor chain.
+     * <p>
+     * Level {@code n} is both the continuation passed to interceptor {@code n}, and the response callback passed to
+     * it. Responses are delivered to the callback interceptor {@code n - 1} passed to its continuation; if that
+     * callback throws, the exception is delivered to level {@code n - 1} instead, so that every interceptor sees the
+     * failure.
+     */
+    private final class InterceptorLevel implements Callback<Response<?>>, BiConsumer<Request<?>, Callback<Response<Object>>> {
+
+        private final RequestContext context;
+
+        private final int index;
+
+        private final InterceptorLevel parent;
+
+        // response callback of the previous interceptor, or null for the first level (which completes the call)
+        private final Callback<Response<Object>> callback;
+
+        private final Request<?> request;
+
+        private Thread thread;
+
+        // package-private for COMPLETED
+        volatile int completed;
+
+        private InterceptorLevel(RequestContext context, int index, InterceptorLevel parent, Callback<Response<Object>> callback, Request<?> request) {
+            this.context = context;
+            this.index = index;
+            this.parent = parent;
+            this.callback = callback;
+            this.request = request;
+        }
+
+        private void proceed() {
+            thread = Thread.currentThread();
+
+            if (index >= requestInterceptors.size()) {
+                context.send(this, request);
+                return;
+            }
+
+            try {
+                requestInterceptors.get(index).intercept(request, this, this);
+            } catch (Throwable e) {
+                onFailure(e);
+            }
+        }
+
+        @Override
+        public void accept(Request<?> modifiedRequest, Callback<Response<Object>> responseCallback) {
+            InterceptorLevel next = new InterceptorLevel(context, index + 1, this, responseCallback, modifiedRequest);
+
+            if (executionPolicy.isHopBetweenStages() && Thread.currentThread() != thread) {
+                requestExecutor.execute(next::proceed);
+            } else {
+                next.proceed();
+            }
+        }
+
+        @Override
+        public void onSuccess(Response<?> result) {
+
+            if (!COMPLETED.compareAndSet(this, 0, 1)) {
+                return;
+            }
+
+            if (shouldHop(thread, callback == null)) {
+                responseExecutor.execute(() -> deliverSuccess(result));
+            } else {
+                deliverSuccess(result);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+
+            if (!COMPLETED.compareAndSet(this, 0, 1)) {
+                return;
+            }
+
+            if (shouldHop(thread, callback == null)) {
+                responseExecutor.execute(() -> deliverFailure(t));
+            } else {
+                deliverFailure(t);
+            }
+        }
+
+        private void deliverSuccess(Response<?> result) {
+
+            if (callback == null) {
+                context.completeFutureNow(result == null ? null : result.getEntity(), null);
+                return;
+            }
+
+            try {
+                // noinspection unchecked
+                callback.onSuccess((Response<Object>) result);
+            } catch (Throwable e) {
+                parent.onFailure(e);
+            }
+        }
+
+        private void deliverFailure(Throwable t) {
+
+            if (callback == null) {
+                context.completeFutureNow(null, t);
+                return;
+            }
+
+            try {
+                callback.onFailure(t);
+            } catch (Throwable e) {
+                e.addSuppressed(t);
+                parent.onFailure(e);
+            }
+        }
     }
 
 }
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.internal;
+
+import lombok.Builder;
+import lombok.NonNull;
+import zone.gryphon.screech.exception.ScreechException;
+import zone.gryphon.screech.util.Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Handler for a {@link zone.gryphon.screech.Batched} method, which collects calls into batches and sends each batch
+ * through the bulk method of the same client, so that the bulk method's interceptors, limits and retries apply.
+ */
+public class BatchingInvocationHandler implements InvocationHandler {
+
+    private final Method bulkMethod;
+
+    private final String methodKey;
+
+    private final boolean isAsyncResponseType;
+
+    private final boolean isOptionalResponseType;
+
+    // whether the bulk method returns items in the same order as the keys, rather than a map
+    private final boolean positional;
+
+    // whether the bulk method takes a set of keys, rather than a list
+    private final boolean takesSet;
+
+    private final int maxSize;
+
+    private final long maxDelayNanos;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Executor requestExecutor;
+
+    // callers enqueue from whatever thread they're on, virtual ones included, so this is a lock rather than a monitor
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // guarded by lock
+    private Batch current;
+
+    @Builder
+    private BatchingInvocationHandler(
+            @NonNull Method method,
+            @NonNull Method bulkMethod,
+            Integer maxSize,
+            Duration maxDelay,
+            @NonNull ScheduledExecutorService scheduler,
+            @NonNull Executor requestExecutor) {
+
+        this.methodKey = Util.toString(method);
+
+        if (method.getParameterCount() != 1) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, batched methods must take exactly one parameter", methodKey));
+        }
+
+        if (bulkMethod.getParameterCount() != 1) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, bulk method %s must take exactly one parameter",
+                    methodKey, bulkMethod.getName()));
+        }
+
+        Class<?> keysType = bulkMethod.getParameterTypes()[0];
+
+        if (keysType.isAssignableFrom(ArrayList.class)) {
+            this.takesSet = false;
+        } else if (keysType.isAssignableFrom(LinkedHashSet.class)) {
+            this.takesSet = true;
+        } else {
+            throw new IllegalArgumentException(String.format("Error building client for %s, bulk method %s must take a List, Set or Collection of keys",
+                    methodKey, bulkMethod.getName()));
+        }
+
+        Class<?> resultType = bulkResultType(bulkMethod);
+
+        if (Map.class.equals(resultType)) {
+            this.positional = false;
+        } else if (List.class.equals(resultType)) {
+            this.positional = true;
+        } else {
+            throw new IllegalArgumentException(String.format("Error building client for %s, bulk method %s must return a CompletableFuture of a Map or List",
+                    methodKey, bulkMethod.getName()));
+        }
+
+        this.maxSize = maxSize == null ? 100 : maxSize;
+
+        if (this.maxSize < 1) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, max batch size must be positive but was %d", methodKey, this.maxSize));
+        }
+
+        this.maxDelayNanos = maxDelay == null ? TimeUnit.MILLISECONDS.toNanos(5) : maxDelay.toNanos();
+
+        if (this.maxDelayNanos < 0) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, max batch delay must not be negative but was %s", methodKey, maxDelay));
+        }
+
+        // interface methods are public, but can't be invoked reflectively from another package if the interface isn't
+        if (!Modifier.isPublic(bulkMethod.getDeclaringClass().getModifiers())) {
+            bulkMethod.setAccessible(true);
+        }
+
+        this.bulkMethod = bulkMethod;
+        this.isAsyncResponseType = method.getReturnType().isAssignableFrom(CompletableFuture.class);
+        this.isOptionalResponseType = isOptional(method.getGenericReturnType());
+        this.scheduler = scheduler;
+        this.requestExecutor = requestExecutor;
+    }
+
+    // raw type of the value the future returned by the bulk method completes with, or null if it doesn't return one
+    private static Class<?> bulkResultType(Method bulkMethod) {
+
+        if (!CompletableFuture.class.equals(bulkMethod.getReturnType()) || !(bulkMethod.getGenericReturnType() instanceof ParameterizedType)) {
+            return null;
+        }
+
+        Type type = ((ParameterizedType) bulkMethod.getGenericReturnType()).getActualTypeArguments()[0];
+
+        if (type instanceof ParameterizedType) {
+            type = ((ParameterizedType) type).getRawType();
+        }
+
+        return type instanceof Class ? (Class<?>) type : null;
+    }
+
+    private boolean isOptional(Type type) {
+
+        if (!(type instanceof ParameterizedType)) {
+            return false;
+        }
+
+        ParameterizedType parameterizedType = (ParameterizedType) type;
+
+        if (Optional.class.equals(parameterizedType.getRawType())) {
+            return true;
+        }
+
+        return isAsyncResponseType && isOptional(parameterizedType.getActualTypeArguments()[0]);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+
+        Batch full = null;
+
+        lock.lock();
+
+        try {
+            if (current == null) {
+                current = new Batch(proxy);
+
+                if (maxSize > 1) {
+                    current.timer = schedule(current);
+                }
+            }
+
+            current.add(args[0], future);
+
+            if (current.keys.size() >= maxSize) {
+                full = current;
+                current = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (full != null) {
+            full.send();
+        }
+
+        if (isAsyncResponseType) {
+            return future;
+        }
+
+        try {
+            return future.get();
+        } catch (Throwable e) {
+            throw ScreechException.handle(e);
+        }
+    }
+
+    /**
+     * Send the current batch now, rather than waiting for it to fill up
+     */
+    public void flush() {
+        Batch batch;
+
+        lock.lock();
+
+        try {
+            batch = current;
+            current = null;
+        } finally {
+            lock.unlock();
+        }
+
+        if (batch != null) {
+            batch.send();
+        }
+    }
+
+    private ScheduledFuture<?> schedule(Batch batch) {
+        try {
+            return scheduler.schedule(() -> flushAfterDelay(batch), maxDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (Throwable e) {
+            // unable to schedule, so the batch is sent once it's full or flushed
+            return null;
+        }
+    }
+
+    // runs on the scheduler
+    private void flushAfterDelay(Batch batch) {
+        lock.lock();
+
+        try {
+            if (current != batch) {
+                // already sent
+                return;
+            }
+
+            current = null;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            requestExecutor.execute(batch::send);
+        } catch (Throwable e) {
+            batch.fail(e);
+        }
+    }
+
+    private final class Batch {
+
+        private final Object proxy;
+
+        // callers waiting on each key, in the order the keys were first requested
+        private final Map<Object, List<CompletableFuture<Object>>> keys = new LinkedHashMap<>();
+
+        private ScheduledFuture<?> timer;
+
+        private Batch(Object proxy) {
+            this.proxy = proxy;
+        }
+
+        private void add(Object key, CompletableFuture<Object> future) {
+            keys.computeIfAbsent(key, ignored -> new ArrayList<>(1)).add(future);
+        }
+
+        private void send() {
+
+            if (timer != null) {
+                timer.cancel(false);
+            }
+
+            Collection<Object> request = takesSet ? new LinkedHashSet<>(keys.keySet()) : new ArrayList<>(keys.keySet());
+
+            CompletableFuture<?> response;
+
+            try {
+                response = (CompletableFuture<?>) bulkMethod.invoke(proxy, request);
+            } catch (InvocationTargetException e) {
+                fail(e.getCause());
+                return;
+            } catch (Throwable e) {
+                fail(e);
+                return;
+            }
+
+            response.whenComplete((result, e) -> {
+                if (e != null) {
+                    fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                } else {
+                    complete(result);
+                }
+            });
+        }
+
+        private void complete(Object result) {
+
+            if (result == null) {
+                keys.forEach((key, futures) -> futures.forEach(future -> future.complete(wrap(null))));
+                return;
+            }
+
+            if (!positional) {
+                Map<?, ?> items = (Map<?, ?>) result;
+                keys.forEach((key, futures) -> futures.forEach(future -> future.complete(wrap(items.get(key)))));
+                return;
+            }
+
+            List<?> items = (List<?>) result;
+
+            if (items.size() != keys.size()) {
+                fail(new IllegalStateException(String.format("Bulk method %s returned %d items for %d keys, unable to match them up for %s",
+                        bulkMethod.getName(), items.size(), keys.size(), methodKey)));
+                return;
+            }
+
+            int i = 0;
+
+            for (List<CompletableFuture<Object>> futures : keys.values()) {
+                Object item = items.get(i++);
+                futures.forEach(future -> future.complete(wrap(item)));
+            }
+        }
+
+        private void fail(Throwable e) {
+            keys.values().forEach(futures -> futures.forEach(future -> future.completeExceptionally(e)));
+        }
+
+        private Object wrap(Object item) {
+            return isOptionalResponseType ? Optional.ofNullable(item) : item;
+        }
+    }
+}
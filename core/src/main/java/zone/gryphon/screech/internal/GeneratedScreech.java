@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.internal;
+
+import lombok.Getter;
+import zone.gryphon.screech.ScreechDefinition;
+import zone.gryphon.screech.model.MethodDefinition;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Runtime view of a {@link ScreechDefinition}, with each method definition resolved to its {@link Method}.
+ *
+ * @param <T> The client interface
+ */
+public class GeneratedScreech<T> {
+
+    private static final ClassValue<Optional<GeneratedScreech<?>>> CACHE = new ClassValue<Optional<GeneratedScreech<?>>>() {
+
+        @Override
+        protected Optional<GeneratedScreech<?>> computeValue(Class<?> clazz) {
+            return Optional.ofNullable(load(clazz));
+        }
+    };
+
+    /**
+     * Find the generated definition for an interface.
+     *
+     * @param clazz The interface
+     * @param <T>   The type of the interface
+     * @return The definition, or empty if the interface wasn't processed at compile time
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Optional<GeneratedScreech<T>> find(Class<T> clazz) {
+        return (Optional<GeneratedScreech<T>>) (Optional<?>) CACHE.get(clazz);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static GeneratedScreech<?> load(Class<?> clazz) {
+        Class<?> definitionClass;
+
+        try {
+            definitionClass = Class.forName(ScreechDefinition.nameFor(clazz), true, clazz.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+
+        try {
+            ScreechDefinition<Object> definition = (ScreechDefinition<Object>) definitionClass.getDeclaredConstructor().newInstance();
+
+            return new GeneratedScreech<>((Class<Object>) clazz, definition);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(String.format("Failed to instantiate %s", definitionClass.getName()), e);
+        }
+    }
+
+    private final ScreechDefinition<T> definition;
+
+    private final Method[] methods;
+
+    /**
+     * The pre-parsed definition of each method of the interface
+     */
+    @Getter
+    private final Map<Method, MethodDefinition> methodDefinitions;
+
+    private GeneratedScreech(Class<T> clazz, ScreechDefinition<T> definition) throws NoSuchMethodException {
+        List<MethodDefinition> definitions = definition.getMethods();
+
+        Map<Method, MethodDefinition> map = new HashMap<>();
+
+        this.definition = definition;
+        this.methods = new Method[definitions.size() + 3];
+
+        for (int i = 0; i < definitions.size(); i++) {
+            MethodDefinition methodDefinition = definitions.get(i);
+            methods[i] = clazz.getMethod(methodDefinition.getName(), methodDefinition.getParameterTypes().toArray(new Class<?>[0]));
+            map.put(methods[i], methodDefinition);
+        }
+
+        methods[definitions.size()] = Object.class.getDeclaredMethod("equals", Object.class);
+        methods[definitions.size() + 1] = Object.class.getDeclaredMethod("hashCode");
+        methods[definitions.size() + 2] = Object.class.getDeclaredMethod("toString");
+
+        this.methodDefinitions = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Create an instance of the generated implementation.
+     *
+     * @param handlers The handler for each method, see {@link ReflectiveScreech#getHandlers()}
+     * @return The implementation
+     */
+    public T create(Map<Method, InvocationHandler> handlers) {
+        InvocationHandler[] array = new InvocationHandler[methods.length];
+
+        for (int i = 0; i < methods.length; i++) {
+            array[i] = handlers.get(methods[i]);
+
+            if (array[i] == null) {
+                throw new NullPointerException("Unable to find handler for method " + methods[i]);
+            }
+        }
+
+        return definition.create(methods, array);
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Timer for large numbers of timeouts which are usually cancelled before they expire, such as call deadlines.
+ * <p>
+ * Timeouts are hashed into a fixed size wheel of buckets by their deadline, and a single thread visits one bucket per
+ * tick, so scheduling and cancelling are constant time and don't contend on a shared queue the way a
+ * {@link java.util.concurrent.ScheduledThreadPoolExecutor} does. The price is precision: timeouts expire up to one
+ * tick late.
+ * <p>
+ * Tasks run on the timer thread, so they should only hand work off to another executor.
+ */
+public final class HashedWheelTimer {
+
+    private static final class Holder {
+
+        private static final HashedWheelTimer INSTANCE = new HashedWheelTimer("ScreechWheelTimer", 10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * @return Timer shared by all clients, with a 10ms tick
+     */
+    public static HashedWheelTimer shared() {
+        return Holder.INSTANCE;
+    }
+
+    // maximum number of new timeouts moved into the wheel per tick, so a burst doesn't stall expiry
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    // deadlines are relative to this, so they can't overflow
+    private final long startNanos = System.nanoTime();
+
+    private final Queue<Handle> added = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Handle> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final Thread worker;
+
+    HashedWheelTimer(String name, long tick, TimeUnit unit, int wheelSize) {
+
+        if (tick <= 0) {
+            throw new IllegalArgumentException(String.format("Tick must be positive, got %d", tick));
+        }
+
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException(String.format("Wheel size must be a positive power of two, got %d", wheelSize));
+        }
+
+        this.tickNanos = unit.toNanos(tick);
+        this.wheel = new Bucket[wheelSize];
+        this.mask = wheelSize - 1;
+
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new Bucket();
+        }
+
+        this.worker = new ScreechThreadFactory(name, true).newThread(this::run);
+    }
+
+    /**
+     * Run a task once the delay has elapsed.
+     *
+     * @param task  The task, which runs on the timer thread
+     * @param delay The delay
+     * @param unit  The unit of the delay
+     * @return Handle which can cancel the task
+     */
+    public Handle schedule(Runnable task, long delay, TimeUnit unit) {
+
+        if (!started.get() && started.compareAndSet(false, true)) {
+            worker.start();
+        }
+
+        long deadline = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+
+        // guard against overflow for very long delays
+        if (deadline < 0) {
+            deadline = Long.MAX_VALUE;
+        }
+
+        Handle handle = new Handle(this, task, deadline);
+        added.add(handle);
+        return handle;
+    }
+
+    private void run() {
+        long tick = (System.nanoTime() - startNanos) / tickNanos;
+
+        while (true) {
+            long deadline = (tick + 1) * tickNanos;
+            long remaining;
+
+            while ((remaining = deadline - (System.nanoTime() - startNanos)) > 0) {
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            removeCancelled();
+            transferAdded(tick);
+            wheel[(int) (tick & mask)].expire();
+
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        Handle handle;
+
+        while ((handle = cancelled.poll()) != null) {
+            if (handle.bucket != null) {
+                handle.bucket.remove(handle);
+            }
+        }
+    }
+
+    private void transferAdded(long currentTick) {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Handle handle = added.poll();
+
+            if (handle == null) {
+                return;
+            }
+
+            if (handle.state != Handle.PENDING) {
+                continue;
+            }
+
+            long expiryTick = handle.deadline / tickNanos;
+
+            handle.rounds = (expiryTick - currentTick) / wheel.length;
+
+            // a timeout which is already due goes in the current bucket, rather than waiting for the wheel to come round
+            wheel[(int) (Math.max(expiryTick, currentTick) & mask)].add(handle);
+        }
+    }
+
+    /**
+     * A scheduled task
+     */
+    public static final class Handle {
+
+        private static final int PENDING = 0;
+
+        private static final int CANCELLED = 1;
+
+        private static final int EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Handle> STATE = AtomicIntegerFieldUpdater.newUpdater(Handle.class, "state");
+
+        private final HashedWheelTimer timer;
+
+        private final Runnable task;
+
+        private final long deadline;
+
+        // only accessed by the timer thread //
+
+        private long rounds;
+
+        private Bucket bucket;
+
+        private Handle previous;
+
+        private Handle next;
+
+        // package-private for STATE
+        volatile int state = PENDING;
+
+        private Handle(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task, if it hasn't run yet.
+         *
+         * @return true if the task was cancelled, false if it already ran or was already cancelled
+         */
+        public boolean cancel() {
+
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+
+            // removed from its bucket by the timer thread, so that buckets don't need to be thread safe
+            timer.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                return;
+            }
+
+            try {
+                task.run();
+            } catch (Throwable e) {
+                // ignore, a broken task shouldn't stop the timer
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts which hash to one slot of the wheel
+     */
+    private static final class Bucket {
+
+        private Handle head;
+
+        private Handle tail;
+
+        private void add(Handle handle) {
+            handle.bucket = this;
+
+            if (head == null) {
+                head = tail = handle;
+            } else {
+                tail.next = handle;
+                handle.previous = tail;
+                tail = handle;
+            }
+        }
+
+        private void remove(Handle handle) {
+            Handle next = handle.next;
+
+            if (handle.previous != null) {
+                handle.previous.next = next;
+            }
+
+            if (next != null) {
+                next.previous = handle.previous;
+            }
+
+            if (handle == head) {
+                head = next;
+            }
+
+            if (handle == tail) {
+                tail = handle.previous;
+            }
+
+            handle.previous = null;
+            handle.next = null;
+            handle.bucket = null;
+        }
+
+        private void expire() {
+            Handle handle = head;
+
+            while (handle != null) {
+                Handle next = handle.next;
+
+                if (handle.rounds <= 0) {
+                    remove(handle);
+                    handle.expire();
+                } else if (handle.state == Handle.CANCELLED) {
+                    remove(handle);
+                } else {
+                    handle.rounds--;
+                }
+
+                handle = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.internal;
+
+import zone.gryphon.screech.util.Util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Function;
+
+/**
+ * {@link InvocationHandler} which creates its delegate on first use.
+ * <p>
+ * No locks are taken: threads racing on the first invocation may each create a delegate, but only the first to be
+ * published is kept and used by every caller.
+ */
+class LazyInvocationHandler implements InvocationHandler {
+
+    private static final AtomicReferenceFieldUpdater<LazyInvocationHandler, InvocationHandler> DELEGATE =
+            AtomicReferenceFieldUpdater.newUpdater(LazyInvocationHandler.class, InvocationHandler.class, "delegate");
+
+    private final Method method;
+
+    private final Function<Method, InvocationHandler> factory;
+
+    private volatile InvocationHandler delegate;
+
+    LazyInvocationHandler(Method method, Function<Method, InvocationHandler> factory) {
+        this.method = method;
+        this.factory = factory;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        return getDelegate().invoke(proxy, method, args);
+    }
+
+    private InvocationHandler getDelegate() {
+        InvocationHandler handler = delegate;
+
+        if (handler == null) {
+            DELEGATE.compareAndSet(this, null, factory.apply(method));
+            handler = delegate;
+        }
+
+        return handler;
+    }
+
+    @Override
+    public String toString() {
+        return "LazyInvocationHandler{" + Util.toString(method) + "}";
+    }
+}
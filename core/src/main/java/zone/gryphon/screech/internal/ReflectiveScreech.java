@@ -16,18 +16,16 @@
 package zone.gryphon.screech.internal;
 
 import lombok.EqualsAndHashCode;
-import zone.gryphon.screech.Client;
-import zone.gryphon.screech.RequestEncoder;
-import zone.gryphon.screech.RequestInterceptor;
-import zone.gryphon.screech.ResponseDecoderFactory;
-import zone.gryphon.screech.Target;
+import zone.gryphon.screech.HandlerInitialization;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @EqualsAndHashCode
 public class ReflectiveScreech<T> implements InvocationHandler {
@@ -54,32 +52,29 @@ public class ReflectiveScreech<T> implements InvocationHandler {
 
     private final Class<T> proxyClass;
 
-    public ReflectiveScreech(
-            RequestEncoder requestEncoder,
-            List<RequestInterceptor> requestInterceptors,
-            ResponseDecoderFactory responseDecoder,
-            ResponseDecoderFactory errorDecoder,
-            Executor requestExecutor,
-            Executor responseExecutor,
-            Client client,
-            Class<T> clazz,
-            Target target) {
+    /**
+     * @param clazz          The client interface
+     * @param factory        Creates the handler for a method of the interface
+     * @param initialization When handlers are created
+     */
+    public ReflectiveScreech(Class<T> clazz, Function<Method, InvocationHandler> factory, HandlerInitialization initialization) {
         this.proxyClass = clazz;
 
-        for (Method method : clazz.getMethods()) {
-            AsyncInvocationHandler handler = AsyncInvocationHandler.builder()
-                    .method(method)
-                    .encoder(requestEncoder)
-                    .requestInterceptors(requestInterceptors)
-                    .responseDecoder(responseDecoder)
-                    .errorDecoder(errorDecoder)
-                    .client(client)
-                    .target(target)
-                    .requestExecutor(requestExecutor)
-                    .responseExecutor(responseExecutor)
-                    .build();
-
-            map.put(method, handler);
+        switch (initialization) {
+            case LAZY:
+                for (Method method : clazz.getMethods()) {
+                    map.put(method, new LazyInvocationHandler(method, factory));
+                }
+                break;
+            case PARALLEL:
+                map.putAll(Arrays.stream(clazz.getMethods())
+                        .parallel()
+                        .collect(Collectors.toMap(Function.identity(), factory)));
+                break;
+            default:
+                for (Method method : clazz.getMethods()) {
+                    map.put(method, factory.apply(method));
+                }
         }
 
         // equals method is always invoked with exactly one argument, hence args[0]
@@ -88,6 +83,13 @@ public class ReflectiveScreech<T> implements InvocationHandler {
         map.put(toStringMethod, ((proxy, method, args) -> toString()));
     }
 
+    /**
+     * @return The handler for each method of the proxied interface, including the standard {@link Object} methods
+     */
+    public Map<Method, InvocationHandler> getHandlers() {
+        return Collections.unmodifiableMap(map);
+    }
+
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
         InvocationHandler handler = map.get(method);
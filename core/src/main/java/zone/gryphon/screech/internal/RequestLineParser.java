@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.internal;
+
+import lombok.experimental.UtilityClass;
+import zone.gryphon.screech.model.HttpParam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Parsing logic for the values of {@link zone.gryphon.screech.RequestLine} and {@link zone.gryphon.screech.Header}
+ * annotations.
+ * <p>
+ * Shared between runtime reflection and compile time code generation, so that both report the same errors.
+ */
+@UtilityClass
+public final class RequestLineParser {
+
+    public static String[] split(String requestLine) {
+        return requestLine.split(" ", 2);
+    }
+
+    public static String parseHttpMethod(String[] parts, String methodKey) {
+
+        if (parts.length == 0 || parts[0].isEmpty()) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, no HTTP method defined", methodKey));
+        }
+
+        if (parts[0].contains("/") || parts[0].contains("?") || parts[0].contains("=") || parts[0].contains("&")) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, no HTTP method defined", methodKey));
+        }
+
+        return parts[0].trim();
+    }
+
+    public static String parsePath(String[] parts, String methodKey) {
+
+        if (parts.length < 2) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, no URL path defined", methodKey));
+        }
+
+        String pathAndQueryParams = parts[1].trim();
+
+        int index = pathAndQueryParams.indexOf('?');
+
+        if (index >= 0) {
+            return pathAndQueryParams.substring(0, index);
+        }
+
+        return pathAndQueryParams;
+    }
+
+    public static List<HttpParam> parseQueryParams(String[] parts) {
+
+        String pathAndQueryParams = parts[1].trim();
+
+        int index = pathAndQueryParams.indexOf('?');
+
+        if (index == -1) {
+            return Collections.emptyList();
+        }
+
+        List<HttpParam> output = new ArrayList<>();
+
+        String queryString = pathAndQueryParams.substring(index + 1);
+
+        while ((index = queryString.indexOf('&')) != -1) {
+            parseSingleParam(queryString.substring(0, index)).ifPresent(output::add);
+            queryString = queryString.substring(index + 1);
+        }
+
+        parseSingleParam(queryString).ifPresent(output::add);
+
+        return output;
+    }
+
+    private static Optional<HttpParam> parseSingleParam(String string) {
+        int idx;
+
+        if ((idx = string.indexOf('=')) != -1) {
+            String key = string.substring(0, idx);
+
+            if (!key.isEmpty()) {
+                return Optional.of(new HttpParam(key, string.substring(idx + 1)));
+            }
+
+            return Optional.empty();
+        }
+
+        if (!string.isEmpty()) {
+            return Optional.of(new HttpParam(string, null));
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Parse the headers for a method.
+     *
+     * @param methodHeaders The values of the {@link zone.gryphon.screech.Header} annotations on the method
+     * @param classHeaders  The values of the {@link zone.gryphon.screech.Header} annotations on the declaring class
+     * @param methodKey     Description of the method, for error messages
+     * @return The headers, with class level headers first. Class level headers are omitted if a header with the same
+     * name is defined at the method level.
+     */
+    public static List<HttpParam> parseHeaderParams(List<String> methodHeaders, List<String> classHeaders, String methodKey) {
+        Set<String> headersDefinedAtMethodLevel = new HashSet<>();
+
+        List<HttpParam> headers = new ArrayList<>();
+
+        for (String methodHeader : methodHeaders) {
+            List<String> parts = splitHeader(methodHeader);
+
+            if (parts.size() != 2) {
+                throw new IllegalArgumentException(String.format("Failed to parse valid header from value \"%s\" on method %s", methodHeader, methodKey));
+            }
+
+            headersDefinedAtMethodLevel.add(parts.get(0).toLowerCase());
+
+            headers.add(new HttpParam(parts.get(0), parts.get(1)));
+        }
+
+        List<HttpParam> classLevelHeaders = new ArrayList<>();
+
+        for (String classHeader : classHeaders) {
+            List<String> parts = splitHeader(classHeader);
+
+            if (parts.size() != 2) {
+                throw new IllegalArgumentException(String.format("Failed to parse valid header from value \"%s\" on method %s", classHeader, methodKey));
+            }
+
+            // ignore headers defined at method level
+            if (headersDefinedAtMethodLevel.contains(parts.get(0).toLowerCase())) {
+                continue;
+            }
+
+            classLevelHeaders.add(new HttpParam(parts.get(0), parts.get(1)));
+        }
+
+        headers.addAll(0, classLevelHeaders);
+
+        return headers;
+    }
+
+    private static List<String> splitHeader(String header) {
+        return Arrays.stream(header.split(":", 2))
+                .map(String::trim)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.internal;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NonNull;
+import zone.gryphon.screech.Param;
+import zone.gryphon.screech.RoutingKey;
+import zone.gryphon.screech.model.CompiledMethod;
+import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.model.MethodDefinition;
+import zone.gryphon.screech.model.Request;
+import zone.gryphon.screech.model.RequestBody;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.IndexedStringInterpolator;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Pre-computed plan for turning the arguments of a single client method invocation into a {@link SerializedRequest}.
+ * <p>
+ * All parsing happens when the plan is built; templates are compiled against slot indexes, so that binding the
+ * arguments of an invocation only requires filling in an array of values.
+ */
+public class RequestPlan {
+
+    private static final String[] NO_VALUES = new String[0];
+
+    /**
+     * The arguments of a single invocation, bound to the slots of the plan which created it.
+     */
+    public static class Invocation {
+
+        @Getter
+        private final String target;
+
+        @Getter
+        private final Object entity;
+
+        private final String[] values;
+
+        private final String routingKey;
+
+        private final RequestPlan plan;
+
+        // only built if there are interceptors which need to see the request
+        private Request<?> request;
+
+        private Invocation(RequestPlan plan, String target, String[] values, String routingKey, Object entity) {
+            this.plan = plan;
+            this.target = target;
+            this.values = values;
+            this.routingKey = routingKey;
+            this.entity = entity;
+        }
+
+        /**
+         * Build the {@link Request} representation of this invocation, for consumption by request interceptors.
+         * Repeated invocations return the same instance.
+         *
+         * @return The request
+         */
+        public Request<?> toRequest() {
+
+            if (request == null) {
+                request = Request.builder()
+                        .method(plan.httpMethod)
+                        .uri(target + plan.path)
+                        .templateParameters(plan.toTemplateParameters(values))
+                        .queryParams(plan.queryParams)
+                        .headers(plan.headerParams)
+                        .entity(entity)
+                        .routingKey(routingKey)
+                        .build();
+            }
+
+            return request;
+        }
+
+        /**
+         * @param request A request which was passed through the interceptor chain
+         * @return true if the given request is the one created by this invocation (i.e. no interceptor replaced it)
+         */
+        public boolean isUnmodified(Request<?> request) {
+            return request == null || request == this.request;
+        }
+    }
+
+    private static class Memo {
+
+        private final String target;
+
+        private final SerializedRequest request;
+
+        private Memo(String target, SerializedRequest request) {
+            this.target = target;
+            this.request = request;
+        }
+    }
+
+    private static class CompiledParams {
+
+        // non-null for params which don't require interpolation
+        private final HttpParam[] constants;
+
+        private final IndexedStringInterpolator[] keys;
+
+        private final IndexedStringInterpolator[] values;
+
+        // non-null if every param is constant, in which case the list can be shared between requests
+        private final List<HttpParam> sharedList;
+
+        private CompiledParams(List<HttpParam> params, List<IndexedStringInterpolator> compiledKeys, List<IndexedStringInterpolator> compiledValues) {
+            int size = params.size();
+
+            if (compiledKeys.size() != size || compiledValues.size() != size) {
+                throw new IllegalArgumentException(String.format("Expected %d compiled keys and values, got %d and %d", size, compiledKeys.size(), compiledValues.size()));
+            }
+
+            this.constants = new HttpParam[size];
+            this.keys = new IndexedStringInterpolator[size];
+            this.values = new IndexedStringInterpolator[size];
+
+            boolean allConstant = true;
+
+            for (int i = 0; i < size; i++) {
+                HttpParam param = params.get(i);
+
+                IndexedStringInterpolator key = compiledKeys.get(i);
+                IndexedStringInterpolator value = compiledValues.get(i);
+
+                if (key.isConstant() && (value == null || value.isConstant())) {
+                    constants[i] = param;
+                } else {
+                    keys[i] = key;
+                    values[i] = value;
+                    allConstant = false;
+                }
+            }
+
+            this.sharedList = allConstant ? Collections.unmodifiableList(new ArrayList<>(params)) : null;
+        }
+
+        private boolean isConstant() {
+            return sharedList != null;
+        }
+
+        private List<HttpParam> interpolate(String[] slotValues) {
+
+            if (sharedList != null) {
+                return sharedList;
+            }
+
+            List<HttpParam> output = new ArrayList<>(constants.length);
+
+            for (int i = 0; i < constants.length; i++) {
+                if (constants[i] != null) {
+                    output.add(constants[i]);
+                } else {
+                    output.add(new HttpParam(keys[i].interpolate(slotValues), values[i] == null ? null : values[i].interpolate(slotValues)));
+                }
+            }
+
+            return output;
+        }
+    }
+
+    private static int slotFor(Map<String, Integer> slots, String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Build a plan from a definition whose parameters and templates were compiled ahead of time, without any parsing
+     * or reflection.
+     *
+     * @param methodKey  Name of the method, for error messages
+     * @param definition The definition, which must have been {@link MethodDefinition#getCompiled() compiled}
+     * @return The plan
+     */
+    public static RequestPlan of(@NonNull String methodKey, @NonNull MethodDefinition definition) {
+
+        if (definition.getCompiled() == null) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, definition wasn't compiled", methodKey));
+        }
+
+        return new RequestPlan(methodKey, definition.getHttpMethod(), definition.getPath(), definition.getQueryParams(), definition.getHeaderParams(), definition.getCompiled());
+    }
+
+    /**
+     * Build a plan by reading the parameters of the method through reflection, and compiling its templates.
+     *
+     * @param method       The method
+     * @param methodKey    Name of the method, for error messages
+     * @param httpMethod   The HTTP method
+     * @param path         The path template, without query parameters
+     * @param queryParams  The query parameter templates
+     * @param headerParams The header templates
+     * @return The plan
+     */
+    @Builder
+    private static RequestPlan create(
+            @NonNull Method method,
+            @NonNull String methodKey,
+            @NonNull String httpMethod,
+            @NonNull String path,
+            @NonNull List<HttpParam> queryParams,
+            @NonNull List<HttpParam> headerParams) {
+        return new RequestPlan(methodKey, httpMethod, path, queryParams, headerParams, compile(method, methodKey, path, queryParams, headerParams));
+    }
+
+    private static CompiledMethod compile(Method method, String methodKey, String path, List<HttpParam> queryParams, List<HttpParam> headerParams) {
+        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+
+        List<Integer> argumentSlots = new ArrayList<>(parameterAnnotations.length);
+        List<Supplier<? extends Param.Expander>> expanders = new ArrayList<>(parameterAnnotations.length);
+        Map<String, Integer> slots = new HashMap<>();
+        List<String> names = new ArrayList<>();
+
+        int routingKeyIndex = findRoutingKeyIndex(parameterAnnotations, methodKey);
+
+        for (Annotation[] annotations : parameterAnnotations) {
+
+            // `Param` isn't repeatable, so there should only ever be exactly 1
+            Param param = findAnnotation(annotations, Param.class);
+
+            if (param == null) {
+                argumentSlots.add(-1);
+                expanders.add(null);
+                continue;
+            }
+
+            expanders.add(supplierOf(createExpander(param.expander())));
+
+            Integer slot = slots.get(param.value());
+
+            if (slot == null) {
+                slot = names.size();
+                slots.put(param.value(), slot);
+                names.add(param.value());
+            }
+
+            argumentSlots.add(slot);
+        }
+
+        return CompiledMethod.builder()
+                .slotNames(names)
+                .argumentSlots(argumentSlots)
+                .expanders(expanders)
+                .bodyIndex(findBodyIndex(parameterAnnotations, methodKey))
+                .routingKeyIndex(routingKeyIndex)
+                .routingKeyExpander(routingKeyIndex < 0 ? null : supplierOf(createExpander(findAnnotation(parameterAnnotations[routingKeyIndex], RoutingKey.class).expander())))
+                .path(IndexedStringInterpolator.of(path, name -> slotFor(slots, name)))
+                .queryKeys(compileKeys(queryParams, slots))
+                .queryValues(compileValues(queryParams, slots))
+                .headerKeys(compileKeys(headerParams, slots))
+                .headerValues(compileValues(headerParams, slots))
+                .build();
+    }
+
+    // the expander was already created, so the plan gets the same instance
+    private static Supplier<Param.Expander> supplierOf(Param.Expander expander) {
+        return () -> expander;
+    }
+
+    private static List<IndexedStringInterpolator> compileKeys(List<HttpParam> params, Map<String, Integer> slots) {
+        List<IndexedStringInterpolator> output = new ArrayList<>(params.size());
+
+        for (HttpParam param : params) {
+            output.add(IndexedStringInterpolator.of(param.getKey(), name -> slotFor(slots, name)));
+        }
+
+        return output;
+    }
+
+    private static List<IndexedStringInterpolator> compileValues(List<HttpParam> params, Map<String, Integer> slots) {
+        List<IndexedStringInterpolator> output = new ArrayList<>(params.size());
+
+        for (HttpParam param : params) {
+            output.add(param.getValue() == null ? null : IndexedStringInterpolator.of(param.getValue(), name -> slotFor(slots, name)));
+        }
+
+        return output;
+    }
+
+    //  end of static methods/constants  //
+
+    private final String httpMethod;
+
+    private final String path;
+
+    private final List<HttpParam> queryParams;
+
+    private final List<HttpParam> headerParams;
+
+    private final String methodKey;
+
+    // slot index -> template parameter name
+    private final String[] slotNames;
+
+    // argument index -> slot index, -1 if the argument isn't a template parameter
+    private final int[] argumentSlots;
+
+    // argument index -> expander, null if the argument isn't a template parameter
+    private final Param.Expander[] expanders;
+
+    private final int bodyIndex;
+
+    // -1 if the method has no routing key
+    private final int routingKeyIndex;
+
+    private final Param.Expander routingKeyExpander;
+
+    private final String contentType;
+
+    private final IndexedStringInterpolator compiledPath;
+
+    private final CompiledParams compiledQueryParams;
+
+    private final CompiledParams compiledHeaderParams;
+
+    private final boolean memoizable;
+
+    private volatile Memo memo;
+
+    private RequestPlan(
+            String methodKey,
+            String httpMethod,
+            String path,
+            List<HttpParam> queryParams,
+            List<HttpParam> headerParams,
+            CompiledMethod compiled) {
+        this.methodKey = methodKey;
+        this.httpMethod = httpMethod;
+        this.path = path;
+        this.queryParams = queryParams;
+        this.headerParams = headerParams;
+
+        int parameterCount = compiled.getArgumentSlots().size();
+
+        if (compiled.getExpanders().size() != parameterCount) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, expected %d expanders but got %d",
+                    methodKey, parameterCount, compiled.getExpanders().size()));
+        }
+
+        this.argumentSlots = new int[parameterCount];
+        this.expanders = new Param.Expander[parameterCount];
+
+        for (int i = 0; i < parameterCount; i++) {
+            argumentSlots[i] = compiled.getArgumentSlots().get(i);
+            expanders[i] = argumentSlots[i] < 0 ? null : compiled.getExpanders().get(i).get();
+        }
+
+        this.bodyIndex = compiled.getBodyIndex();
+        this.routingKeyIndex = compiled.getRoutingKeyIndex();
+        this.routingKeyExpander = routingKeyIndex < 0 ? null : compiled.getRoutingKeyExpander().get();
+        this.slotNames = compiled.getSlotNames().toArray(new String[0]);
+        this.compiledPath = compiled.getPath();
+        this.compiledQueryParams = new CompiledParams(queryParams, compiled.getQueryKeys(), compiled.getQueryValues());
+        this.compiledHeaderParams = new CompiledParams(headerParams, compiled.getHeaderKeys(), compiled.getHeaderValues());
+        this.contentType = parseContentType(headerParams);
+        this.memoizable = compiledPath.isConstant() && compiledQueryParams.isConstant() && compiledHeaderParams.isConstant() && routingKeyIndex < 0;
+    }
+
+    private static Param.Expander createExpander(Class<? extends Param.Expander> expander) {
+        try {
+            return expander.newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Failed to create expander", e);
+        }
+    }
+
+    private static <A extends Annotation> A findAnnotation(Annotation[] annotations, Class<A> type) {
+        for (Annotation annotation : annotations) {
+            if (type.isInstance(annotation)) {
+                return type.cast(annotation);
+            }
+        }
+
+        return null;
+    }
+
+    private static int findRoutingKeyIndex(Annotation[][] parameterAnnotations, String methodKey) {
+        int index = -1;
+
+        for (int i = 0; i < parameterAnnotations.length; i++) {
+            if (findAnnotation(parameterAnnotations[i], RoutingKey.class) == null) {
+                continue;
+            }
+
+            if (index >= 0) {
+                throw new IllegalArgumentException(String.format("Error building client for %s, cannot have more than one routing key", methodKey));
+            }
+
+            index = i;
+        }
+
+        return index;
+    }
+
+    private static int findBodyIndex(Annotation[][] parameterAnnotations, String methodKey) {
+        int parametersWithoutAnnotations = (int) Arrays.stream(parameterAnnotations)
+                .mapToInt(a -> a.length)
+                .filter(a -> a == 0)
+                .count();
+
+        if (parametersWithoutAnnotations > 1) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, cannot have more than one body param", methodKey));
+        }
+
+        for (int i = 0; i < parameterAnnotations.length; i++) {
+            if (parameterAnnotations[i].length == 0) {
+                return i;
+            }
+        }
+
+        // no body param
+        return -1;
+    }
+
+    private String parseContentType(List<HttpParam> headers) {
+        for (HttpParam header : headers) {
+            if ("content-type".equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+
+        return "application/octet-stream";
+    }
+
+    /**
+     * Bind the arguments of an invocation to this plan.
+     *
+     * @param target The target the request will be sent to
+     * @param args   The arguments the method was invoked with
+     * @return The bound invocation
+     */
+    public Invocation bind(@NonNull String target, Object[] args) {
+        String[] values = slotNames.length == 0 ? NO_VALUES : new String[slotNames.length];
+
+        for (int i = 0; i < argumentSlots.length; i++) {
+            if (argumentSlots[i] >= 0) {
+                values[argumentSlots[i]] = expanders[i].expand(args[i]);
+            }
+        }
+
+        String routingKey = routingKeyIndex < 0 ? null : routingKeyExpander.expand(args[routingKeyIndex]);
+
+        return new Invocation(this, target, values, routingKey, bodyIndex < 0 ? null : args[bodyIndex]);
+    }
+
+    /**
+     * Serialize an invocation which was created by this plan.
+     *
+     * @param invocation The invocation to serialize
+     * @param buffer     The encoded request body, if any
+     * @return The serialized request
+     */
+    public SerializedRequest serialize(@NonNull Invocation invocation, ByteBuffer buffer) {
+        RequestBody body = buffer == null ? null : RequestBody.builder()
+                .body(buffer)
+                .contentType(contentType)
+                .build();
+
+        if (!memoizable) {
+            return serialize(invocation.target, invocation.values, invocation.routingKey, body);
+        }
+
+        Memo current = this.memo;
+
+        if (current == null || !current.target.equals(invocation.target)) {
+            current = new Memo(invocation.target, serialize(invocation.target, NO_VALUES, null, null));
+            this.memo = current;
+        }
+
+        return body == null ? current.request : current.request.toBuilder().requestBody(body).build();
+    }
+
+    private SerializedRequest serialize(String target, String[] values, String routingKey, RequestBody body) {
+        return SerializedRequest.builder()
+                .method(httpMethod)
+                .uri(URI.create(target + compiledPath.interpolate(values)))
+                .headers(compiledHeaderParams.interpolate(values))
+                .queryParams(compiledQueryParams.interpolate(values))
+                .requestBody(body)
+                .routingKey(routingKey)
+                .build();
+    }
+
+    private Map<String, String> toTemplateParameters(String[] values) {
+        Map<String, String> output = new HashMap<>();
+
+        for (int i = 0; i < slotNames.length; i++) {
+            output.put(slotNames[i], values[i]);
+        }
+
+        return output;
+    }
+
+}
@@ -29,9 +29,17 @@ public class ScreechThreadFactory implements ThreadFactory {
 
     private final String namePrefix;
 
+    private final boolean daemon;
+
     public ScreechThreadFactory(String namePrefix) {
+        this(namePrefix, false);
+    }
+
+    public ScreechThreadFactory(String namePrefix, boolean daemon) {
         SecurityManager s = System.getSecurityManager();
 
+        this.daemon = daemon;
+
         this.namePrefix = Objects.requireNonNull(namePrefix) + "-" + poolNumber.getAndIncrement() + "-thread-";
         this.group = (s != null) ? s.getThreadGroup() : Thread.currentThread().getThreadGroup();
     }
@@ -40,8 +48,8 @@ public class ScreechThreadFactory implements ThreadFactory {
     public Thread newThread(Runnable r) {
         Thread t = new Thread(group, r, namePrefix + threadNumber.getAndIncrement(), 0);
 
-        if (t.isDaemon()) {
-            t.setDaemon(false);
+        if (t.isDaemon() != daemon) {
+            t.setDaemon(daemon);
         }
 
         if (t.getPriority() != Thread.NORM_PRIORITY) {
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.internal;
+
+import lombok.experimental.UtilityClass;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Timer shared by all clients, used to schedule delayed work (e.g. retries) without blocking a thread.
+ * <p>
+ * Scheduled tasks should only hand work off to another executor, since there's a single timer thread.
+ */
+@UtilityClass
+public final class SharedScheduler {
+
+    private static final class Holder {
+
+        private static final ScheduledExecutorService INSTANCE = create();
+
+        private static ScheduledExecutorService create() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ScreechThreadFactory("ScreechTimer", true));
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+
+    public static ScheduledExecutorService get() {
+        return Holder.INSTANCE;
+    }
+}
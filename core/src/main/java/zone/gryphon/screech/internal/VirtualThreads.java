@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.internal;
+
+import lombok.experimental.UtilityClass;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (Java 21+) from code compiled for Java 8.
+ * <p>
+ * The relevant JDK methods are looked up once, reflectively; on older JVMs {@link #isSupported()} returns false.
+ */
+@UtilityClass
+public final class VirtualThreads {
+
+    // Thread.ofVirtual()
+    private static final MethodHandle OF_VIRTUAL;
+
+    // Thread.Builder.name(String, long)
+    private static final MethodHandle NAME;
+
+    // Thread.Builder.factory()
+    private static final MethodHandle FACTORY;
+
+    // Executors.newThreadPerTaskExecutor(ThreadFactory)
+    private static final MethodHandle NEW_THREAD_PER_TASK_EXECUTOR;
+
+    // Thread.isVirtual()
+    private static final MethodHandle IS_VIRTUAL;
+
+    static {
+        MethodHandle ofVirtual = null;
+        MethodHandle name = null;
+        MethodHandle factory = null;
+        MethodHandle newThreadPerTaskExecutor = null;
+        MethodHandle isVirtual = null;
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtualBuilder = Class.forName("java.lang.Thread$Builder$OfVirtual");
+
+            ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(ofVirtualBuilder));
+            name = lookup.findVirtual(builder, "name", MethodType.methodType(builder, String.class, long.class));
+            factory = lookup.findVirtual(builder, "factory", MethodType.methodType(ThreadFactory.class));
+            newThreadPerTaskExecutor = lookup.findStatic(Executors.class, "newThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class, ThreadFactory.class));
+            isVirtual = lookup.findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            // virtual threads aren't available on this JVM
+            ofVirtual = null;
+        }
+
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+        IS_VIRTUAL = isVirtual;
+    }
+
+    /**
+     * @return true if the current JVM supports virtual threads
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create an executor which runs each task on a new virtual thread.
+     *
+     * @param namePrefix Prefix for the names of the created threads
+     * @return The executor
+     * @throws UnsupportedOperationException If the current JVM doesn't support virtual threads
+     */
+    public static Executor newExecutor(String namePrefix) {
+
+        if (!isSupported()) {
+            throw new UnsupportedOperationException(String.format("Virtual threads are not supported by this JVM (java.version=%s), Java 21 or later is required",
+                    System.getProperty("java.version")));
+        }
+
+        try {
+            Object builder = OF_VIRTUAL.invoke();
+            builder = NAME.invoke(builder, namePrefix + "-virtual-", 1L);
+            ThreadFactory factory = (ThreadFactory) FACTORY.invoke(builder);
+
+            return (Executor) NEW_THREAD_PER_TASK_EXECUTOR.invoke(factory);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to create virtual thread executor", t);
+        }
+    }
+
+    /**
+     * @param thread The thread to check
+     * @return true if the thread is a virtual thread
+     */
+    public static boolean isVirtual(Thread thread) {
+
+        if (!isSupported()) {
+            return false;
+        }
+
+        try {
+            return (boolean) IS_VIRTUAL.invoke(thread);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to check whether thread is virtual", t);
+        }
+    }
+}
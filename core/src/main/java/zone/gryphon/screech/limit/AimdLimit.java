@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.limit;
+
+import lombok.Builder;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link Limit} which increases additively while requests succeed, and decreases multiplicatively when a request is
+ * dropped or exceeds a timeout (AIMD).
+ */
+@ToString(exclude = "lock")
+public class AimdLimit implements Limit {
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double backoffRatio;
+
+    private final long timeout;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile int limit;
+
+    /**
+     * @param initialLimit The limit to start at, defaults to 20
+     * @param minLimit     The minimum limit, defaults to 1
+     * @param maxLimit     The maximum limit, defaults to 1000
+     * @param backoffRatio Ratio the limit is multiplied by when a request is dropped, defaults to 0.9
+     * @param timeout      Requests which take longer than this are treated as dropped, defaults to 5 seconds
+     */
+    @Builder
+    private AimdLimit(Integer initialLimit, Integer minLimit, Integer maxLimit, Double backoffRatio, Duration timeout) {
+        this.minLimit = minLimit == null ? 1 : minLimit;
+        this.maxLimit = maxLimit == null ? 1000 : maxLimit;
+        this.backoffRatio = backoffRatio == null ? 0.9 : backoffRatio;
+        this.timeout = (timeout == null ? Duration.ofSeconds(5) : timeout).toNanos();
+        this.limit = initialLimit == null ? 20 : initialLimit;
+
+        if (this.minLimit < 1 || this.maxLimit < this.minLimit || limit < this.minLimit || limit > this.maxLimit) {
+            throw new IllegalArgumentException(String.format("Invalid limits, must have 1 <= minLimit (%d) <= initialLimit (%d) <= maxLimit (%d)", this.minLimit, limit, this.maxLimit));
+        }
+
+        if (this.backoffRatio <= 0 || this.backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+        }
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void onSample(long rtt, int inFlight, boolean dropped) {
+        lock.lock();
+
+        try {
+            sample(rtt, inFlight, dropped);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sample(long rtt, int inFlight, boolean dropped) {
+        int current = limit;
+
+        if (dropped || rtt > timeout) {
+            limit = Math.max(minLimit, (int) (current * backoffRatio));
+        } else if (inFlight * 2 >= current) {
+            // only grow when the limit is actually being used
+            limit = Math.min(maxLimit, current + 1);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.limit;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.ToString;
+import zone.gryphon.screech.Client;
+import zone.gryphon.screech.exception.RejectedRequestException;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.Supplier;
+
+/**
+ * {@link Client} which limits the number of requests in flight to each target (scheme, host and port), using a
+ * {@link Limit} which adapts to the observed round trip times.
+ * <p>
+ * Requests over the limit are queued, up to {@code maxQueued} per target, and sent as earlier requests complete;
+ * requests beyond that are rejected immediately with a {@link RejectedRequestException}, rather than piling up in the
+ * underlying client. Queued requests are sent on the thread which completed the earlier request.
+ * <p>
+ * Failed requests, and responses with status 429 or 503, are reported to the limit as dropped.
+ */
+@ToString(of = "client")
+public class ConcurrencyLimitingClient implements Client {
+
+    private final Client client;
+
+    private final Supplier<Limit> limitSupplier;
+
+    private final int maxQueued;
+
+    private final ConcurrentMap<String, Limiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * @param client    The client to send requests with
+     * @param limit     Creates the limit for each target, defaults to {@link AimdLimit} with default settings
+     * @param maxQueued The maximum number of requests queued per target once the limit is reached, defaults to zero
+     *                  (i.e. reject immediately)
+     */
+    @Builder
+    private ConcurrencyLimitingClient(@NonNull Client client, Supplier<Limit> limit, Integer maxQueued) {
+        this.client = client;
+        this.limitSupplier = limit == null ? () -> AimdLimit.builder().build() : limit;
+        this.maxQueued = maxQueued == null ? 0 : maxQueued;
+
+        if (this.maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued cannot be negative");
+        }
+    }
+
+    /**
+     * @param uri A URI of the target
+     * @return The current limit for the target, or -1 if no requests have been sent to it
+     */
+    public int getLimit(URI uri) {
+        Limiter limiter = limiters.get(key(uri));
+        return limiter == null ? -1 : limiter.limit.getLimit();
+    }
+
+    /**
+     * @param uri A URI of the target
+     * @return The number of requests in flight to the target
+     */
+    public int getInFlightRequests(URI uri) {
+        Limiter limiter = limiters.get(key(uri));
+        return limiter == null ? 0 : limiter.inFlight.get();
+    }
+
+    @Override
+    public void request(SerializedRequest request, ClientCallback callback) {
+        limiters.computeIfAbsent(key(request.getUri()), ignored -> new Limiter(limitSupplier.get())).request(request, callback);
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    private static String key(URI uri) {
+        return uri.getScheme() + "://" + uri.getRawAuthority();
+    }
+
+    private static final class Pending {
+
+        private static final AtomicIntegerFieldUpdater<Pending> CLAIMED = AtomicIntegerFieldUpdater.newUpdater(Pending.class, "claimed");
+
+        private final SerializedRequest request;
+
+        private final ClientCallback callback;
+
+        // set by whichever of sending or cancelling happens first
+        volatile int claimed;
+
+        private Pending(SerializedRequest request, ClientCallback callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+
+        private boolean claim() {
+            return CLAIMED.compareAndSet(this, 0, 1);
+        }
+    }
+
+    private final class Limiter {
+
+        private final Limit limit;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final AtomicInteger queued = new AtomicInteger();
+
+        private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+
+        private Limiter(Limit limit) {
+            this.limit = limit;
+        }
+
+        private void request(SerializedRequest request, ClientCallback callback) {
+
+            // don't jump ahead of queued requests
+            if (queued.get() == 0 && tryAcquire()) {
+                send(request, callback);
+                return;
+            }
+
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                callback.abort(new RejectedRequestException(String.format("Concurrency limit of %d reached for %s", limit.getLimit(), key(request.getUri()))));
+                return;
+            }
+
+            Pending pending = new Pending(request, callback);
+
+            queue.add(pending);
+
+            // a cancelled request gives up its place in the queue, rather than waiting for its turn
+            callback.onCancel(() -> cancel(pending));
+
+            // a request may have completed while this one was being queued
+            drain();
+        }
+
+        private void cancel(Pending pending) {
+
+            if (!pending.claim()) {
+                return;
+            }
+
+            if (queue.remove(pending)) {
+                queued.decrementAndGet();
+            }
+
+            pending.callback.abort(new CancellationException("Request was cancelled while queued"));
+        }
+
+        private boolean tryAcquire() {
+            int current;
+
+            do {
+                current = inFlight.get();
+
+                if (current >= limit.getLimit()) {
+                    return false;
+                }
+            } while (!inFlight.compareAndSet(current, current + 1));
+
+            return true;
+        }
+
+        private void release() {
+            inFlight.decrementAndGet();
+            drain();
+        }
+
+        private void drain() {
+            while (!queue.isEmpty() && tryAcquire()) {
+                Pending pending = queue.poll();
+
+                if (pending == null) {
+                    inFlight.decrementAndGet();
+                    return;
+                }
+
+                queued.decrementAndGet();
+
+                if (!pending.claim()) {
+                    // cancelled, give the permit to the next request
+                    inFlight.decrementAndGet();
+                    continue;
+                }
+
+                send(pending.request, pending.callback);
+            }
+        }
+
+        private void send(SerializedRequest request, ClientCallback callback) {
+            LimitedCallback limited = new LimitedCallback(this, callback, inFlight.get());
+
+            try {
+                client.request(request, limited);
+            } catch (Throwable e) {
+                limited.abort(e);
+            }
+        }
+    }
+
+    private static final class LimitedCallback implements ClientCallback {
+
+        private static final AtomicIntegerFieldUpdater<LimitedCallback> RELEASED = AtomicIntegerFieldUpdater.newUpdater(LimitedCallback.class, "released");
+
+        private final Limiter limiter;
+
+        private final ClientCallback delegate;
+
+        private final int inFlight;
+
+        private final long start = System.nanoTime();
+
+        private long rtt = -1;
+
+        private boolean overloaded;
+
+        // cancelled requests say nothing about the limit
+        private volatile boolean cancelled;
+
+        // package-private for RELEASED
+        volatile int released;
+
+        private LimitedCallback(Limiter limiter, ClientCallback delegate, int inFlight) {
+            this.limiter = limiter;
+            this.delegate = delegate;
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public ContentCallback headers(ResponseHeaders responseHeaders) {
+            rtt = System.nanoTime() - start;
+
+            if (responseHeaders != null) {
+                overloaded = responseHeaders.getStatus() == 429 || responseHeaders.getStatus() == 503;
+            }
+
+            return delegate.headers(responseHeaders);
+        }
+
+        @Override
+        public void complete() {
+            try {
+                delegate.complete();
+            } finally {
+                release(overloaded);
+            }
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            try {
+                delegate.abort(t);
+            } finally {
+                release(true);
+            }
+        }
+
+        @Override
+        public void onCancel(Runnable abort) {
+            delegate.onCancel(() -> {
+                cancelled = true;
+                abort.run();
+            });
+        }
+
+        private void release(boolean dropped) {
+            if (!RELEASED.compareAndSet(this, 0, 1)) {
+                return;
+            }
+
+            if (cancelled) {
+                limiter.release();
+                return;
+            }
+
+            try {
+                limiter.limit.onSample(rtt < 0 ? System.nanoTime() - start : rtt, inFlight, dropped);
+            } finally {
+                limiter.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.limit;
+
+import lombok.Builder;
+import lombok.ToString;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link Limit} which scales the limit by the ratio (gradient) of the long term average round trip time to the most
+ * recent round trip time, plus a small queue to allow for growth. When latency rises above its long
+ * term average the limit shrinks proportionally, and when it's stable the limit grows.
+ */
+@ToString(exclude = "lock")
+public class GradientLimit implements Limit {
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double smoothing;
+
+    private final double tolerance;
+
+    private final int window;
+
+    private final int queueSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile int limit;
+
+    // fractional limit, so that smoothing doesn't round away small changes
+    private double estimate;
+
+    private double longRtt = -1;
+
+    /**
+     * @param initialLimit The limit to start at, defaults to 20
+     * @param minLimit     The minimum limit, defaults to 1
+     * @param maxLimit     The maximum limit, defaults to 1000
+     * @param smoothing    How much of each new estimate is applied to the limit, defaults to 0.2
+     * @param tolerance    How much the round trip time can exceed its long term average before the limit shrinks,
+     *                     defaults to 1.5 (50%)
+     * @param window       Number of samples the long term average is taken over, defaults to 600
+     * @param queueSize    Headroom added to each new estimate, which lets the limit grow, defaults to 4
+     */
+    @Builder
+    private GradientLimit(Integer initialLimit, Integer minLimit, Integer maxLimit, Double smoothing, Double tolerance, Integer window, Integer queueSize) {
+        this.minLimit = minLimit == null ? 1 : minLimit;
+        this.maxLimit = maxLimit == null ? 1000 : maxLimit;
+        this.smoothing = smoothing == null ? 0.2 : smoothing;
+        this.tolerance = tolerance == null ? 1.5 : tolerance;
+        this.window = window == null ? 600 : window;
+        this.queueSize = queueSize == null ? 4 : queueSize;
+        this.limit = initialLimit == null ? 20 : initialLimit;
+        this.estimate = limit;
+
+        if (this.minLimit < 1 || this.maxLimit < this.minLimit || limit < this.minLimit || limit > this.maxLimit) {
+            throw new IllegalArgumentException(String.format("Invalid limits, must have 1 <= minLimit (%d) <= initialLimit (%d) <= maxLimit (%d)", this.minLimit, limit, this.maxLimit));
+        }
+
+        if (this.smoothing <= 0 || this.smoothing > 1) {
+            throw new IllegalArgumentException("smoothing must be greater than 0 and at most 1");
+        }
+
+        if (this.tolerance < 1) {
+            throw new IllegalArgumentException("tolerance must be at least 1");
+        }
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void onSample(long rtt, int inFlight, boolean dropped) {
+        lock.lock();
+
+        try {
+            sample(rtt, inFlight, dropped);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sample(long rtt, int inFlight, boolean dropped) {
+
+        if (rtt <= 0) {
+            return;
+        }
+
+        if (longRtt < 0) {
+            longRtt = rtt;
+        } else {
+            longRtt += (rtt - longRtt) / window;
+        }
+
+        // if the long term average is well above the current value, let it recover faster
+        if (longRtt / rtt > 2) {
+            longRtt *= 0.95;
+        }
+
+        // don't grow the limit if it isn't being used
+        if (!dropped && inFlight * 2 < estimate) {
+            return;
+        }
+
+        double gradient = dropped ? 0.5 : Math.max(0.5, Math.min(1.0, tolerance * longRtt / rtt));
+
+        double target = estimate * gradient + queueSize;
+
+        estimate = Math.max(minLimit, Math.min(maxLimit, estimate * (1 - smoothing) + target * smoothing));
+
+        limit = (int) estimate;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.limit;
+
+/**
+ * Algorithm which computes the number of requests which can be in flight at once, from the round trip times of
+ * completed requests.
+ * <p>
+ * Implementations must be thread safe, since samples are reported by whichever thread completes a request. That
+ * may be a virtual thread, so guard state with a {@link java.util.concurrent.locks.Lock} or atomics rather than
+ * {@code synchronized}, which pins the virtual thread to its carrier while it waits.
+ */
+public interface Limit {
+
+    /**
+     * @return The current limit
+     */
+    int getLimit();
+
+    /**
+     * Update the limit with the result of a request.
+     *
+     * @param rtt      Time from sending the request until the response headers were received (or the request failed),
+     *                 in nanoseconds
+     * @param inFlight The number of requests in flight when the request was sent, including itself
+     * @param dropped  True if the request failed or the server indicated it's overloaded
+     */
+    void onSample(long rtt, int inFlight, boolean dropped);
+}
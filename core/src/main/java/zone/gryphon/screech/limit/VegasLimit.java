@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.limit;
+
+import lombok.Builder;
+import lombok.ToString;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link Limit} based on TCP Vegas: estimates the number of requests queued at the server by comparing round trip
+ * times to the lowest observed round trip time, and adjusts the limit to keep that queue between {@code alpha} and
+ * {@code beta} (both scaled with the log of the limit).
+ * <p>
+ * The lowest round trip time is re-measured every {@code probeInterval} samples, so that the limit adapts when the
+ * server gets faster or slower without load.
+ */
+@ToString(exclude = "lock")
+public class VegasLimit implements Limit {
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final int probeInterval;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile int limit;
+
+    private long noLoadRtt = Long.MAX_VALUE;
+
+    private int samples;
+
+    /**
+     * @param initialLimit  The limit to start at, defaults to 20
+     * @param minLimit      The minimum limit, defaults to 1
+     * @param maxLimit      The maximum limit, defaults to 1000
+     * @param probeInterval How often (in samples) the lowest round trip time is reset, defaults to 1000
+     */
+    @Builder
+    private VegasLimit(Integer initialLimit, Integer minLimit, Integer maxLimit, Integer probeInterval) {
+        this.minLimit = minLimit == null ? 1 : minLimit;
+        this.maxLimit = maxLimit == null ? 1000 : maxLimit;
+        this.probeInterval = probeInterval == null ? 1000 : probeInterval;
+        this.limit = initialLimit == null ? 20 : initialLimit;
+
+        if (this.minLimit < 1 || this.maxLimit < this.minLimit || limit < this.minLimit || limit > this.maxLimit) {
+            throw new IllegalArgumentException(String.format("Invalid limits, must have 1 <= minLimit (%d) <= initialLimit (%d) <= maxLimit (%d)", this.minLimit, limit, this.maxLimit));
+        }
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void onSample(long rtt, int inFlight, boolean dropped) {
+        lock.lock();
+
+        try {
+            sample(rtt, inFlight, dropped);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void sample(long rtt, int inFlight, boolean dropped) {
+        int current = limit;
+
+        if (++samples >= probeInterval) {
+            samples = 0;
+            noLoadRtt = rtt;
+        }
+
+        if (dropped) {
+            limit = Math.max(minLimit, current - log10(current));
+            return;
+        }
+
+        if (rtt <= 0) {
+            return;
+        }
+
+        noLoadRtt = Math.min(noLoadRtt, rtt);
+
+        int queued = (int) Math.ceil(current * (1 - (double) noLoadRtt / rtt));
+
+        int alpha = 3 * log10(current);
+        int beta = 6 * log10(current);
+
+        if (queued <= alpha && inFlight * 2 >= current) {
+            limit = Math.min(maxLimit, current + log10(current));
+        } else if (queued >= beta) {
+            limit = Math.max(minLimit, current - log10(current));
+        }
+    }
+
+    private static int log10(int value) {
+        return Math.max(1, (int) Math.log10(value));
+    }
+}
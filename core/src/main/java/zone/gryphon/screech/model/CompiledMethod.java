@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.model;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+import zone.gryphon.screech.Param;
+import zone.gryphon.screech.util.IndexedStringInterpolator;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The parts of a {@link MethodDefinition} which are worked out from the method's parameters, with its templates
+ * compiled against them, so that a request plan can be built without parsing or reflection.
+ * <p>
+ * Generated by the {@code screech-processor} annotation processor.
+ */
+@Value
+@Builder
+public class CompiledMethod {
+
+    /**
+     * Name of each template parameter, by slot index
+     */
+    @NonNull
+    private final List<String> slotNames;
+
+    /**
+     * Slot index of each argument, or -1 for arguments which aren't template parameters
+     */
+    @NonNull
+    private final List<Integer> argumentSlots;
+
+    /**
+     * Creates the expander of each argument, null for arguments which aren't template parameters
+     */
+    @NonNull
+    private final List<Supplier<? extends Param.Expander>> expanders;
+
+    /**
+     * Index of the argument which is the request body, or -1 if there isn't one
+     */
+    private final int bodyIndex;
+
+    /**
+     * Index of the argument which is the routing key, or -1 if there isn't one
+     */
+    private final int routingKeyIndex;
+
+    /**
+     * Creates the expander for the routing key, null if there isn't one
+     */
+    private final Supplier<? extends Param.Expander> routingKeyExpander;
+
+    @NonNull
+    private final IndexedStringInterpolator path;
+
+    /**
+     * Compiled key of each of the definition's query params
+     */
+    @NonNull
+    private final List<IndexedStringInterpolator> queryKeys;
+
+    /**
+     * Compiled value of each of the definition's query params, null for params without a value
+     */
+    @NonNull
+    private final List<IndexedStringInterpolator> queryValues;
+
+    @NonNull
+    private final List<IndexedStringInterpolator> headerKeys;
+
+    @NonNull
+    private final List<IndexedStringInterpolator> headerValues;
+
+}
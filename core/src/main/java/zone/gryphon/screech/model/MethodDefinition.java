@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.model;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Pre-parsed {@link zone.gryphon.screech.RequestLine} and {@link zone.gryphon.screech.Header} values for a single
+ * method of a client interface.
+ */
+@Value
+@Builder(toBuilder = true)
+public class MethodDefinition {
+
+    /**
+     * Name of the method
+     */
+    @NonNull
+    private final String name;
+
+    /**
+     * Erased parameter types of the method, used to identify it in case it's overloaded
+     */
+    @NonNull
+    private final List<Class<?>> parameterTypes;
+
+    @NonNull
+    private final String httpMethod;
+
+    /**
+     * The path template, without query parameters
+     */
+    @NonNull
+    private final String path;
+
+    @NonNull
+    private final List<HttpParam> queryParams;
+
+    /**
+     * Headers, including any defined at the class level
+     */
+    @NonNull
+    private final List<HttpParam> headerParams;
+
+    /**
+     * The method's parameters and templates compiled ahead of time, null if they're worked out at runtime
+     */
+    private final CompiledMethod compiled;
+
+}
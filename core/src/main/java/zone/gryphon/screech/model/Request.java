@@ -53,4 +53,9 @@ public class Request<T> {
      */
     private final List<HttpParam> queryParams;
 
+    /**
+     * Key used to choose the endpoint the request is sent to, see {@link zone.gryphon.screech.RoutingKey}
+     */
+    private final String routingKey;
+
 }
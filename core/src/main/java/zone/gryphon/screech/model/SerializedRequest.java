@@ -51,4 +51,10 @@ public class SerializedRequest {
      */
     private final List<HttpParam> queryParams;
 
+    /**
+     * Key used to choose the endpoint the request is sent to, see {@link zone.gryphon.screech.RoutingKey}. Null if
+     * the request has no routing key.
+     */
+    private final String routingKey;
+
 }
@@ -16,20 +16,57 @@
 package zone.gryphon.screech.util;
 
 import lombok.NonNull;
+import zone.gryphon.screech.BufferPool;
 import zone.gryphon.screech.ResponseDecoder;
 import zone.gryphon.screech.model.ResponseHeaders;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Buffers the whole response, and decodes it once it's complete.
+ * <p>
+ * The buffer passed to {@link #complete(ExpandableByteBuffer)} stays valid until the decoder is {@link #abort() aborted}
+ * or {@link #release() released}, so subclasses may keep decoding it after {@code complete} returns. Subclasses which
+ * are done with it by the time {@code complete} returns can opt in to {@code releaseAfterComplete}, which releases the
+ * buffer straight away, and lets the decoder keep buffers owned by the transport without copying them.
+ */
 public abstract class BufferingResponseDecoder implements ResponseDecoder {
 
     private final ExpandableByteBuffer buffer;
 
+    private final boolean releaseAfterComplete;
+
+    // the call can be aborted (e.g. when it times out) while the transport is still delivering content
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private boolean released;
+
+    private boolean completing;
+
     public BufferingResponseDecoder(@NonNull ResponseHeaders responseHeaders) {
-        this.buffer = responseHeaders
-                .getContentLength()
-                .map(ExpandableByteBuffer::create)
-                .orElseGet(ExpandableByteBuffer::createEmpty);
+        this(responseHeaders, BufferPool.UNPOOLED);
+    }
+
+    /**
+     * @param responseHeaders The response headers
+     * @param pool            Pool the buffer holding the response is taken from, and returned to once the decoder is
+     *                        aborted or released
+     */
+    public BufferingResponseDecoder(@NonNull ResponseHeaders responseHeaders, @NonNull BufferPool pool) {
+        this(responseHeaders, pool, false);
+    }
+
+    /**
+     * @param responseHeaders      The response headers
+     * @param pool                 Pool the buffer holding the response is taken from, and returned to once the decoder
+     *                             is aborted or released
+     * @param releaseAfterComplete Whether to release the buffer as soon as {@link #complete(ExpandableByteBuffer)}
+     *                             returns, for subclasses which decode synchronously
+     */
+    public BufferingResponseDecoder(@NonNull ResponseHeaders responseHeaders, @NonNull BufferPool pool, boolean releaseAfterComplete) {
+        this.buffer = ExpandableByteBuffer.create(responseHeaders.getContentLength().orElse(0L), pool);
+        this.releaseAfterComplete = releaseAfterComplete;
     }
 
     @Override
@@ -39,17 +76,112 @@ public abstract class BufferingResponseDecoder implements ResponseDecoder {
             return;
         }
 
-        buffer.append(content);
+        lock.lock();
+        try {
+            if (!released) {
+                buffer.append(content);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * With {@code releaseAfterComplete}, keeps the transport's buffer as a chunk of the response without copying it,
+     * until the response is decoded. Otherwise the content is copied, since the buffer may be held on to for as long as
+     * the subclass wants. Content is released straight away if the decoder has already been aborted or released.
+     */
+    @Override
+    public void retainedContent(ByteBuffer content, Runnable release, Runnable demand) {
+        boolean kept = false;
+
+        if (content != null && content.remaining() > 0) {
+            lock.lock();
+            try {
+                if (!released) {
+                    if (releaseAfterComplete) {
+                        buffer.append(content, release);
+                        kept = true;
+                    } else {
+                        buffer.append(content);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        if (!kept) {
+            release.run();
+        }
+
+        demand.run();
     }
 
+    /**
+     * Decodes the response. With {@code releaseAfterComplete}, the buffer is released once
+     * {@link #complete(ExpandableByteBuffer)} returns.
+     */
     @Override
     public void complete() {
-        complete(buffer);
+        lock.lock();
+        try {
+            if (released) {
+                return;
+            }
+
+            completing = true;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            complete(buffer);
+        } finally {
+            lock.lock();
+            try {
+                completing = false;
+
+                if (releaseAfterComplete) {
+                    released = true;
+                }
+
+                // also covers an abort or release while the response was being decoded
+                if (released) {
+                    buffer.clear();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
     }
 
+    /**
+     * Releases the buffer. Safe to call more than once, and concurrently with content still being delivered, which is
+     * released as soon as it arrives from then on.
+     */
     @Override
     public void abort() {
-        this.buffer.clear();
+        release();
+    }
+
+    /**
+     * Releases the buffer passed to {@link #complete(ExpandableByteBuffer)}, returning pooled chunks to their pool and
+     * transport buffers to the transport. Subclasses which decode asynchronously call this once they're done with it;
+     * if called while {@code complete} is still running, the buffer is released once it returns. Safe to call more
+     * than once.
+     */
+    protected final void release() {
+        lock.lock();
+        try {
+            released = true;
+
+            if (!completing) {
+                buffer.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     protected abstract void complete(ExpandableByteBuffer byteBuffer);
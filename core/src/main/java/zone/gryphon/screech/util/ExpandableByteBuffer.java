@@ -15,101 +15,391 @@
 
 package zone.gryphon.screech.util;
 
+import zone.gryphon.screech.BufferPool;
+
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Objects;
 
+/**
+ * Growable buffer made up of a list of chunks.
+ * <p>
+ * Appended content is copied into the last chunk while it has room, and a new chunk is added once it's full, so
+ * content is never copied again as the buffer grows. Chunks grow with the size of the buffer, up to 1MB each. Buffers
+ * owned by someone else (e.g. the transport) can also be added as chunks of their own without copying them, see
+ * {@link #append(ByteBuffer, Runnable)}.
+ * <p>
+ * Chunks can be taken from a {@link BufferPool}, in which case they're returned to it when the buffer is
+ * {@link #clear() cleared}, so the content mustn't be used after that.
+ */
 public class ExpandableByteBuffer {
 
-    private static class ByteBufferInputStream extends InputStream {
+    private static final int MIN_CHUNK_SIZE = 4096;
+
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+
+    private static final ByteBuffer[] NO_CHUNKS = new ByteBuffer[0];
+
+    private static class ChunkedInputStream extends InputStream {
+
+        private final ByteBuffer[] chunks;
+
+        private int index;
 
-        private final ByteBuffer buffer;
+        private ChunkedInputStream(ByteBuffer[] chunks) {
+            this.chunks = chunks;
+        }
+
+        // the chunk to read from, or null once all of them have been read
+        private ByteBuffer current() {
+            while (index < chunks.length) {
 
-        private int currentOffset;
+                if (chunks[index].hasRemaining()) {
+                    return chunks[index];
+                }
+
+                index++;
+            }
 
-        public ByteBufferInputStream(ByteBuffer buffer) {
-            this.buffer = Objects.requireNonNull(buffer, "buffer").duplicate();
-            this.currentOffset = 0;
+            return null;
         }
 
         @Override
         public int read() {
+            ByteBuffer chunk = current();
+            return chunk == null ? -1 : chunk.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            Objects.requireNonNull(b, "b");
 
-            if (currentOffset >= buffer.limit()) {
-                return -1;
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
             }
 
-            return buffer.get(currentOffset++);
+            if (len == 0) {
+                return 0;
+            }
+
+            int read = 0;
+            ByteBuffer chunk;
+
+            while (read < len && (chunk = current()) != null) {
+                int count = Math.min(len - read, chunk.remaining());
+                chunk.get(b, off + read, count);
+                read += count;
+            }
+
+            return read == 0 ? -1 : read;
         }
-    }
 
-    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.wrap(new byte[0]);
+        @Override
+        public long skip(long n) {
+            long skipped = 0;
+            ByteBuffer chunk;
+
+            while (skipped < n && (chunk = current()) != null) {
+                int count = (int) Math.min(n - skipped, chunk.remaining());
+                position(chunk, chunk.position() + count);
+                skipped += count;
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            long available = 0;
+
+            for (int i = index; i < chunks.length && available < Integer.MAX_VALUE; i++) {
+                available += chunks[i].remaining();
+            }
+
+            return (int) Math.min(available, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Writes the remaining content straight from the chunks, without copying it through an intermediate array
+         * where the chunks are backed by one. Overrides {@code InputStream.transferTo} on Java 9 and later.
+         *
+         * @param out The stream to write to
+         * @return The number of bytes written
+         * @throws IOException If writing fails
+         */
+        public long transferTo(OutputStream out) throws IOException {
+            Objects.requireNonNull(out, "out");
+
+            long transferred = 0;
+            byte[] copy = null;
+            ByteBuffer chunk;
+
+            while ((chunk = current()) != null) {
+                int count = chunk.remaining();
+
+                if (chunk.hasArray()) {
+                    out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), count);
+                    position(chunk, chunk.position() + count);
+                } else {
+                    if (copy == null) {
+                        copy = new byte[Math.min(count, 8192)];
+                    }
+
+                    int length = Math.min(count, copy.length);
+                    chunk.get(copy, 0, length);
+                    out.write(copy, 0, length);
+                    count = length;
+                }
+
+                transferred += count;
+            }
+
+            return transferred;
+        }
+    }
 
     public static ExpandableByteBuffer createEmpty() {
         return create(0);
     }
 
+    public static ExpandableByteBuffer createEmpty(BufferPool pool) {
+        return create(0, pool);
+    }
+
     public static ExpandableByteBuffer create(long initialSize) {
+        return create(initialSize, null);
+    }
+
+    public static ExpandableByteBuffer create(long initialSize, BufferPool pool) {
 
         if (initialSize > Integer.MAX_VALUE) {
             throw new IllegalArgumentException("Unable to allocate a buffer of size " + initialSize);
         }
 
-        return new ExpandableByteBuffer(Math.toIntExact(initialSize));
+        return new ExpandableByteBuffer(Math.toIntExact(initialSize), pool);
     }
 
     public static ExpandableByteBuffer create(int initialSize) {
-        return new ExpandableByteBuffer(initialSize);
+        return new ExpandableByteBuffer(initialSize, null);
+    }
+
+    // need to cast to a buffer because of a breaking change in JDK9:
+    // https://github.com/plasma-umass/doppio/issues/497#issuecomment-334740243
+    @SuppressWarnings("RedundantCast")
+    private static void position(ByteBuffer buffer, int position) {
+        ((Buffer) buffer).position(position);
+    }
+
+    @SuppressWarnings("RedundantCast")
+    private static void limit(ByteBuffer buffer, int limit) {
+        ((Buffer) buffer).limit(limit);
     }
 
-    private volatile ByteBuffer buffer;
+    @SuppressWarnings("RedundantCast")
+    private static ByteBuffer flip(ByteBuffer buffer) {
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    private final int initialSize;
+
+    // null if chunks are allocated without pooling
+    private final BufferPool pool;
+
+    // completed chunks, ready to be read from position zero to their limit
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+
+    // hook releasing each chunk which isn't owned by this buffer, if any
+    private Runnable[] releases = new Runnable[4];
+
+    private int count;
 
-    private ExpandableByteBuffer(int initialSize) {
+    // chunk currently being appended to, not yet in chunks
+    private ByteBuffer tail;
+
+    private long size;
+
+    private ExpandableByteBuffer(int initialSize, BufferPool pool) {
 
         if (initialSize < 0) {
             throw new IllegalArgumentException("initialSize cannot be negative");
         }
 
-        if (initialSize == 0) {
-            this.buffer = EMPTY_BUFFER;
-        } else {
-            this.buffer = ByteBuffer.allocate(initialSize);
+        this.initialSize = initialSize;
+        this.pool = pool == BufferPool.UNPOOLED ? null : pool;
+    }
+
+    /**
+     * Copy content to the end of the buffer.
+     *
+     * @param content The content, which is consumed
+     * @return This buffer
+     */
+    public ExpandableByteBuffer append(ByteBuffer content) {
+
+        while (content.hasRemaining()) {
+
+            if (tail == null || !tail.hasRemaining()) {
+                seal();
+                tail = allocate(nextChunkSize(content.remaining()));
+            }
+
+            int length = Math.min(tail.remaining(), content.remaining());
+
+            ByteBuffer slice = content.duplicate();
+            limit(slice, slice.position() + length);
+
+            tail.put(slice);
+            position(content, content.position() + length);
+            size += length;
         }
+
+        return this;
+    }
+
+    /**
+     * Add content to the end of the buffer without copying it. The content must not be modified until it's released.
+     *
+     * @param content The content, which is left untouched
+     * @param release Run once the buffer no longer needs the content, when it's {@link #clear() cleared}
+     * @return This buffer
+     */
+    public ExpandableByteBuffer append(ByteBuffer content, Runnable release) {
+        seal();
+        add(content.slice(), release);
+        size += content.remaining();
+        return this;
     }
 
-    private ByteBuffer resize(int additionalCapacity) {
-        ByteBuffer b = ByteBuffer.allocate(buffer.capacity() + additionalCapacity);
+    private int nextChunkSize(int needed) {
+
+        if (count == 0 && initialSize > 0) {
+            return Math.max(initialSize, needed);
+        }
 
-        // need to cast to a buffer because of a breaking change in JDK9:
-        // https://github.com/plasma-umass/doppio/issues/497#issuecomment-334740243
-        //noinspection RedundantCast
-        ((Buffer) buffer).position(0);
+        // grow with the buffer, so the number of chunks stays logarithmic in its size
+        int size = (int) Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, this.size));
 
-        b.put(buffer);
-        return b;
+        return Math.max(size, needed);
     }
 
-    public ExpandableByteBuffer append(ByteBuffer content) {
+    private ByteBuffer allocate(int size) {
+        return pool == null ? ByteBuffer.allocate(size) : pool.acquire(size);
+    }
+
+    // moves the tail into the completed chunks
+    private void seal() {
 
-        if ((buffer.capacity() - buffer.position()) < content.remaining()) {
-            buffer = resize(content.remaining());
+        if (tail == null) {
+            return;
         }
 
-        buffer.put(content);
+        ByteBuffer chunk = flip(tail);
+        tail = null;
 
+        if (!chunk.hasRemaining()) {
+            if (pool != null) {
+                pool.release(chunk);
+            }
 
-        return this;
+            return;
+        }
+
+        add(chunk, pool == null ? null : () -> pool.release(chunk));
     }
 
+    private void add(ByteBuffer chunk, Runnable release) {
+
+        if (count == chunks.length) {
+            chunks = Arrays.copyOf(chunks, count * 2);
+            releases = Arrays.copyOf(releases, count * 2);
+        }
+
+        chunks[count] = chunk;
+        releases[count] = release;
+        count++;
+    }
+
+    /**
+     * @return The number of bytes in the buffer
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Direct access to the content, for parsers which can read it without going through an {@link InputStream}.
+     * The returned buffers share their content with this buffer, and mustn't be modified.
+     *
+     * @return The content of the buffer, in order, each readable from its position to its limit
+     */
+    public ByteBuffer[] getChunks() {
+        int length = count + (tail != null && tail.position() > 0 ? 1 : 0);
+
+        if (length == 0) {
+            return NO_CHUNKS;
+        }
+
+        ByteBuffer[] output = new ByteBuffer[length];
+
+        for (int i = 0; i < count; i++) {
+            output[i] = chunks[i].duplicate();
+        }
+
+        if (length > count) {
+            output[count] = flip(tail.duplicate());
+        }
+
+        return output;
+    }
+
+    /**
+     * Empty the buffer, releasing any content which was added without copying it, and returning pooled chunks to
+     * their pool. Each chunk is released once, even if this is called again or a release hook throws.
+     */
     public void clear() {
-        // need to cast to a buffer because of a breaking change in JDK9:
-        // https://github.com/plasma-umass/doppio/issues/497#issuecomment-334740243
-        //noinspection RedundantCast
-        ((Buffer) this.buffer).clear();
+
+        if (count == 0 && tail == null) {
+            return;
+        }
+
+        seal();
+
+        Runnable[] toRelease = Arrays.copyOf(releases, count);
+
+        Arrays.fill(chunks, 0, count, null);
+        Arrays.fill(releases, 0, count, null);
+        count = 0;
+        size = 0;
+
+        RuntimeException failure = null;
+
+        for (Runnable release : toRelease) {
+            if (release == null) {
+                continue;
+            }
+
+            try {
+                release.run();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
     }
 
     public InputStream createInputStream() {
-        return new ByteBufferInputStream(buffer);
+        return new ChunkedInputStream(getChunks());
     }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import lombok.Builder;
+import lombok.ToString;
+import zone.gryphon.screech.Retryer;
+import zone.gryphon.screech.model.ResponseHeaders;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+/**
+ * {@link Retryer} with exponential backoff and jitter.
+ * <p>
+ * Only idempotent requests are retried by default. If the server sends a {@code Retry-After} header, it's used as the
+ * delay instead, unless it's longer than {@code maxDelay}, in which case the request isn't retried.
+ */
+@ToString
+public class ExponentialBackoffRetryer implements Retryer {
+
+    private static final Set<Integer> DEFAULT_STATUSES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(429, 502, 503, 504)));
+
+    private static final Set<String> DEFAULT_METHODS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "GET", "HEAD", "OPTIONS", "PUT", "DELETE", "TRACE")));
+
+    private final int maxAttempts;
+
+    private final long initialDelay;
+
+    private final long maxDelay;
+
+    private final double multiplier;
+
+    private final double jitter;
+
+    private final Set<Integer> retryableStatuses;
+
+    private final Set<String> retryableMethods;
+
+    private final boolean retryOnFailure;
+
+    /**
+     * @param maxAttempts       Maximum number of attempts, including the first, defaults to 3
+     * @param initialDelay      Delay before the first retry, defaults to 100 milliseconds
+     * @param maxDelay          Maximum delay between attempts, defaults to 10 seconds
+     * @param multiplier        Factor the delay grows by after each attempt, defaults to 2
+     * @param jitter            Fraction of each delay which is randomized, between 0 and 1, defaults to 0.5
+     * @param retryableStatuses Response statuses which are retried, defaults to 429, 502, 503 and 504
+     * @param retryableMethods  HTTP methods which are retried, defaults to the idempotent methods
+     * @param retryOnFailure    Whether requests which fail without a response (e.g. connection errors) are retried,
+     *                          defaults to true
+     */
+    @Builder
+    private ExponentialBackoffRetryer(
+            Integer maxAttempts,
+            Duration initialDelay,
+            Duration maxDelay,
+            Double multiplier,
+            Double jitter,
+            Collection<Integer> retryableStatuses,
+            Collection<String> retryableMethods,
+            Boolean retryOnFailure) {
+        this.maxAttempts = maxAttempts == null ? 3 : maxAttempts;
+        this.initialDelay = initialDelay == null ? 100 : initialDelay.toMillis();
+        this.maxDelay = maxDelay == null ? 10_000 : maxDelay.toMillis();
+        this.multiplier = multiplier == null ? 2 : multiplier;
+        this.jitter = jitter == null ? 0.5 : jitter;
+        this.retryableStatuses = retryableStatuses == null ? DEFAULT_STATUSES : Collections.unmodifiableSet(new HashSet<>(retryableStatuses));
+        this.retryableMethods = retryableMethods == null ? DEFAULT_METHODS : Collections.unmodifiableSet(retryableMethods.stream()
+                .map(String::toUpperCase)
+                .collect(Collectors.toSet()));
+        this.retryOnFailure = retryOnFailure == null || retryOnFailure;
+
+        if (this.jitter < 0 || this.jitter > 1) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        }
+    }
+
+    @Override
+    public long nextAttemptDelay(int attempt, String httpMethod, ResponseHeaders response, Throwable failure) {
+
+        if (attempt >= maxAttempts || !retryableMethods.contains(httpMethod.toUpperCase())) {
+            return -1;
+        }
+
+        if (response == null) {
+            return retryOnFailure ? backoff(attempt) : -1;
+        }
+
+        if (!retryableStatuses.contains(response.getStatus())) {
+            return -1;
+        }
+
+        Optional<Long> retryAfter = response.getValue("retry-after").flatMap(ExponentialBackoffRetryer::parseRetryAfter);
+
+        if (retryAfter.isPresent()) {
+            return retryAfter.get() <= maxDelay ? retryAfter.get() : -1;
+        }
+
+        return backoff(attempt);
+    }
+
+    private long backoff(int attempt) {
+        double delay = Math.min(maxDelay, initialDelay * Math.pow(multiplier, attempt - 1));
+
+        return (long) (delay * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * @return The delay in milliseconds, from either a number of seconds or an HTTP date
+     */
+    private static Optional<Long> parseRetryAfter(String value) {
+        String trimmed = value.trim();
+
+        try {
+            return Optional.of(Math.max(0, Long.parseLong(trimmed)) * 1000);
+        } catch (NumberFormatException ignore) {
+            // not a number of seconds, try parsing it as a date
+        }
+
+        try {
+            long time = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Optional.of(Math.max(0, time - System.currentTimeMillis()));
+        } catch (Exception e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.ToString;
+import zone.gryphon.screech.Deadline;
+import zone.gryphon.screech.exception.FanOutException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Issues one asynchronous call per input, with at most {@code maxConcurrency} calls in flight at once.
+ * <pre>{@code
+ * FanOut fanOut = FanOut.builder().maxConcurrency(32).build();
+ *
+ * CompletableFuture<List<User>> users = fanOut.call(ids, client::getUser);
+ * }</pre>
+ * Unlike starting every call up front and combining them with {@link CompletableFuture#allOf}, the next call is only
+ * started once an earlier one completes, so a large input doesn't flood the client's executors, connection pools or
+ * the server.
+ * <p>
+ * In fail-fast mode (the default), the first failure fails the returned future, no further calls are started, and the
+ * calls in flight are cancelled. Otherwise every call is made, and if any failed the returned future fails with a
+ * {@link FanOutException} holding the results of the others.
+ * <p>
+ * Cancelling the returned future cancels the calls in flight. Calls started after the current thread's
+ * {@link Deadline} is set keep that deadline, even though they're started from the threads completing earlier calls.
+ */
+@ToString
+public class FanOut {
+
+    private final int maxConcurrency;
+
+    private final boolean failFast;
+
+    /**
+     * @param maxConcurrency Maximum number of calls in flight at once, defaults to 16
+     * @param failFast       Whether to fail on the first failed call, rather than waiting for all of them, defaults to
+     *                       true
+     */
+    @Builder
+    private FanOut(Integer maxConcurrency, Boolean failFast) {
+        this.maxConcurrency = maxConcurrency == null ? 16 : maxConcurrency;
+        this.failFast = failFast == null || failFast;
+
+        if (this.maxConcurrency < 1) {
+            throw new IllegalArgumentException(String.format("Max concurrency must be positive but was %d", this.maxConcurrency));
+        }
+    }
+
+    /**
+     * Call a method once for each input.
+     *
+     * @param inputs The inputs
+     * @param call   The call to make for each input, usually a reference to an asynchronous method of a client
+     * @param <I>    The type of the inputs
+     * @param <O>    The type of the results
+     * @return The results, in input order
+     */
+    public <I, O> CompletableFuture<List<O>> call(@NonNull Collection<? extends I> inputs, @NonNull Function<? super I, ? extends CompletableFuture<? extends O>> call) {
+
+        if (inputs.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        Run<I, O> run = new Run<>(new ArrayList<>(inputs), call, Deadline.current());
+
+        for (int i = 0; i < Math.min(maxConcurrency, run.inputs.size()); i++) {
+            run.next();
+        }
+
+        return run.result;
+    }
+
+    private final class Run<I, O> {
+
+        private final List<I> inputs;
+
+        private final Function<? super I, ? extends CompletableFuture<? extends O>> call;
+
+        private final Deadline deadline;
+
+        private final CompletableFuture<List<O>> result = new CompletableFuture<>();
+
+        private final AtomicInteger started = new AtomicInteger();
+
+        private final AtomicInteger remaining;
+
+        private final Object[] results;
+
+        private final AtomicReferenceArray<CompletableFuture<?>> inFlight;
+
+        private final Map<Integer, Throwable> failures = new ConcurrentHashMap<>();
+
+        private Run(List<I> inputs, Function<? super I, ? extends CompletableFuture<? extends O>> call, Deadline deadline) {
+            this.inputs = inputs;
+            this.call = call;
+            this.deadline = deadline;
+            this.remaining = new AtomicInteger(inputs.size());
+            this.results = new Object[inputs.size()];
+            this.inFlight = new AtomicReferenceArray<>(inputs.size());
+
+            result.whenComplete((ignored, e) -> {
+                if (e != null) {
+                    cancelInFlight();
+                }
+            });
+        }
+
+        // starts calls until one doesn't complete immediately, so that already completed futures don't recurse
+        private void next() {
+            while (!result.isDone()) {
+                int index = started.getAndIncrement();
+
+                if (index >= inputs.size()) {
+                    return;
+                }
+
+                CompletableFuture<? extends O> future;
+
+                try {
+                    future = start(inputs.get(index));
+                } catch (Throwable e) {
+                    complete(index, null, e);
+                    continue;
+                }
+
+                if (future == null) {
+                    complete(index, null, new NullPointerException("Call returned null instead of a future"));
+                    continue;
+                }
+
+                if (future.isDone()) {
+                    future.whenComplete((value, e) -> complete(index, value, e));
+                    continue;
+                }
+
+                inFlight.set(index, future);
+
+                future.whenComplete((value, e) -> {
+                    complete(index, value, e);
+                    next();
+                });
+
+                // the result may have failed while the call was being started
+                if (result.isDone()) {
+                    future.cancel(true);
+                }
+
+                return;
+            }
+        }
+
+        private CompletableFuture<? extends O> start(I input) {
+
+            if (deadline == null || deadline == Deadline.current()) {
+                return call.apply(input);
+            }
+
+            return Deadline.within(Duration.ofNanos(deadline.remainingNanos()), () -> call.apply(input));
+        }
+
+        private void complete(int index, Object value, Throwable e) {
+            inFlight.set(index, null);
+
+            if (e != null) {
+                e = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+                if (failFast) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+
+                failures.put(index, e);
+            } else {
+                results[index] = value;
+            }
+
+            if (remaining.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void finish() {
+            List<Object> list = Arrays.asList(results);
+
+            if (failures.isEmpty()) {
+                result.complete((List<O>) list);
+            } else {
+                result.completeExceptionally(new FanOutException(list, new TreeMap<>(failures)));
+            }
+        }
+
+        private void cancelInFlight() {
+            for (int i = 0; i < inFlight.length(); i++) {
+                CompletableFuture<?> future = inFlight.getAndSet(i, null);
+
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+}
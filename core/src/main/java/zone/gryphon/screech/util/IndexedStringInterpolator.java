@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import lombok.NonNull;
+
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Variant of {@link SimpleStringInterpolator} which resolves parameter names to slot indexes ahead of time,
+ * so that interpolation only requires an array of values instead of a map lookup per parameter.
+ */
+public class IndexedStringInterpolator {
+
+    /**
+     * Compile the given template.
+     *
+     * @param input    The template to compile
+     * @param slotting Function which maps a parameter name to the index of the slot its value will be stored in
+     * @return The compiled template
+     */
+    public static IndexedStringInterpolator of(@NonNull String input, @NonNull ToIntFunction<String> slotting) {
+
+        if (!SimpleStringInterpolator.requiresInterpolation(input)) {
+            return new IndexedStringInterpolator(input, new String[]{input}, new int[]{-1}, new String[1], input.length());
+        }
+
+        SimpleStringInterpolator parsed = new SimpleStringInterpolator(input);
+
+        List<String> constants = parsed.getConstants();
+        List<String> parameterNames = parsed.getParameterNames();
+
+        String[] parts = new String[constants.size()];
+        int[] slots = new int[constants.size()];
+        String[] names = new String[constants.size()];
+        int constantSize = 0;
+        int paramIndex = 0;
+
+        for (int i = 0; i < parts.length; i++) {
+            String constant = constants.get(i);
+
+            if (constant != null) {
+                parts[i] = constant;
+                slots[i] = -1;
+                constantSize += constant.length();
+            } else {
+                names[i] = parameterNames.get(paramIndex++);
+                slots[i] = slotting.applyAsInt(names[i]);
+            }
+        }
+
+        return new IndexedStringInterpolator(input, parts, slots, names, constantSize);
+    }
+
+    /**
+     * Create an interpolator from a template which was compiled ahead of time, e.g. by the annotation processor, with
+     * the parts returned by {@link #getParts()}, {@link #getSlots()} and {@link #getParameterNames()}.
+     *
+     * @param input The template
+     * @param parts The constant value of each segment, or null for parameters
+     * @param slots The slot index of each parameter segment, or -1 for constants and unknown parameters
+     * @param names The name of each parameter segment, or null for constants
+     * @return The compiled template
+     */
+    public static IndexedStringInterpolator of(@NonNull String input, @NonNull String[] parts, @NonNull int[] slots, @NonNull String[] names) {
+
+        if (parts.length == 0 || parts.length != slots.length || parts.length != names.length) {
+            throw new IllegalArgumentException(String.format("Invalid compiled template for \"%s\", expected the same number of parts, slots and names", input));
+        }
+
+        int constantSize = 0;
+
+        for (String part : parts) {
+            if (part != null) {
+                constantSize += part.length();
+            }
+        }
+
+        return new IndexedStringInterpolator(input, parts.clone(), slots.clone(), names.clone(), constantSize);
+    }
+
+    //  end of static methods/constants  //
+
+    private final String input;
+
+    // constant value for each segment, or null if the segment is a parameter
+    private final String[] parts;
+
+    // slot index for each parameter segment, or -1 for constants
+    private final int[] slots;
+
+    // parameter name for each parameter segment, only used for error messages
+    private final String[] names;
+
+    private final int constantSize;
+
+    private IndexedStringInterpolator(String input, String[] parts, int[] slots, String[] names, int constantSize) {
+        this.input = input;
+        this.parts = parts;
+        this.slots = slots;
+        this.names = names;
+        this.constantSize = constantSize;
+    }
+
+    /**
+     * @return true if the template contains no parameters (i.e. it will always interpolate to the same value)
+     */
+    public boolean isConstant() {
+        // a template which is just a parameter also has one segment, which is constant only if it has a value
+        return parts.length == 1 && parts[0] != null;
+    }
+
+    /**
+     * @return The constant value of each segment of the template, or null for segments which are parameters
+     */
+    public String[] getParts() {
+        return parts.clone();
+    }
+
+    /**
+     * @return The slot index of each parameter segment, or -1 for constant segments and parameters without a slot
+     */
+    public int[] getSlots() {
+        return slots.clone();
+    }
+
+    /**
+     * @return The parameter name of each parameter segment, or null for constant segments
+     */
+    public String[] getParameterNames() {
+        return names.clone();
+    }
+
+    public String interpolate(@NonNull String[] values) {
+
+        if (isConstant()) {
+            return input;
+        }
+
+        int size = constantSize;
+
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i] == null) {
+                String value = slots[i] < 0 ? null : values[slots[i]];
+
+                if (value == null) {
+                    throw new IllegalArgumentException(String.format("Unable to interpolate \"%s\", no value for key \"%s\"", input, names[i]));
+                }
+
+                size += value.length();
+            }
+        }
+
+        StringBuilder out = new StringBuilder(size);
+
+        for (int i = 0; i < parts.length; i++) {
+            // values were already checked for nulls when calculating the size
+            out.append(parts[i] != null ? parts[i] : values[slots[i]]);
+        }
+
+        return out.toString();
+    }
+
+}
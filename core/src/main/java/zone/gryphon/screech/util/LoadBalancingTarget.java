@@ -0,0 +1,550 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.ToString;
+import zone.gryphon.screech.Client;
+import zone.gryphon.screech.Target;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+
+/**
+ * {@link Target} which balances requests between multiple endpoints (e.g. replicas of a service).
+ * <p>
+ * Every attempt at a request, including retries and hedges, picks an endpoint when it's sent, using the power of two
+ * choices: two endpoints are picked at random, and the request goes to the one with the lower cost, where cost is the
+ * number of outstanding requests multiplied by a peak-sensitive moving average of latency. This avoids both slow and
+ * overloaded endpoints without having to track a global ordering.
+ * <p>
+ * Endpoints which fail {@code ejectionThreshold} consecutive requests (without a response, or with a status matching
+ * {@code failureStatus}) are ejected for {@code ejectionDuration}, with at most {@code maxEjectedRatio} of endpoints
+ * ejected at once.
+ * <p>
+ * Requests with a {@link zone.gryphon.screech.RoutingKey} are instead routed by consistent hashing (using Maglev
+ * hashing), so requests with the same key go to the same endpoint, and only a small fraction of keys move when
+ * endpoints are added or removed. The lookup table is built on the first request with a routing key, and rebuilt when
+ * the endpoints change; choosing an endpoint from it doesn't allocate. Keys whose endpoint is ejected fall back to the
+ * power of two choices.
+ * <p>
+ * The endpoints can be replaced at any time with {@link #update(Collection)}, e.g. from service discovery; statistics
+ * are kept for endpoints which remain. Requests are built against {@code lb://<name>}, which is replaced with the chosen
+ * endpoint, so interceptors see the same URI for a request whichever endpoint it's sent to.
+ */
+@ToString(of = {"name", "endpoints"})
+public class LoadBalancingTarget implements Target {
+
+    // latency assumed for endpoints which haven't responded yet but have requests outstanding, so that a new (or hung)
+    // endpoint isn't mistaken for a fast one
+    private static final double PENALTY = TimeUnit.SECONDS.toNanos(1);
+
+    private static final long OFFSET_SEED = 0x9e3779b97f4a7c15L;
+
+    private static final long SKIP_SEED = 0xc2b2ae3d27d4eb4fL;
+
+    private static final long KEY_SEED = 0x165667b19e3779f9L;
+
+    /**
+     * Maglev lookup table, for a specific array of endpoints
+     */
+    private static final class Ring {
+
+        private final Endpoint[] endpoints;
+
+        private final int[] table;
+
+        private Ring(Endpoint[] endpoints, int[] table) {
+            this.endpoints = endpoints;
+            this.table = table;
+        }
+    }
+
+    private final String name;
+
+    private final String target;
+
+    private final int ejectionThreshold;
+
+    private final long ejectionDuration;
+
+    private final double maxEjectedRatio;
+
+    private final double decay;
+
+    private final IntPredicate failureStatus;
+
+    private final int tableSize;
+
+    // serializes updates and ring rebuilds; ring() runs on request threads, which may be virtual, so not a monitor
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile Endpoint[] endpoints;
+
+    // null until a request with a routing key is sent
+    private volatile Ring ring;
+
+    /**
+     * @param name              Name of the service, used in the URI requests are built against
+     * @param endpoints         The initial endpoints, e.g. {@code http://10.0.0.1:8080}, optionally with a base path
+     * @param ejectionThreshold Consecutive failures after which an endpoint is ejected, defaults to 5
+     * @param ejectionDuration  How long endpoints are ejected for, defaults to 30 seconds
+     * @param maxEjectedRatio   The maximum fraction of endpoints which can be ejected at once, defaults to 0.5
+     * @param decay             Time over which latency measurements decay, defaults to 10 seconds
+     * @param failureStatus     Response statuses which count as failures, defaults to 5xx statuses
+     * @param tableSize         Size of the consistent hashing lookup table, must be prime and should be much larger than
+     *                          the number of endpoints. Defaults to 65537.
+     */
+    @Builder
+    private LoadBalancingTarget(
+            @NonNull String name,
+            @NonNull Collection<String> endpoints,
+            Integer ejectionThreshold,
+            Duration ejectionDuration,
+            Double maxEjectedRatio,
+            Duration decay,
+            IntPredicate failureStatus,
+            Integer tableSize) {
+        this.name = name;
+        this.target = "lb://" + name;
+        this.ejectionThreshold = ejectionThreshold == null ? 5 : ejectionThreshold;
+        this.ejectionDuration = (ejectionDuration == null ? Duration.ofSeconds(30) : ejectionDuration).toNanos();
+        this.maxEjectedRatio = maxEjectedRatio == null ? 0.5 : maxEjectedRatio;
+        this.decay = (decay == null ? Duration.ofSeconds(10) : decay).toNanos();
+        this.failureStatus = failureStatus == null ? status -> status >= 500 : failureStatus;
+        this.tableSize = tableSize == null ? 65537 : tableSize;
+        this.endpoints = new Endpoint[0];
+
+        if (this.maxEjectedRatio < 0 || this.maxEjectedRatio >= 1) {
+            throw new IllegalArgumentException("maxEjectedRatio must be at least 0 and less than 1");
+        }
+
+        if (this.tableSize < 2 || !BigInteger.valueOf(this.tableSize).isProbablePrime(32)) {
+            throw new IllegalArgumentException(String.format("tableSize must be prime, got %d", this.tableSize));
+        }
+
+        update(endpoints);
+    }
+
+    /**
+     * Replace the endpoints requests are balanced between.
+     *
+     * @param endpoints The new endpoints
+     */
+    public void update(@NonNull Collection<String> endpoints) {
+
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException(String.format("Load balancer for %s must have at least one endpoint", name));
+        }
+
+        lock.lock();
+
+        try {
+            Map<String, Endpoint> existing = new HashMap<>();
+
+            for (Endpoint endpoint : this.endpoints) {
+                existing.put(endpoint.uri, endpoint);
+            }
+
+            this.endpoints = endpoints.stream()
+                    .map(LoadBalancingTarget::normalize)
+                    .distinct()
+                    .map(uri -> existing.getOrDefault(uri, new Endpoint(uri)))
+                    .toArray(Endpoint[]::new);
+
+            // rebuild now rather than on the next request, if routing keys are in use
+            if (ring != null) {
+                ring = buildRing(this.endpoints);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The current endpoints
+     */
+    public List<String> getEndpoints() {
+        return Collections.unmodifiableList(Arrays.stream(endpoints).map(endpoint -> endpoint.uri).collect(Collectors.toList()));
+    }
+
+    @Override
+    public String getTarget() {
+        return target;
+    }
+
+    @Override
+    public Client wrap(@NonNull Client client) {
+        return new BalancingClient(client);
+    }
+
+    private static String normalize(String endpoint) {
+        URI.create(endpoint);
+
+        return endpoint.endsWith("/") ? endpoint.substring(0, endpoint.length() - 1) : endpoint;
+    }
+
+    private Endpoint choose(String routingKey) {
+
+        if (routingKey == null) {
+            return choose();
+        }
+
+        Endpoint[] endpoints = this.endpoints;
+
+        Ring ring = this.ring;
+
+        if (ring == null || ring.endpoints != endpoints) {
+            ring = ring(endpoints);
+        }
+
+        Endpoint endpoint = ring.endpoints[ring.table[(int) Long.remainderUnsigned(hash(routingKey, KEY_SEED), tableSize)]];
+
+        return endpoint.isEjected(System.nanoTime()) ? choose() : endpoint;
+    }
+
+    private Ring ring(Endpoint[] endpoints) {
+        lock.lock();
+
+        try {
+            Ring current = this.ring;
+
+            if (current != null && current.endpoints == endpoints) {
+                return current;
+            }
+
+            current = buildRing(endpoints);
+            this.ring = current;
+            return current;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fill the lookup table by letting each endpoint claim its next preferred free slot in turn, so that each
+     * endpoint gets an equal share of the table, and most slots keep their endpoint when another endpoint is added or
+     * removed
+     */
+    private Ring buildRing(Endpoint[] endpoints) {
+        int[] table = new int[tableSize];
+        long[] next = new long[endpoints.length];
+
+        Arrays.fill(table, -1);
+
+        int filled = 0;
+
+        while (true) {
+            for (int i = 0; i < endpoints.length; i++) {
+                int slot;
+
+                do {
+                    slot = (int) ((endpoints[i].offset + next[i]++ * endpoints[i].skip) % tableSize);
+                } while (table[slot] >= 0);
+
+                table[slot] = i;
+
+                if (++filled == tableSize) {
+                    return new Ring(endpoints, table);
+                }
+            }
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a, followed by the MurmurHash3 finalizer since FNV alone mixes the last characters poorly
+     */
+    private static long hash(String value, long seed) {
+        long hash = 0xcbf29ce484222325L ^ seed;
+
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb3fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    private Endpoint choose() {
+        Endpoint[] endpoints = this.endpoints;
+
+        if (endpoints.length == 1) {
+            return endpoints[0];
+        }
+
+        long now = System.nanoTime();
+
+        int maxEjected = (int) (endpoints.length * maxEjectedRatio);
+
+        int ejected = 0;
+
+        List<Endpoint> available = null;
+
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isEjected(now)) {
+                ejected++;
+            }
+        }
+
+        if (ejected > 0 && ejected <= maxEjected) {
+            available = new ArrayList<>(endpoints.length - ejected);
+
+            for (Endpoint endpoint : endpoints) {
+                if (!endpoint.isEjected(now)) {
+                    available.add(endpoint);
+                }
+            }
+        }
+
+        int size = available == null ? endpoints.length : available.size();
+
+        if (size == 1) {
+            return available.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        int a = random.nextInt(size);
+        int b = random.nextInt(size - 1);
+
+        if (b >= a) {
+            b++;
+        }
+
+        Endpoint first = available == null ? endpoints[a] : available.get(a);
+        Endpoint second = available == null ? endpoints[b] : available.get(b);
+
+        return first.cost(now) <= second.cost(now) ? first : second;
+    }
+
+    private final class Endpoint {
+
+        private final String uri;
+
+        // position of the endpoint's permutation of the lookup table
+        private final long offset;
+
+        private final long skip;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // written while holding the lock, read without it when choosing an endpoint
+        private volatile double latency;
+
+        private volatile long lastUpdate = System.nanoTime();
+
+        // guarded by lock
+        private int consecutiveFailures;
+
+        private volatile long ejectedUntil;
+
+        private Endpoint(String uri) {
+            this.uri = uri;
+            this.offset = Long.remainderUnsigned(hash(uri, OFFSET_SEED), tableSize);
+            this.skip = Long.remainderUnsigned(hash(uri, SKIP_SEED), tableSize - 1) + 1;
+        }
+
+        private boolean isEjected(long now) {
+            return ejectedUntil - now > 0;
+        }
+
+        private double cost(long now) {
+            int outstanding = this.outstanding.get();
+
+            if (latency == 0) {
+                return outstanding == 0 ? 0 : PENALTY * outstanding;
+            }
+
+            if (outstanding == 0) {
+                // decay towards zero while idle, so that endpoints which were slow are tried again
+                return latency * Math.exp(-(now - lastUpdate) / decay) + 1;
+            }
+
+            return (latency + 1) * (outstanding + 1);
+        }
+
+        private void onResult(long rtt, boolean failed) {
+            lock.lock();
+
+            try {
+                long now = System.nanoTime();
+
+                double current = latency * Math.exp(-(now - lastUpdate) / decay);
+
+                // peak sensitive: jumps up to slow responses immediately, and decays back down gradually
+                if (rtt > current) {
+                    latency = rtt;
+                } else {
+                    double weight = Math.exp(-(now - lastUpdate) / decay);
+                    latency = current * weight + rtt * (1 - weight);
+                }
+
+                lastUpdate = now;
+
+                if (!failed) {
+                    consecutiveFailures = 0;
+                } else if (++consecutiveFailures >= ejectionThreshold) {
+                    consecutiveFailures = 0;
+                    ejectedUntil = now + ejectionDuration;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @ToString(of = "client")
+    private final class BalancingClient implements Client {
+
+        private final Client client;
+
+        private BalancingClient(Client client) {
+            this.client = client;
+        }
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            String uri = request.getUri().toString();
+
+            if (!uri.startsWith(target)) {
+                // an interceptor sent the request elsewhere
+                client.request(request, callback);
+                return;
+            }
+
+            Endpoint endpoint = choose(request.getRoutingKey());
+
+            SerializedRequest routed = request.toBuilder()
+                    .uri(URI.create(endpoint.uri + uri.substring(target.length())))
+                    .build();
+
+            TrackingCallback tracking = new TrackingCallback(endpoint, callback);
+
+            try {
+                client.request(routed, tracking);
+            } catch (Throwable e) {
+                tracking.abort(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            client.close();
+        }
+    }
+
+    private final class TrackingCallback implements Client.ClientCallback {
+
+        private final Endpoint endpoint;
+
+        private final Client.ClientCallback delegate;
+
+        private final long start = System.nanoTime();
+
+        // cancelled requests say nothing about the endpoint
+        private volatile boolean cancelled;
+
+        private final AtomicBoolean responded = new AtomicBoolean();
+
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private TrackingCallback(Endpoint endpoint, Client.ClientCallback delegate) {
+            this.endpoint = endpoint;
+            this.delegate = delegate;
+            endpoint.outstanding.incrementAndGet();
+        }
+
+        @Override
+        public Client.ContentCallback headers(ResponseHeaders responseHeaders) {
+            respond(responseHeaders == null || failureStatus.test(responseHeaders.getStatus()));
+            return delegate.headers(responseHeaders);
+        }
+
+        @Override
+        public void complete() {
+            try {
+                delegate.complete();
+            } finally {
+                finish();
+            }
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            try {
+                if (!cancelled) {
+                    respond(true);
+                }
+
+                delegate.abort(t);
+            } finally {
+                finish();
+            }
+        }
+
+        @Override
+        public void onCancel(Runnable abort) {
+            delegate.onCancel(() -> {
+                cancelled = true;
+                abort.run();
+            });
+        }
+
+        // latency is measured to the response headers, so that large responses don't make an endpoint look slow
+        private void respond(boolean failed) {
+            if (!responded.compareAndSet(false, true)) {
+                return;
+            }
+
+            endpoint.onResult(System.nanoTime() - start, failed);
+        }
+
+        private void finish() {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+
+            endpoint.outstanding.decrementAndGet();
+        }
+    }
+}
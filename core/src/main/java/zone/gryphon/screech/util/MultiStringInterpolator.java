@@ -42,6 +42,9 @@ public class MultiStringInterpolator {
             return null;
         }
 
-        return map.getOrDefault(key, SimpleStringInterpolator.of(key)).interpolate(params);
+        StringInterpolator interpolator = map.get(key);
+
+        // only parse templates which weren't cached up front
+        return (interpolator == null ? SimpleStringInterpolator.of(key) : interpolator).interpolate(params);
     }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import lombok.Builder;
+import lombok.ToString;
+import zone.gryphon.screech.HedgingPolicy;
+import zone.gryphon.screech.RetryBudget;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * {@link HedgingPolicy} which hedges requests that take longer than a percentile of recent response times (by default
+ * the 95th), learned separately for each method.
+ * <p>
+ * Until enough response times have been recorded, the fixed {@code delay} is used if set, otherwise requests aren't
+ * hedged. Hedges are drawn from a {@link RetryBudget}, shared by all methods, so that they add a bounded amount of
+ * load.
+ */
+@ToString(of = {"percentile", "delay", "minDelay", "budget"})
+public class PercentileHedgingPolicy implements HedgingPolicy {
+
+    private static final Set<String> DEFAULT_METHODS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS")));
+
+    // number of recent response times to track, must be a power of two
+    private static final int WINDOW = 1024;
+
+    // how often (in responses) the percentile is recalculated
+    private static final int RECALCULATE_EVERY = 64;
+
+    private final double percentile;
+
+    private final long delay;
+
+    private final long minDelay;
+
+    private final int minSamples;
+
+    private final RetryBudget budget;
+
+    private final Set<String> methods;
+
+    // response times in nanoseconds, written without synchronization since an approximate percentile is good enough
+    private final long[] samples = new long[WINDOW];
+
+    // total number of responses recorded, which the ring index is derived from. A long, so it never wraps in practice
+    private final AtomicLong responses = new AtomicLong();
+
+    private volatile long learnedDelay = -1;
+
+    /**
+     * @param percentile Percentile of response times to hedge after, defaults to 0.95
+     * @param delay      Delay to hedge after until enough response times have been recorded, by default requests aren't
+     *                   hedged until then. If percentile is set to zero, this delay is always used.
+     * @param minDelay   Minimum delay before hedging, defaults to 5 milliseconds
+     * @param minSamples Number of response times to record before the percentile is used, defaults to 100
+     * @param budget     Budget hedges are drawn from, defaults to 10% of requests
+     * @param methods    HTTP methods which are hedged, defaults to GET, HEAD and OPTIONS
+     */
+    @Builder
+    private PercentileHedgingPolicy(Double percentile, Duration delay, Duration minDelay, Integer minSamples, RetryBudget budget, Collection<String> methods) {
+        this(percentile == null ? 0.95 : percentile,
+                delay == null ? -1 : delay.toMillis(),
+                minDelay == null ? 5 : minDelay.toMillis(),
+                minSamples == null ? 100 : Math.min(WINDOW, minSamples),
+                budget == null ? RetryBudget.builder().ratio(0.1).build() : budget,
+                methods == null ? DEFAULT_METHODS : Collections.unmodifiableSet(methods.stream().map(String::toUpperCase).collect(Collectors.toSet())));
+    }
+
+    private PercentileHedgingPolicy(double percentile, long delay, long minDelay, int minSamples, RetryBudget budget, Set<String> methods) {
+
+        if (percentile < 0 || percentile >= 1) {
+            throw new IllegalArgumentException("percentile must be at least 0 and less than 1");
+        }
+
+        this.percentile = percentile;
+        this.delay = delay;
+        this.minDelay = minDelay;
+        this.minSamples = minSamples;
+        this.budget = budget;
+        this.methods = methods;
+    }
+
+    /**
+     * Each method learns its own response times, but shares the budget
+     */
+    @Override
+    public HedgingPolicy forMethod(Method method) {
+        return new PercentileHedgingPolicy(percentile, delay, minDelay, minSamples, budget, methods);
+    }
+
+    @Override
+    public long hedgeDelay(String httpMethod) {
+
+        if (!methods.contains(httpMethod.toUpperCase())) {
+            return -1;
+        }
+
+        budget.onRequest();
+
+        long learned = learnedDelay;
+
+        if (percentile == 0 || learned < 0) {
+            return delay < 0 ? -1 : Math.max(minDelay, delay);
+        }
+
+        return Math.max(minDelay, learned);
+    }
+
+    @Override
+    public boolean tryHedge() {
+        return budget.tryRetry();
+    }
+
+    @Override
+    public void onResponse(long nanos) {
+
+        if (percentile == 0) {
+            return;
+        }
+
+        long recorded = responses.incrementAndGet();
+
+        samples[(int) ((recorded - 1) & (WINDOW - 1))] = nanos;
+
+        if (recorded >= minSamples && recorded % RECALCULATE_EVERY == 0) {
+            long[] sorted = Arrays.copyOf(samples, (int) Math.min(WINDOW, recorded));
+            Arrays.sort(sorted);
+            learnedDelay = TimeUnit.NANOSECONDS.toMillis(sorted[(int) (percentile * (sorted.length - 1))]);
+        }
+    }
+
+    /**
+     * @return The currently learned delay in milliseconds, or -1 if not enough response times have been recorded
+     */
+    public long getLearnedDelay() {
+        return learnedDelay;
+    }
+}
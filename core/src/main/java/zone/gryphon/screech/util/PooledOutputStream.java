@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import lombok.NonNull;
+import zone.gryphon.screech.BufferPool;
+
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Output stream which writes into a single buffer from a {@link BufferPool}, for encoders producing a request body.
+ * <p>
+ * When the buffer fills up, it's replaced by one twice the size and returned to the pool. Once writing is done,
+ * {@link #toByteBuffer()} hands the buffer over to the caller; if encoding fails, {@link #release()} returns it to the
+ * pool instead.
+ */
+public class PooledOutputStream extends OutputStream {
+
+    private final BufferPool pool;
+
+    private ByteBuffer buffer;
+
+    public PooledOutputStream(@NonNull BufferPool pool) {
+        this(pool, 4096);
+    }
+
+    public PooledOutputStream(@NonNull BufferPool pool, int initialSize) {
+        this.pool = pool;
+        this.buffer = pool.acquire(initialSize);
+    }
+
+    private void ensureCapacity(int length) {
+        ByteBuffer current = buffer();
+
+        if (current.remaining() >= length) {
+            return;
+        }
+
+        long needed = (long) current.position() + length;
+
+        if (needed > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Unable to grow buffer beyond " + Integer.MAX_VALUE + " bytes");
+        }
+
+        ByteBuffer replacement = pool.acquire((int) Math.max(needed, Math.min(Integer.MAX_VALUE, current.capacity() * 2L)));
+
+        // need to cast to a buffer because of a breaking change in JDK9:
+        // https://github.com/plasma-umass/doppio/issues/497#issuecomment-334740243
+        //noinspection RedundantCast
+        ((Buffer) current).flip();
+
+        replacement.put(current);
+        pool.release(current);
+        buffer = replacement;
+    }
+
+    private ByteBuffer buffer() {
+
+        if (buffer == null) {
+            throw new IllegalStateException("Buffer has already been handed over or released");
+        }
+
+        return buffer;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        Objects.requireNonNull(b, "b");
+
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        ensureCapacity(len);
+        buffer.put(b, off, len);
+    }
+
+    /**
+     * Hand over the buffer holding what was written. The stream can't be used afterwards.
+     *
+     * @return The buffer, readable from its position to its limit
+     */
+    public ByteBuffer toByteBuffer() {
+        ByteBuffer output = buffer();
+        buffer = null;
+
+        //noinspection RedundantCast
+        ((Buffer) output).flip();
+
+        return output;
+    }
+
+    /**
+     * Return the buffer to the pool, if it hasn't been handed over
+     */
+    public void release() {
+
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        // nothing to do, the buffer is either handed over or released explicitly
+    }
+}
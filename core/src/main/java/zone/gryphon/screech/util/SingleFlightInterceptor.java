@@ -0,0 +1,203 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import zone.gryphon.screech.Callback;
+import zone.gryphon.screech.RequestInterceptor;
+import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.model.Request;
+import zone.gryphon.screech.model.Response;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * {@link RequestInterceptor} which coalesces identical concurrent requests, so that they share a single call.
+ * <p>
+ * While a request is in flight, any identical request (same HTTP method, URI, template parameters, query parameters,
+ * entity and key headers) waits for it instead of being sent, and all callers receive the same decoded response, so
+ * response entities should be treated as immutable, and methods with the same request line should have the same return
+ * type. Cancelling one caller's future doesn't affect the other callers: if the caller whose call was sent cancels it,
+ * the next caller sends the request instead.
+ * <p>
+ * Only requests using one of the configured HTTP methods (by default {@code GET} and {@code HEAD}) are coalesced,
+ * since non-idempotent requests have to reach the server once per call.
+ * <p>
+ * Interceptors run in the order they're added, so this should be added after any interceptors which modify requests
+ * (e.g. to add authentication headers), and before any which should run once per network call (e.g. retries).
+ */
+@ToString(of = {"methods", "keyHeaders"})
+public class SingleFlightInterceptor implements RequestInterceptor {
+
+    private static final Set<String> DEFAULT_METHODS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("GET", "HEAD")));
+
+    // fails a flight whose call was cancelled by its caller, so that the callers waiting on it send the request instead
+    private static final Throwable ABANDONED = new CancellationException("Shared call was cancelled") {
+
+        @Override
+        public Throwable fillInStackTrace() {
+            return this;
+        }
+    };
+
+    private final ConcurrentMap<Key, CompletableFuture<Response<?>>> inFlight = new ConcurrentHashMap<>();
+
+    private final Set<String> methods;
+
+    private final Set<String> keyHeaders;
+
+    public SingleFlightInterceptor() {
+        this(null, null);
+    }
+
+    /**
+     * @param methods    HTTP methods of requests which can be coalesced, defaults to {@code GET} and {@code HEAD}
+     * @param keyHeaders Names of the headers which have to match for requests to be coalesced, defaults to all headers.
+     *                   Coalesced requests are sent with the headers of the first caller.
+     */
+    @Builder
+    private SingleFlightInterceptor(Collection<String> methods, Collection<String> keyHeaders) {
+        this.methods = methods == null ? DEFAULT_METHODS : upperCase(methods);
+        this.keyHeaders = keyHeaders == null ? null : lowerCase(keyHeaders);
+    }
+
+    private static Set<String> upperCase(Collection<String> values) {
+        return Collections.unmodifiableSet(values.stream().map(String::toUpperCase).collect(Collectors.toSet()));
+    }
+
+    private static Set<String> lowerCase(Collection<String> values) {
+        return Collections.unmodifiableSet(values.stream().map(String::toLowerCase).collect(Collectors.toSet()));
+    }
+
+    /**
+     * @return The number of distinct requests currently in flight
+     */
+    public int getInFlightRequests() {
+        return inFlight.size();
+    }
+
+    @Override
+    public <X, Y> void intercept(Request<X> request, BiConsumer<Request<?>, Callback<Response<Y>>> callback, Callback<Response<?>> responseCallback) {
+
+        if (!methods.contains(request.getMethod().toUpperCase())) {
+            callback.accept(request, new ForwardingCallback<>(responseCallback));
+            return;
+        }
+
+        Key key = new Key(request, keyHeaders);
+
+        CompletableFuture<Response<?>> flight = new CompletableFuture<>();
+
+        CompletableFuture<Response<?>> existing = inFlight.putIfAbsent(key, flight);
+
+        if (existing != null) {
+            existing.whenComplete((response, e) -> {
+                if (e == ABANDONED) {
+                    // the call was cancelled by its caller, so send the request (or join whoever sends it first)
+                    intercept(request, callback, responseCallback);
+                } else if (e != null) {
+                    responseCallback.onFailure(e);
+                } else {
+                    responseCallback.onSuccess(response);
+                }
+            });
+            return;
+        }
+
+        callback.accept(request, new Callback<Response<Y>>() {
+
+            @Override
+            public void onSuccess(Response<Y> result) {
+                inFlight.remove(key, flight);
+                flight.complete(result);
+                responseCallback.onSuccess(result);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                inFlight.remove(key, flight);
+
+                // cancellation only comes from this caller giving up on its call, which the others shouldn't see
+                flight.completeExceptionally(e instanceof CancellationException ? ABANDONED : e);
+                responseCallback.onFailure(e);
+            }
+        });
+    }
+
+    private static class ForwardingCallback<Y> implements Callback<Response<Y>> {
+
+        private final Callback<Response<?>> delegate;
+
+        private ForwardingCallback(Callback<Response<?>> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onSuccess(Response<Y> result) {
+            delegate.onSuccess(result);
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+            delegate.onFailure(e);
+        }
+    }
+
+    /**
+     * Identity of a request. Comparing the templates and their parameters is equivalent to comparing the interpolated
+     * request, and avoids interpolating it.
+     */
+    @EqualsAndHashCode
+    private static class Key {
+
+        private final String method;
+
+        private final String uri;
+
+        private final Map<String, String> templateParameters;
+
+        private final List<HttpParam> queryParams;
+
+        private final List<HttpParam> headers;
+
+        private final Object entity;
+
+        private Key(Request<?> request, Set<String> keyHeaders) {
+            this.method = request.getMethod().toUpperCase();
+            this.uri = request.getUri();
+            this.templateParameters = request.getTemplateParameters();
+            this.queryParams = request.getQueryParams();
+            this.headers = keyHeaders == null || request.getHeaders() == null ? request.getHeaders() : request.getHeaders().stream()
+                    .filter(header -> keyHeaders.contains(header.getKey().toLowerCase()))
+                    .collect(Collectors.toList());
+            this.entity = request.getEntity();
+        }
+    }
+}
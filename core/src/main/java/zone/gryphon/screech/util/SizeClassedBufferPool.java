@@ -0,0 +1,206 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import lombok.Builder;
+import lombok.ToString;
+import zone.gryphon.screech.BufferPool;
+import zone.gryphon.screech.internal.VirtualThreads;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link BufferPool} which keeps released buffers in power of two size classes, from {@code minSize} to
+ * {@code maxSize}. Requests are rounded up to the next size class, and requests larger than {@code maxSize} are
+ * allocated without pooling.
+ * <p>
+ * Each platform thread keeps a few buffers of each class for itself, so a thread which releases and reacquires
+ * buffers doesn't touch any shared state. Beyond that, released buffers go to a shared pool, which holds at most
+ * {@code maxPooledBytes}; buffers released once it's full are left to the garbage collector. Virtual threads always
+ * use the shared pool, since they're too short lived for a cache of their own to be reused.
+ */
+@ToString(of = {"minSize", "maxSize", "maxPooledBytes", "threadCacheSize", "direct"})
+public class SizeClassedBufferPool implements BufferPool {
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final long maxPooledBytes;
+
+    private final int threadCacheSize;
+
+    private final boolean direct;
+
+    // log2 of minSize
+    private final int minShift;
+
+    private final Queue<ByteBuffer>[] shared;
+
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+
+    /**
+     * @param minSize         The smallest size class, rounded up to a power of two, defaults to 4KB
+     * @param maxSize         The largest size class, rounded up to a power of two, defaults to 1MB
+     * @param maxPooledBytes  The most memory held by the shared pool, defaults to 64MB
+     * @param threadCacheSize The number of buffers of each size class each thread keeps for itself, defaults to 4
+     * @param direct          Whether to allocate direct buffers rather than heap buffers, defaults to false
+     */
+    @Builder
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private SizeClassedBufferPool(Integer minSize, Integer maxSize, Long maxPooledBytes, Integer threadCacheSize, Boolean direct) {
+        this.minSize = roundUp(minSize == null ? 4096 : minSize);
+        this.maxSize = roundUp(maxSize == null ? 1024 * 1024 : maxSize);
+        this.maxPooledBytes = maxPooledBytes == null ? 64L * 1024 * 1024 : maxPooledBytes;
+        this.threadCacheSize = threadCacheSize == null ? 4 : threadCacheSize;
+        this.direct = direct != null && direct;
+
+        if (this.maxSize < this.minSize) {
+            throw new IllegalArgumentException(String.format("Max size (%d) must not be smaller than min size (%d)", this.maxSize, this.minSize));
+        }
+
+        if (this.maxPooledBytes < 0) {
+            throw new IllegalArgumentException(String.format("Max pooled bytes must not be negative but was %d", this.maxPooledBytes));
+        }
+
+        if (this.threadCacheSize < 0) {
+            throw new IllegalArgumentException(String.format("Thread cache size must not be negative but was %d", this.threadCacheSize));
+        }
+
+        this.minShift = Integer.numberOfTrailingZeros(this.minSize);
+
+        int classes = Integer.numberOfTrailingZeros(this.maxSize) - minShift + 1;
+
+        this.shared = new Queue[classes];
+
+        for (int i = 0; i < classes; i++) {
+            shared[i] = new ConcurrentLinkedQueue<>();
+        }
+
+        this.threadCaches = ThreadLocal.withInitial(() -> new ArrayDeque[classes]);
+    }
+
+    private static int roundUp(int size) {
+
+        if (size <= 0 || size > (1 << 30)) {
+            throw new IllegalArgumentException(String.format("Buffer size must be between 1 and 2^30 but was %d", size));
+        }
+
+        return size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    // the size class of a buffer of the given capacity, or -1 if it isn't exactly one of the class sizes
+    private int classOf(int capacity) {
+
+        if (capacity < minSize || capacity > maxSize || Integer.bitCount(capacity) != 1) {
+            return -1;
+        }
+
+        return Integer.numberOfTrailingZeros(capacity) - minShift;
+    }
+
+    @Override
+    public ByteBuffer acquire(int size) {
+
+        if (size > maxSize) {
+            return allocate(size);
+        }
+
+        int capacity = size <= minSize ? minSize : roundUp(size);
+        int index = classOf(capacity);
+
+        ArrayDeque<ByteBuffer> cache = threadCache(index, false);
+
+        ByteBuffer buffer = cache == null ? null : cache.pollFirst();
+
+        if (buffer == null) {
+            buffer = shared[index].poll();
+
+            if (buffer != null) {
+                pooledBytes.addAndGet(-capacity);
+            }
+        }
+
+        if (buffer == null) {
+            return allocate(capacity);
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+
+        if (buffer == null || buffer.isDirect() != direct || buffer.isReadOnly()) {
+            return;
+        }
+
+        int index = classOf(buffer.capacity());
+
+        if (index < 0) {
+            return;
+        }
+
+        ArrayDeque<ByteBuffer> cache = threadCache(index, true);
+
+        if (cache != null && cache.size() < threadCacheSize) {
+            cache.addFirst(buffer);
+            return;
+        }
+
+        long total = pooledBytes.addAndGet(buffer.capacity());
+
+        if (total > maxPooledBytes) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            return;
+        }
+
+        shared[index].offer(buffer);
+    }
+
+    private ArrayDeque<ByteBuffer> threadCache(int index, boolean create) {
+
+        if (threadCacheSize == 0 || VirtualThreads.isVirtual(Thread.currentThread())) {
+            return null;
+        }
+
+        ArrayDeque<ByteBuffer>[] caches = threadCaches.get();
+
+        if (caches[index] == null && create) {
+            caches[index] = new ArrayDeque<>(threadCacheSize);
+        }
+
+        return caches[index];
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * @return The memory held by the shared pool, not counting the buffers cached by each thread
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import org.junit.Test;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.io.Flushable;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BatchingTest {
+
+    public interface TestInterface extends Flushable {
+
+        @Batched(value = "getAll", maxSize = 3, maxDelayMillis = 60_000)
+        CompletableFuture<String> get(String id);
+
+        @Batched(value = "getAll", maxSize = 3, maxDelayMillis = 10)
+        CompletableFuture<String> getSoon(String id);
+
+        @Batched(value = "lookup", maxSize = 3, maxDelayMillis = 10)
+        Optional<String> lookup(String id);
+
+        @RequestLine("POST /list")
+        CompletableFuture<List<String>> getAll(List<String> ids);
+
+        @RequestLine("POST /map")
+        CompletableFuture<Map<String, String>> lookup(List<String> ids);
+
+    }
+
+    public interface NoBulkMethod {
+
+        @Batched("getAll")
+        CompletableFuture<String> get(String id);
+
+    }
+
+    public interface InvalidBulkMethod {
+
+        @Batched("getAll")
+        CompletableFuture<String> get(String id);
+
+        @RequestLine("POST /list")
+        CompletableFuture<String> getAll(List<String> ids);
+
+    }
+
+    /**
+     * Responds to a list of ids with the upper cased ids, either in order or as a map of id to value. Ids starting
+     * with "missing" are left out of map responses, and a request containing "fail" fails.
+     */
+    private static class BulkClient implements Client {
+
+        private final List<List<String>> requests = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            ByteBuffer buffer = request.getRequestBody().getBody();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+
+            // the default encoder uses toString(), so the body is "[a, b, c]"
+            String body = new String(bytes, UTF_8);
+            List<String> ids = Arrays.asList(body.substring(1, body.length() - 1).split(", "));
+            requests.add(ids);
+
+            if (ids.contains("fail")) {
+                callback.headers(ResponseHeaders.builder().status(500).build());
+                callback.complete();
+                return;
+            }
+
+            String response;
+
+            if (request.getUri().getPath().equals("/map")) {
+                response = ids.stream()
+                        .filter(id -> !id.startsWith("missing"))
+                        .map(id -> id + "=" + id.toUpperCase())
+                        .collect(Collectors.joining(","));
+            } else {
+                response = ids.stream()
+                        .map(String::toUpperCase)
+                        .collect(Collectors.joining(","));
+            }
+
+            callback.headers(ResponseHeaders.builder().status(200).build()).content(ByteBuffer.wrap(response.getBytes(UTF_8)));
+            callback.complete();
+        }
+    }
+
+    /**
+     * Decodes comma separated responses into a list, or into a map if the entries are "key=value" pairs
+     */
+    private static class BulkDecoderFactory implements ResponseDecoderFactory {
+
+        private final ResponseDecoderFactory delegate = new SuccessResponseDecoderFactory();
+
+        @Override
+        public ResponseDecoder create(ResponseHeaders response, Type type, Callback<Object> callback) {
+            return delegate.create(response, type, new Callback<Object>() {
+
+                @Override
+                public void onSuccess(Object result) {
+                    List<String> items = ((String) result).isEmpty() ? new ArrayList<>() : Arrays.asList(((String) result).split(","));
+
+                    if (Map.class.equals(((ParameterizedType) type).getRawType())) {
+                        Map<String, String> map = new LinkedHashMap<>();
+                        items.forEach(item -> map.put(item.split("=")[0], item.split("=")[1]));
+                        callback.onSuccess(map);
+                    } else {
+                        callback.onSuccess(items);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    callback.onFailure(e);
+                }
+            });
+        }
+    }
+
+    private static <T> T build(Class<T> clazz, Client client) {
+        return new ScreechBuilder(client)
+                .responseDecoder(new BulkDecoderFactory())
+                .build(clazz, new HardCodedTarget("http://localhost"));
+    }
+
+    @Test(timeout = 5000)
+    public void testFullBatchIsSent() throws Exception {
+        BulkClient client = new BulkClient();
+        TestInterface test = build(TestInterface.class, client);
+
+        CompletableFuture<String> a = test.get("a");
+        CompletableFuture<String> b = test.get("b");
+
+        assertThat(client.requests).isEmpty();
+
+        CompletableFuture<String> c = test.get("c");
+
+        assertThat(a.get()).isEqualTo("A");
+        assertThat(b.get()).isEqualTo("B");
+        assertThat(c.get()).isEqualTo("C");
+
+        assertThat(client.requests).containsExactly(Arrays.asList("a", "b", "c"));
+    }
+
+    @Test(timeout = 5000)
+    public void testBatchIsSentAfterDelay() throws Exception {
+        BulkClient client = new BulkClient();
+        TestInterface test = build(TestInterface.class, client);
+
+        CompletableFuture<String> a = test.getSoon("a");
+        CompletableFuture<String> b = test.getSoon("b");
+
+        assertThat(a.get()).isEqualTo("A");
+        assertThat(b.get()).isEqualTo("B");
+
+        assertThat(client.requests).containsExactly(Arrays.asList("a", "b"));
+    }
+
+    @Test(timeout = 5000)
+    public void testFlush() throws Exception {
+        BulkClient client = new BulkClient();
+        TestInterface test = build(TestInterface.class, client);
+
+        CompletableFuture<String> a = test.get("a");
+
+        test.flush();
+
+        assertThat(a.get()).isEqualTo("A");
+        assertThat(client.requests).containsExactly(Arrays.asList("a"));
+
+        // nothing pending, so nothing to send
+        test.flush();
+
+        assertThat(client.requests).hasSize(1);
+    }
+
+    @Test(timeout = 5000)
+    public void testDuplicateKeysAreSentOnce() throws Exception {
+        BulkClient client = new BulkClient();
+        TestInterface test = build(TestInterface.class, client);
+
+        CompletableFuture<String> first = test.get("a");
+        CompletableFuture<String> second = test.get("a");
+
+        test.flush();
+
+        assertThat(first.get()).isEqualTo("A");
+        assertThat(second.get()).isEqualTo("A");
+        assertThat(client.requests).containsExactly(Arrays.asList("a"));
+    }
+
+    @Test(timeout = 5000)
+    public void testMapResults() {
+        BulkClient client = new BulkClient();
+        TestInterface test = build(TestInterface.class, client);
+
+        CompletableFuture<Optional<String>> a = CompletableFuture.supplyAsync(() -> test.lookup("a"));
+        CompletableFuture<Optional<String>> missing = CompletableFuture.supplyAsync(() -> test.lookup("missing"));
+
+        assertThat(a.join()).contains("A");
+        assertThat(missing.join()).isEmpty();
+    }
+
+    @Test(timeout = 5000)
+    public void testFailureIsPropagatedToEachCaller() throws Exception {
+        BulkClient client = new BulkClient();
+        TestInterface test = build(TestInterface.class, client);
+
+        CompletableFuture<String> a = test.get("a");
+        CompletableFuture<String> fail = test.get("fail");
+
+        test.flush();
+
+        assertThatThrownBy(a::get).isInstanceOf(ExecutionException.class);
+        assertThatThrownBy(fail::get).isInstanceOf(ExecutionException.class);
+        assertThat(client.requests).hasSize(1);
+    }
+
+    @Test
+    public void testMissingBulkMethod() {
+        assertThatThrownBy(() -> build(NoBulkMethod.class, new BulkClient()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("getAll");
+    }
+
+    @Test
+    public void testInvalidBulkMethod() {
+        assertThatThrownBy(() -> build(InvalidBulkMethod.class, new BulkClient()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Map or List");
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import org.junit.Test;
+import zone.gryphon.screech.exception.RequestTimeoutException;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.BufferingResponseDecoder;
+import zone.gryphon.screech.util.ExpandableByteBuffer;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+/**
+ * Checks that every pooled buffer goes back to the pool, however the call ends
+ */
+public class BufferPoolingTest {
+
+    public interface TestInterface {
+
+        @RequestLine("POST /ok")
+        CompletableFuture<String> ok(String body);
+
+        @RequestLine("POST /undecodable")
+        CompletableFuture<String> undecodable(String body);
+
+        @RequestLine("POST /partial")
+        CompletableFuture<String> partial(String body);
+
+        @Timeout(50)
+        @RequestLine("POST /partial")
+        CompletableFuture<String> partialWithTimeout(String body);
+
+    }
+
+    /**
+     * Counts the buffers which haven't been released yet
+     */
+    private static class CountingBufferPool implements BufferPool {
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        @Override
+        public ByteBuffer acquire(int size) {
+            outstanding.incrementAndGet();
+            return ByteBuffer.allocate(size);
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            outstanding.decrementAndGet();
+        }
+
+        private void awaitAllReleased() throws InterruptedException {
+            // the last buffers may be released just after the future completes
+            while (outstanding.get() != 0) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static class PooledStringEncoder implements RequestEncoder {
+
+        @Override
+        public <T> void encode(T entity, Callback<ByteBuffer> callback) {
+            encode(entity, BufferPool.UNPOOLED, callback);
+        }
+
+        @Override
+        public <T> void encode(T entity, BufferPool pool, Callback<ByteBuffer> callback) {
+            byte[] bytes = String.valueOf(entity).getBytes(UTF_8);
+            ByteBuffer buffer = pool.acquire(bytes.length);
+            buffer.put(bytes);
+            buffer.flip();
+            callback.onSuccess(buffer);
+        }
+    }
+
+    private static class PooledStringDecoderFactory implements ResponseDecoderFactory {
+
+        @Override
+        public ResponseDecoder create(ResponseHeaders response, Type type, Callback<Object> callback) {
+            return create(response, type, callback, BufferPool.UNPOOLED);
+        }
+
+        @Override
+        public ResponseDecoder create(ResponseHeaders response, Type type, Callback<Object> callback, BufferPool pool) {
+            return new BufferingResponseDecoder(response, pool, true) {
+
+                @Override
+                protected void complete(ExpandableByteBuffer byteBuffer) {
+                    StringBuilder builder = new StringBuilder();
+
+                    for (ByteBuffer chunk : byteBuffer.getChunks()) {
+                        builder.append(UTF_8.decode(chunk));
+                    }
+
+                    if (builder.toString().equals("undecodable")) {
+                        callback.onFailure(new IllegalArgumentException("Unable to decode response"));
+                    } else {
+                        callback.onSuccess(builder.toString());
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Echoes the path back as the response, except for /partial, which only sends part of the response and then hangs
+     */
+    private static class EchoClient implements Client {
+
+        private final CountDownLatch sent = new CountDownLatch(1);
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            callback.onCancel(() -> callback.abort(new CancellationException()));
+
+            String path = request.getUri().getPath().substring(1);
+            ContentCallback content = callback.headers(ResponseHeaders.builder().status(200).build());
+            content.content(ByteBuffer.wrap(path.getBytes(UTF_8)));
+
+            if (path.equals("partial")) {
+                sent.countDown();
+                return;
+            }
+
+            callback.complete();
+        }
+    }
+
+    private final CountingBufferPool pool = new CountingBufferPool();
+
+    private final EchoClient client = new EchoClient();
+
+    private final TestInterface test = new ScreechBuilder(client)
+            .bufferPool(pool)
+            .requestEncoder(new PooledStringEncoder())
+            .responseDecoder(new PooledStringDecoderFactory())
+            .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+    @Test(timeout = 5000)
+    public void testBuffersAreReleasedOnSuccess() throws Exception {
+        assertThat(test.ok("body").get()).isEqualTo("ok");
+
+        pool.awaitAllReleased();
+    }
+
+    @Test(timeout = 5000)
+    public void testBuffersAreReleasedWhenDecodingFails() throws Exception {
+        try {
+            test.undecodable("body").get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalArgumentException.class);
+        }
+
+        pool.awaitAllReleased();
+    }
+
+    @Test(timeout = 5000)
+    public void testBuffersAreReleasedOnTimeout() throws Exception {
+        try {
+            test.partialWithTimeout("body").get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(RequestTimeoutException.class);
+        }
+
+        pool.awaitAllReleased();
+    }
+
+    @Test(timeout = 5000)
+    public void testBuffersAreReleasedOnCancellation() throws Exception {
+        CompletableFuture<String> future = test.partial("body");
+
+        client.sent.await();
+
+        // the request body and the start of the response are both held
+        assertThat(pool.outstanding.get()).isEqualTo(2);
+
+        assertThat(future.cancel(true)).isTrue();
+
+        pool.awaitAllReleased();
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import org.junit.Test;
+import zone.gryphon.screech.exception.RequestTimeoutException;
+import zone.gryphon.screech.model.Request;
+import zone.gryphon.screech.model.Response;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.BufferingResponseDecoder;
+import zone.gryphon.screech.util.ExpandableByteBuffer;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class CancellationTest {
+
+    public interface TestInterface {
+
+        @RequestLine("GET /hang")
+        CompletableFuture<String> hang();
+
+        @Timeout(50)
+        @RequestLine("GET /hang")
+        CompletableFuture<String> hangWithTimeout();
+
+        @RequestLine("GET /ok")
+        CompletableFuture<String> ok();
+
+        @RequestLine("GET /partial")
+        CompletableFuture<String> partial();
+
+        @Timeout(50)
+        @RequestLine("GET /partial")
+        CompletableFuture<String> partialWithTimeout();
+
+    }
+
+    /**
+     * Never responds to requests for /hang, and records when they're aborted
+     */
+    private static class HangingClient implements Client {
+
+        private final CountDownLatch aborted = new CountDownLatch(1);
+
+        private final List<Runnable> hooks = new CopyOnWriteArrayList<>();
+
+        private final CountDownLatch sent = new CountDownLatch(1);
+
+        private final AtomicInteger retained = new AtomicInteger();
+
+        private final AtomicInteger released = new AtomicInteger();
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            Runnable hook = () -> {
+                aborted.countDown();
+                callback.abort(new CancellationException());
+            };
+
+            hooks.add(hook);
+            callback.onCancel(hook);
+
+            if (request.getUri().getPath().equals("/hang")) {
+                return;
+            }
+
+            if (request.getUri().getPath().equals("/partial")) {
+                // part of the body, in buffers the decoder has to release, and then nothing
+                Client.ContentCallback content = callback.headers(ResponseHeaders.builder().status(200).build());
+
+                for (String part : new String[]{"foo", "bar"}) {
+                    retained.incrementAndGet();
+                    content.retainedContent(ByteBuffer.wrap(part.getBytes(UTF_8)), released::incrementAndGet, () -> {
+                    });
+                }
+
+                sent.countDown();
+                return;
+            }
+
+            callback.headers(ResponseHeaders.builder().status(200).build()).content(ByteBuffer.wrap("ok".getBytes(UTF_8)));
+            callback.complete();
+        }
+    }
+
+    /**
+     * Buffers the response, like the decoders for the serialization libraries
+     */
+    private static class BufferingStringDecoderFactory implements ResponseDecoderFactory {
+
+        @Override
+        public ResponseDecoder create(ResponseHeaders response, Type type, Callback<Object> callback) {
+            return new BufferingResponseDecoder(response, BufferPool.UNPOOLED, true) {
+
+                @Override
+                protected void complete(ExpandableByteBuffer byteBuffer) {
+                    StringBuilder builder = new StringBuilder();
+
+                    for (ByteBuffer chunk : byteBuffer.getChunks()) {
+                        builder.append(UTF_8.decode(chunk));
+                    }
+
+                    callback.onSuccess(builder.toString());
+                }
+            };
+        }
+    }
+
+    private static TestInterface build(Client client, RequestInterceptor... interceptors) {
+        ScreechBuilder builder = new ScreechBuilder(client).responseDecoder(new BufferingStringDecoderFactory());
+
+        for (RequestInterceptor interceptor : interceptors) {
+            builder.addRequestInterceptor(interceptor);
+        }
+
+        return builder.build(TestInterface.class, new HardCodedTarget("http://localhost"));
+    }
+
+    @Test(timeout = 5000)
+    public void testCancellingFutureAbortsRequest() throws Exception {
+        HangingClient client = new HangingClient();
+        TestInterface test = build(client);
+
+        CompletableFuture<String> future = test.hang();
+
+        // wait for the request to be sent
+        while (client.hooks.isEmpty()) {
+            Thread.sleep(1);
+        }
+
+        assertThat(future.cancel(true)).isTrue();
+
+        client.aborted.await();
+    }
+
+    @Test(timeout = 5000)
+    public void testTimeoutAbortsRequest() throws Exception {
+        HangingClient client = new HangingClient();
+        TestInterface test = build(client);
+
+        CompletableFuture<String> future = test.hangWithTimeout();
+
+        try {
+            future.get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(RequestTimeoutException.class);
+        }
+
+        assertThat(client.aborted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test(timeout = 5000)
+    public void testCompletedRequestIsNotAborted() throws Exception {
+        HangingClient client = new HangingClient();
+        TestInterface test = build(client);
+
+        assertThat(test.ok().get()).isEqualTo("ok");
+
+        assertThat(client.aborted.getCount()).isEqualTo(1);
+    }
+
+    @Test(timeout = 5000)
+    public void testTimeoutReleasesRetainedContent() throws Exception {
+        HangingClient client = new HangingClient();
+        TestInterface test = build(client);
+
+        try {
+            test.partialWithTimeout().get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(RequestTimeoutException.class);
+        }
+
+        assertThat(client.aborted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(client.retained.get()).isEqualTo(2);
+        assertThat(client.released.get()).isEqualTo(2);
+    }
+
+    @Test(timeout = 5000)
+    public void testCancellingFutureReleasesRetainedContent() throws Exception {
+        HangingClient client = new HangingClient();
+        TestInterface test = build(client);
+
+        CompletableFuture<String> future = test.partial();
+
+        client.sent.await();
+
+        assertThat(future.cancel(true)).isTrue();
+
+        client.aborted.await();
+        assertThat(client.retained.get()).isEqualTo(2);
+        assertThat(client.released.get()).isEqualTo(2);
+    }
+
+    @Test(timeout = 5000)
+    public void testInterceptorsAreNotifiedOfCancellation() throws Exception {
+        AtomicReference<Throwable> seen = new AtomicReference<>();
+        CountDownLatch notified = new CountDownLatch(1);
+
+        RequestInterceptor interceptor = new RequestInterceptor() {
+
+            @Override
+            public <X, Y> void intercept(Request<X> request, BiConsumer<Request<?>, Callback<Response<Y>>> callback, Callback<Response<?>> responseCallback) {
+                callback.accept(request, new Callback<Response<Y>>() {
+
+                    @Override
+                    public void onSuccess(Response<Y> result) {
+                        responseCallback.onSuccess(result);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        seen.set(e);
+                        notified.countDown();
+                        responseCallback.onFailure(e);
+                    }
+                });
+            }
+        };
+
+        HangingClient client = new HangingClient();
+        TestInterface test = build(client, interceptor);
+
+        CompletableFuture<String> future = test.hang();
+
+        while (client.hooks.isEmpty()) {
+            Thread.sleep(1);
+        }
+
+        future.cancel(true);
+
+        notified.await();
+        client.aborted.await();
+
+        assertThat(seen.get()).isInstanceOf(CancellationException.class);
+    }
+}
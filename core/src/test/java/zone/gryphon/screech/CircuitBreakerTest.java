@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import org.junit.Test;
+import zone.gryphon.screech.exception.RejectedRequestException;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class CircuitBreakerTest {
+
+    public interface TestInterface {
+
+        @RequestLine("POST /target")
+        CompletableFuture<String> post(String body);
+
+    }
+
+    /**
+     * Client which responds with the configured status, or fails if the status is negative
+     */
+    private static class MockClient implements Client {
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        private volatile int status = 200;
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            requests.incrementAndGet();
+
+            if (status < 0) {
+                callback.abort(new IOException("connection refused"));
+                return;
+            }
+
+            callback.headers(ResponseHeaders.builder().status(status).build()).content(ByteBuffer.wrap("body".getBytes(UTF_8)));
+            callback.complete();
+        }
+    }
+
+    private static class CountingEncoder implements RequestEncoder {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public <T> void encode(T entity, Callback<ByteBuffer> callback) {
+            count.incrementAndGet();
+            callback.onSuccess(ByteBuffer.wrap(((String) entity).getBytes(UTF_8)));
+        }
+    }
+
+    private static CircuitBreaker breaker() {
+        return CircuitBreaker.builder()
+                .windowSize(4)
+                .minimumCalls(4)
+                .failureRateThreshold(0.5)
+                .openDuration(Duration.ofMillis(50))
+                .halfOpenProbes(1)
+                .build();
+    }
+
+    private static boolean call(TestInterface client) throws Exception {
+        try {
+            client.post("foo").get();
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testOpensAndFailsFastWithoutEncoding() throws Exception {
+        MockClient client = new MockClient();
+        CountingEncoder encoder = new CountingEncoder();
+        CircuitBreaker breaker = breaker();
+
+        TestInterface test = new ScreechBuilder(client)
+                .requestEncoder(encoder)
+                .circuitBreaker(breaker)
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        assertThat(call(test)).isTrue();
+        assertThat(call(test)).isTrue();
+
+        client.status = 503;
+
+        assertThat(call(test)).isFalse();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(call(test)).isFalse();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        try {
+            test.post("foo").get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(RejectedRequestException.class);
+        }
+
+        assertThat(client.requests.get()).isEqualTo(4);
+        assertThat(encoder.count.get()).isEqualTo(4);
+    }
+
+    @Test(timeout = 5000)
+    public void testHalfOpenProbes() throws Exception {
+        MockClient client = new MockClient();
+        CircuitBreaker breaker = breaker();
+
+        TestInterface test = new ScreechBuilder(client)
+                .circuitBreaker(breaker)
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        client.status = -1;
+
+        for (int i = 0; i < 4; i++) {
+            call(test);
+        }
+
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        // failed probe opens the breaker again
+        TimeUnit.MILLISECONDS.sleep(60);
+        assertThat(call(test)).isFalse();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(client.requests.get()).isEqualTo(5);
+
+        // successful probe closes it
+        client.status = 200;
+        TimeUnit.MILLISECONDS.sleep(60);
+        assertThat(call(test)).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void testHalfOpenLimitsProbes() throws Exception {
+        CircuitBreaker breaker = breaker();
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(breaker.tryAcquire()).isTrue();
+            breaker.onResult(0, true);
+        }
+
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        TimeUnit.MILLISECONDS.sleep(60);
+
+        assertThat(breaker.tryAcquire()).isTrue();
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.tryAcquire()).isFalse();
+
+        // ignored probes free up their slot
+        breaker.onIgnored();
+        assertThat(breaker.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void testSlowCalls() {
+        CircuitBreaker breaker = CircuitBreaker.builder()
+                .windowSize(2)
+                .minimumCalls(2)
+                .slowCallDuration(Duration.ofMillis(100))
+                .slowCallRateThreshold(1.0)
+                .build();
+
+        breaker.onResult(TimeUnit.MILLISECONDS.toNanos(200), false);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        breaker.onResult(TimeUnit.MILLISECONDS.toNanos(200), false);
+        assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void testClientErrorsAreNotFailures() {
+        CircuitBreaker breaker = breaker();
+
+        assertThat(breaker.isFailure(404)).isFalse();
+        assertThat(breaker.isFailure(500)).isTrue();
+    }
+}
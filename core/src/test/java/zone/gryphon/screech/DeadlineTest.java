@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import org.junit.Test;
+import zone.gryphon.screech.exception.RequestTimeoutException;
+import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class DeadlineTest {
+
+    @Timeout(5000)
+    public interface TestInterface {
+
+        @Timeout(50)
+        @RequestLine("GET /hang")
+        CompletableFuture<String> hang();
+
+        @RequestLine("GET /hang")
+        CompletableFuture<String> hangWithInterfaceTimeout();
+
+        @RequestLine("GET /ok")
+        String ok();
+
+    }
+
+    public interface NoTimeoutInterface {
+
+        @RequestLine("GET /hang")
+        CompletableFuture<String> hang();
+
+        @RequestLine("GET /ok")
+        String ok();
+
+    }
+
+    /**
+     * Never responds to requests for /hang
+     */
+    private static class HangingClient implements Client {
+
+        private final AtomicReference<SerializedRequest> lastRequest = new AtomicReference<>();
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            lastRequest.set(request);
+
+            if (request.getUri().getPath().equals("/hang")) {
+                return;
+            }
+
+            callback.headers(ResponseHeaders.builder().status(200).build()).content(ByteBuffer.wrap("ok".getBytes(UTF_8)));
+            callback.complete();
+        }
+    }
+
+    private static void assertTimesOut(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(RequestTimeoutException.class);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testMethodTimeout() throws Exception {
+        TestInterface test = new ScreechBuilder(new HangingClient()).build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        long start = System.nanoTime();
+
+        assertTimesOut(test.hang());
+
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test(timeout = 5000)
+    public void testTimeoutIsNotCompletedOnTimerThread() throws Exception {
+        TestInterface test = new ScreechBuilder(new HangingClient())
+                .executionPolicy(ExecutionPolicy.IO_THREAD)
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        CompletableFuture<String> future = test.hang();
+
+        CompletableFuture<String> thread = future.handle((result, e) -> Thread.currentThread().getName());
+
+        assertThat(thread.get()).doesNotStartWith("ScreechWheelTimer");
+        assertTimesOut(future);
+    }
+
+    @Test(timeout = 5000)
+    public void testAnnotationTakesPrecedenceOverDefault() throws Exception {
+        TestInterface test = new ScreechBuilder(new HangingClient())
+                .timeout(Duration.ofMillis(10))
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        CompletableFuture<String> future = test.hangWithInterfaceTimeout();
+
+        Thread.sleep(200);
+
+        // the interface timeout of 5 seconds applies, not the default
+        assertThat(future).isNotDone();
+    }
+
+    @Test(timeout = 5000)
+    public void testDefaultTimeout() throws Exception {
+        NoTimeoutInterface test = new ScreechBuilder(new HangingClient())
+                .timeout(Duration.ofMillis(50))
+                .build(NoTimeoutInterface.class, new HardCodedTarget("http://localhost"));
+
+        assertTimesOut(test.hang());
+        assertThat(test.ok()).isEqualTo("ok");
+    }
+
+    @Test(timeout = 5000)
+    public void testCallDeadline() throws Exception {
+        NoTimeoutInterface test = new ScreechBuilder(new HangingClient()).build(NoTimeoutInterface.class, new HardCodedTarget("http://localhost"));
+
+        CompletableFuture<String> future = Deadline.within(Duration.ofMillis(50), test::hang);
+
+        assertTimesOut(future);
+
+        // the deadline only applies within the block
+        assertThat(Deadline.current()).isNull();
+        assertThat(test.hang()).isNotDone();
+    }
+
+    @Test(timeout = 5000)
+    public void testNestedDeadlineCanOnlyBeShorter() {
+        Deadline.within(Duration.ofMillis(100), () -> Deadline.within(Duration.ofSeconds(10), () -> {
+            assertThat(Deadline.current().remainingNanos()).isLessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+            return null;
+        }));
+    }
+
+    @Test(timeout = 5000)
+    public void testExpiredDeadlineFailsWithoutSending() throws Exception {
+        HangingClient client = new HangingClient();
+        NoTimeoutInterface test = new ScreechBuilder(client).build(NoTimeoutInterface.class, new HardCodedTarget("http://localhost"));
+
+        CompletableFuture<String> future = Deadline.within(Duration.ofMillis(1), () -> {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return test.hang();
+        });
+
+        assertTimesOut(future);
+        assertThat(client.lastRequest.get()).isNull();
+    }
+
+    @Test(timeout = 5000)
+    public void testDeadlineHeader() {
+        HangingClient client = new HangingClient();
+
+        TestInterface test = new ScreechBuilder(client)
+                .deadlineHeader("X-Request-Timeout")
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        assertThat(test.ok()).isEqualTo("ok");
+
+        assertThat(client.lastRequest.get().getHeaders())
+                .filteredOn(header -> header.getKey().equals("X-Request-Timeout"))
+                .extracting(HttpParam::getValue)
+                .hasSize(1)
+                .allSatisfy(value -> assertThat(Long.parseLong(value)).isBetween(4000L, 5000L));
+    }
+
+    @Test(timeout = 5000)
+    public void testNoDeadlineHeaderWithoutDeadline() {
+        HangingClient client = new HangingClient();
+
+        NoTimeoutInterface test = new ScreechBuilder(client)
+                .deadlineHeader("X-Request-Timeout")
+                .build(NoTimeoutInterface.class, new HardCodedTarget("http://localhost"));
+
+        assertThat(test.ok()).isEqualTo("ok");
+
+        assertThat(client.lastRequest.get().getHeaders()).extracting(HttpParam::getKey).doesNotContain("X-Request-Timeout");
+    }
+}
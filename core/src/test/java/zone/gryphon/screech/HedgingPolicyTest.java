@@ -0,0 +1,284 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import org.junit.Test;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.HardCodedTarget;
+import zone.gryphon.screech.util.PercentileHedgingPolicy;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class HedgingPolicyTest {
+
+    public interface TestInterface {
+
+        @RequestLine("GET /target")
+        CompletableFuture<String> get();
+
+        @RequestLine("POST /target")
+        CompletableFuture<String> post(String body);
+
+    }
+
+    /**
+     * Client which holds on to the first request without responding, and responds to every other request with the
+     * number of the request
+     */
+    private static class SlowFirstRequestClient implements Client {
+
+        private final List<ClientCallback> callbacks = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            callbacks.add(callback);
+
+            if (callbacks.size() > 1) {
+                respond(callback, String.valueOf(callbacks.size()));
+            }
+        }
+
+        private static void respond(ClientCallback callback, String body) {
+            callback.headers(ResponseHeaders.builder().status(200).build()).content(ByteBuffer.wrap(body.getBytes(UTF_8)));
+            callback.complete();
+        }
+    }
+
+    private static TestInterface build(Client client, HedgingPolicy policy) {
+        return new ScreechBuilder(client)
+                .hedging(policy)
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+    }
+
+    private static HedgingPolicy fixedDelay(long millis, RetryBudget budget) {
+        return PercentileHedgingPolicy.builder()
+                .percentile(0.0)
+                .delay(Duration.ofMillis(millis))
+                .minDelay(Duration.ZERO)
+                .budget(budget)
+                .build();
+    }
+
+    @Test(timeout = 5000)
+    public void testHedgeWins() throws Exception {
+        SlowFirstRequestClient client = new SlowFirstRequestClient();
+
+        CompletableFuture<String> future = build(client, fixedDelay(10, null)).get();
+
+        assertThat(future.get()).isEqualTo("2");
+
+        // late response to the original request is discarded
+        SlowFirstRequestClient.respond(client.callbacks.get(0), "1");
+
+        assertThat(future.get()).isEqualTo("2");
+        assertThat(client.callbacks).hasSize(2);
+    }
+
+    @Test(timeout = 5000)
+    public void testNoHedgeWhenResponseIsFast() throws Exception {
+        SlowFirstRequestClient client = new SlowFirstRequestClient();
+
+        CompletableFuture<String> future = build(client, fixedDelay(10_000, null)).get();
+
+        // the request is sent asynchronously
+        while (client.callbacks.isEmpty()) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        SlowFirstRequestClient.respond(client.callbacks.get(0), "1");
+
+        assertThat(future.get()).isEqualTo("1");
+
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertThat(client.callbacks).hasSize(1);
+    }
+
+    @Test(timeout = 5000)
+    public void testHedgeSucceedsAfterOriginalFails() throws Exception {
+        List<Client.ClientCallback> callbacks = new CopyOnWriteArrayList<>();
+
+        // hold on to every request
+        CompletableFuture<String> future = build((request, callback) -> callbacks.add(callback), fixedDelay(10, null)).get();
+
+        while (callbacks.size() < 2) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        // the original fails while the hedge is outstanding, which doesn't fail the request
+        callbacks.get(0).abort(new IOException("connection reset"));
+        assertThat(future).isNotDone();
+
+        SlowFirstRequestClient.respond(callbacks.get(1), "2");
+        assertThat(future.get()).isEqualTo("2");
+    }
+
+    @Test(timeout = 5000)
+    public void testFailureBeforeHedgeIsReported() throws Exception {
+        Client client = (request, callback) -> callback.abort(new IOException("connection reset"));
+
+        try {
+            build(client, fixedDelay(10_000, null)).get().get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IOException.class);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testCancelWhileHedgeTimerFiresDoesNotSendHedge() throws Exception {
+        List<Client.ClientCallback> callbacks = new CopyOnWriteArrayList<>();
+        AtomicInteger cancelled = new AtomicInteger();
+        AtomicReference<CompletableFuture<String>> call = new AtomicReference<>();
+        CountDownLatch fired = new CountDownLatch(1);
+
+        // the call is cancelled after the timer has checked it's still running, but before the hedge is sent
+        HedgingPolicy policy = new HedgingPolicy() {
+
+            @Override
+            public long hedgeDelay(String httpMethod) {
+                return 10;
+            }
+
+            @Override
+            public boolean tryHedge() {
+
+                // the timer may fire before the call has returned its future
+                while (call.get() == null) {
+                    Thread.yield();
+                }
+
+                call.get().cancel(true);
+                fired.countDown();
+                return true;
+            }
+        };
+
+        Client client = (request, callback) -> {
+            callbacks.add(callback);
+            callback.onCancel(cancelled::incrementAndGet);
+        };
+
+        TestInterface test = build(client, policy);
+
+        call.set(test.get());
+
+        fired.await();
+        TimeUnit.MILLISECONDS.sleep(50);
+
+        assertThat(callbacks).hasSize(1);
+        assertThat(cancelled.get()).isEqualTo(1);
+    }
+
+    @Test(timeout = 5000)
+    public void testBudgetLimitsHedges() throws Exception {
+        SlowFirstRequestClient client = new SlowFirstRequestClient();
+
+        RetryBudget budget = RetryBudget.builder()
+                .ratio(0.0)
+                .minRetriesPerSecond(0)
+                .build();
+
+        CompletableFuture<String> future = build(client, fixedDelay(1, budget)).get();
+
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertThat(client.callbacks).hasSize(1);
+
+        SlowFirstRequestClient.respond(client.callbacks.get(0), "1");
+        assertThat(future.get()).isEqualTo("1");
+    }
+
+    @Test(timeout = 5000)
+    public void testNonIdempotentRequestsAreNotHedged() throws Exception {
+        SlowFirstRequestClient client = new SlowFirstRequestClient();
+
+        CompletableFuture<String> future = build(client, fixedDelay(1, null)).post("foo");
+
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertThat(client.callbacks).hasSize(1);
+
+        SlowFirstRequestClient.respond(client.callbacks.get(0), "1");
+        assertThat(future.get()).isEqualTo("1");
+    }
+
+    @Test
+    public void testLearnsPercentile() {
+        PercentileHedgingPolicy policy = PercentileHedgingPolicy.builder()
+                .minSamples(100)
+                .minDelay(Duration.ZERO)
+                .build();
+
+        // not enough samples and no fixed delay
+        assertThat(policy.hedgeDelay("GET")).isNegative();
+
+        for (int i = 1; i <= 128; i++) {
+            policy.onResponse(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertThat(policy.getLearnedDelay()).isBetween(120L, 122L);
+        assertThat(policy.hedgeDelay("GET")).isEqualTo(policy.getLearnedDelay());
+        assertThat(policy.hedgeDelay("POST")).isNegative();
+    }
+
+    @Test
+    public void testKeepsLearningAfterTwoBillionResponses() throws Exception {
+        PercentileHedgingPolicy policy = PercentileHedgingPolicy.builder()
+                .minDelay(Duration.ZERO)
+                .build();
+
+        for (int i = 0; i < 1024; i++) {
+            policy.onResponse(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        assertThat(policy.getLearnedDelay()).isEqualTo(1);
+
+        // skip ahead rather than recording 2^31 responses
+        Field responses = PercentileHedgingPolicy.class.getDeclaredField("responses");
+        responses.setAccessible(true);
+        ((AtomicLong) responses.get(policy)).set(Integer.MAX_VALUE - 1);
+
+        for (int i = 0; i < 1024; i++) {
+            policy.onResponse(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+
+        assertThat(policy.getLearnedDelay()).isEqualTo(50);
+    }
+
+    @Test
+    public void testPerMethodPolicy() throws Exception {
+        HedgingPolicy policy = fixedDelay(10, null);
+        HedgingPolicy hedging = HedgingPolicy.perMethod(method -> "get".equals(method.getName()) ? policy : null);
+
+        assertThat(hedging.forMethod(TestInterface.class.getMethod("get"))).isNotSameAs(HedgingPolicy.NEVER);
+        assertThat(hedging.forMethod(TestInterface.class.getMethod("post", String.class))).isSameAs(HedgingPolicy.NEVER);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import org.junit.Test;
+import zone.gryphon.screech.exception.RejectedRequestException;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class RateLimiterTest {
+
+    public interface TestInterface {
+
+        @RateLimit(permitsPerSecond = 1)
+        @RequestLine("GET /limited")
+        CompletableFuture<String> limited();
+
+        @RateLimit(permitsPerSecond = 20, maxDelayMillis = 1000)
+        @RequestLine("GET /delayed")
+        CompletableFuture<String> delayed();
+
+        @RequestLine("GET /unlimited")
+        CompletableFuture<String> unlimited();
+
+    }
+
+    @RateLimit(permitsPerSecond = 1, burst = 2)
+    public interface SharedLimitInterface {
+
+        @RequestLine("GET /first")
+        String first();
+
+        @RequestLine("GET /second")
+        String second();
+
+    }
+
+    private static class CountingClient implements Client {
+
+        private final AtomicInteger requests = new AtomicInteger();
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            requests.incrementAndGet();
+            callback.headers(ResponseHeaders.builder().status(200).build()).content(ByteBuffer.wrap("ok".getBytes(UTF_8)));
+            callback.complete();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testRejectsOverLimit() throws Exception {
+        CountingClient client = new CountingClient();
+        TestInterface test = new ScreechBuilder(client).build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        assertThat(test.limited().get()).isEqualTo("ok");
+
+        try {
+            test.limited().get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(RejectedRequestException.class);
+        }
+
+        // other methods have their own limits
+        for (int i = 0; i < 10; i++) {
+            assertThat(test.unlimited().get()).isEqualTo("ok");
+        }
+
+        assertThat(client.requests.get()).isEqualTo(11);
+    }
+
+    @Test(timeout = 5000)
+    public void testDelaysOverLimit() throws Exception {
+        TestInterface test = new ScreechBuilder(new CountingClient()).build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        long start = System.nanoTime();
+
+        CompletableFuture<?> first = test.delayed();
+        CompletableFuture<?> second = test.delayed();
+        CompletableFuture<?> third = test.delayed();
+
+        CompletableFuture.allOf(first, second, third).get();
+
+        // 20 per second, so the third call is delayed by two intervals of 50ms
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+    @Test(timeout = 5000)
+    public void testInterfaceLimitIsShared() {
+        SharedLimitInterface test = new ScreechBuilder(new CountingClient()).build(SharedLimitInterface.class, new HardCodedTarget("http://localhost"));
+
+        assertThat(test.first()).isEqualTo("ok");
+        assertThat(test.second()).isEqualTo("ok");
+
+        try {
+            test.first();
+            failBecauseExceptionWasNotThrown(RejectedRequestException.class);
+        } catch (RejectedRequestException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testBuilderTakesPrecedenceOverAnnotation() throws Exception {
+        TestInterface test = new ScreechBuilder(new CountingClient())
+                .rateLimiter(RateLimiter.builder().permitsPerSecond(1000).burst(10).build())
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(test.limited().get()).isEqualTo("ok");
+        }
+    }
+
+    @Test
+    public void testBurst() {
+        RateLimiter limiter = RateLimiter.builder()
+                .permitsPerSecond(1)
+                .burst(3)
+                .maxDelay(Duration.ofSeconds(2))
+                .build();
+
+        assertThat(limiter.reserve()).isZero();
+        assertThat(limiter.reserve()).isZero();
+        assertThat(limiter.reserve()).isZero();
+
+        // the fourth call waits for the bucket to refill, up to one second
+        assertThat(limiter.reserve()).isBetween(TimeUnit.MILLISECONDS.toNanos(900), TimeUnit.SECONDS.toNanos(1));
+        assertThat(limiter.reserve()).isBetween(TimeUnit.MILLISECONDS.toNanos(1900), TimeUnit.SECONDS.toNanos(2));
+
+        // the sixth would wait longer than the max delay
+        assertThat(limiter.reserve()).isNegative();
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import org.junit.Test;
+import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.model.Request;
+import zone.gryphon.screech.model.Response;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Interceptors which continue the chain more than once
+ */
+public class RequestInterceptorTest {
+
+    public interface TestInterface {
+
+        @RequestLine("GET /ok")
+        CompletableFuture<String> ok();
+
+        @RequestLine("GET /hang")
+        CompletableFuture<String> hang();
+
+    }
+
+    /**
+     * Responds with the value of the Authorization header, or 401 if it isn't "fresh". Never responds to /hang.
+     */
+    private static class TestClient implements Client {
+
+        private final List<SerializedRequest> requests = new CopyOnWriteArrayList<>();
+
+        private final CountDownLatch aborted = new CountDownLatch(2);
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            requests.add(request);
+
+            if (request.getUri().getPath().equals("/hang")) {
+                callback.onCancel(aborted::countDown);
+                return;
+            }
+
+            String token = request.getHeaders().stream()
+                    .filter(header -> header.getKey().equals("Authorization"))
+                    .map(HttpParam::getValue)
+                    .findAny()
+                    .orElse("");
+
+            if (!token.equals("fresh")) {
+                callback.headers(ResponseHeaders.builder().status(401).build());
+                callback.complete();
+                return;
+            }
+
+            callback.headers(ResponseHeaders.builder().status(200).build()).content(ByteBuffer.wrap(token.getBytes(UTF_8)));
+            callback.complete();
+        }
+    }
+
+    /**
+     * Sends the request with a stale token, and once more with a fresh token if it fails
+     */
+    private static class RefreshingInterceptor implements RequestInterceptor {
+
+        @Override
+        public <X, Y> void intercept(Request<X> request, BiConsumer<Request<?>, Callback<Response<Y>>> callback, Callback<Response<?>> responseCallback) {
+            callback.accept(withToken(request, "stale"), new Callback<Response<Y>>() {
+
+                @Override
+                public void onSuccess(Response<Y> result) {
+                    responseCallback.onSuccess(result);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    callback.accept(withToken(request, "fresh"), new ForwardingCallback<>(responseCallback));
+                }
+            });
+        }
+    }
+
+    private static class ForwardingCallback<Y> implements Callback<Response<Y>> {
+
+        private final Callback<Response<?>> delegate;
+
+        private ForwardingCallback(Callback<Response<?>> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onSuccess(Response<Y> result) {
+            delegate.onSuccess(result);
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+            delegate.onFailure(e);
+        }
+    }
+
+    private static Request<?> withToken(Request<?> request, String token) {
+        List<HttpParam> headers = new ArrayList<>(request.getHeaders());
+        headers.add(new HttpParam("Authorization", token));
+        return request.toBuilder().headers(headers).build();
+    }
+
+    private static TestInterface build(Client client, RequestInterceptor interceptor) {
+        return new ScreechBuilder(client)
+                .addRequestInterceptor(interceptor)
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+    }
+
+    @Test(timeout = 5000)
+    public void testInterceptorCanRetryFromResponseCallback() throws Exception {
+        TestClient client = new TestClient();
+        TestInterface test = build(client, new RefreshingInterceptor());
+
+        assertThat(test.ok().get()).isEqualTo("fresh");
+
+        assertThat(client.requests).hasSize(2);
+    }
+
+    @Test(timeout = 5000)
+    public void testReplacedRequestDoesNotChangeHashCode() throws Exception {
+        TestInterface test = build(new TestClient(), new RefreshingInterceptor());
+
+        int hashCode = test.hashCode();
+
+        assertThat(test.ok().get()).isEqualTo("fresh");
+
+        assertThat(test.hashCode()).isEqualTo(hashCode);
+    }
+
+    @Test(timeout = 5000)
+    public void testEachContinuationReceivesItsOwnResponse() throws Exception {
+        List<Object> responses = new CopyOnWriteArrayList<>();
+
+        RequestInterceptor interceptor = new RequestInterceptor() {
+
+            @Override
+            public <X, Y> void intercept(Request<X> request, BiConsumer<Request<?>, Callback<Response<Y>>> callback, Callback<Response<?>> responseCallback) {
+                AtomicInteger remaining = new AtomicInteger(2);
+
+                for (String token : new String[]{"fresh", "stale"}) {
+                    callback.accept(withToken(request, token), new Callback<Response<Y>>() {
+
+                        @Override
+                        public void onSuccess(Response<Y> result) {
+                            responses.add(result.getEntity());
+                            done();
+                        }
+
+                        @Override
+                        public void onFailure(Throwable e) {
+                            responses.add(e.getClass());
+                            done();
+                        }
+
+                        private void done() {
+                            if (remaining.decrementAndGet() == 0) {
+                                responseCallback.onSuccess(Response.builder().entity(responses.size() + " responses").build());
+                            }
+                        }
+                    });
+                }
+            }
+        };
+
+        TestClient client = new TestClient();
+        TestInterface test = build(client, interceptor);
+
+        assertThat(test.ok().get()).isEqualTo("2 responses");
+
+        assertThat(client.requests).hasSize(2);
+        assertThat(responses).containsExactlyInAnyOrder("fresh", RuntimeException.class);
+    }
+
+    @Test(timeout = 5000)
+    public void testCancellingCallAbortsEveryRequest() throws Exception {
+        RequestInterceptor interceptor = new RequestInterceptor() {
+
+            @Override
+            public <X, Y> void intercept(Request<X> request, BiConsumer<Request<?>, Callback<Response<Y>>> callback, Callback<Response<?>> responseCallback) {
+                callback.accept(request, new ForwardingCallback<>(responseCallback));
+                callback.accept(request, new ForwardingCallback<>(responseCallback));
+            }
+        };
+
+        TestClient client = new TestClient();
+        TestInterface test = build(client, interceptor);
+
+        CompletableFuture<String> future = test.hang();
+
+        while (client.requests.size() < 2) {
+            Thread.sleep(1);
+        }
+
+        future.cancel(true);
+
+        client.aborted.await();
+    }
+
+    @Test(timeout = 5000)
+    public void testContinuingAfterCallCompletedFails() throws Exception {
+        AtomicReference<Runnable> continuation = new AtomicReference<>();
+        CompletableFuture<Throwable> late = new CompletableFuture<>();
+
+        RequestInterceptor interceptor = new RequestInterceptor() {
+
+            @Override
+            public <X, Y> void intercept(Request<X> request, BiConsumer<Request<?>, Callback<Response<Y>>> callback, Callback<Response<?>> responseCallback) {
+                continuation.set(() -> callback.accept(request, new Callback<Response<Y>>() {
+
+                    @Override
+                    public void onSuccess(Response<Y> result) {
+                        late.complete(null);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        late.complete(e);
+                    }
+                }));
+
+                callback.accept(withToken(request, "fresh"), new ForwardingCallback<>(responseCallback));
+            }
+        };
+
+        TestClient client = new TestClient();
+        TestInterface test = build(client, interceptor);
+
+        assertThat(test.ok().get()).isEqualTo("fresh");
+
+        continuation.get().run();
+
+        assertThat(late.get()).isInstanceOf(CancellationException.class);
+        assertThat(client.requests).hasSize(1);
+    }
+}
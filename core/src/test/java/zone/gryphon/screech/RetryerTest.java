@@ -0,0 +1,260 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import org.junit.Test;
+import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.ExponentialBackoffRetryer;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class RetryerTest {
+
+    public interface TestInterface {
+
+        @RequestLine("PUT /target")
+        CompletableFuture<String> put(String body);
+
+        @RequestLine("POST /target")
+        CompletableFuture<String> post(String body);
+
+    }
+
+    /**
+     * Client which fails the configured number of times before echoing the request body
+     */
+    private static class FlakyClient implements Client {
+
+        private final AtomicInteger failures;
+
+        private final int failureStatus;
+
+        private final List<String> bodies = new CopyOnWriteArrayList<>();
+
+        private final List<String> threads = new CopyOnWriteArrayList<>();
+
+        private FlakyClient(int failures, int failureStatus) {
+            this.failures = new AtomicInteger(failures);
+            this.failureStatus = failureStatus;
+        }
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            ByteBuffer buffer = request.getRequestBody().getBody();
+            byte[] bytes = new byte[buffer.remaining()];
+
+            // consume the buffer, as a real client would
+            buffer.get(bytes);
+
+            String body = new String(bytes, UTF_8);
+            bodies.add(body);
+            threads.add(Thread.currentThread().getName());
+
+            if (failures.getAndDecrement() > 0) {
+
+                if (failureStatus < 0) {
+                    callback.abort(new IOException("connection reset"));
+                    return;
+                }
+
+                callback.headers(ResponseHeaders.builder()
+                        .status(failureStatus)
+                        .headers(Collections.singletonList(HttpParam.builder().key("Retry-After").value("0").build()))
+                        .build())
+                        .content(ByteBuffer.wrap("unavailable".getBytes(UTF_8)));
+                callback.complete();
+                return;
+            }
+
+            callback.headers(ResponseHeaders.builder().status(200).build()).content(ByteBuffer.wrap(bytes));
+            callback.complete();
+        }
+    }
+
+    private static class CountingEncoder implements RequestEncoder {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public <T> void encode(T entity, Callback<ByteBuffer> callback) {
+            count.incrementAndGet();
+            callback.onSuccess(ByteBuffer.wrap(((String) entity).getBytes(UTF_8)));
+        }
+    }
+
+    private static final Retryer RETRYER = ExponentialBackoffRetryer.builder()
+            .maxAttempts(3)
+            .initialDelay(Duration.ofMillis(1))
+            .build();
+
+    private static TestInterface build(Client client, RequestEncoder encoder, RetryBudget budget) {
+        ScreechBuilder builder = new ScreechBuilder(client)
+                .requestEncoder(encoder)
+                .retryer(RETRYER);
+
+        if (budget != null) {
+            builder.retryBudget(budget);
+        }
+
+        return builder.build(TestInterface.class, new HardCodedTarget("http://localhost"));
+    }
+
+    @Test(timeout = 5000)
+    public void testRetriesFailedStatusWithoutReEncoding() throws Exception {
+        FlakyClient client = new FlakyClient(2, 503);
+        CountingEncoder encoder = new CountingEncoder();
+
+        assertThat(build(client, encoder, null).put("foo").get()).isEqualTo("foo");
+
+        assertThat(client.bodies).containsExactly("foo", "foo", "foo");
+        assertThat(encoder.count.get()).isEqualTo(1);
+    }
+
+    @Test(timeout = 5000)
+    public void testRetriesAbortedRequest() throws Exception {
+        FlakyClient client = new FlakyClient(1, -1);
+
+        assertThat(build(client, new CountingEncoder(), null).put("foo").get()).isEqualTo("foo");
+        assertThat(client.bodies).hasSize(2);
+    }
+
+    @Test(timeout = 5000)
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        FlakyClient client = new FlakyClient(5, -1);
+
+        try {
+            build(client, new CountingEncoder(), null).put("foo").get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IOException.class);
+        }
+
+        assertThat(client.bodies).hasSize(3);
+    }
+
+    @Test(timeout = 5000)
+    public void testNonIdempotentRequestsAreNotRetried() throws Exception {
+        FlakyClient client = new FlakyClient(1, 503);
+
+        try {
+            build(client, new CountingEncoder(), null).post("foo").get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            // expected
+        }
+
+        assertThat(client.bodies).hasSize(1);
+    }
+
+    @Test(timeout = 5000)
+    public void testRetryBudget() throws Exception {
+        FlakyClient client = new FlakyClient(2, 503);
+
+        RetryBudget budget = RetryBudget.builder()
+                .ratio(0.0)
+                .minRetriesPerSecond(1)
+                .build();
+
+        try {
+            build(client, new CountingEncoder(), budget).put("foo").get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            // expected, only a single retry is allowed
+        }
+
+        assertThat(client.bodies).hasSize(2);
+    }
+
+    @Test(timeout = 5000)
+    public void testRetriesAreNotSentFromSchedulerThread() throws Exception {
+        FlakyClient client = new FlakyClient(2, 503);
+
+        TestInterface test = new ScreechBuilder(client)
+                .executionPolicy(ExecutionPolicy.CALLER_RUNS)
+                .retryer(RETRYER)
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        assertThat(test.put("foo").get()).isEqualTo("foo");
+
+        // the first attempt is sent by the caller, and the retries are handed off by the shared scheduler
+        assertThat(client.threads).hasSize(3);
+        assertThat(client.threads.get(0)).isEqualTo(Thread.currentThread().getName());
+        assertThat(client.threads.subList(1, 3)).allSatisfy(name -> assertThat(name).doesNotStartWith("ScreechTimer"));
+    }
+
+    @Test
+    public void testPerMethodPolicy() throws Exception {
+        Retryer retryer = Retryer.perMethod(method -> "put".equals(method.getName()) ? RETRYER : null);
+
+        assertThat(retryer.forMethod(TestInterface.class.getMethod("put", String.class))).isSameAs(RETRYER);
+        assertThat(retryer.forMethod(TestInterface.class.getMethod("post", String.class))).isSameAs(Retryer.NEVER);
+    }
+
+    @Test
+    public void testExponentialBackoff() {
+        Retryer retryer = ExponentialBackoffRetryer.builder()
+                .maxAttempts(4)
+                .initialDelay(Duration.ofMillis(100))
+                .maxDelay(Duration.ofMillis(300))
+                .jitter(0.0)
+                .build();
+
+        ResponseHeaders unavailable = ResponseHeaders.builder().status(503).build();
+
+        assertThat(retryer.nextAttemptDelay(1, "GET", unavailable, null)).isEqualTo(100);
+        assertThat(retryer.nextAttemptDelay(2, "GET", unavailable, null)).isEqualTo(200);
+        assertThat(retryer.nextAttemptDelay(3, "GET", unavailable, null)).isEqualTo(300);
+        assertThat(retryer.nextAttemptDelay(4, "GET", unavailable, null)).isNegative();
+
+        assertThat(retryer.nextAttemptDelay(1, "GET", ResponseHeaders.builder().status(400).build(), null)).isNegative();
+        assertThat(retryer.nextAttemptDelay(1, "POST", unavailable, null)).isNegative();
+        assertThat(retryer.nextAttemptDelay(1, "GET", null, new IOException())).isEqualTo(100);
+    }
+
+    @Test
+    public void testRetryAfter() {
+        Retryer retryer = ExponentialBackoffRetryer.builder()
+                .maxDelay(Duration.ofSeconds(5))
+                .build();
+
+        assertThat(retryer.nextAttemptDelay(1, "GET", retryAfter("2"), null)).isEqualTo(2000);
+
+        // longer than the max delay
+        assertThat(retryer.nextAttemptDelay(1, "GET", retryAfter("60"), null)).isNegative();
+    }
+
+    private static ResponseHeaders retryAfter(String value) {
+        return ResponseHeaders.builder()
+                .status(503)
+                .headers(Collections.singletonList(HttpParam.builder().key("Retry-After").value(value).build()))
+                .build();
+    }
+}
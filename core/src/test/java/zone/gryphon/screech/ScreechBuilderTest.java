@@ -16,17 +16,27 @@
 package zone.gryphon.screech;
 
 import lombok.extern.slf4j.Slf4j;
+import org.junit.Assume;
 import org.junit.Test;
+import zone.gryphon.screech.internal.VirtualThreads;
 import zone.gryphon.screech.model.ResponseHeaders;
 import zone.gryphon.screech.model.SerializedRequest;
 import zone.gryphon.screech.util.HardCodedTarget;
 
 import java.nio.ByteBuffer;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
 
 @Slf4j
 public class ScreechBuilderTest {
@@ -54,6 +64,16 @@ public class ScreechBuilderTest {
 
     }
 
+    public interface PartiallyInvalidInterface {
+
+        @RequestLine("GET /target")
+        String valid();
+
+        @SuppressWarnings("unused")
+        String invalid();
+
+    }
+
     private static class MockClient implements Client {
 
         @Override
@@ -119,4 +139,211 @@ public class ScreechBuilderTest {
 
         assertThat(test.equals(test2)).isFalse();
     }
-}
\ No newline at end of file
+
+    @Test(timeout = 5000)
+    public void testHandlerInitialization() throws Exception {
+        for (HandlerInitialization initialization : HandlerInitialization.values()) {
+            TestInterface test = new ScreechBuilder(new MockClient())
+                    .handlerInitialization(initialization)
+                    .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+            assertThat(test.syncGET()).isEqualTo("Hello world!");
+            assertThat(test.asyncCompletableFuturePOST("baz").get()).isEqualTo("baz");
+        }
+    }
+
+    @Test
+    public void testEagerInitializationValidatesAllMethods() {
+        try {
+            new ScreechBuilder(new MockClient()).build(PartiallyInvalidInterface.class, new HardCodedTarget("http://localhost"));
+            failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("method is not annotated with RequestLine");
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testLazyInitializationOnlyCreatesInvokedMethods() {
+        PartiallyInvalidInterface test = new ScreechBuilder(new MockClient())
+                .handlerInitialization(HandlerInitialization.LAZY)
+                .build(PartiallyInvalidInterface.class, new HardCodedTarget("http://localhost"));
+
+        assertThat(test.valid()).isEqualTo("Hello world!");
+        assertThat(test.hashCode()).isEqualTo(test.hashCode());
+
+        try {
+            test.invalid();
+            failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).contains("method is not annotated with RequestLine");
+        }
+    }
+
+    private static class CountingExecutor implements Executor {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void execute(Runnable command) {
+            count.incrementAndGet();
+            ForkJoinPool.commonPool().execute(command);
+        }
+    }
+
+    private void testExecutionPolicy(ExecutionPolicy policy, boolean expectRequestExecutorUsed) throws Exception {
+        CountingExecutor requestExecutor = new CountingExecutor();
+        CountingExecutor responseExecutor = new CountingExecutor();
+
+        TestInterface test = new ScreechBuilder(new MockClient())
+                .executionPolicy(policy)
+                .requestExecutor(requestExecutor)
+                .responseExecutor(responseExecutor)
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        assertThat(test.syncGET()).isEqualTo("Hello world!");
+        assertThat(test.asyncCompletableFutureGET().get()).isEqualTo("Hello world!");
+        assertThat(test.asyncCompletableFuturePOST("baz").get()).isEqualTo("baz");
+
+        assertThat(requestExecutor.count.get() > 0).isEqualTo(expectRequestExecutorUsed);
+
+        // the mock client responds on the thread which sends the request, so there's never a reason to hop
+        assertThat(responseExecutor.count.get()).isZero();
+    }
+
+    @Test(timeout = 5000)
+    public void testDefaultExecutionPolicy() throws Exception {
+        testExecutionPolicy(ExecutionPolicy.DEFAULT, true);
+    }
+
+    @Test(timeout = 5000)
+    public void testCallerRunsExecutionPolicy() throws Exception {
+        testExecutionPolicy(ExecutionPolicy.CALLER_RUNS, false);
+    }
+
+    @Test(timeout = 5000)
+    public void testExecutorOnceExecutionPolicy() throws Exception {
+        testExecutionPolicy(ExecutionPolicy.EXECUTOR_ONCE, true);
+    }
+
+    @Test(timeout = 5000)
+    public void testIoThreadExecutionPolicy() throws Exception {
+        testExecutionPolicy(ExecutionPolicy.IO_THREAD, false);
+    }
+
+    /**
+     * @return The name of the thread which completed the future returned by an async call, or "caller" if it was
+     * complete before the call returned
+     */
+    private String completingThread(ExecutionPolicy policy, boolean respondOnIoThread) throws Exception {
+        ExecutorService requestExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "request"));
+        ExecutorService responseExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "response"));
+        ExecutorService io = Executors.newSingleThreadExecutor(r -> new Thread(r, "io"));
+
+        Thread caller = Thread.currentThread();
+        CountDownLatch respond = new CountDownLatch(1);
+
+        try {
+            TestInterface test = new ScreechBuilder((request, callback) -> {
+                if (respondOnIoThread) {
+                    io.execute(() -> {
+                        awaitQuietly(respond);
+                        new MockClient().request(request, callback);
+                    });
+                } else {
+                    // hold the response until the test is watching the future, unless that would block the test
+                    if (Thread.currentThread() != caller) {
+                        awaitQuietly(respond);
+                    }
+
+                    new MockClient().request(request, callback);
+                }
+            })
+                    .executionPolicy(policy)
+                    .requestExecutor(requestExecutor)
+                    .responseExecutor(responseExecutor)
+                    .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+            CompletableFuture<String> future = test.asyncCompletableFuturePOST("baz");
+
+            if (future.isDone()) {
+                assertThat(future.get()).isEqualTo("baz");
+                return "caller";
+            }
+
+            CompletableFuture<String> thread = future.handle((result, e) -> Thread.currentThread().getName());
+
+            respond.countDown();
+
+            // waiting on the future itself could run the dependent stage on this thread
+            String name = thread.get();
+
+            assertThat(future.get()).isEqualTo("baz");
+            return name;
+        } finally {
+            requestExecutor.shutdownNow();
+            responseExecutor.shutdownNow();
+            io.shutdownNow();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testDefaultExecutionPolicyCompletingThread() throws Exception {
+        assertThat(completingThread(ExecutionPolicy.DEFAULT, true)).isEqualTo("response");
+        assertThat(completingThread(ExecutionPolicy.DEFAULT, false)).isEqualTo("request");
+    }
+
+    @Test(timeout = 5000)
+    public void testCallerRunsExecutionPolicyCompletingThread() throws Exception {
+        assertThat(completingThread(ExecutionPolicy.CALLER_RUNS, true)).isEqualTo("response");
+        assertThat(completingThread(ExecutionPolicy.CALLER_RUNS, false)).isEqualTo("caller");
+    }
+
+    @Test(timeout = 5000)
+    public void testExecutorOnceExecutionPolicyCompletingThread() throws Exception {
+        assertThat(completingThread(ExecutionPolicy.EXECUTOR_ONCE, true)).isEqualTo("response");
+        assertThat(completingThread(ExecutionPolicy.EXECUTOR_ONCE, false)).isEqualTo("request");
+    }
+
+    @Test(timeout = 5000)
+    public void testIoThreadExecutionPolicyCompletingThread() throws Exception {
+        assertThat(completingThread(ExecutionPolicy.IO_THREAD, true)).isEqualTo("io");
+        assertThat(completingThread(ExecutionPolicy.IO_THREAD, false)).isEqualTo("caller");
+    }
+
+    @Test(timeout = 5000)
+    public void testVirtualThreads() throws Exception {
+        Assume.assumeTrue("virtual threads require Java 21+", VirtualThreads.isSupported());
+
+        AtomicReference<Thread> requestThread = new AtomicReference<>();
+
+        TestInterface test = new ScreechBuilder((request, callback) -> {
+            requestThread.set(Thread.currentThread());
+            new MockClient().request(request, callback);
+        })
+                .virtualThreads(true)
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        assertThat(test.asyncCompletableFuturePOST("baz").get()).isEqualTo("baz");
+        assertThat(VirtualThreads.isVirtual(requestThread.get())).isTrue();
+    }
+
+    @Test
+    public void testVirtualThreadsUnsupported() {
+        Assume.assumeFalse(VirtualThreads.isSupported());
+
+        try {
+            new ScreechBuilder(new MockClient()).virtualThreads(true);
+            failBecauseExceptionWasNotThrown(UnsupportedOperationException.class);
+        } catch (UnsupportedOperationException e) {
+            assertThat(e.getMessage()).contains("Java 21");
+        }
+    }
+}
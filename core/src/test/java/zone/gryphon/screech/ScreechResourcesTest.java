@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech;
+
+import org.junit.Test;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class ScreechResourcesTest {
+
+    public interface TestInterface {
+
+        @RequestLine("GET /target")
+        CompletableFuture<String> get();
+
+    }
+
+    /**
+     * Client which holds on to requests until they're explicitly completed
+     */
+    private static class PendingClient implements Client {
+
+        private final LinkedBlockingQueue<ClientCallback> pending = new LinkedBlockingQueue<>();
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            pending.add(callback);
+        }
+
+        private void completeNext() throws InterruptedException {
+            ClientCallback callback = pending.take();
+            callback.headers(ResponseHeaders.builder().status(200).build()).content(ByteBuffer.wrap("done".getBytes(UTF_8)));
+            callback.complete();
+        }
+
+        @Override
+        public void close() {
+            closed.set(true);
+        }
+    }
+
+    private static TestInterface build(ScreechResources resources) {
+        return new ScreechBuilder(resources).build(TestInterface.class, new HardCodedTarget("http://localhost"));
+    }
+
+    @Test(timeout = 5000)
+    public void testSharedBetweenClients() throws Exception {
+        PendingClient client = new PendingClient();
+        ScreechResources resources = ScreechResources.builder().client(client).build();
+
+        CompletableFuture<String> first = build(resources).get();
+        CompletableFuture<String> second = build(resources).get();
+
+        client.completeNext();
+        client.completeNext();
+
+        assertThat(first.get()).isEqualTo("done");
+        assertThat(second.get()).isEqualTo("done");
+        assertThat(resources.getInFlightRequests()).isZero();
+
+        resources.close();
+
+        assertThat(client.closed.get()).isTrue();
+        assertThat(resources.getRequestExecutor().isTerminated()).isTrue();
+        assertThat(resources.getResponseExecutor().isTerminated()).isTrue();
+    }
+
+    @Test(timeout = 5000)
+    public void testReferenceCounting() throws Exception {
+        PendingClient client = new PendingClient();
+        ScreechResources resources = ScreechResources.builder().client(client).build();
+
+        resources.retain();
+
+        resources.close();
+        assertThat(client.closed.get()).isFalse();
+        assertThat(resources.getRequestExecutor().isShutdown()).isFalse();
+
+        resources.close();
+        assertThat(client.closed.get()).isTrue();
+        assertThat(resources.getRequestExecutor().isShutdown()).isTrue();
+
+        try {
+            resources.retain();
+            failBecauseExceptionWasNotThrown(IllegalStateException.class);
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("already been closed");
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testCloseDrainsInFlightRequests() throws Exception {
+        PendingClient client = new PendingClient();
+        ScreechResources resources = ScreechResources.builder().client(client).build();
+
+        CompletableFuture<String> response = build(resources).get();
+
+        // wait for the request to reach the client
+        while (resources.getInFlightRequests() == 0) {
+            Thread.sleep(1);
+        }
+
+        CompletableFuture<Void> closed = CompletableFuture.runAsync(() -> {
+            try {
+                resources.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(50);
+        assertThat(closed.isDone()).isFalse();
+
+        client.completeNext();
+
+        closed.get();
+        assertThat(response.get()).isEqualTo("done");
+        assertThat(client.closed.get()).isTrue();
+    }
+
+    @Test(timeout = 5000)
+    public void testCloseTimeout() throws Exception {
+        PendingClient client = new PendingClient();
+        ScreechResources resources = ScreechResources.builder()
+                .client(client)
+                .closeTimeout(Duration.ofMillis(100))
+                .build();
+
+        build(resources).get();
+
+        while (resources.getInFlightRequests() == 0) {
+            Thread.sleep(1);
+        }
+
+        resources.close();
+
+        assertThat(resources.getInFlightRequests()).isEqualTo(1);
+        assertThat(client.closed.get()).isTrue();
+    }
+
+    @Test(timeout = 5000)
+    public void testRequestsRejectedAfterClose() throws Exception {
+        ScreechResources resources = ScreechResources.builder().client(new PendingClient()).build();
+
+        resources.close();
+
+        // the request executor has been shut down, so send the request from the calling thread
+        TestInterface test = new ScreechBuilder(resources)
+                .executionPolicy(ExecutionPolicy.CALLER_RUNS)
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+
+        try {
+            test.get().get(1, TimeUnit.SECONDS);
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+            assertThat(e.getCause()).hasMessageContaining("resources have been closed");
+        }
+    }
+}
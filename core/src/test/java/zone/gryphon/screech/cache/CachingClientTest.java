@@ -0,0 +1,320 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.cache;
+
+import org.junit.Test;
+import zone.gryphon.screech.Client;
+import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CachingClientTest {
+
+    private static class MutableClock extends Clock {
+
+        private long millis = 1_000_000;
+
+        private void advance(Duration duration) {
+            millis += duration.toMillis();
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+
+    /**
+     * Client which responds with the configured status, headers and body, and records the requests it receives
+     */
+    private static class MockClient implements Client {
+
+        private final List<SerializedRequest> requests = new ArrayList<>();
+
+        private int status = 200;
+
+        private List<HttpParam> headers = Collections.emptyList();
+
+        private String body = "body";
+
+        private boolean fail = false;
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            requests.add(request);
+
+            if (fail) {
+                callback.abort(new RuntimeException("failed"));
+                return;
+            }
+
+            callback.headers(ResponseHeaders.builder().status(status).headers(headers).build())
+                    .content(ByteBuffer.wrap(body.getBytes(UTF_8)));
+            callback.complete();
+        }
+
+        private void respond(int status, String body, HttpParam... headers) {
+            this.status = status;
+            this.body = body;
+            this.headers = Arrays.asList(headers);
+        }
+    }
+
+    private static class Result implements Client.ClientCallback {
+
+        private ResponseHeaders headers;
+
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        private Throwable error;
+
+        private boolean complete;
+
+        @Override
+        public Client.ContentCallback headers(ResponseHeaders responseHeaders) {
+            this.headers = responseHeaders;
+
+            return content -> {
+                byte[] bytes = new byte[content.remaining()];
+                content.get(bytes);
+                body.write(bytes, 0, bytes.length);
+            };
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            this.error = t;
+        }
+
+        @Override
+        public void complete() {
+            this.complete = true;
+        }
+
+        private String body() {
+            return new String(body.toByteArray(), UTF_8);
+        }
+    }
+
+    private final MockClient mockClient = new MockClient();
+
+    private final MutableClock clock = new MutableClock();
+
+    private final CachingClient client = CachingClient.builder()
+            .client(mockClient)
+            .clock(clock)
+            .build();
+
+    private static HttpParam header(String key, String value) {
+        return HttpParam.builder().key(key).value(value).build();
+    }
+
+    private static SerializedRequest request(String method, String path) {
+        return SerializedRequest.builder()
+                .method(method)
+                .uri(URI.create("http://localhost" + path))
+                .headers(Collections.emptyList())
+                .queryParams(Collections.emptyList())
+                .build();
+    }
+
+    private Result get(String path) {
+        Result result = new Result();
+        client.request(request("GET", path), result);
+        return result;
+    }
+
+    @Test
+    public void testFreshResponseIsServedFromCache() {
+        mockClient.respond(200, "first", header("Cache-Control", "max-age=60"));
+        assertThat(get("/foo").body()).isEqualTo("first");
+
+        mockClient.respond(200, "second", header("Cache-Control", "max-age=60"));
+        clock.advance(Duration.ofSeconds(30));
+
+        Result result = get("/foo");
+
+        assertThat(result.complete).isTrue();
+        assertThat(result.body()).isEqualTo("first");
+        assertThat(result.headers.getValue("age")).contains("30");
+        assertThat(mockClient.requests).hasSize(1);
+
+        // different URI isn't affected
+        assertThat(get("/bar").body()).isEqualTo("second");
+    }
+
+    @Test
+    public void testStaleResponseIsRevalidated() {
+        mockClient.respond(200, "first", header("Cache-Control", "max-age=60"), header("ETag", "\"v1\""));
+        get("/foo");
+
+        clock.advance(Duration.ofSeconds(61));
+        mockClient.respond(304, "", header("Cache-Control", "max-age=60"));
+
+        Result result = get("/foo");
+
+        assertThat(result.headers.getStatus()).isEqualTo(200);
+        assertThat(result.body()).isEqualTo("first");
+        assertThat(mockClient.requests).hasSize(2);
+        assertThat(mockClient.requests.get(1).getHeaders()).contains(header("If-None-Match", "\"v1\""));
+
+        // revalidation refreshed the entry
+        clock.advance(Duration.ofSeconds(30));
+        assertThat(get("/foo").body()).isEqualTo("first");
+        assertThat(mockClient.requests).hasSize(2);
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() {
+        mockClient.respond(200, "first", header("Cache-Control", "max-age=60, stale-while-revalidate=60"));
+        get("/foo");
+
+        clock.advance(Duration.ofSeconds(90));
+        mockClient.respond(200, "second", header("Cache-Control", "max-age=60"));
+
+        // served stale, while revalidating in the background
+        assertThat(get("/foo").body()).isEqualTo("first");
+        assertThat(mockClient.requests).hasSize(2);
+
+        assertThat(get("/foo").body()).isEqualTo("second");
+        assertThat(mockClient.requests).hasSize(2);
+    }
+
+    @Test
+    public void testStaleIfError() {
+        mockClient.respond(200, "first", header("Cache-Control", "max-age=60, stale-if-error=60"));
+        get("/foo");
+
+        clock.advance(Duration.ofSeconds(90));
+
+        mockClient.respond(503, "unavailable");
+        assertThat(get("/foo").body()).isEqualTo("first");
+
+        mockClient.fail = true;
+        Result result = get("/foo");
+        assertThat(result.error).isNull();
+        assertThat(result.body()).isEqualTo("first");
+
+        // too stale to be used
+        clock.advance(Duration.ofSeconds(60));
+        assertThat(get("/foo").error).hasMessage("failed");
+    }
+
+    @Test
+    public void testMustRevalidateDisablesStaleResponses() {
+        mockClient.respond(200, "first", header("Cache-Control", "max-age=60, stale-if-error=60, must-revalidate"));
+        get("/foo");
+
+        clock.advance(Duration.ofSeconds(90));
+
+        mockClient.respond(503, "unavailable");
+        Result result = get("/foo");
+        assertThat(result.headers.getStatus()).isEqualTo(503);
+        assertThat(result.body()).isEqualTo("unavailable");
+    }
+
+    @Test
+    public void testNoStoreIsNotCached() {
+        mockClient.respond(200, "first", header("Cache-Control", "no-store, max-age=60"));
+        get("/foo");
+        get("/foo");
+
+        assertThat(mockClient.requests).hasSize(2);
+        assertThat(client.getCachedResponses()).isZero();
+    }
+
+    @Test
+    public void testVary() {
+        mockClient.respond(200, "json", header("Cache-Control", "max-age=60"), header("Vary", "Accept"));
+
+        SerializedRequest json = request("GET", "/foo").toBuilder().headers(Collections.singletonList(header("Accept", "application/json"))).build();
+        SerializedRequest xml = request("GET", "/foo").toBuilder().headers(Collections.singletonList(header("Accept", "application/xml"))).build();
+
+        client.request(json, new Result());
+        client.request(json, new Result());
+        assertThat(mockClient.requests).hasSize(1);
+
+        client.request(xml, new Result());
+        assertThat(mockClient.requests).hasSize(2);
+    }
+
+    @Test
+    public void testUnsafeRequestInvalidates() {
+        mockClient.respond(200, "first", header("Cache-Control", "max-age=60"));
+        get("/foo");
+
+        client.request(request("POST", "/foo"), new Result());
+
+        mockClient.respond(200, "second", header("Cache-Control", "max-age=60"));
+        assertThat(get("/foo").body()).isEqualTo("second");
+    }
+
+    @Test
+    public void testEviction() {
+        CachingClient bounded = CachingClient.builder()
+                .client(mockClient)
+                .clock(clock)
+                .maxEntries(2)
+                .maxBytes(1024L)
+                .build();
+
+        mockClient.respond(200, "body", header("Cache-Control", "max-age=60"));
+
+        bounded.request(request("GET", "/1"), new Result());
+        bounded.request(request("GET", "/2"), new Result());
+        bounded.request(request("GET", "/3"), new Result());
+
+        assertThat(bounded.getCachedResponses()).isEqualTo(2);
+
+        // too large to cache
+        char[] large = new char[2048];
+        Arrays.fill(large, 'a');
+        mockClient.respond(200, new String(large), header("Cache-Control", "max-age=60"));
+
+        Result result = new Result();
+        bounded.request(request("GET", "/large"), result);
+
+        assertThat(result.body()).hasSize(2048);
+        assertThat(bounded.getCachedResponses()).isEqualTo(2);
+        assertThat(bounded.getCachedBytes()).isLessThanOrEqualTo(1024L);
+    }
+}
@@ -21,7 +21,6 @@ import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.After;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
@@ -517,7 +516,6 @@ public class AsyncInvocationHandlerNoDeadlocksTest {
         }
     }
 
-    @Ignore("Known bug: https://github.com/gryphon-zone/screech/issues/31")
     @Test(timeout = 1000)
     public void testIfResponseDecoderCompletesWithExceptionInContentMethod() {
         String id = String.valueOf(UUID.randomUUID());
@@ -683,7 +681,6 @@ public class AsyncInvocationHandlerNoDeadlocksTest {
         }
     }
 
-    @Ignore("Known bug: https://github.com/gryphon-zone/screech/issues/31")
     @Test(timeout = 1000)
     public void testIfErrorResponseDecoderCompletesWithExceptionInContentMethod() {
         String id = String.valueOf(UUID.randomUUID());
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.internal;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HashedWheelTimerTest {
+
+    private final HashedWheelTimer timer = new HashedWheelTimer("HashedWheelTimerTest", 1, TimeUnit.MILLISECONDS, 8);
+
+    @Test(timeout = 5000)
+    public void testExpiresAfterDelay() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+
+        long start = System.nanoTime();
+
+        HashedWheelTimer.Handle handle = timer.schedule(latch::countDown, 50, TimeUnit.MILLISECONDS);
+
+        latch.await();
+
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(handle.isExpired()).isTrue();
+        assertThat(handle.cancel()).isFalse();
+    }
+
+    @Test(timeout = 5000)
+    public void testDelayLongerThanWheel() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+
+        long start = System.nanoTime();
+
+        // several times round the wheel of 8 ticks
+        timer.schedule(latch::countDown, 30, TimeUnit.MILLISECONDS);
+
+        latch.await();
+
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(30));
+    }
+
+    @Test(timeout = 5000)
+    public void testCancel() throws Exception {
+        AtomicInteger cancelledRuns = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        HashedWheelTimer.Handle handle = timer.schedule(cancelledRuns::incrementAndGet, 10, TimeUnit.MILLISECONDS);
+
+        assertThat(handle.cancel()).isTrue();
+        assertThat(handle.cancel()).isFalse();
+        assertThat(handle.isCancelled()).isTrue();
+
+        timer.schedule(latch::countDown, 50, TimeUnit.MILLISECONDS);
+
+        latch.await();
+
+        assertThat(cancelledRuns.get()).isZero();
+        assertThat(handle.isExpired()).isFalse();
+    }
+
+    @Test(timeout = 5000)
+    public void testManyTimeouts() throws Exception {
+        int count = 10_000;
+
+        CountDownLatch latch = new CountDownLatch(count / 2);
+        AtomicInteger runs = new AtomicInteger();
+
+        for (int i = 0; i < count; i++) {
+            HashedWheelTimer.Handle handle = timer.schedule(() -> {
+                runs.incrementAndGet();
+                latch.countDown();
+            }, i % 20, TimeUnit.MILLISECONDS);
+
+            if (i % 2 == 1) {
+                handle.cancel();
+            }
+        }
+
+        latch.await();
+
+        Thread.sleep(50);
+
+        assertThat(runs.get()).isEqualTo(count / 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWheelSizeMustBePowerOfTwo() {
+        new HashedWheelTimer("HashedWheelTimerTest", 1, TimeUnit.MILLISECONDS, 10);
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.internal;
+
+import org.junit.Test;
+import zone.gryphon.screech.Param;
+import zone.gryphon.screech.RoutingKey;
+import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.model.Request;
+import zone.gryphon.screech.model.SerializedRequest;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class RequestPlanTest {
+
+    public interface TestInterface {
+
+        @SuppressWarnings("unused")
+        String noParams(String body);
+
+        @SuppressWarnings("unused")
+        String params(@Param("foo") String foo, @Param("bar") Integer bar);
+
+        @SuppressWarnings("unused")
+        String routed(@RoutingKey @Param("id") Integer id);
+
+        @SuppressWarnings("unused")
+        String routedTwice(@RoutingKey Integer first, @RoutingKey Integer second);
+
+    }
+
+    private static RequestPlan create(String name, Class<?>[] types, String path, List<HttpParam> query, List<HttpParam> headers) throws Exception {
+        return RequestPlan.builder()
+                .method(TestInterface.class.getDeclaredMethod(name, types))
+                .methodKey(name)
+                .httpMethod("POST")
+                .path(path)
+                .queryParams(query)
+                .headerParams(headers)
+                .build();
+    }
+
+    @Test
+    public void testParamsBoundBySlot() throws Exception {
+        RequestPlan plan = create("params", new Class[]{String.class, Integer.class}, "/foo/{foo}",
+                Collections.singletonList(new HttpParam("bar", "{bar}")),
+                Arrays.asList(new HttpParam("X-Static", "static"), new HttpParam("X-Foo", "{foo}-{bar}")));
+
+        SerializedRequest request = plan.serialize(plan.bind("http://localhost", new Object[]{"one", 2}), null);
+
+        assertThat(request.getMethod()).isEqualTo("POST");
+        assertThat(request.getUri()).isEqualTo(URI.create("http://localhost/foo/one"));
+        assertThat(request.getQueryParams()).containsExactly(new HttpParam("bar", "2"));
+        assertThat(request.getHeaders()).containsExactly(new HttpParam("X-Static", "static"), new HttpParam("X-Foo", "one-2"));
+        assertThat(request.getRequestBody()).isNull();
+    }
+
+    @Test
+    public void testMissingValue() throws Exception {
+        RequestPlan plan = create("params", new Class[]{String.class, Integer.class}, "/foo/{baz}",
+                Collections.emptyList(), Collections.emptyList());
+
+        try {
+            plan.serialize(plan.bind("http://localhost", new Object[]{"one", 2}), null);
+            failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).isEqualTo("Unable to interpolate \"/foo/{baz}\", no value for key \"baz\"");
+        }
+    }
+
+    @Test
+    public void testMissingValueForWholeTemplate() throws Exception {
+        RequestPlan plan = create("noParams", new Class[]{String.class}, "/foo",
+                Collections.singletonList(new HttpParam("bar", "{bar}")),
+                Collections.emptyList());
+
+        try {
+            plan.serialize(plan.bind("http://localhost", new Object[]{null}), null);
+            failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).isEqualTo("Unable to interpolate \"{bar}\", no value for key \"bar\"");
+        }
+
+        plan = create("noParams", new Class[]{String.class}, "/foo",
+                Collections.emptyList(),
+                Collections.singletonList(new HttpParam("X-Token", "{token}")));
+
+        try {
+            plan.serialize(plan.bind("http://localhost", new Object[]{null}), null);
+            failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage()).isEqualTo("Unable to interpolate \"{token}\", no value for key \"token\"");
+        }
+    }
+
+    @Test
+    public void testNoParamsIsMemoized() throws Exception {
+        RequestPlan plan = create("noParams", new Class[]{String.class}, "/foo",
+                Collections.singletonList(new HttpParam("bar", "baz")),
+                Collections.singletonList(new HttpParam("Content-Type", "text/plain")));
+
+        SerializedRequest first = plan.serialize(plan.bind("http://localhost", new Object[]{null}), null);
+        SerializedRequest second = plan.serialize(plan.bind("http://localhost", new Object[]{null}), null);
+        SerializedRequest otherTarget = plan.serialize(plan.bind("http://example.com", new Object[]{null}), null);
+
+        assertThat(second).isSameAs(first);
+        assertThat(otherTarget.getUri()).isEqualTo(URI.create("http://example.com/foo"));
+
+        ByteBuffer body = ByteBuffer.wrap("body".getBytes(UTF_8));
+        RequestPlan.Invocation invocation = plan.bind("http://localhost", new Object[]{"body"});
+        SerializedRequest withBody = plan.serialize(invocation, body);
+
+        assertThat(invocation.getEntity()).isEqualTo("body");
+        assertThat(withBody.getUri()).isEqualTo(first.getUri());
+        assertThat(withBody.getRequestBody().getBody()).isSameAs(body);
+        assertThat(withBody.getRequestBody().getContentType()).isEqualTo("text/plain");
+    }
+
+    @Test
+    public void testToRequest() throws Exception {
+        RequestPlan plan = create("params", new Class[]{String.class, Integer.class}, "/foo/{foo}",
+                Collections.emptyList(), Collections.emptyList());
+
+        RequestPlan.Invocation invocation = plan.bind("http://localhost", new Object[]{"one", 2});
+        Request<?> request = invocation.toRequest();
+
+        assertThat(request.getUri()).isEqualTo("http://localhost/foo/{foo}");
+        assertThat(request.getTemplateParameters()).containsEntry("foo", "one").containsEntry("bar", "2");
+        assertThat(invocation.toRequest()).isSameAs(request);
+        assertThat(invocation.isUnmodified(request)).isTrue();
+        assertThat(invocation.isUnmodified(request.toBuilder().build())).isFalse();
+    }
+
+    @Test
+    public void testRoutingKey() throws Exception {
+        RequestPlan plan = create("routed", new Class[]{Integer.class}, "/widgets",
+                Collections.emptyList(), Collections.emptyList());
+
+        // the path is constant, but requests with different keys can't share a memoized request
+        SerializedRequest first = plan.serialize(plan.bind("http://localhost", new Object[]{1}), null);
+        SerializedRequest second = plan.serialize(plan.bind("http://localhost", new Object[]{2}), null);
+
+        assertThat(first.getRoutingKey()).isEqualTo("1");
+        assertThat(second.getRoutingKey()).isEqualTo("2");
+        assertThat(plan.bind("http://localhost", new Object[]{3}).toRequest().getRoutingKey()).isEqualTo("3");
+    }
+
+    @Test
+    public void testMultipleRoutingKeys() throws Exception {
+        try {
+            create("routedTwice", new Class[]{Integer.class, Integer.class}, "/widgets", Collections.emptyList(), Collections.emptyList());
+            failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+        } catch (IllegalArgumentException e) {
+            assertThat(e).hasMessageContaining("more than one routing key");
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.limit;
+
+import org.junit.Test;
+import zone.gryphon.screech.Client;
+import zone.gryphon.screech.exception.RejectedRequestException;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrencyLimitingClientTest {
+
+    /**
+     * Client which holds on to requests until they're completed by the test
+     */
+    private static class HoldingClient implements Client {
+
+        private final List<ClientCallback> callbacks = new ArrayList<>();
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            callbacks.add(callback);
+        }
+
+        private void respond(int index, int status) {
+            callbacks.get(index).headers(ResponseHeaders.builder().status(status).build());
+            callbacks.get(index).complete();
+        }
+    }
+
+    /**
+     * Callback which records how the request ended
+     */
+    private static class RecordingCallback implements Client.ClientCallback {
+
+        private Integer status;
+
+        private Throwable failure;
+
+        private Runnable cancel;
+
+        @Override
+        public Client.ContentCallback headers(ResponseHeaders responseHeaders) {
+            status = responseHeaders.getStatus();
+            return content -> {
+            };
+        }
+
+        @Override
+        public void complete() {
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            failure = t;
+        }
+
+        @Override
+        public void onCancel(Runnable abort) {
+            cancel = abort;
+        }
+    }
+
+    private static final URI FIRST = URI.create("http://first.example.com/foo");
+
+    private static final URI SECOND = URI.create("http://second.example.com/foo");
+
+    private static SerializedRequest request(URI uri) {
+        return SerializedRequest.builder().method("GET").uri(uri).build();
+    }
+
+    private static ConcurrencyLimitingClient build(Client client, int limit, int maxQueued) {
+        return ConcurrencyLimitingClient.builder()
+                .client(client)
+                .limit(() -> AimdLimit.builder().initialLimit(limit).maxLimit(limit).timeout(Duration.ofMinutes(1)).build())
+                .maxQueued(maxQueued)
+                .build();
+    }
+
+    @Test
+    public void testRejectsOverLimit() {
+        HoldingClient client = new HoldingClient();
+        ConcurrencyLimitingClient limited = build(client, 2, 0);
+
+        RecordingCallback rejected = new RecordingCallback();
+
+        limited.request(request(FIRST), new RecordingCallback());
+        limited.request(request(FIRST), new RecordingCallback());
+        limited.request(request(FIRST), rejected);
+
+        assertThat(client.callbacks).hasSize(2);
+        assertThat(rejected.failure).isInstanceOf(RejectedRequestException.class);
+        assertThat(limited.getInFlightRequests(FIRST)).isEqualTo(2);
+
+        // other targets have their own limit
+        limited.request(request(SECOND), new RecordingCallback());
+        assertThat(client.callbacks).hasSize(3);
+    }
+
+    @Test
+    public void testQueuedRequestsAreSentWhenEarlierRequestsComplete() {
+        HoldingClient client = new HoldingClient();
+        ConcurrencyLimitingClient limited = build(client, 1, 1);
+
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback queued = new RecordingCallback();
+        RecordingCallback rejected = new RecordingCallback();
+
+        limited.request(request(FIRST), first);
+        limited.request(request(FIRST), queued);
+        limited.request(request(FIRST), rejected);
+
+        assertThat(client.callbacks).hasSize(1);
+        assertThat(rejected.failure).isInstanceOf(RejectedRequestException.class);
+
+        client.respond(0, 200);
+
+        assertThat(first.status).isEqualTo(200);
+        assertThat(client.callbacks).hasSize(2);
+
+        client.respond(1, 200);
+
+        assertThat(queued.status).isEqualTo(200);
+        assertThat(limited.getInFlightRequests(FIRST)).isZero();
+    }
+
+    @Test
+    public void testCancelledRequestGivesUpItsPlaceInTheQueue() {
+        HoldingClient client = new HoldingClient();
+        ConcurrencyLimitingClient limited = build(client, 1, 1);
+
+        RecordingCallback cancelled = new RecordingCallback();
+        RecordingCallback next = new RecordingCallback();
+
+        limited.request(request(FIRST), new RecordingCallback());
+        limited.request(request(FIRST), cancelled);
+
+        cancelled.cancel.run();
+
+        assertThat(cancelled.failure).isInstanceOf(CancellationException.class);
+
+        // there's room in the queue again
+        limited.request(request(FIRST), next);
+        assertThat(next.failure).isNull();
+
+        client.respond(0, 200);
+
+        // the cancelled request is never sent
+        assertThat(client.callbacks).hasSize(2);
+
+        client.respond(1, 200);
+
+        assertThat(next.status).isEqualTo(200);
+        assertThat(limited.getInFlightRequests(FIRST)).isZero();
+    }
+
+    @Test
+    public void testLimitDecreasesWhenRequestsAreDropped() {
+        HoldingClient client = new HoldingClient();
+        ConcurrencyLimitingClient limited = build(client, 10, 0);
+
+        limited.request(request(FIRST), new RecordingCallback());
+        limited.request(request(FIRST), new RecordingCallback());
+
+        client.respond(0, 503);
+        assertThat(limited.getLimit(FIRST)).isEqualTo(9);
+
+        client.callbacks.get(1).abort(new IOException("connection reset"));
+        assertThat(limited.getLimit(FIRST)).isEqualTo(8);
+        assertThat(limited.getInFlightRequests(FIRST)).isZero();
+    }
+
+    @Test
+    public void testAimdLimit() {
+        AimdLimit limit = AimdLimit.builder()
+                .initialLimit(10)
+                .backoffRatio(0.5)
+                .timeout(Duration.ofSeconds(1))
+                .build();
+
+        // limit isn't in use, so doesn't grow
+        limit.onSample(Duration.ofMillis(10).toNanos(), 1, false);
+        assertThat(limit.getLimit()).isEqualTo(10);
+
+        limit.onSample(Duration.ofMillis(10).toNanos(), 10, false);
+        assertThat(limit.getLimit()).isEqualTo(11);
+
+        // slower than the timeout
+        limit.onSample(Duration.ofSeconds(2).toNanos(), 10, false);
+        assertThat(limit.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    public void testVegasLimitDecreasesAsLatencyRises() {
+        VegasLimit limit = VegasLimit.builder().initialLimit(100).build();
+
+        limit.onSample(Duration.ofMillis(10).toNanos(), 100, false);
+        assertThat(limit.getLimit()).isGreaterThan(100);
+
+        int before = limit.getLimit();
+
+        limit.onSample(Duration.ofMillis(50).toNanos(), 100, false);
+        assertThat(limit.getLimit()).isLessThan(before);
+    }
+
+    @Test
+    public void testGradientLimitDecreasesAsLatencyRises() {
+        GradientLimit limit = GradientLimit.builder().initialLimit(100).build();
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(Duration.ofMillis(10).toNanos(), 100, false);
+        }
+
+        int before = limit.getLimit();
+
+        for (int i = 0; i < 10; i++) {
+            limit.onSample(Duration.ofMillis(50).toNanos(), 100, false);
+        }
+
+        assertThat(limit.getLimit()).isLessThan(before);
+    }
+}
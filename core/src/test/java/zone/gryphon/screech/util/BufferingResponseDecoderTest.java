@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import org.junit.Test;
+import zone.gryphon.screech.BufferPool;
+import zone.gryphon.screech.model.ResponseHeaders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BufferingResponseDecoderTest {
+
+    private static class StringDecoder extends BufferingResponseDecoder {
+
+        private final AtomicReference<String> result = new AtomicReference<>();
+
+        private StringDecoder() {
+            this(true);
+        }
+
+        private StringDecoder(boolean releaseAfterComplete) {
+            super(ResponseHeaders.builder().status(200).build(), BufferPool.UNPOOLED, releaseAfterComplete);
+        }
+
+        @Override
+        protected void complete(ExpandableByteBuffer byteBuffer) {
+            try (InputStream stream = byteBuffer.createInputStream()) {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                int b;
+
+                while ((b = stream.read()) != -1) {
+                    output.write(b);
+                }
+
+                result.set(new String(output.toByteArray(), UTF_8));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static ByteBuffer buffer(String value) {
+        return ByteBuffer.wrap(value.getBytes(UTF_8));
+    }
+
+    @Test
+    public void testRetainedContentIsReleasedOnCompletion() {
+        StringDecoder decoder = new StringDecoder();
+        AtomicInteger released = new AtomicInteger();
+        AtomicInteger demanded = new AtomicInteger();
+
+        decoder.retainedContent(buffer("foo"), released::incrementAndGet, demanded::incrementAndGet);
+        decoder.retainedContent(buffer("bar"), released::incrementAndGet, demanded::incrementAndGet);
+
+        // held without blocking further content
+        assertThat(released.get()).isEqualTo(0);
+        assertThat(demanded.get()).isEqualTo(2);
+
+        decoder.complete();
+
+        assertThat(decoder.result.get()).isEqualTo("foobar");
+        assertThat(released.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRetainedContentIsReleasedOnAbort() {
+        StringDecoder decoder = new StringDecoder();
+        AtomicInteger released = new AtomicInteger();
+
+        decoder.retainedContent(buffer("foo"), released::incrementAndGet, () -> {
+        });
+        decoder.abort();
+
+        assertThat(released.get()).isEqualTo(1);
+        assertThat(decoder.result.get()).isNull();
+    }
+
+    @Test
+    public void testBufferIsKeptAfterCompletionUntilReleased() {
+        AtomicReference<ExpandableByteBuffer> kept = new AtomicReference<>();
+        AtomicInteger released = new AtomicInteger();
+
+        BufferingResponseDecoder decoder = new BufferingResponseDecoder(ResponseHeaders.builder().status(200).build()) {
+
+            @Override
+            protected void complete(ExpandableByteBuffer byteBuffer) {
+                // decoded later, e.g. on another thread
+                kept.set(byteBuffer);
+            }
+        };
+
+        decoder.retainedContent(buffer("foo"), released::incrementAndGet, () -> {
+        });
+
+        // copied, since the buffer may outlive the call
+        assertThat(released.get()).isEqualTo(1);
+
+        decoder.complete();
+
+        assertThat(kept.get().size()).isEqualTo(3);
+        assertThat(UTF_8.decode(kept.get().getChunks()[0]).toString()).isEqualTo("foo");
+
+        decoder.release();
+
+        assertThat(kept.get().size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testReleaseDuringCompletionIsDeferred() {
+        AtomicReference<String> result = new AtomicReference<>();
+
+        BufferingResponseDecoder decoder = new BufferingResponseDecoder(ResponseHeaders.builder().status(200).build()) {
+
+            @Override
+            protected void complete(ExpandableByteBuffer byteBuffer) {
+                release();
+                result.set(UTF_8.decode(byteBuffer.getChunks()[0]).toString());
+            }
+        };
+
+        decoder.content(buffer("foo"));
+        decoder.complete();
+
+        assertThat(result.get()).isEqualTo("foo");
+    }
+
+    @Test
+    public void testAbortIsIdempotent() {
+        StringDecoder decoder = new StringDecoder();
+        AtomicInteger released = new AtomicInteger();
+
+        decoder.retainedContent(buffer("foo"), released::incrementAndGet, () -> {
+        });
+        decoder.abort();
+        decoder.abort();
+
+        assertThat(released.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testContentAfterAbortIsReleasedStraightAway() {
+        StringDecoder decoder = new StringDecoder();
+        AtomicInteger released = new AtomicInteger();
+        AtomicInteger demanded = new AtomicInteger();
+
+        decoder.abort();
+        decoder.retainedContent(buffer("foo"), released::incrementAndGet, demanded::incrementAndGet);
+        decoder.content(buffer("bar"));
+        decoder.complete();
+
+        assertThat(released.get()).isEqualTo(1);
+        assertThat(demanded.get()).isEqualTo(1);
+        assertThat(decoder.result.get()).isNull();
+    }
+
+    @Test
+    public void testMixedContentKeepsOrder() {
+        StringDecoder decoder = new StringDecoder();
+
+        decoder.retainedContent(buffer("foo"), () -> {
+        }, () -> {
+        });
+        decoder.content(buffer("bar"));
+        decoder.retainedContent(buffer("baz"), () -> {
+        }, () -> {
+        });
+        decoder.complete();
+
+        assertThat(decoder.result.get()).isEqualTo("foobarbaz");
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ExpandableByteBufferTest {
+
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readFully(InputStream stream) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int length;
+
+        while ((length = stream.read(buffer, 0, buffer.length)) != -1) {
+            output.write(buffer, 0, length);
+        }
+
+        return output.toByteArray();
+    }
+
+    @Test
+    public void testAppendWithoutContentLength() throws Exception {
+        byte[] bytes = random(3 * 1024 * 1024 + 17);
+        ExpandableByteBuffer buffer = ExpandableByteBuffer.createEmpty();
+
+        for (int i = 0; i < bytes.length; i += 1000) {
+            buffer.append(ByteBuffer.wrap(bytes, i, Math.min(1000, bytes.length - i)));
+        }
+
+        assertThat(buffer.size()).isEqualTo(bytes.length);
+        assertThat(readFully(buffer.createInputStream())).isEqualTo(bytes);
+
+        // chunks grow with the buffer, rather than one per append
+        assertThat(buffer.getChunks().length).isLessThan(20);
+    }
+
+    @Test
+    public void testContentLengthFitsInOneChunk() {
+        byte[] bytes = random(10_000);
+        ExpandableByteBuffer buffer = ExpandableByteBuffer.create(bytes.length);
+
+        buffer.append(ByteBuffer.wrap(bytes, 0, 4000));
+        buffer.append(ByteBuffer.wrap(bytes, 4000, 6000));
+
+        ByteBuffer[] chunks = buffer.getChunks();
+
+        assertThat(chunks).hasSize(1);
+        assertThat(chunks[0].remaining()).isEqualTo(bytes.length);
+    }
+
+    @Test
+    public void testSingleByteReadsAreUnsigned() throws Exception {
+        ExpandableByteBuffer buffer = ExpandableByteBuffer.createEmpty().append(ByteBuffer.wrap(new byte[]{(byte) 0xFF, 1}));
+
+        InputStream stream = buffer.createInputStream();
+
+        assertThat(stream.read()).isEqualTo(0xFF);
+        assertThat(stream.read()).isEqualTo(1);
+        assertThat(stream.read()).isEqualTo(-1);
+    }
+
+    @Test
+    public void testSkipAndAvailable() throws Exception {
+        byte[] bytes = random(10_000);
+        ExpandableByteBuffer buffer = ExpandableByteBuffer.createEmpty();
+        buffer.append(ByteBuffer.wrap(bytes, 0, 5000));
+        buffer.append(ByteBuffer.wrap(bytes, 5000, 5000), () -> {
+        });
+
+        InputStream stream = buffer.createInputStream();
+
+        assertThat(stream.available()).isEqualTo(10_000);
+        assertThat(stream.skip(7000)).isEqualTo(7000);
+        assertThat(stream.available()).isEqualTo(3000);
+        assertThat(stream.read()).isEqualTo(bytes[7000] & 0xFF);
+        assertThat(stream.skip(10_000)).isEqualTo(2999);
+        assertThat(stream.read()).isEqualTo(-1);
+    }
+
+    @Test
+    public void testTransferTo() throws Exception {
+        byte[] bytes = random(100_000);
+        ExpandableByteBuffer buffer = ExpandableByteBuffer.createEmpty();
+        buffer.append(ByteBuffer.wrap(bytes, 0, 50_000));
+
+        // not backed by an array
+        ByteBuffer direct = ByteBuffer.allocateDirect(50_000);
+        direct.put(bytes, 50_000, 50_000).flip();
+        buffer.append(direct, () -> {
+        });
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        InputStream stream = buffer.createInputStream();
+        stream.read();
+
+        // transferTo isn't part of InputStream before Java 9, so it's called through the implementation
+        Method transferTo = stream.getClass().getMethod("transferTo", OutputStream.class);
+        transferTo.setAccessible(true);
+
+        long transferred = (long) transferTo.invoke(stream, output);
+
+        assertThat(transferred).isEqualTo(bytes.length - 1);
+        assertThat(output.toByteArray()).isEqualTo(Arrays.copyOfRange(bytes, 1, bytes.length));
+    }
+
+    @Test
+    public void testRetainedContentIsNotCopiedAndIsReleasedOnClear() {
+        AtomicInteger released = new AtomicInteger();
+        ByteBuffer content = ByteBuffer.wrap(random(100));
+
+        ExpandableByteBuffer buffer = ExpandableByteBuffer.createEmpty();
+        buffer.append(ByteBuffer.wrap(random(10)));
+        buffer.append(content, released::incrementAndGet);
+
+        ByteBuffer[] chunks = buffer.getChunks();
+
+        assertThat(chunks).hasSize(2);
+        assertThat(chunks[1].array()).isSameAs(content.array());
+        assertThat(content.remaining()).isEqualTo(100);
+
+        buffer.clear();
+
+        assertThat(released.get()).isEqualTo(1);
+        assertThat(buffer.size()).isEqualTo(0);
+        assertThat(buffer.getChunks()).isEmpty();
+    }
+
+    @Test
+    public void testClearReleasesEachChunkOnce() {
+        AtomicInteger released = new AtomicInteger();
+
+        ExpandableByteBuffer buffer = ExpandableByteBuffer.createEmpty();
+        buffer.append(ByteBuffer.wrap(random(10)), () -> {
+            released.incrementAndGet();
+            throw new IllegalStateException("release failed");
+        });
+        buffer.append(ByteBuffer.wrap(random(10)), released::incrementAndGet);
+
+        try {
+            buffer.clear();
+        } catch (IllegalStateException e) {
+            assertThat(e).hasMessage("release failed");
+        }
+
+        buffer.clear();
+
+        assertThat(released.get()).isEqualTo(2);
+        assertThat(buffer.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import org.junit.After;
+import org.junit.Test;
+import zone.gryphon.screech.exception.FanOutException;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class FanOutTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> later(T value) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        scheduler.schedule(() -> future.complete(value), 1, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    @Test(timeout = 5000)
+    public void testResultsAreInInputOrder() throws Exception {
+        List<Integer> inputs = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+
+        List<Integer> results = FanOut.builder().maxConcurrency(8).build()
+                .<Integer, Integer>call(inputs, input -> later(input * 2))
+                .get();
+
+        assertThat(results).isEqualTo(inputs.stream().map(input -> input * 2).collect(Collectors.toList()));
+    }
+
+    @Test(timeout = 5000)
+    public void testConcurrencyIsBounded() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+
+        List<Integer> inputs = IntStream.range(0, 200).boxed().collect(Collectors.toList());
+
+        FanOut.builder().maxConcurrency(5).build()
+                .<Integer, Integer>call(inputs, input -> {
+                    maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                    return later(input).whenComplete((ignored, e) -> inFlight.decrementAndGet());
+                })
+                .get();
+
+        assertThat(maxInFlight.get()).isEqualTo(5);
+    }
+
+    @Test(timeout = 5000)
+    public void testCompletedFuturesDoNotOverflowStack() throws Exception {
+        List<Integer> inputs = IntStream.range(0, 100_000).boxed().collect(Collectors.toList());
+
+        assertThat(FanOut.builder().maxConcurrency(1).build().call(inputs, CompletableFuture::completedFuture).get()).hasSize(100_000);
+    }
+
+    @Test
+    public void testEmptyInput() throws Exception {
+        assertThat(FanOut.builder().build().call(Collections.emptyList(), CompletableFuture::completedFuture).get()).isEmpty();
+    }
+
+    @Test(timeout = 5000)
+    public void testFailFastCancelsCallsInFlight() throws Exception {
+        List<CompletableFuture<Integer>> started = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<List<Integer>> result = FanOut.builder().maxConcurrency(3).build()
+                .<Integer, Integer>call(Arrays.asList(1, 2, 3, 4, 5), input -> {
+                    CompletableFuture<Integer> future = new CompletableFuture<>();
+                    started.add(future);
+
+                    if (input == 2) {
+                        scheduler.schedule(() -> future.completeExceptionally(new IllegalStateException("boom")), 5, TimeUnit.MILLISECONDS);
+                    }
+
+                    return future;
+                });
+
+        try {
+            result.get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(IllegalStateException.class).hasMessage("boom");
+        }
+
+        // no calls started after the failure, and the other calls in flight were cancelled
+        assertThat(started).hasSize(3);
+        assertThat(started.stream().filter(CompletableFuture::isCancelled).count()).isEqualTo(2);
+    }
+
+    @Test(timeout = 5000)
+    public void testCollectAll() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+
+        CompletableFuture<List<Integer>> result = FanOut.builder().maxConcurrency(2).failFast(false).build()
+                .<Integer, Integer>call(Arrays.asList(1, 2, 3, 4), input -> {
+                    calls.incrementAndGet();
+
+                    if (input % 2 == 0) {
+                        throw new IllegalStateException("failed " + input);
+                    }
+
+                    return later(input);
+                });
+
+        try {
+            result.get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isInstanceOf(FanOutException.class);
+
+            FanOutException failure = (FanOutException) e.getCause();
+
+            assertThat(failure.getResults().toArray()).containsExactly(1, null, 3, null);
+            assertThat(failure.getFailures().keySet()).containsExactly(1, 3);
+            assertThat(failure.getFailures().get(3)).hasMessage("failed 4");
+        }
+
+        assertThat(calls.get()).isEqualTo(4);
+    }
+
+    @Test(timeout = 5000)
+    public void testCancellingResultCancelsCallsInFlight() {
+        List<CompletableFuture<Integer>> started = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<List<Integer>> result = FanOut.builder().maxConcurrency(2).build()
+                .<Integer, Integer>call(Arrays.asList(1, 2, 3), input -> {
+                    CompletableFuture<Integer> future = new CompletableFuture<>();
+                    started.add(future);
+                    return future;
+                });
+
+        result.cancel(true);
+
+        assertThat(started).hasSize(2);
+        assertThat(started).allMatch(CompletableFuture::isCancelled);
+    }
+
+    @Test
+    public void testInvalidConcurrency() {
+        assertThatThrownBy(() -> FanOut.builder().maxConcurrency(0).build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import org.junit.Test;
+import zone.gryphon.screech.Client;
+import zone.gryphon.screech.Param;
+import zone.gryphon.screech.RequestLine;
+import zone.gryphon.screech.ScreechBuilder;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class LoadBalancingTargetTest {
+
+    public interface TestInterface {
+
+        @RequestLine("GET /widgets/{id}")
+        String get(@Param("id") int id);
+
+    }
+
+    /**
+     * Client which responds with the request URI, except for hosts configured to hang or fail
+     */
+    private static class MockClient implements Client {
+
+        private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+        private final List<ClientCallback> hung = new ArrayList<>();
+
+        private String hangingHost;
+
+        private String failingHost;
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            String host = request.getUri().getHost();
+
+            requests.computeIfAbsent(host, ignored -> new AtomicInteger()).incrementAndGet();
+
+            if (host.equals(hangingHost)) {
+                hung.add(callback);
+                return;
+            }
+
+            if (host.equals(failingHost)) {
+                callback.abort(new IOException("connection refused"));
+                return;
+            }
+
+            callback.headers(ResponseHeaders.builder().status(200).build()).content(ByteBuffer.wrap(request.getUri().toString().getBytes(UTF_8)));
+            callback.complete();
+        }
+
+        private int requests(String host) {
+            AtomicInteger count = requests.get(host);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    private static final Client.ClientCallback IGNORE = new Client.ClientCallback() {
+
+        @Override
+        public Client.ContentCallback headers(ResponseHeaders responseHeaders) {
+            return content -> {
+            };
+        }
+
+        @Override
+        public void complete() {
+        }
+
+        @Override
+        public void abort(Throwable t) {
+        }
+    };
+
+    private static void send(Client client, LoadBalancingTarget target, int count) {
+        for (int i = 0; i < count; i++) {
+            client.request(SerializedRequest.builder().method("GET").uri(URI.create(target.getTarget() + "/widgets/" + i)).build(), IGNORE);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testRoutesToEndpoints() {
+        MockClient client = new MockClient();
+
+        LoadBalancingTarget target = LoadBalancingTarget.builder()
+                .name("widgets")
+                .endpoints(Arrays.asList("http://first:8080", "http://second:8080/base/"))
+                .build();
+
+        TestInterface test = new ScreechBuilder(client).build(TestInterface.class, target);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(test.get(1)).isIn("http://first:8080/widgets/1", "http://second:8080/base/widgets/1");
+        }
+
+        assertThat(client.requests("first")).isPositive();
+        assertThat(client.requests("second")).isPositive();
+    }
+
+    @Test
+    public void testAvoidsEndpointWithOutstandingRequests() {
+        MockClient client = new MockClient();
+        client.hangingHost = "second";
+
+        LoadBalancingTarget target = LoadBalancingTarget.builder()
+                .name("widgets")
+                .endpoints(Arrays.asList("http://first", "http://second"))
+                .build();
+
+        send(target.wrap(client), target, 1000);
+
+        assertThat(client.requests("first")).isGreaterThan(990);
+    }
+
+    @Test
+    public void testEjectsFailingEndpoint() {
+        MockClient client = new MockClient();
+        client.failingHost = "second";
+
+        LoadBalancingTarget target = LoadBalancingTarget.builder()
+                .name("widgets")
+                .endpoints(Arrays.asList("http://first", "http://second"))
+                .ejectionThreshold(3)
+                .build();
+
+        send(target.wrap(client), target, 1000);
+
+        // ejected after 3 consecutive failures, or avoided for being slower
+        assertThat(client.requests("second")).isLessThanOrEqualTo(3);
+    }
+
+    @Test
+    public void testRoutingKeyPinsEndpoint() {
+        MockClient client = new MockClient();
+
+        LoadBalancingTarget target = LoadBalancingTarget.builder()
+                .name("widgets")
+                .endpoints(Arrays.asList("http://first", "http://second", "http://third"))
+                .tableSize(101)
+                .build();
+
+        Client balanced = target.wrap(client);
+
+        for (int i = 0; i < 100; i++) {
+            balanced.request(SerializedRequest.builder().method("GET").uri(URI.create(target.getTarget() + "/widgets/1")).routingKey("1").build(), IGNORE);
+        }
+
+        assertThat(client.requests.values()).extracting(AtomicInteger::get).containsExactly(100);
+
+        // every endpoint gets a share of the keys
+        for (int i = 0; i < 300; i++) {
+            balanced.request(SerializedRequest.builder().method("GET").uri(URI.create(target.getTarget() + "/widgets/" + i)).routingKey(String.valueOf(i)).build(), IGNORE);
+        }
+
+        assertThat(client.requests).containsOnlyKeys("first", "second", "third");
+    }
+
+    @Test
+    public void testTableSizeMustBePrime() {
+        try {
+            LoadBalancingTarget.builder()
+                    .name("widgets")
+                    .endpoints(Collections.singletonList("http://first"))
+                    .tableSize(100)
+                    .build();
+            failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+        } catch (IllegalArgumentException e) {
+            assertThat(e).hasMessageContaining("prime");
+        }
+    }
+
+    @Test
+    public void testUpdateEndpoints() {
+        MockClient client = new MockClient();
+
+        LoadBalancingTarget target = LoadBalancingTarget.builder()
+                .name("widgets")
+                .endpoints(Collections.singletonList("http://first"))
+                .build();
+
+        Client balanced = target.wrap(client);
+
+        send(balanced, target, 10);
+
+        target.update(Collections.singletonList("http://second/"));
+
+        send(balanced, target, 10);
+
+        assertThat(target.getEndpoints()).containsExactly("http://second");
+        assertThat(client.requests("first")).isEqualTo(10);
+        assertThat(client.requests("second")).isEqualTo(10);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import org.junit.Test;
+import zone.gryphon.screech.Client;
+import zone.gryphon.screech.ExecutionPolicy;
+import zone.gryphon.screech.Param;
+import zone.gryphon.screech.RequestLine;
+import zone.gryphon.screech.ScreechBuilder;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class SingleFlightInterceptorTest {
+
+    public interface TestInterface {
+
+        @RequestLine("GET /widgets/{id}")
+        CompletableFuture<String> get(@Param("id") String id);
+
+        @RequestLine("POST /widgets/{id}")
+        CompletableFuture<String> post(@Param("id") String id, String body);
+
+    }
+
+    /**
+     * Client which holds on to requests until they're explicitly completed
+     */
+    private static class PendingClient implements Client {
+
+        private final List<SerializedRequest> requests = new CopyOnWriteArrayList<>();
+
+        private final List<ClientCallback> callbacks = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            requests.add(request);
+            callbacks.add(callback);
+        }
+
+        private void completeAll(int status) {
+            for (int i = 0; i < callbacks.size(); i++) {
+                String body = requests.get(i).getUri().getPath();
+
+                ClientCallback callback = callbacks.get(i);
+                callback.headers(ResponseHeaders.builder().status(status).headers(Collections.emptyList()).build())
+                        .content(ByteBuffer.wrap(body.getBytes(UTF_8)));
+                callback.complete();
+            }
+        }
+    }
+
+    private static TestInterface build(Client client, SingleFlightInterceptor interceptor) {
+        return new ScreechBuilder(client)
+                .executionPolicy(ExecutionPolicy.CALLER_RUNS)
+                .addRequestInterceptor(interceptor)
+                .build(TestInterface.class, new HardCodedTarget("http://localhost"));
+    }
+
+    @Test(timeout = 5000)
+    public void testIdenticalRequestsAreCoalesced() throws Exception {
+        PendingClient client = new PendingClient();
+        SingleFlightInterceptor interceptor = new SingleFlightInterceptor();
+        TestInterface test = build(client, interceptor);
+
+        CompletableFuture<String> first = test.get("1");
+        CompletableFuture<String> second = test.get("1");
+        CompletableFuture<String> other = test.get("2");
+
+        assertThat(client.requests).hasSize(2);
+        assertThat(interceptor.getInFlightRequests()).isEqualTo(2);
+
+        client.completeAll(200);
+
+        assertThat(first.get()).isEqualTo("/widgets/1");
+        assertThat(second.get()).isEqualTo("/widgets/1");
+        assertThat(other.get()).isEqualTo("/widgets/2");
+        assertThat(interceptor.getInFlightRequests()).isZero();
+
+        // once complete, the next request goes to the network again
+        test.get("1");
+        assertThat(client.requests).hasSize(3);
+    }
+
+    @Test(timeout = 5000)
+    public void testNonIdempotentRequestsAreNotCoalesced() {
+        PendingClient client = new PendingClient();
+        TestInterface test = build(client, new SingleFlightInterceptor());
+
+        test.post("1", "body");
+        test.post("1", "body");
+
+        assertThat(client.requests).hasSize(2);
+    }
+
+    @Test(timeout = 5000)
+    public void testFailureIsDeliveredToAllCallers() throws Exception {
+        PendingClient client = new PendingClient();
+        TestInterface test = build(client, new SingleFlightInterceptor());
+
+        CompletableFuture<String> first = test.get("1");
+        CompletableFuture<String> second = test.get("1");
+
+        client.completeAll(500);
+
+        Throwable firstCause = causeOf(first);
+
+        // both callers see the failure of the shared call
+        assertThat(firstCause).isNotNull();
+        assertThat(causeOf(second)).isSameAs(firstCause);
+    }
+
+    private static Throwable causeOf(CompletableFuture<String> future) throws InterruptedException {
+        try {
+            future.get();
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testCancellingOneCallerDoesNotAffectOthers() throws Exception {
+        PendingClient client = new PendingClient();
+        TestInterface test = build(client, new SingleFlightInterceptor());
+
+        CompletableFuture<String> first = test.get("1");
+        CompletableFuture<String> second = test.get("1");
+
+        first.cancel(true);
+
+        client.completeAll(200);
+
+        assertThat(first.isCancelled()).isTrue();
+        assertThat(second.get()).isEqualTo("/widgets/1");
+    }
+}
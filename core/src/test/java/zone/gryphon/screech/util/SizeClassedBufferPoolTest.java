@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SizeClassedBufferPoolTest {
+
+    private static SizeClassedBufferPool sharedOnly(long maxPooledBytes) {
+        return SizeClassedBufferPool.builder()
+                .minSize(1024)
+                .maxSize(8192)
+                .maxPooledBytes(maxPooledBytes)
+                .threadCacheSize(0)
+                .build();
+    }
+
+    @Test
+    public void testRoundsUpToSizeClass() {
+        SizeClassedBufferPool pool = sharedOnly(1024 * 1024);
+
+        assertThat(pool.acquire(1).capacity()).isEqualTo(1024);
+        assertThat(pool.acquire(1024).capacity()).isEqualTo(1024);
+        assertThat(pool.acquire(1025).capacity()).isEqualTo(2048);
+        assertThat(pool.acquire(8192).capacity()).isEqualTo(8192);
+    }
+
+    @Test
+    public void testReleasedBufferIsReusedAndCleared() {
+        SizeClassedBufferPool pool = sharedOnly(1024 * 1024);
+
+        ByteBuffer buffer = pool.acquire(3000);
+        buffer.put(new byte[100]).limit(500);
+        pool.release(buffer);
+
+        assertThat(pool.getPooledBytes()).isEqualTo(4096);
+
+        ByteBuffer reused = pool.acquire(4000);
+
+        assertThat(reused).isSameAs(buffer);
+        assertThat(reused.position()).isZero();
+        assertThat(reused.limit()).isEqualTo(4096);
+        assertThat(pool.getPooledBytes()).isZero();
+    }
+
+    @Test
+    public void testOversizeBuffersAreNotPooled() {
+        SizeClassedBufferPool pool = sharedOnly(1024 * 1024);
+
+        ByteBuffer buffer = pool.acquire(10000);
+
+        assertThat(buffer.capacity()).isEqualTo(10000);
+
+        pool.release(buffer);
+
+        assertThat(pool.getPooledBytes()).isZero();
+    }
+
+    @Test
+    public void testForeignBuffersAreIgnored() {
+        SizeClassedBufferPool pool = sharedOnly(1024 * 1024);
+
+        pool.release(ByteBuffer.allocate(3000));
+        pool.release(ByteBuffer.allocate(512));
+        pool.release(ByteBuffer.allocateDirect(2048));
+        pool.release(ByteBuffer.allocate(2048).asReadOnlyBuffer());
+
+        assertThat(pool.getPooledBytes()).isZero();
+    }
+
+    @Test
+    public void testSharedPoolIsCapped() {
+        SizeClassedBufferPool pool = sharedOnly(3 * 1024);
+
+        pool.release(pool.acquire(1024));
+        pool.release(pool.acquire(2048));
+        pool.release(ByteBuffer.allocate(1024));
+
+        assertThat(pool.getPooledBytes()).isEqualTo(3 * 1024);
+    }
+
+    @Test
+    public void testThreadCache() throws Exception {
+        SizeClassedBufferPool pool = SizeClassedBufferPool.builder()
+                .minSize(1024)
+                .maxSize(8192)
+                .threadCacheSize(1)
+                .build();
+
+        ByteBuffer first = pool.acquire(1024);
+        ByteBuffer second = pool.acquire(1024);
+
+        pool.release(first);
+        pool.release(second);
+
+        // the first buffer stays with this thread, only the second is shared
+        assertThat(pool.getPooledBytes()).isEqualTo(1024);
+        assertThat(CompletableFuture.supplyAsync(() -> pool.acquire(1024)).get()).isSameAs(second);
+        assertThat(pool.acquire(1024)).isSameAs(first);
+    }
+
+    @Test
+    public void testDirectBuffers() {
+        SizeClassedBufferPool pool = SizeClassedBufferPool.builder().direct(true).build();
+
+        ByteBuffer buffer = pool.acquire(100);
+
+        assertThat(buffer.isDirect()).isTrue();
+        assertThat(buffer.capacity()).isEqualTo(4096);
+    }
+
+    @Test
+    public void testExpandableByteBufferReturnsChunksOnClear() {
+        SizeClassedBufferPool pool = sharedOnly(1024 * 1024);
+        ExpandableByteBuffer buffer = ExpandableByteBuffer.create(5000, pool);
+
+        buffer.append(ByteBuffer.wrap(new byte[5000]));
+
+        assertThat(pool.getPooledBytes()).isZero();
+
+        buffer.clear();
+
+        assertThat(pool.getPooledBytes()).isEqualTo(8192);
+    }
+
+    @Test
+    public void testInvalidConfiguration() {
+        assertThatThrownBy(() -> SizeClassedBufferPool.builder().minSize(8192).maxSize(1024).build())
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThatThrownBy(() -> SizeClassedBufferPool.builder().threadCacheSize(-1).build())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
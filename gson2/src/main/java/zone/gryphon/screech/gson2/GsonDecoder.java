@@ -16,6 +16,7 @@
 package zone.gryphon.screech.gson2;
 
 import com.google.gson.Gson;
+import zone.gryphon.screech.BufferPool;
 import zone.gryphon.screech.Callback;
 import zone.gryphon.screech.model.ResponseHeaders;
 import zone.gryphon.screech.util.BufferingResponseDecoder;
@@ -36,7 +37,11 @@ public class GsonDecoder extends BufferingResponseDecoder {
     private final Callback<Object> callback;
 
     public GsonDecoder(Gson gson, ResponseHeaders responseHeaders, Type type, Callback<Object> callback) {
-        super(responseHeaders);
+        this(gson, responseHeaders, type, callback, BufferPool.UNPOOLED);
+    }
+
+    public GsonDecoder(Gson gson, ResponseHeaders responseHeaders, Type type, Callback<Object> callback, BufferPool pool) {
+        super(responseHeaders, pool, true);
         this.gson = Objects.requireNonNull(gson, "gson");
         this.type = Objects.requireNonNull(type, "type");
         this.callback = Objects.requireNonNull(callback, "callback");
@@ -17,6 +17,7 @@ package zone.gryphon.screech.gson2;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import zone.gryphon.screech.BufferPool;
 import zone.gryphon.screech.Callback;
 import zone.gryphon.screech.ResponseDecoder;
 import zone.gryphon.screech.ResponseDecoderFactory;
@@ -42,6 +43,11 @@ public class GsonDecoderFactory implements ResponseDecoderFactory {
         return new GsonDecoder(gson, response, type, callback);
     }
 
+    @Override
+    public ResponseDecoder create(ResponseHeaders response, Type type, Callback<Object> callback, BufferPool pool) {
+        return new GsonDecoder(gson, response, type, callback, pool);
+    }
+
     @Override
     public String toString() {
         return "GsonDecoderFactory{Gson@" + gson.hashCode() + '}';
@@ -16,14 +16,15 @@
 package zone.gryphon.screech.jackson2;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import zone.gryphon.screech.BufferPool;
 import zone.gryphon.screech.Callback;
 import zone.gryphon.screech.model.ResponseHeaders;
 import zone.gryphon.screech.util.BufferingResponseDecoder;
 import zone.gryphon.screech.util.ExpandableByteBuffer;
 
-import java.io.BufferedInputStream;
 import java.io.InputStream;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public class JacksonDecoder extends BufferingResponseDecoder {
@@ -34,8 +35,8 @@ public class JacksonDecoder extends BufferingResponseDecoder {
 
     private final Callback<Object> callback;
 
-    JacksonDecoder(ObjectMapper objectMapper, ResponseHeaders responseHeaders, Type type, Callback<Object> callback) {
-        super(responseHeaders);
+    JacksonDecoder(ObjectMapper objectMapper, ResponseHeaders responseHeaders, Type type, Callback<Object> callback, BufferPool pool) {
+        super(responseHeaders, pool, true);
         this.objectMapper = Objects.requireNonNull(objectMapper, "objectMapper");
         this.type = Objects.requireNonNull(type, "type");
         this.callback = Objects.requireNonNull(callback, "callback");
@@ -43,8 +44,23 @@ public class JacksonDecoder extends BufferingResponseDecoder {
 
     @Override
     protected void complete(ExpandableByteBuffer buffer) {
+        ByteBuffer[] chunks = buffer.getChunks();
+
+        // responses which arrived in a single chunk can be parsed straight from its array
+        if (chunks.length == 1 && chunks[0].hasArray()) {
+            ByteBuffer chunk = chunks[0];
+
+            try {
+                callback.onSuccess(objectMapper.readValue(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining(), objectMapper.constructType(type)));
+            } catch (Throwable t) {
+                callback.onFailure(t);
+            }
+
+            return;
+        }
+
         // since backing buffer for stream is in-memory, it should never block, and therefore it should be safe to call
-        try (InputStream inputStream = new BufferedInputStream(buffer.createInputStream())) {
+        try (InputStream inputStream = buffer.createInputStream()) {
             callback.onSuccess(objectMapper.readValue(inputStream, objectMapper.constructType(type)));
         } catch (Throwable t) {
             callback.onFailure(t);
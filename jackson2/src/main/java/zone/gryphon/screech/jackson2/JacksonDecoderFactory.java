@@ -17,6 +17,7 @@ package zone.gryphon.screech.jackson2;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import zone.gryphon.screech.BufferPool;
 import zone.gryphon.screech.Callback;
 import zone.gryphon.screech.ResponseDecoder;
 import zone.gryphon.screech.ResponseDecoderFactory;
@@ -39,7 +40,12 @@ public class JacksonDecoderFactory implements ResponseDecoderFactory {
 
     @Override
     public ResponseDecoder create(ResponseHeaders response, Type type, Callback<Object> callback) {
-        return new JacksonDecoder(mapper, response, type, callback);
+        return create(response, type, callback, BufferPool.UNPOOLED);
+    }
+
+    @Override
+    public ResponseDecoder create(ResponseHeaders response, Type type, Callback<Object> callback, BufferPool pool) {
+        return new JacksonDecoder(mapper, response, type, callback, pool);
     }
 
     @Override
@@ -16,8 +16,10 @@
 package zone.gryphon.screech.jackson2;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import zone.gryphon.screech.BufferPool;
 import zone.gryphon.screech.Callback;
 import zone.gryphon.screech.RequestEncoder;
+import zone.gryphon.screech.util.PooledOutputStream;
 
 import java.nio.ByteBuffer;
 import java.util.Objects;
@@ -43,6 +45,27 @@ public class JacksonEncoder implements RequestEncoder {
         }
     }
 
+    /**
+     * Writes the entity straight into a pooled buffer, rather than into a byte array which is then left to the garbage
+     * collector
+     */
+    @Override
+    public <T> void encode(T entity, BufferPool pool, Callback<ByteBuffer> callback) {
+        PooledOutputStream output = new PooledOutputStream(pool);
+        ByteBuffer buffer;
+
+        try {
+            objectMapper.writeValue(output, entity);
+            buffer = output.toByteBuffer();
+        } catch (Throwable e) {
+            output.release();
+            callback.onFailure(e);
+            return;
+        }
+
+        callback.onSuccess(buffer);
+    }
+
     @Override
     public String toString() {
         return "JacksonEncoder{ObjectMapper@" + objectMapper.hashCode() + '}';
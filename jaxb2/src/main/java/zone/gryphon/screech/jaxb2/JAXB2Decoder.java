@@ -17,6 +17,7 @@ package zone.gryphon.screech.jaxb2;
 
 import lombok.NonNull;
 import org.xml.sax.InputSource;
+import zone.gryphon.screech.BufferPool;
 import zone.gryphon.screech.Callback;
 import zone.gryphon.screech.exception.DecodeException;
 import zone.gryphon.screech.model.ResponseHeaders;
@@ -45,7 +46,17 @@ public class JAXB2Decoder extends BufferingResponseDecoder {
             @NonNull Type type,
             @NonNull Callback<Object> callback,
             ResponseHeaders responseHeaders) {
-        super(responseHeaders);
+        this(jaxbContextFactory, saxParserFactory, type, callback, responseHeaders, BufferPool.UNPOOLED);
+    }
+
+    public JAXB2Decoder(
+            @NonNull JAXBContextFactory jaxbContextFactory,
+            @NonNull SAXParserFactory saxParserFactory,
+            @NonNull Type type,
+            @NonNull Callback<Object> callback,
+            ResponseHeaders responseHeaders,
+            @NonNull BufferPool pool) {
+        super(responseHeaders, pool, true);
 
         if (!(type instanceof Class)) {
             throw new DecodeException(String.format("Unable to build JAXB context for %s, only raw Class objects are supported", type));
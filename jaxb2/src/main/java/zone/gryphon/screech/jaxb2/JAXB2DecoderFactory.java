@@ -18,6 +18,7 @@ package zone.gryphon.screech.jaxb2;
 import lombok.NonNull;
 import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
+import zone.gryphon.screech.BufferPool;
 import zone.gryphon.screech.Callback;
 import zone.gryphon.screech.ResponseDecoder;
 import zone.gryphon.screech.ResponseDecoderFactory;
@@ -65,6 +66,11 @@ public class JAXB2DecoderFactory implements ResponseDecoderFactory {
         return new JAXB2Decoder(jaxbContextFactory, saxParserFactory, type, callback, response);
     }
 
+    @Override
+    public ResponseDecoder create(ResponseHeaders response, Type type, Callback<Object> callback, BufferPool pool) {
+        return new JAXB2Decoder(jaxbContextFactory, saxParserFactory, type, callback, response, pool);
+    }
+
     @Override
     public String toString() {
         return "JAXB2DecoderFactory{JAXBContextFactory@" + jaxbContextFactory.hashCode() + '}';
@@ -20,6 +20,7 @@ import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Result;
 import org.eclipse.jetty.client.util.ByteBufferContentProvider;
+import org.eclipse.jetty.util.Callback;
 import zone.gryphon.screech.model.HttpParam;
 import zone.gryphon.screech.model.RequestBody;
 import zone.gryphon.screech.model.ResponseHeaders;
@@ -29,6 +30,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 public class JettyScreechClient implements Client {
@@ -48,10 +50,14 @@ public class JettyScreechClient implements Client {
             contentCallback = callback.headers(toScreechResponse(response));
         }
 
+        /**
+         * Jetty doesn't deliver any more content, and reuses the buffer, once the callback succeeds, so it's deferred
+         * until the consumer is done with the content
+         */
         @Override
-        public void onContent(Response response, ByteBuffer content) {
+        public void onContent(Response response, ByteBuffer content, Callback callback) {
             // onContent should _always_ be called after onHeaders
-            contentCallback.content(content);
+            contentCallback.content(content, callback::succeeded);
         }
 
         @Override
@@ -103,7 +109,12 @@ public class JettyScreechClient implements Client {
 
     @Override
     public void request(SerializedRequest request, Client.ClientCallback callback) {
-        toJettyRequest(request).send(new PassThroughResponseAdapter(callback));
+        Request jettyRequest = toJettyRequest(request);
+
+        // registered before sending, an aborted request fails as soon as it's sent
+        callback.onCancel(() -> jettyRequest.abort(new CancellationException("Request was cancelled")));
+
+        jettyRequest.send(new PassThroughResponseAdapter(callback));
     }
 
     @Override
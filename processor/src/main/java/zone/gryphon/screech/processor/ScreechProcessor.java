@@ -0,0 +1,529 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.processor;
+
+import zone.gryphon.screech.Header;
+import zone.gryphon.screech.Param;
+import zone.gryphon.screech.RequestLine;
+import zone.gryphon.screech.RoutingKey;
+import zone.gryphon.screech.ScreechDefinition;
+import zone.gryphon.screech.internal.RequestLineParser;
+import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.util.IndexedStringInterpolator;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Annotation processor which generates a {@link ScreechDefinition} for every interface with methods annotated with
+ * {@link RequestLine}.
+ * <p>
+ * Request lines and headers are parsed at compile time, and their templates compiled against the method's
+ * {@link Param} slots along with the body and routing key indexes and the expanders, so invalid values fail the build
+ * rather than the first call to {@link zone.gryphon.screech.ScreechBuilder#build(Class, zone.gryphon.screech.Target)},
+ * and the request plan is built without parsing or reflection. Interfaces which can't be
+ * implemented by generated code (e.g. generic or private interfaces) are skipped with a warning, and continue to use
+ * runtime reflection.
+ */
+@SupportedAnnotationTypes("zone.gryphon.screech.RequestLine")
+public class ScreechProcessor extends AbstractProcessor {
+
+    private static final String INTERPOLATOR = "zone.gryphon.screech.util.IndexedStringInterpolator";
+
+    private static final String EXPANDER_SUPPLIER = "java.util.function.Supplier<? extends zone.gryphon.screech.Param.Expander>";
+
+    private final Set<String> processed = new HashSet<>();
+
+    private static class MethodModel {
+
+        private ExecutableElement element;
+
+        private ExecutableType type;
+
+        private String httpMethod;
+
+        private String path;
+
+        private List<HttpParam> queryParams;
+
+        private List<HttpParam> headerParams;
+
+        // the parameters and templates compiled against them, see CompiledMethod
+
+        private final List<String> slotNames = new ArrayList<>();
+
+        private final List<Integer> argumentSlots = new ArrayList<>();
+
+        // expression creating the expander of each argument, "null" if the argument isn't a template parameter
+        private final List<String> expanders = new ArrayList<>();
+
+        private int bodyIndex = -1;
+
+        private int routingKeyIndex = -1;
+
+        private String routingKeyExpander = "null";
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> interfaces = new LinkedHashSet<>();
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(RequestLine.class)) {
+            Element enclosing = element.getEnclosingElement();
+
+            if (enclosing.getKind() == ElementKind.INTERFACE) {
+                interfaces.add((TypeElement) enclosing);
+            }
+        }
+
+        for (TypeElement type : interfaces) {
+            String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+
+            if (processed.add(binaryName)) {
+                process(type, binaryName);
+            }
+        }
+
+        return false;
+    }
+
+    private void process(TypeElement type, String binaryName) {
+
+        if (!type.getTypeParameters().isEmpty()) {
+            warn(type, "generic interfaces are not supported");
+            return;
+        }
+
+        for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                warn(type, "private interfaces are not supported");
+                return;
+            }
+        }
+
+        List<MethodModel> methods = new ArrayList<>();
+        Set<String> signatures = new HashSet<>();
+        boolean valid = true;
+
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+
+            if (method.getModifiers().contains(Modifier.STATIC) || method.getEnclosingElement().getKind() != ElementKind.INTERFACE) {
+                continue;
+            }
+
+            ExecutableType methodType = (ExecutableType) processingEnv.getTypeUtils().asMemberOf((DeclaredType) type.asType(), method);
+
+            if (!signatures.add(method.getSimpleName() + erasedParameterTypes(methodType).toString())) {
+                continue;
+            }
+
+            if (method.getAnnotation(RequestLine.class) == null) {
+                warn(type, String.format("method %s is not annotated with %s", method.getSimpleName(), RequestLine.class.getSimpleName()));
+                return;
+            }
+
+            if (!method.getTypeParameters().isEmpty()) {
+                warn(type, String.format("method %s is generic, which is not supported", method.getSimpleName()));
+                return;
+            }
+
+            try {
+                methods.add(parse(type, method, methodType));
+            } catch (IllegalArgumentException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), method);
+                valid = false;
+            }
+        }
+
+        if (valid) {
+            write(type, binaryName, methods);
+        }
+    }
+
+    private MethodModel parse(TypeElement type, ExecutableElement method, ExecutableType methodType) {
+        String methodKey = methodKey(method, methodType);
+
+        String[] parts = RequestLineParser.split(method.getAnnotation(RequestLine.class).value());
+
+        MethodModel model = new MethodModel();
+        model.element = method;
+        model.type = methodType;
+        model.httpMethod = RequestLineParser.parseHttpMethod(parts, methodKey);
+        model.path = RequestLineParser.parsePath(parts, methodKey);
+        model.queryParams = RequestLineParser.parseQueryParams(parts);
+        model.headerParams = RequestLineParser.parseHeaderParams(
+                headerValues(method),
+                headerValues(method.getEnclosingElement()),
+                methodKey);
+
+        // parameters without annotations are treated as the request body, see RequestPlan
+        long bodyParams = method.getParameters().stream()
+                .filter(parameter -> parameter.getAnnotationMirrors().stream().noneMatch(this::isRetainedAtRuntime))
+                .count();
+
+        if (bodyParams > 1) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, cannot have more than one body param", methodKey));
+        }
+
+        List<? extends VariableElement> parameters = method.getParameters();
+
+        for (int i = 0; i < parameters.size(); i++) {
+            VariableElement parameter = parameters.get(i);
+
+            if (model.bodyIndex < 0 && parameter.getAnnotationMirrors().stream().noneMatch(this::isRetainedAtRuntime)) {
+                model.bodyIndex = i;
+            }
+
+            RoutingKey routingKey = parameter.getAnnotation(RoutingKey.class);
+
+            if (routingKey != null) {
+                if (model.routingKeyIndex >= 0) {
+                    throw new IllegalArgumentException(String.format("Error building client for %s, cannot have more than one routing key", methodKey));
+                }
+
+                model.routingKeyIndex = i;
+                model.routingKeyExpander = expander(expanderType(routingKey::expander), type, methodKey);
+            }
+
+            Param param = parameter.getAnnotation(Param.class);
+
+            if (param == null) {
+                model.argumentSlots.add(-1);
+                model.expanders.add("null");
+                continue;
+            }
+
+            model.expanders.add(expander(expanderType(param::expander), type, methodKey));
+
+            int slot = model.slotNames.indexOf(param.value());
+
+            if (slot < 0) {
+                slot = model.slotNames.size();
+                model.slotNames.add(param.value());
+            }
+
+            model.argumentSlots.add(slot);
+        }
+
+        return model;
+    }
+
+    /**
+     * @return The type of a class valued annotation member, which can't be loaded as a class during compilation
+     */
+    private TypeElement expanderType(Supplier<Class<? extends Param.Expander>> member) {
+        try {
+            return processingEnv.getElementUtils().getTypeElement(member.get().getCanonicalName());
+        } catch (MirroredTypeException e) {
+            return (TypeElement) processingEnv.getTypeUtils().asElement(e.getTypeMirror());
+        }
+    }
+
+    /**
+     * @return Expression creating a new instance of the expander, which the generated class can construct directly
+     */
+    private String expander(TypeElement expander, TypeElement type, String methodKey) {
+        // the generated class is in the package of the annotated interface, which for inherited methods isn't the
+        // package the method is declared in
+        boolean samePackage = processingEnv.getElementUtils().getPackageOf(expander)
+                .equals(processingEnv.getElementUtils().getPackageOf(type));
+
+        boolean accessible = expander.getKind() == ElementKind.CLASS
+                && !expander.getModifiers().contains(Modifier.ABSTRACT)
+                && (expander.getNestingKind() != NestingKind.MEMBER || expander.getModifiers().contains(Modifier.STATIC));
+
+        for (Element element = expander; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            Set<Modifier> modifiers = element.getModifiers();
+
+            if (modifiers.contains(Modifier.PRIVATE) || (!samePackage && !modifiers.contains(Modifier.PUBLIC))) {
+                accessible = false;
+            }
+        }
+
+        boolean constructible = ElementFilter.constructorsIn(expander.getEnclosedElements()).stream()
+                .filter(constructor -> constructor.getParameters().isEmpty())
+                .anyMatch(constructor -> !constructor.getModifiers().contains(Modifier.PRIVATE)
+                        && (samePackage || constructor.getModifiers().contains(Modifier.PUBLIC)));
+
+        if (!accessible || !constructible) {
+            throw new IllegalArgumentException(String.format("Error building client for %s, expander %s must be a concrete class with an accessible no-arg constructor",
+                    methodKey, expander.getQualifiedName()));
+        }
+
+        return expander.getQualifiedName() + "::new";
+    }
+
+    private boolean isRetainedAtRuntime(AnnotationMirror mirror) {
+        Retention retention = mirror.getAnnotationType().asElement().getAnnotation(Retention.class);
+        return retention != null && retention.value() == RetentionPolicy.RUNTIME;
+    }
+
+    private List<String> headerValues(Element element) {
+        return Arrays.stream(element.getAnnotationsByType(Header.class))
+                .map(Header::value)
+                .collect(Collectors.toList());
+    }
+
+    private String methodKey(ExecutableElement method, ExecutableType methodType) {
+        return method.getEnclosingElement().getSimpleName() + "." + method.getSimpleName() + methodType.getParameterTypes().stream()
+                .map(type -> processingEnv.getTypeUtils().erasure(type).toString())
+                .map(name -> name.substring(name.lastIndexOf('.') + 1))
+                .collect(Collectors.joining(", ", "(", ")"));
+    }
+
+    private List<String> erasedParameterTypes(ExecutableType methodType) {
+        return methodType.getParameterTypes().stream()
+                .map(type -> processingEnv.getTypeUtils().erasure(type).toString())
+                .collect(Collectors.toList());
+    }
+
+    private void write(TypeElement type, String binaryName, List<MethodModel> methods) {
+        String qualifiedName = ScreechDefinition.nameFor(binaryName);
+        int index = qualifiedName.lastIndexOf('.');
+        String packageName = index == -1 ? null : qualifiedName.substring(0, index);
+        String simpleName = qualifiedName.substring(index + 1);
+        String interfaceName = type.getQualifiedName().toString();
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, type);
+
+            try (Writer writer = file.openWriter(); PrintWriter out = new PrintWriter(writer)) {
+
+                if (packageName != null) {
+                    out.printf("package %s;%n%n", packageName);
+                }
+
+                out.printf("@java.lang.SuppressWarnings({\"unchecked\", \"rawtypes\"})%n");
+                out.printf("public final class %s implements zone.gryphon.screech.ScreechDefinition<%s> {%n%n", simpleName, interfaceName);
+
+                writeDefinitions(out, methods);
+
+                out.printf("    @java.lang.Override%n");
+                out.printf("    public java.util.List<zone.gryphon.screech.model.MethodDefinition> getMethods() {%n");
+                out.printf("        return METHODS;%n");
+                out.printf("    }%n%n");
+
+                out.printf("    @java.lang.Override%n");
+                out.printf("    public %s create(java.lang.reflect.Method[] methods, java.lang.reflect.InvocationHandler[] handlers) {%n", interfaceName);
+                out.printf("        return new Impl(methods, handlers);%n");
+                out.printf("    }%n%n");
+
+                writeImplementation(out, interfaceName, methods);
+
+                out.printf("}%n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format("Failed to write %s: %s", qualifiedName, e), type);
+        }
+    }
+
+    private void writeDefinitions(PrintWriter out, List<MethodModel> methods) {
+        out.printf("    private static final java.util.List<zone.gryphon.screech.model.MethodDefinition> METHODS = java.util.Collections.unmodifiableList(java.util.Arrays.asList(%n");
+
+        for (int i = 0; i < methods.size(); i++) {
+            MethodModel method = methods.get(i);
+
+            out.printf("            zone.gryphon.screech.model.MethodDefinition.builder()%n");
+            out.printf("                    .name(%s)%n", literal(method.element.getSimpleName().toString()));
+            out.printf("                    .parameterTypes(java.util.Arrays.<java.lang.Class<?>>asList(%s))%n", erasedParameterTypes(method.type).stream()
+                    .map(name -> name + ".class")
+                    .collect(Collectors.joining(", ")));
+            out.printf("                    .httpMethod(%s)%n", literal(method.httpMethod));
+            out.printf("                    .path(%s)%n", literal(method.path));
+            out.printf("                    .queryParams(%s)%n", params(method.queryParams));
+            out.printf("                    .headerParams(%s)%n", params(method.headerParams));
+            out.printf("                    .compiled(zone.gryphon.screech.model.CompiledMethod.builder()%n");
+            out.printf("                            .slotNames(%s)%n", list("java.lang.String", method.slotNames.stream().map(ScreechProcessor::literal)));
+            out.printf("                            .argumentSlots(%s)%n", list("java.lang.Integer", method.argumentSlots.stream().map(String::valueOf)));
+            out.printf("                            .expanders(%s)%n", list(EXPANDER_SUPPLIER, method.expanders.stream()));
+            out.printf("                            .bodyIndex(%d)%n", method.bodyIndex);
+            out.printf("                            .routingKeyIndex(%d)%n", method.routingKeyIndex);
+            out.printf("                            .routingKeyExpander(%s)%n", method.routingKeyExpander);
+            out.printf("                            .path(%s)%n", template(method.path, method.slotNames));
+            out.printf("                            .queryKeys(%s)%n", templates(method.queryParams.stream().map(HttpParam::getKey), method.slotNames));
+            out.printf("                            .queryValues(%s)%n", templates(method.queryParams.stream().map(HttpParam::getValue), method.slotNames));
+            out.printf("                            .headerKeys(%s)%n", templates(method.headerParams.stream().map(HttpParam::getKey), method.slotNames));
+            out.printf("                            .headerValues(%s)%n", templates(method.headerParams.stream().map(HttpParam::getValue), method.slotNames));
+            out.printf("                            .build())%n");
+            out.printf("                    .build()%s%n", i < methods.size() - 1 ? "," : "");
+        }
+
+        out.printf("    ));%n%n");
+    }
+
+    private void writeImplementation(PrintWriter out, String interfaceName, List<MethodModel> methods) {
+        out.printf("    private static final class Impl extends zone.gryphon.screech.internal.AbstractGeneratedScreech implements %s {%n%n", interfaceName);
+
+        out.printf("        private Impl(java.lang.reflect.Method[] methods, java.lang.reflect.InvocationHandler[] handlers) {%n");
+        out.printf("            super(methods, handlers);%n");
+        out.printf("        }%n");
+
+        for (int i = 0; i < methods.size(); i++) {
+            MethodModel method = methods.get(i);
+            List<? extends TypeMirror> parameterTypes = method.type.getParameterTypes();
+            TypeMirror returnType = method.type.getReturnType();
+
+            List<String> parameters = new ArrayList<>();
+            List<String> arguments = new ArrayList<>();
+
+            for (int j = 0; j < parameterTypes.size(); j++) {
+                String parameterType = method.element.isVarArgs() && j == parameterTypes.size() - 1
+                        ? ((ArrayType) parameterTypes.get(j)).getComponentType() + "..."
+                        : parameterTypes.get(j).toString();
+
+                parameters.add(parameterType + " arg" + j);
+                arguments.add("arg" + j);
+            }
+
+            // mirror java.lang.reflect.Proxy, which passes null rather than an empty array
+            String invocation = String.format("invoke(%d, %s)", i, arguments.isEmpty()
+                    ? "null"
+                    : arguments.stream().collect(Collectors.joining(", ", "new java.lang.Object[]{", "}")));
+
+            out.printf("%n");
+            out.printf("        @java.lang.Override%n");
+            out.printf("        public %s %s(%s) {%n", returnType, method.element.getSimpleName(), String.join(", ", parameters));
+
+            if (returnType.getKind() == TypeKind.VOID) {
+                out.printf("            %s;%n", invocation);
+            } else if (returnType.getKind().isPrimitive()) {
+                TypeElement boxed = processingEnv.getTypeUtils().boxedClass(processingEnv.getTypeUtils().getPrimitiveType(returnType.getKind()));
+                out.printf("            return (%s) %s;%n", boxed.getQualifiedName(), invocation);
+            } else {
+                out.printf("            return (%s) %s;%n", returnType, invocation);
+            }
+
+            out.printf("        }%n");
+        }
+
+        out.printf("    }%n");
+    }
+
+    private static String list(String type, Stream<String> elements) {
+        List<String> values = elements.collect(Collectors.toList());
+
+        // a lone null would be taken as a null varargs array
+        if (values.size() == 1) {
+            return String.format("java.util.Collections.<%s>singletonList(%s)", type, values.get(0));
+        }
+
+        return values.stream().collect(Collectors.joining(", ", "java.util.Arrays.<" + type + ">asList(", ")"));
+    }
+
+    private static String templates(Stream<String> templates, List<String> slotNames) {
+        return list(INTERPOLATOR, templates.map(template -> template == null ? "null" : template(template, slotNames)));
+    }
+
+    /**
+     * @return Expression creating the template compiled against the given slots, see IndexedStringInterpolator
+     */
+    private static String template(String template, List<String> slotNames) {
+        IndexedStringInterpolator compiled = IndexedStringInterpolator.of(template, slotNames::indexOf);
+
+        return String.format("%s.of(%s, new java.lang.String[]{%s}, new int[]{%s}, new java.lang.String[]{%s})",
+                INTERPOLATOR,
+                literal(template),
+                Arrays.stream(compiled.getParts()).map(ScreechProcessor::literal).collect(Collectors.joining(", ")),
+                Arrays.stream(compiled.getSlots()).mapToObj(String::valueOf).collect(Collectors.joining(", ")),
+                Arrays.stream(compiled.getParameterNames()).map(ScreechProcessor::literal).collect(Collectors.joining(", ")));
+    }
+
+    private String params(List<HttpParam> params) {
+        return params.stream()
+                .map(param -> String.format("new zone.gryphon.screech.model.HttpParam(%s, %s)", literal(param.getKey()), literal(param.getValue())))
+                .collect(Collectors.joining(", ", "java.util.Arrays.<zone.gryphon.screech.model.HttpParam>asList(", ")"));
+    }
+
+    private static String literal(String value) {
+
+        if (value == null) {
+            return "null";
+        }
+
+        StringBuilder builder = new StringBuilder("\"");
+
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+
+        return builder.append('"').toString();
+    }
+
+    private void warn(TypeElement type, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                String.format("Not generating implementation of %s, %s", type.getQualifiedName(), reason), type);
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2019-2019 Gryphon Zone
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package zone.gryphon.screech.processor;
+
+import org.junit.Test;
+import zone.gryphon.screech.Client;
+import zone.gryphon.screech.Header;
+import zone.gryphon.screech.Param;
+import zone.gryphon.screech.RequestLine;
+import zone.gryphon.screech.RoutingKey;
+import zone.gryphon.screech.ScreechBuilder;
+import zone.gryphon.screech.ScreechDefinition;
+import zone.gryphon.screech.internal.GeneratedScreech;
+import zone.gryphon.screech.internal.RequestPlan;
+import zone.gryphon.screech.model.CompiledMethod;
+import zone.gryphon.screech.model.HttpParam;
+import zone.gryphon.screech.model.MethodDefinition;
+import zone.gryphon.screech.model.ResponseHeaders;
+import zone.gryphon.screech.model.SerializedRequest;
+import zone.gryphon.screech.util.HardCodedTarget;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScreechProcessorTest {
+
+    @Header("X-Base: base")
+    public interface BaseInterface {
+
+        @RequestLine("GET /base?foo={foo}")
+        String inherited(@Param("foo") String foo);
+
+    }
+
+    public interface TestInterface extends BaseInterface {
+
+        @RequestLine("GET /target/{id}")
+        CompletableFuture<String> asyncGET(@Param("id") long id);
+
+        @RequestLine("POST /target")
+        @Header("Content-Type: text/plain")
+        String syncPOST(String body);
+
+        @RequestLine("DELETE /target/{id}")
+        void delete(@Param("id") int id);
+
+        @RequestLine("GET /expanded/{id}")
+        @Header("X-Id: {id}")
+        String expanded(@RoutingKey(expander = HexExpander.class) @Param(value = "id", expander = HexExpander.class) int id);
+
+    }
+
+    public static class HexExpander implements Param.Expander {
+
+        @Override
+        public <T> String expand(T input) {
+            return Integer.toHexString((Integer) input);
+        }
+    }
+
+    private static class MockClient implements Client {
+
+        @Override
+        public void request(SerializedRequest request, ClientCallback callback) {
+            String response;
+
+            if (request.getRequestBody() != null) {
+                response = new String(request.getRequestBody().getBody().array(), UTF_8);
+            } else {
+                response = request.getUri().getPath() + request.getQueryParams().stream()
+                        .map(param -> param.getKey() + "=" + param.getValue())
+                        .collect(Collectors.joining("&", "?", ""));
+
+                if (request.getRoutingKey() != null) {
+                    response += "#" + request.getRoutingKey();
+                }
+            }
+
+            callback.headers(ResponseHeaders.builder().status(200).build()).content(ByteBuffer.wrap(response.getBytes(UTF_8)));
+            callback.complete();
+        }
+    }
+
+    private static JavaFileObject source(String className, String source) {
+        return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+    }
+
+    private TestInterface build(String target) {
+        return new ScreechBuilder(new MockClient()).build(TestInterface.class, new HardCodedTarget(target));
+    }
+
+    @Test
+    public void testDefinitionGenerated() {
+        assertThat(GeneratedScreech.find(TestInterface.class)).isPresent();
+        assertThat(GeneratedScreech.find(BaseInterface.class)).isPresent();
+
+        MethodDefinition inherited = GeneratedScreech.find(TestInterface.class).get().getMethodDefinitions().values().stream()
+                .filter(definition -> definition.getName().equals("inherited"))
+                .findAny()
+                .orElseThrow(AssertionError::new);
+
+        assertThat(inherited.getHttpMethod()).isEqualTo("GET");
+        assertThat(inherited.getPath()).isEqualTo("/base");
+        assertThat(inherited.getQueryParams()).containsExactly(new HttpParam("foo", "{foo}"));
+        assertThat(inherited.getHeaderParams()).containsExactly(new HttpParam("X-Base", "base"));
+    }
+
+    @Test
+    public void testDefinitionCompiled() {
+        MethodDefinition expanded = GeneratedScreech.find(TestInterface.class).get().getMethodDefinitions().values().stream()
+                .filter(definition -> definition.getName().equals("expanded"))
+                .findAny()
+                .orElseThrow(AssertionError::new);
+
+        CompiledMethod compiled = expanded.getCompiled();
+
+        assertThat(compiled).isNotNull();
+        assertThat(compiled.getSlotNames()).containsExactly("id");
+        assertThat(compiled.getArgumentSlots()).containsExactly(0);
+        assertThat(compiled.getBodyIndex()).isEqualTo(-1);
+        assertThat(compiled.getRoutingKeyIndex()).isEqualTo(0);
+        assertThat(compiled.getPath().getParts()).containsExactly("/expanded/", null);
+        assertThat(compiled.getPath().getSlots()).containsExactly(-1, 0);
+
+        RequestPlan plan = RequestPlan.of("expanded", expanded);
+        SerializedRequest request = plan.serialize(plan.bind("http://localhost", new Object[]{255}), null);
+
+        assertThat(request.getUri()).isEqualTo(URI.create("http://localhost/expanded/ff"));
+        assertThat(request.getHeaders()).containsExactly(new HttpParam("X-Id", "ff"));
+        assertThat(request.getRoutingKey()).isEqualTo("ff");
+    }
+
+    @Test(timeout = 5000)
+    public void testInvocation() throws Exception {
+        TestInterface test = build("http://localhost");
+
+        assertThat(Proxy.isProxyClass(test.getClass())).isFalse();
+        assertThat(test.getClass().getName()).isEqualTo(ScreechDefinition.nameFor(TestInterface.class) + "$Impl");
+
+        assertThat(test.asyncGET(1L).get()).isEqualTo("/target/1?");
+        assertThat(test.syncPOST("foo")).isEqualTo("foo");
+        assertThat(test.inherited("bar")).isEqualTo("/base?foo=bar");
+
+        test.delete(2);
+
+        assertThat(test.expanded(255)).isEqualTo("/expanded/ff?#ff");
+    }
+
+    @Test
+    @SuppressWarnings({"ConstantConditions", "EqualsWithItself"})
+    public void testStandardObjectMethods() {
+        TestInterface test = build("http://localhost");
+        TestInterface test2 = build("http://localhost:8080");
+
+        assertThat(test.toString()).isNotNull();
+        assertThat(test.hashCode()).isNotEqualTo(0);
+
+        assertThat(test.equals(null)).isFalse();
+        assertThat(test.equals(new Object())).isFalse();
+        assertThat(test.equals(test)).isTrue();
+        assertThat(test.equals(test2)).isFalse();
+    }
+
+    @Test
+    public void testInheritedMethodWithExpanderOnlyVisibleToItsPackage() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        File output = Files.createTempDirectory("screech-processor").toFile();
+
+        List<JavaFileObject> sources = Arrays.asList(
+                source("base.Base", "package base;\n"
+                        + "public interface Base {\n"
+                        + "    @zone.gryphon.screech.RequestLine(\"GET /{id}\")\n"
+                        + "    String get(@zone.gryphon.screech.Param(value = \"id\", expander = Hidden.class) int id);\n"
+                        + "}\n"),
+                source("base.Hidden", "package base;\n"
+                        + "class Hidden implements zone.gryphon.screech.Param.Expander {\n"
+                        + "    public <T> String expand(T input) { return String.valueOf(input); }\n"
+                        + "}\n"),
+                source("sub.Sub", "package sub;\n"
+                        + "public interface Sub extends base.Base {\n"
+                        + "    @zone.gryphon.screech.RequestLine(\"GET /sub\")\n"
+                        + "    String sub();\n"
+                        + "}\n"));
+
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+                Arrays.asList("-d", output.getPath(), "-classpath", System.getProperty("java.class.path")), null, sources);
+
+        task.setProcessors(Collections.singletonList(new ScreechProcessor()));
+
+        assertThat(task.call()).isFalse();
+
+        // the expander is rejected for the subinterface, rather than generating code which doesn't compile
+        List<String> errors = diagnostics.getDiagnostics().stream()
+                .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                .map(diagnostic -> diagnostic.getMessage(null))
+                .collect(Collectors.toList());
+
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0)).contains("expander base.Hidden must be a concrete class with an accessible no-arg constructor");
+    }
+}
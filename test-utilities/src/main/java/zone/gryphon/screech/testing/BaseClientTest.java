@@ -24,6 +24,7 @@ import lombok.extern.slf4j.Slf4j;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -50,11 +51,17 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -438,6 +445,109 @@ public abstract class BaseClientTest {
         }
     }
 
+    @Test(timeout = 10000)
+    public void testCancel() throws Throwable {
+        CompletableFuture<CompleteResponse> future = new CompletableFuture<>();
+        AtomicReference<Runnable> cancel = new AtomicReference<>();
+
+        // the body would take far longer than the test allows
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(tracingBody()).setBodyDelay(1, TimeUnit.MINUTES));
+
+        client.request(request("GET", "/foo/bar"), callback(future, cancel));
+
+        assertThat(getRequest().getPath()).isEqualTo("/foo/bar");
+
+        while (cancel.get() == null) {
+            Thread.sleep(10);
+        }
+
+        // clients may abort the request on the cancelling thread, which mustn't be the thread which sent it
+        CompletableFuture.runAsync(cancel.get());
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            failBecauseExceptionWasNotThrown(ExecutionException.class);
+        } catch (ExecutionException | CancellationException e) {
+            // expected, get() throws CancellationException as-is if the client aborts with one
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBackpressure() throws Throwable {
+        CompletableFuture<Void> completed = new CompletableFuture<>();
+        BlockingQueue<Runnable> demands = new LinkedBlockingQueue<>();
+        AtomicBoolean awaitingDemand = new AtomicBoolean();
+        AtomicInteger received = new AtomicInteger();
+
+        // large enough that it can't all be buffered by the sockets and the client's first read
+        byte[] body = new byte[16 * 1024 * 1024];
+        Arrays.fill(body, (byte) 'x');
+
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(new Buffer().write(body)));
+
+        client.request(request("GET", "/foo/bar"), new Client.ClientCallback() {
+
+            @Override
+            public Client.ContentCallback headers(ResponseHeaders responseHeaders) {
+                return new Client.ContentCallback() {
+
+                    @Override
+                    public void content(ByteBuffer content) {
+                        completed.completeExceptionally(new AssertionError("Content was delivered without demand"));
+                    }
+
+                    @Override
+                    public void content(ByteBuffer content, Runnable demand) {
+
+                        if (!awaitingDemand.compareAndSet(false, true)) {
+                            completed.completeExceptionally(new AssertionError("Content was delivered before it was demanded"));
+                        }
+
+                        received.addAndGet(content.remaining());
+
+                        demands.add(() -> {
+                            awaitingDemand.set(false);
+                            demand.run();
+                        });
+                    }
+                };
+            }
+
+            @Override
+            public void abort(Throwable t) {
+                completed.completeExceptionally(t);
+            }
+
+            @Override
+            public void complete() {
+                completed.complete(null);
+            }
+        });
+
+        Runnable first = demands.take();
+
+        // the client shouldn't read the rest of the response while the consumer is busy
+        Thread.sleep(200);
+
+        assertThat(received.get()).isLessThan(body.length);
+        assertThat(demands).isEmpty();
+
+        // demand everything else from another thread, as a slow consumer would
+        CompletableFuture.runAsync(first);
+
+        while (!completed.isDone()) {
+            Runnable demand = demands.poll(10, TimeUnit.MILLISECONDS);
+
+            if (demand != null) {
+                CompletableFuture.runAsync(demand);
+            }
+        }
+
+        completed.get();
+
+        assertThat(received.get()).isEqualTo(body.length);
+    }
+
     private String tracingBody() {
         return tracingBody(UUID.randomUUID().toString());
     }
@@ -572,6 +682,10 @@ public abstract class BaseClientTest {
 
 
     private Client.ClientCallback callback(CompletableFuture<CompleteResponse> future) {
+        return callback(future, new AtomicReference<>());
+    }
+
+    private Client.ClientCallback callback(CompletableFuture<CompleteResponse> future, AtomicReference<Runnable> cancel) {
 
         // since client is async, calls should never happen on the original thread
         final long originalThreadId = Thread.currentThread().getId();
@@ -636,6 +750,11 @@ public abstract class BaseClientTest {
                     future.completeExceptionally(e);
                 }
             }
+
+            @Override
+            public void onCancel(Runnable abort) {
+                cancel.set(abort);
+            }
         };
     }
 }